@@ -0,0 +1,131 @@
+package io.ionic.starter;
+
+import android.app.WallpaperManager;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.util.Log;
+
+/**
+ * Recuerda qué imagen aplicó el plugin en cada pantalla, para no volver a escribir la misma.
+ *
+ * Por pantalla se guarda la clave aplicada (SHA-1 del contenido, ajuste y tamaño deseado) y los
+ * ids que WallpaperManager asignó tras escribirla. Si otra app o el usuario cambian el fondo,
+ * el id cambia y la clave deja de valer. Sin getWallpaperId (antes de Android 7.0) no se puede
+ * comprobar y siempre se escribe.
+ */
+final class AppliedWallpapers {
+
+    private static final String TAG = "AppliedWallpapers";
+
+    private static final String PREFS = "wallpaper_applied";
+
+    /**
+     * Ids que WallpaperManager tiene ahora en {principal, bloqueo}, o null si no se pueden leer.
+     */
+    interface WallpaperIds {
+        int[] current();
+    }
+
+    private final SharedPreferences prefs;
+    private final WallpaperIds wallpaperIds;
+
+    AppliedWallpapers(Context context) {
+        this(context, systemIds(context.getApplicationContext()));
+    }
+
+    AppliedWallpapers(Context context, WallpaperIds wallpaperIds) {
+        this.prefs = context.getApplicationContext().getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+        this.wallpaperIds = wallpaperIds;
+    }
+
+    /**
+     * Clave de una imagen aplicada: el mismo contenido con otro recorte o para otro tamaño es
+     * otro wallpaper.
+     */
+    static String key(String digest, CropPlanner.Request request, int width, int height) {
+        return BitmapMemoryCache.renderKey("sha1:" + digest, request, width, height);
+    }
+
+    /**
+     * De las pantallas de which, las que no muestran ya la imagen con esta clave.
+     */
+    synchronized int pending(int which, String key) {
+        if (key == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+            return which;
+        }
+        int[] ids = wallpaperIds.current();
+        if (ids == null) {
+            return which;
+        }
+        int pending = 0;
+        for (int flag : new int[] { WallpaperManager.FLAG_SYSTEM, WallpaperManager.FLAG_LOCK }) {
+            if ((which & flag) != 0 && !matches(flag, key, ids)) {
+                pending |= flag;
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * Registra la clave en las pantallas recién escritas, con los ids que tienen ahora.
+     */
+    synchronized void record(int which, String key) {
+        if (key == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+            return;
+        }
+        int[] ids = wallpaperIds.current();
+        SharedPreferences.Editor editor = prefs.edit();
+        for (int flag : new int[] { WallpaperManager.FLAG_SYSTEM, WallpaperManager.FLAG_LOCK }) {
+            if ((which & flag) == 0) {
+                continue;
+            }
+            if (ids == null) {
+                editor.remove(name(flag) + ".key");
+            } else {
+                editor.putString(name(flag) + ".key", key)
+                    .putInt(name(flag) + ".systemId", ids[0])
+                    .putInt(name(flag) + ".lockId", ids[1]);
+            }
+        }
+        editor.apply();
+    }
+
+    /**
+     * La pantalla de bloqueo sin fondo propio (id -1) muestra el de la principal, así que en
+     * ese caso también tiene que seguir igual el id de la principal.
+     */
+    private boolean matches(int flag, String key, int[] ids) {
+        String prefix = name(flag);
+        if (!key.equals(prefs.getString(prefix + ".key", null))) {
+            return false;
+        }
+        int systemId = prefs.getInt(prefix + ".systemId", Integer.MIN_VALUE);
+        int lockId = prefs.getInt(prefix + ".lockId", Integer.MIN_VALUE);
+        if (flag == WallpaperManager.FLAG_SYSTEM) {
+            return ids[0] == systemId;
+        }
+        return ids[1] == lockId && (lockId >= 0 || ids[0] == systemId);
+    }
+
+    private static WallpaperIds systemIds(Context context) {
+        return () -> readIds(context);
+    }
+
+    private static int[] readIds(Context context) {
+        try {
+            WallpaperManager wallpaperManager = WallpaperManager.getInstance(context);
+            return new int[] {
+                wallpaperManager.getWallpaperId(WallpaperManager.FLAG_SYSTEM),
+                wallpaperManager.getWallpaperId(WallpaperManager.FLAG_LOCK)
+            };
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Could not read wallpaper ids", e);
+            return null;
+        }
+    }
+
+    private static String name(int flag) {
+        return flag == WallpaperManager.FLAG_LOCK ? "lock" : "system";
+    }
+}
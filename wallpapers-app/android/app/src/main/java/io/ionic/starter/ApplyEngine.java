@@ -0,0 +1,824 @@
+package io.ionic.starter;
+
+import android.app.WallpaperManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Base64;
+import android.util.Log;
+import com.getcapacitor.JSObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Motor único de aplicación de wallpapers, construido con fases explícitas:
+ *
+ * - source: variante a descargar según red y dispositivo (SourceSelector), su clave de
+ *   contenido y, si ya está preparada, la imagen en memoria.
+ * - fetch: bytes comprimidos desde la red (con caché en disco), el Base64 o una subida.
+ * - probe: encabezado, plan de recorte y si las pantallas ya muestran ese contenido.
+ * - admit: reserva en MemoryBudget la memoria de pico estimada; espera, reduce o falla.
+ * - decode y transform: decodificación al tamaño exacto del plan, o los bytes tal cual.
+ * - commit: escritura en WallpaperManager, solo en las pantallas que la necesitan.
+ *
+ * fetch, decode y commit corren en sus carriles de WallpaperExecutor, así las operaciones
+ * avanzan en cadena: la descarga de una se solapa con la decodificación de la anterior. Las
+ * llamadas set*, commit y applyBatch del plugin y la precarga son solo entradas a este motor.
+ */
+final class ApplyEngine {
+
+    private static final String TAG = "ApplyEngine";
+    static final String POLICY_DISALLOWED = "Wallpaper changes are disabled by a device policy";
+
+    /**
+     * Fallo de una fase, con el mensaje que recibe JS.
+     */
+    static final class StageException extends Exception {
+        StageException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Origen de una aplicación: URL, payload Base64 o subida por trozos ya terminada. key
+     * identifica el contenido en la caché en memoria. Una URL puede traer otras resoluciones
+     * de la misma imagen entre las que elige SourceSelector.
+     */
+    static final class Source {
+        final String imageUrl;
+        final String base64Image;
+        final ImageUploadStore.Completed upload;
+        final String key;
+        final List<SourceSelector.Variant> variants;
+        // Si este origen es una variante elegida, el pedido, al que se vuelve si la variante falla
+        final Source original;
+
+        private Source(String imageUrl, String base64Image, ImageUploadStore.Completed upload, String key,
+                       List<SourceSelector.Variant> variants, Source original) {
+            this.imageUrl = imageUrl;
+            this.base64Image = base64Image;
+            this.upload = upload;
+            this.key = key;
+            this.variants = variants;
+            this.original = original;
+        }
+
+        private Source(String imageUrl, String base64Image, ImageUploadStore.Completed upload, String key) {
+            this(imageUrl, base64Image, upload, key, Collections.emptyList(), null);
+        }
+
+        /**
+         * Origen de una llamada o de una entrada de lote; el Base64 tiene preferencia.
+         */
+        static Source of(String imageUrl, String base64Image) {
+            if (imageUrl == null && base64Image == null) {
+                throw new IllegalArgumentException("Must provide either imageUrl or base64Image");
+            }
+            if (base64Image != null && !base64Image.trim().isEmpty()) {
+                return new Source(null, base64Image, null, BitmapMemoryCache.base64Key(base64Image));
+            }
+            if (imageUrl != null && !imageUrl.trim().isEmpty()) {
+                return new Source(imageUrl, null, null, BitmapMemoryCache.urlKey(imageUrl));
+            }
+            throw new IllegalArgumentException("Invalid image data provided");
+        }
+
+        static Source upload(ImageUploadStore.Completed upload) {
+            return new Source(null, null, upload, upload.sourceKey);
+        }
+
+        /**
+         * El mismo origen con las resoluciones alternativas que ofrece quien llama.
+         */
+        Source withVariants(List<SourceSelector.Variant> variants) {
+            if (imageUrl == null || variants.isEmpty()) {
+                return this;
+            }
+            return new Source(imageUrl, null, null, key, variants, null);
+        }
+
+        /**
+         * La variante en url, con su propia clave: una versión reducida no debe servirse
+         * desde la caché en memoria cuando se pida el original.
+         */
+        Source variant(String url) {
+            return new Source(url, null, null, BitmapMemoryCache.urlKey(url), Collections.emptyList(), this);
+        }
+
+        String failureMessage() {
+            if (upload != null) {
+                return "Could not read uploaded image";
+            }
+            return base64Image != null ? "Failed to decode base64 image" : "Failed to download image from URL";
+        }
+    }
+
+    /**
+     * Resultado de probe: la imagen comprimida, sus dimensiones y el plan para el tamaño deseado.
+     * downscaled indica que el plan se redujo para caber en el presupuesto de memoria.
+     */
+    static final class Probe {
+        final EncodedImage encoded;
+        final int width;
+        final int height;
+        final int desiredWidth;
+        final int desiredHeight;
+        final CropPlanner.Plan plan;
+        final String digest;
+        final boolean downscaled;
+
+        Probe(EncodedImage encoded, int width, int height, int desiredWidth, int desiredHeight, CropPlanner.Plan plan,
+              String digest, boolean downscaled) {
+            this.encoded = encoded;
+            this.width = width;
+            this.height = height;
+            this.desiredWidth = desiredWidth;
+            this.desiredHeight = desiredHeight;
+            this.plan = plan;
+            this.digest = digest;
+            this.downscaled = downscaled;
+        }
+
+        /**
+         * El mismo probe con la salida reducida según la reserva admitida.
+         */
+        Probe admitted(MemoryBudget.Reservation reservation) {
+            if (reservation == null || reservation.scale >= 1f) {
+                return this;
+            }
+            return new Probe(encoded, width, height, desiredWidth, desiredHeight, plan.scaled(reservation.scale), digest, true);
+        }
+    }
+
+    private final Context context;
+    private final WallpaperExecutor executor;
+    private final WallpaperMetrics metrics;
+    private final BitmapMemoryCache memoryCache;
+    private final BitmapPool bitmapPool;
+    private final BitmapDecoder decoder;
+    private final ImageDownloader downloader;
+    private final SourceSelector selector;
+    private final AppliedWallpapers appliedWallpapers;
+    private final MemoryBudget budget;
+
+    ApplyEngine(Context context, WallpaperExecutor executor, WallpaperMetrics metrics, BitmapMemoryCache memoryCache,
+                BitmapPool bitmapPool, BitmapDecoder decoder, ImageDownloader downloader, SourceSelector selector,
+                AppliedWallpapers appliedWallpapers, MemoryBudget budget) {
+        this.context = context.getApplicationContext();
+        this.executor = executor;
+        this.metrics = metrics;
+        this.memoryCache = memoryCache;
+        this.bitmapPool = bitmapPool;
+        this.decoder = decoder;
+        this.downloader = downloader;
+        this.selector = selector;
+        this.appliedWallpapers = appliedWallpapers;
+        this.budget = budget;
+    }
+
+    /**
+     * Aplica una imagen en las pantallas de which. target (home, lock o both) solo se usa en
+     * los mensajes. Una subida se borra al terminar, se haya aplicado o no.
+     */
+    JSObject apply(Source source, CropPlanner.Request request, int which, String target) throws InterruptedException {
+        MemoryBudget.Reservation reservation = null;
+        ImageDiskCache.Pin pin = null;
+        try {
+            DeviceCapabilities capabilities = DeviceCapabilities.get(context);
+            if ((which & WallpaperManager.FLAG_SYSTEM) == 0 && !capabilities.lockScreenSupported) {
+                return WallpaperPlugin.result(false, "Lock screen wallpaper requires Android 7.0 (API 24) or higher");
+            }
+            WallpaperManager wallpaperManager = WallpaperManager.getInstance(context);
+            if (!capabilities.wallpaperSupported) {
+                return WallpaperPlugin.result(false, "Wallpaper not supported on this device");
+            }
+            if (!capabilities.setWallpaperAllowed) {
+                return WallpaperPlugin.result(false, POLICY_DISALLOWED);
+            }
+
+            // Fases source → fetch → probe → admit → decode/transform. Elegir puede sondear el
+            // original por red, así que va por el carril de red como la descarga
+            Source selected = executor.fetch(() -> selector.select(source, request));
+            pin = pin(selected);
+            PreparedImage image = cached(selected, request);
+            if (image != null) {
+                if (appliedWallpapers.pending(which, appliedKey(image.digest, request)) == 0) {
+                    return alreadyApplied(target);
+                }
+            } else {
+                if (selected.imageUrl != null) {
+                    WallpaperExecutor.progress("downloading");
+                }
+                EncodedImage encoded = executor.fetch(() -> fetch(selected));
+                WallpaperExecutor.throwIfCancelled();
+                Probe probe = probe(encoded, request);
+                if (appliedWallpapers.pending(which, appliedKey(probe.digest, request)) == 0) {
+                    // Ya está en todas las pantallas pedidas: no se decodifica nada
+                    return alreadyApplied(target);
+                }
+                reservation = admit(probe, request);
+                Probe admitted = probe.admitted(reservation);
+                WallpaperExecutor.progress("decoding");
+                image = executor.decode(() -> render(selected.key, admitted, request));
+            }
+            WallpaperExecutor.throwIfCancelled();
+            WallpaperExecutor.progress("committing");
+
+            PreparedImage prepared = image;
+            if (executor.commit(() -> commit(wallpaperManager, prepared, which, request)) == 0) {
+                return alreadyApplied(target);
+            }
+            return WallpaperPlugin.result(true, successMessage(target));
+
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (StageException e) {
+            return WallpaperPlugin.result(false, e.getMessage());
+        } catch (SecurityException e) {
+            Log.e(TAG, "Security error setting " + target + " wallpaper", e);
+            return WallpaperPlugin.result(false, "Permission denied: " + e.getMessage());
+        } catch (Exception e) {
+            Log.e(TAG, "Error setting " + target + " wallpaper", e);
+            return WallpaperPlugin.result(false, "Error setting wallpaper: " + e.getMessage());
+        } finally {
+            if (reservation != null) {
+                reservation.close();
+            }
+            if (pin != null) {
+                pin.close();
+            }
+            if (source.upload != null) {
+                // Tras la escritura el archivo ya no hace falta: setStream lo leyó o el bitmap está en memoria
+                source.upload.file.delete();
+            }
+        }
+    }
+
+    /**
+     * Aplica un lote. Cada origen distinto se descarga una vez y cada recorte distinto se
+     * decodifica una vez, en paralelo por los carriles, y las escrituras van en el orden recibido.
+     * Las reservas de memoria de cada recorte se mantienen hasta la última escritura.
+     */
+    JSObject applyBatch(WallpaperBatch batch) throws Exception {
+        try {
+            return applyBatchAdmitted(batch);
+        } finally {
+            for (WallpaperBatch.Render render : batch.renders) {
+                if (render.reservation != null) {
+                    render.reservation.close();
+                }
+            }
+            for (WallpaperBatch.Source source : batch.sources) {
+                if (source.pin != null) {
+                    source.pin.close();
+                }
+            }
+        }
+    }
+
+    private JSObject applyBatchAdmitted(WallpaperBatch batch) throws Exception {
+        DeviceCapabilities capabilities = DeviceCapabilities.get(context);
+        if (!capabilities.wallpaperSupported) {
+            return WallpaperPlugin.result(false, "Wallpaper not supported on this device");
+        }
+        if (!capabilities.setWallpaperAllowed) {
+            return WallpaperPlugin.result(false, POLICY_DISALLOWED);
+        }
+        WallpaperManager wallpaperManager = WallpaperManager.getInstance(context);
+
+        for (WallpaperBatch.Source source : batch.sources) {
+            List<CropPlanner.Request> requests = new ArrayList<>();
+            for (WallpaperBatch.Render render : batch.renders) {
+                if (render.source == source) {
+                    requests.add(render.request);
+                }
+            }
+            source.origin = executor.fetch(() -> selector.select(source.origin, requests));
+            source.pin = pin(source.origin);
+        }
+        // Las imágenes ya decodificadas en memoria no necesitan descarga
+        for (WallpaperBatch.Render render : batch.renders) {
+            render.image = cached(render.source.origin, render.request);
+        }
+
+        List<WallpaperBatch.Source> toFetch = new ArrayList<>();
+        for (WallpaperBatch.Render render : batch.renders) {
+            if (render.image == null && !toFetch.contains(render.source)) {
+                toFetch.add(render.source);
+            }
+        }
+        List<Callable<Void>> fetches = new ArrayList<>();
+        for (WallpaperBatch.Source source : toFetch) {
+            fetches.add(() -> {
+                long start = SystemClock.elapsedRealtime();
+                try {
+                    source.encoded = executor.fetch(() -> fetch(source.origin));
+                } catch (StageException e) {
+                    source.error = e.getMessage();
+                }
+                source.fetchMs = SystemClock.elapsedRealtime() - start;
+                return null;
+            });
+        }
+        if (!fetches.isEmpty()) {
+            WallpaperExecutor.progress("downloading");
+        }
+        executor.invokeAll(fetches);
+        WallpaperExecutor.throwIfCancelled();
+
+        List<Callable<Void>> decodes = new ArrayList<>();
+        for (WallpaperBatch.Render render : batch.renders) {
+            if (render.image != null) {
+                continue;
+            }
+            if (render.source.encoded == null) {
+                render.error = render.source.error != null ? render.source.error : render.source.origin.failureMessage();
+                continue;
+            }
+            decodes.add(() -> {
+                long start = SystemClock.elapsedRealtime();
+                try {
+                    Probe probe = probe(render.source.encoded, render.request);
+                    render.reservation = admit(probe, render.request);
+                    Probe admitted = probe.admitted(render.reservation);
+                    render.image = executor.decode(() -> render(render.source.origin.key, admitted, render.request));
+                } catch (StageException e) {
+                    render.error = e.getMessage();
+                }
+                render.decodeMs = SystemClock.elapsedRealtime() - start;
+                return null;
+            });
+        }
+        if (!decodes.isEmpty()) {
+            WallpaperExecutor.progress("decoding");
+        }
+        executor.invokeAll(decodes);
+        WallpaperExecutor.throwIfCancelled();
+        WallpaperExecutor.progress("committing");
+
+        // Escribir en orden; entradas contiguas con el mismo origen y recorte se escriben juntas
+        for (List<WallpaperBatch.Item> group : batch.commitGroups()) {
+            WallpaperBatch.Item first = group.get(0);
+            PreparedImage image = first.render.image;
+            if (image == null) {
+                for (WallpaperBatch.Item item : group) {
+                    item.message = first.render.error;
+                }
+                continue;
+            }
+            int which = 0;
+            for (WallpaperBatch.Item item : group) {
+                which |= item.flag;
+            }
+            int flags = which;
+            String appliedKey = appliedKey(image.digest, first.render.request);
+            long start = SystemClock.elapsedRealtime();
+            try {
+                int written = executor.commit(() -> writeIfChanged(wallpaperManager, image, flags, appliedKey));
+                long commitMs = SystemClock.elapsedRealtime() - start;
+                for (WallpaperBatch.Item item : group) {
+                    item.success = true;
+                    item.commitMs = commitMs;
+                    if ((written & item.flag) == 0) {
+                        item.skipped = true;
+                        item.message = "Wallpaper already applied to " + item.target + " screen";
+                    } else {
+                        item.message = "Wallpaper set successfully for " + item.target + " screen";
+                    }
+                }
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                Log.e(TAG, "Error applying batch item " + first.index, e);
+                for (WallpaperBatch.Item item : group) {
+                    item.message = (e instanceof SecurityException ? "Permission denied: " : "Error setting wallpaper: ") + e.getMessage();
+                }
+            }
+        }
+
+        for (WallpaperBatch.Render render : batch.renders) {
+            if (render.image != null && !render.image.isStream()) {
+                release(render.image.bitmap);
+            }
+        }
+        return batch.toResult();
+    }
+
+    /**
+     * Precarga de una URL en el hilo de ImagePrefetcher, sin pasar por los carriles para no
+     * competir con las aplicaciones reales: la deja en la caché en disco y, si request no es
+     * null, preparada en la caché en memoria con la misma clave que usará la aplicación. Solo
+     * se decodifica si cabe ahora mismo en el presupuesto de memoria; si no, se deja en disco.
+     */
+    void prefetch(String imageUrl, CropPlanner.Request request) throws Exception {
+        // La misma elección que hará la aplicación, para que encuentre lo precargado
+        Source source = selector.select(Source.of(imageUrl, null), request);
+        try (ImageDiskCache.Pin ignored = pin(source)) {
+            prefetchPinned(source, request);
+        }
+    }
+
+    private void prefetchPinned(Source source, CropPlanner.Request request) throws Exception {
+        if (request != null && cached(source, request) != null) {
+            return;
+        }
+        EncodedImage encoded = fetch(source);
+        if (request == null) {
+            return;
+        }
+        WallpaperExecutor.throwIfCancelled();
+        Probe probe = probe(encoded, request);
+        MemoryBudget.Reservation reservation = null;
+        if (!probe.plan.needsNoScaling()) {
+            reservation = budget.tryAcquire(estimateBytes(probe, request));
+            if (reservation == null) {
+                WallpaperLog.debug(TAG, "Skipping prefetch decode, memory budget is in use");
+                return;
+            }
+        }
+        try {
+            PreparedImage image = render(source.key, probe, request);
+            if (!image.isStream()) {
+                // Si no entró en la caché en memoria no le sirve a nadie
+                release(image.bitmap);
+            }
+        } finally {
+            if (reservation != null) {
+                reservation.close();
+            }
+        }
+    }
+
+    /**
+     * Fase source: la imagen ya preparada en memoria para este origen, recorte y tamaño.
+     */
+    private PreparedImage cached(Source source, CropPlanner.Request request) {
+        int[] size = DeviceCapabilities.get(context).desiredSize();
+        PreparedImage cached = memoryCache.get(BitmapMemoryCache.renderKey(source.key, request, size[0], size[1]));
+        if (cached != null) {
+            metrics.memoryCacheHits.incrementAndGet();
+            WallpaperLog.debug(TAG, "Decoded bitmap served from memory cache");
+        } else {
+            metrics.memoryCacheMisses.incrementAndGet();
+        }
+        return cached;
+    }
+
+    /**
+     * Fase fetch: los bytes comprimidos del origen.
+     */
+    private EncodedImage fetch(Source source) throws StageException, InterruptedException {
+        long start = WallpaperMetrics.now();
+        try {
+            EncodedImage encoded;
+            if (source.upload != null) {
+                encoded = EncodedImage.of(source.upload.file, source.upload.digest);
+            } else if (source.base64Image != null) {
+                encoded = decodeBase64Payload(source.base64Image);
+            } else if (source.original != null) {
+                encoded = downloadVariant(source);
+            } else {
+                encoded = download(source.imageUrl);
+            }
+            if (encoded == null) {
+                throw new StageException(source.failureMessage());
+            }
+            return encoded;
+        } finally {
+            metrics.fetch.recordSince(start);
+        }
+    }
+
+    /**
+     * Fase probe: dimensiones del encabezado, plan de recorte para el tamaño deseado y SHA-1
+     * del contenido para saber si ya está aplicado.
+     */
+    private Probe probe(EncodedImage encoded, CropPlanner.Request request) throws StageException {
+        long start = WallpaperMetrics.now();
+        try {
+            int[] bounds = encoded.readBounds();
+            if (bounds[0] <= 0 || bounds[1] <= 0) {
+                Log.e(TAG, "Could not read image bounds");
+                throw new StageException("Failed to decode image");
+            }
+            DeviceCapabilities capabilities = DeviceCapabilities.get(context);
+            int[] desired = capabilities.desiredSize();
+            int[] screen = capabilities.screenSize();
+            CropPlanner.Plan plan = CropPlanner.plan(bounds[0], bounds[1], request, desired[0], desired[1], screen[0], screen[1]);
+            return new Probe(encoded, bounds[0], bounds[1], desired[0], desired[1], plan, digestOf(encoded), false);
+        } finally {
+            metrics.probe.recordSince(start);
+        }
+    }
+
+    /**
+     * Fase admit: reserva en el presupuesto la memoria de pico que necesitará decodificar probe.
+     * Devuelve null si no hay que decodificar. Una reserva reducida se aplica con Probe.admitted;
+     * si no cabe ni reducida, la operación falla en lugar de arriesgar un OutOfMemoryError.
+     */
+    private MemoryBudget.Reservation admit(Probe probe, CropPlanner.Request request) throws StageException, InterruptedException {
+        if (probe.plan.needsNoScaling()) {
+            return null;
+        }
+        long bytes = estimateBytes(probe, request);
+        long start = WallpaperMetrics.now();
+        MemoryBudget.Reservation reservation;
+        try {
+            reservation = budget.acquire(bytes);
+        } finally {
+            metrics.admissionWait.recordSince(start);
+        }
+        if (reservation == null) {
+            metrics.admissionRejected.incrementAndGet();
+            Log.w(TAG, "Decode of " + bytes + " bytes does not fit the memory budget of " + budget.capacity + " bytes");
+            throw new StageException("Not enough memory to decode image");
+        }
+        if (reservation.scale < 1f) {
+            metrics.admissionDownscaled.incrementAndGet();
+            Log.w(TAG, "Memory budget exhausted, decoding at " + Math.round(reservation.scale * 100) + "% resolution");
+        }
+        return reservation;
+    }
+
+    private long estimateBytes(Probe probe, CropPlanner.Request request) {
+        return decoder.estimateBytes(probe.encoded, probe.plan, probe.width, probe.height, BitmapDecoder.Policy.forSystem(request));
+    }
+
+    /**
+     * Fases decode y transform. Si la región no hay que reducirla, los bytes originales van a
+     * setStream con su crop hint; si no, se decodifica solo lo necesario al tamaño exacto y el
+     * bitmap queda en la caché en memoria.
+     */
+    private PreparedImage render(String sourceKey, Probe probe, CropPlanner.Request request) throws StageException, InterruptedException {
+        CropPlanner.Plan plan = probe.plan;
+        if (plan.needsNoScaling()) {
+            WallpaperLog.debug(TAG, "Image " + probe.width + "x" + probe.height + " fits the device, streaming without decode");
+            return PreparedImage.stream(probe.encoded, probe.width, probe.height, plan.sourceCropHint(probe.width, probe.height), probe.digest);
+        }
+
+        Bitmap bitmap;
+        try {
+            bitmap = decoder.decode(probe.encoded, plan, probe.width, probe.height, BitmapDecoder.Policy.forSystem(request));
+        } catch (OutOfMemoryError e) {
+            Log.e(TAG, "Out of memory while decoding image", e);
+            throw new StageException("Not enough memory to decode image");
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Error decoding image", e);
+            throw new StageException("Failed to decode image");
+        }
+        if (bitmap == null) {
+            // El decodificador devuelve null también si la operación se canceló a mitad
+            WallpaperExecutor.throwIfCancelled();
+            Log.e(TAG, "Failed to decode bitmap");
+            throw new StageException("Failed to decode image");
+        }
+
+        metrics.recordBitmap(bitmap.getAllocationByteCount());
+        WallpaperLog.debug(TAG, "Prepared " + request.mode.value + " bitmap " + bitmap.getWidth() + "x" + bitmap.getHeight()
+            + " " + bitmap.getConfig() + " from region " + plan.sourceRegion.toShortString());
+        if (probe.downscaled) {
+            // Sin digest no cuenta como aplicada ni entra en la caché: la próxima vez se intenta completa
+            return PreparedImage.decoded(bitmap, plan.visibleCropHint, null);
+        }
+        PreparedImage image = PreparedImage.decoded(bitmap, plan.visibleCropHint, probe.digest);
+        memoryCache.put(BitmapMemoryCache.renderKey(sourceKey, request, probe.desiredWidth, probe.desiredHeight), image);
+        return image;
+    }
+
+    /**
+     * Fase commit: entrega la imagen a WallpaperManager en las pantallas que aún no la muestran
+     * y devuelve el bitmap al pool. Antes de Android 7.0 no hay flags y solo se establece la
+     * pantalla principal. Devuelve las flags escritas, 0 si ya estaba aplicada.
+     */
+    private int commit(WallpaperManager wallpaperManager, PreparedImage image, int which, CropPlanner.Request request) throws IOException {
+        try {
+            return writeIfChanged(wallpaperManager, image, which, appliedKey(image.digest, request));
+        } finally {
+            if (!image.isStream()) {
+                release(image.bitmap);
+            }
+        }
+    }
+
+    /**
+     * Escribe la imagen solo en las pantallas de which que no la tienen ya y lo registra. Corre
+     * en el carril de escritura para que la comprobación y la escritura no se intercalen con otra.
+     */
+    private int writeIfChanged(WallpaperManager wallpaperManager, PreparedImage image, int which, String appliedKey) throws IOException {
+        int pending = appliedWallpapers.pending(which, appliedKey);
+        if (pending == 0) {
+            WallpaperLog.debug(TAG, "Wallpaper already applied, skipping write");
+            return 0;
+        }
+        writeImage(wallpaperManager, image, pending);
+        appliedWallpapers.record(pending, appliedKey);
+        return pending;
+    }
+
+    /**
+     * Escribe la imagen sin liberarla, para poder reutilizarla en otra pantalla. Si no hubo que
+     * decodificarla se pasan los bytes originales a setStream; si no, se usa setBitmap.
+     */
+    private void writeImage(WallpaperManager wallpaperManager, PreparedImage image, int which) throws IOException {
+        Rect visibleCropHint = image.visibleCropHint;
+        long start = WallpaperMetrics.now();
+        if (image.isStream()) {
+            try (InputStream input = image.openStream()) {
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+                    wallpaperManager.setStream(input, visibleCropHint, true, which);
+                } else {
+                    wallpaperManager.setStream(input);
+                }
+            }
+        } else {
+            writeBitmap(wallpaperManager, image.bitmap, visibleCropHint, which);
+        }
+        metrics.commit.recordSince(start);
+    }
+
+    /**
+     * setBitmap comprime los píxeles dentro del proceso. Si no acepta un bitmap HARDWARE se
+     * reintenta con una copia de software y el decodificador deja de pedirlos.
+     */
+    private void writeBitmap(WallpaperManager wallpaperManager, Bitmap bitmap, Rect visibleCropHint, int which) throws IOException {
+        try {
+            setBitmap(wallpaperManager, bitmap, visibleCropHint, which);
+        } catch (RuntimeException e) {
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O || bitmap.getConfig() != Bitmap.Config.HARDWARE) {
+                throw e;
+            }
+            Log.w(TAG, "setBitmap rejected a hardware bitmap, retrying with a software copy", e);
+            decoder.disableHardwareBitmaps();
+            Bitmap copy = bitmap.copy(Bitmap.Config.ARGB_8888, false);
+            if (copy == null) {
+                throw new IOException("Could not copy hardware bitmap", e);
+            }
+            try {
+                setBitmap(wallpaperManager, copy, visibleCropHint, which);
+            } finally {
+                copy.recycle();
+            }
+        }
+    }
+
+    private static void setBitmap(WallpaperManager wallpaperManager, Bitmap bitmap, Rect visibleCropHint, int which) throws IOException {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            wallpaperManager.setBitmap(bitmap, visibleCropHint, true, which);
+        } else {
+            wallpaperManager.setBitmap(bitmap);
+        }
+    }
+
+    /**
+     * Devuelve al pool un bitmap que WallpaperManager ya consumió, salvo que viva en la caché en memoria.
+     */
+    private void release(Bitmap bitmap) {
+        if (!memoryCache.owns(bitmap)) {
+            bitmapPool.put(bitmap);
+        }
+    }
+
+    private String appliedKey(String digest, CropPlanner.Request request) {
+        if (digest == null) {
+            return null;
+        }
+        int[] size = DeviceCapabilities.get(context).desiredSize();
+        return AppliedWallpapers.key(digest, request, size[0], size[1]);
+    }
+
+    private static JSObject alreadyApplied(String target) {
+        JSObject result = WallpaperPlugin.result(true, "Wallpaper already applied to " + target + " screen");
+        result.put("skipped", "alreadyApplied");
+        return result;
+    }
+
+    private static String successMessage(String target) {
+        if ("home".equals(target)) {
+            return "Home screen wallpaper set successfully";
+        }
+        if ("lock".equals(target)) {
+            return "Lock screen wallpaper set successfully";
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            return "Wallpaper set successfully for both home and lock screens";
+        }
+        return "Wallpaper set successfully for home screen (lock screen not supported on this Android version)";
+    }
+
+    private EncodedImage decodeBase64Payload(String base64String) {
+        long start = WallpaperMetrics.now();
+        try {
+            WallpaperLog.debug(TAG, "Decoding base64 image, length: " + base64String.length());
+
+            // Remove data URL prefix if present
+            if (base64String.startsWith("data:image")) {
+                WallpaperLog.debug(TAG, "Removing data URL prefix");
+                base64String = base64String.substring(base64String.indexOf(",") + 1);
+            }
+
+            // Validate base64 string
+            if (base64String.trim().isEmpty()) {
+                Log.e(TAG, "Base64 string is empty after processing");
+                return null;
+            }
+
+            byte[] decodedBytes = Base64.decode(base64String, Base64.DEFAULT);
+            metrics.base64Decode.recordSince(start);
+
+            if (decodedBytes == null || decodedBytes.length == 0) {
+                Log.e(TAG, "Failed to decode base64 - no bytes produced");
+                return null;
+            }
+
+            WallpaperLog.debug(TAG, "Decoded bytes length: " + decodedBytes.length);
+            metrics.base64Bytes.addAndGet(decodedBytes.length);
+            return EncodedImage.of(decodedBytes);
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Invalid base64 string", e);
+            return null;
+        } catch (OutOfMemoryError e) {
+            Log.e(TAG, "Out of memory while decoding base64 image", e);
+            return null;
+        }
+    }
+
+    private EncodedImage download(String imageUrl) throws InterruptedException {
+        try {
+            ImageDiskCache.Entry entry = downloader.fetch(imageUrl);
+            return entry != null ? EncodedImage.of(entry.file, entry.digest) : null;
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException("Download cancelled");
+            }
+            Log.e(TAG, "Error downloading image from URL: " + WallpaperLog.redact(imageUrl), e);
+            return null;
+        }
+    }
+
+    /**
+     * La variante que eligió SourceSelector o, si no se puede descargar, el original. El código
+     * HTTP del fallo le dice al selector si el endpoint de transformación está desactivado.
+     */
+    private EncodedImage downloadVariant(Source variant) throws InterruptedException {
+        int status = 0;
+        Exception error = null;
+        try {
+            ImageDiskCache.Entry entry = downloader.fetchOrThrow(variant.imageUrl);
+            return EncodedImage.of(entry.file, entry.digest);
+        } catch (ImageDownloader.HttpStatusException e) {
+            status = e.code;
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException("Download cancelled");
+            }
+            error = e;
+        }
+        Log.w(TAG, "Variant " + WallpaperLog.redact(variant.imageUrl) + " failed"
+            + (status != 0 ? " with HTTP " + status : "") + ", downloading the original", error);
+        selector.variantFailed(variant, status);
+        return download(variant.original.imageUrl);
+    }
+
+    /**
+     * Reserva en la caché en disco los archivos del origen hasta decodificarlos o escribirlos,
+     * para que el commit de otra descarga (una precarga, por ejemplo) no los expulse entre
+     * medias. Incluye el original, al que se vuelve si la variante falla.
+     */
+    private ImageDiskCache.Pin pin(Source source) {
+        if (source.imageUrl == null) {
+            return () -> { };
+        }
+        ImageDiskCache.Pin pin = downloader.pin(source.imageUrl);
+        if (source.original == null || source.original.imageUrl == null) {
+            return pin;
+        }
+        ImageDiskCache.Pin original = downloader.pin(source.original.imageUrl);
+        return () -> {
+            pin.close();
+            original.close();
+        };
+    }
+
+    /**
+     * SHA-1 del contenido, o null si no se puede leer: sin él simplemente no se deduplica.
+     */
+    private static String digestOf(EncodedImage encoded) {
+        try {
+            return encoded.digest();
+        } catch (IOException e) {
+            Log.w(TAG, "Could not hash image", e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,396 @@
+package io.ionic.starter;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.ImageDecoder;
+import android.graphics.Rect;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Decodificación por muestreo: primero lee solo las dimensiones del encabezado y luego
+ * decodifica directamente al tamaño que necesita el dispositivo, en lugar de decodificar
+ * la imagen completa y escalarla después.
+ *
+ * En Android 9+ ImageDecoder entrega el plan exacto (setTargetSize más setCrop) sin un bitmap
+ * intermedio, y si el resultado solo va a WallpaperManager los píxeles se reservan en memoria
+ * gráfica (HARDWARE) o compartida en lugar del heap de la app. Lo que decodifica en software
+ * lo pide mutable: ImageDecoder no reutiliza bitmaps, pero así su salida puede volver al pool
+ * para las decodificaciones con BitmapFactory y BitmapRegionDecoder, que sí lo hacen.
+ */
+final class BitmapDecoder {
+
+    private static final String TAG = "BitmapDecoder";
+
+    // Límite absoluto, igual al que usaba el plugin antes de decodificar por muestreo
+    static final int MAX_DIMENSION = 4096;
+
+    // Con ImageDecoder se decodifica la imagen entera muestreada para recortar después: solo
+    // compensa si la región es al menos esta fracción del original, si no va BitmapRegionDecoder
+    private static final float MIN_EXACT_REGION_FRACTION = 0.5f;
+
+    /**
+     * Cómo se decodifica una imagen concreta.
+     *
+     * systemOnly: el bitmap solo se entrega a WallpaperManager y nadie dibuja ni lee sus
+     * píxeles, así que puede no ser de software. reducedColor: las fuentes JPEG, que nunca
+     * tienen alfa, se decodifican en RGB_565 con la mitad de bytes por píxel.
+     */
+    static final class Policy {
+        static final Policy SOFTWARE = new Policy(false, false);
+
+        final boolean systemOnly;
+        final boolean reducedColor;
+
+        private Policy(boolean systemOnly, boolean reducedColor) {
+            this.systemOnly = systemOnly;
+            this.reducedColor = reducedColor;
+        }
+
+        /**
+         * Para un bitmap que solo recibirá WallpaperManager.
+         */
+        static Policy forSystem(CropPlanner.Request request) {
+            return new Policy(true, request.reducedColor);
+        }
+
+        /**
+         * Para un bitmap que se va a leer o comprimir en el propio proceso.
+         */
+        static Policy software(CropPlanner.Request request) {
+            return request.reducedColor ? new Policy(false, true) : SOFTWARE;
+        }
+    }
+
+    private final BitmapPool pool;
+    private final WallpaperMetrics metrics;
+    // Se apaga si WallpaperManager rechaza un bitmap HARDWARE; desde entonces, memoria compartida
+    private volatile boolean hardwareBitmaps;
+
+    BitmapDecoder(BitmapPool pool, WallpaperMetrics metrics) {
+        this(pool, metrics, false);
+    }
+
+    BitmapDecoder(BitmapPool pool, WallpaperMetrics metrics, boolean hardwareBitmaps) {
+        this.pool = pool;
+        this.metrics = metrics;
+        this.hardwareBitmaps = hardwareBitmaps;
+    }
+
+    /**
+     * Deja de usar bitmaps HARDWARE en las siguientes decodificaciones.
+     */
+    void disableHardwareBitmaps() {
+        if (hardwareBitmaps) {
+            Log.w(TAG, "Hardware bitmaps rejected, falling back to shared memory");
+            hardwareBitmaps = false;
+        }
+    }
+
+    /**
+     * Decodifica según el plan de recorte: la imagen completa o solo su región, entregando
+     * exactamente outWidth x outHeight.
+     */
+    Bitmap decode(EncodedImage image, CropPlanner.Plan plan, int sourceWidth, int sourceHeight) throws IOException {
+        return decode(image, plan, sourceWidth, sourceHeight, Policy.SOFTWARE);
+    }
+
+    Bitmap decode(EncodedImage image, CropPlanner.Plan plan, int sourceWidth, int sourceHeight, Policy policy) throws IOException {
+        long start = WallpaperMetrics.now();
+        Bitmap bitmap;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P && fitsExactDecode(plan, sourceWidth, sourceHeight)) {
+            bitmap = decodeExact(image, plan, sourceWidth, sourceHeight, policy);
+        } else if (plan.isFullImage(sourceWidth, sourceHeight)) {
+            bitmap = decode(image, plan.outWidth, plan.outHeight, policy);
+        } else {
+            bitmap = decodeRegion(image, plan, policy);
+        }
+        metrics.decode.recordSince(start);
+        if (bitmap != null && Thread.currentThread().isInterrupted()) {
+            // Operación cancelada durante la decodificación: no se escala un bitmap que nadie usará
+            pool.put(bitmap);
+            return null;
+        }
+        return scaleTo(bitmap, plan.outWidth, plan.outHeight);
+    }
+
+    /**
+     * Memoria de pico que necesitará decode con este plan, calculada solo con el encabezado:
+     * el bitmap intermedio muestreado, si el camino elegido lo usa, más la salida exacta.
+     */
+    long estimateBytes(EncodedImage image, CropPlanner.Plan plan, int sourceWidth, int sourceHeight, Policy policy) {
+        int bytesPerPixel = policy.reducedColor && image.isJpeg() ? 2 : 4;
+        long output = (long) plan.outWidth * plan.outHeight * bytesPerPixel;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P && fitsExactDecode(plan, sourceWidth, sourceHeight)) {
+            // Incluye la imagen completa: ImageDecoder entrega la salida sin intermedio
+            return output;
+        }
+        // BitmapFactory o BitmapRegionDecoder: la región muestreada y después la copia escalada
+        Rect region = plan.sourceRegion;
+        int sampleSize = calculateInSampleSize(region.width(), region.height(), plan.outWidth, plan.outHeight);
+        long intermediate = (long) ((region.width() + sampleSize - 1) / sampleSize)
+            * ((region.height() + sampleSize - 1) / sampleSize) * bytesPerPixel;
+        return intermediate + output;
+    }
+
+    /**
+     * Memoria de pico de decode(image, reqWidth, reqHeight), en software y ARGB_8888: la imagen
+     * muestreada más la copia escalada al tamaño pedido. Es una cota: con ImageDecoder el
+     * intermedio ya sale cerca del tamaño pedido.
+     */
+    static long estimateBytes(int sourceWidth, int sourceHeight, int reqWidth, int reqHeight) {
+        int sampleSize = calculateInSampleSize(sourceWidth, sourceHeight, reqWidth, reqHeight);
+        long sampled = (long) ((sourceWidth + sampleSize - 1) / sampleSize) * ((sourceHeight + sampleSize - 1) / sampleSize) * 4;
+        return sampled + (long) reqWidth * reqHeight * 4;
+    }
+
+    /**
+     * Decodifica la imagen completa para que cubra reqWidth x reqHeight sin pasarse
+     * de MAX_DIMENSION. Devuelve null si los bytes no son una imagen válida.
+     */
+    Bitmap decode(EncodedImage image, int reqWidth, int reqHeight) throws IOException {
+        return decode(image, reqWidth, reqHeight, Policy.SOFTWARE);
+    }
+
+    private Bitmap decode(EncodedImage image, int reqWidth, int reqHeight, Policy policy) throws IOException {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+            // Sigue pasando por scaleTo, que necesita leer los píxeles: siempre de software
+            return decodeWithImageDecoder(newSource(image), reqWidth, reqHeight, policy.reducedColor);
+        }
+        boolean reducedColor = policy.reducedColor && image.isJpeg();
+        if (image.file != null) {
+            String path = image.file.getAbsolutePath();
+            return decodeSampled(options -> BitmapFactory.decodeFile(path, options), reqWidth, reqHeight, reducedColor);
+        }
+        byte[] data = image.data;
+        return decodeSampled(options -> BitmapFactory.decodeByteArray(data, 0, data.length, options), reqWidth, reqHeight, reducedColor);
+    }
+
+    /**
+     * Si compensa entregar el plan directamente con ImageDecoder: la imagen completa o una
+     * región que ocupa buena parte de ella.
+     */
+    private static boolean fitsExactDecode(CropPlanner.Plan plan, int sourceWidth, int sourceHeight) {
+        Rect region = plan.sourceRegion;
+        return (float) region.width() * region.height() >= MIN_EXACT_REGION_FRACTION * sourceWidth * sourceHeight;
+    }
+
+    /**
+     * Decodifica con ImageDecoder directamente a outWidth x outHeight: la imagen se muestrea a
+     * la escala de la salida y se recorta la región, sin bitmap intermedio ni scaleTo. Como
+     * nadie toca ya los píxeles, el resultado para el sistema va a memoria gráfica o compartida.
+     */
+    private Bitmap decodeExact(EncodedImage image, CropPlanner.Plan plan, int sourceWidth, int sourceHeight, Policy policy)
+        throws IOException {
+        Rect region = plan.sourceRegion;
+        float scaleX = (float) plan.outWidth / region.width();
+        float scaleY = (float) plan.outHeight / region.height();
+        int targetWidth = Math.max(plan.outWidth, Math.round(sourceWidth * scaleX));
+        int targetHeight = Math.max(plan.outHeight, Math.round(sourceHeight * scaleY));
+        int left = Math.min(Math.round(region.left * scaleX), targetWidth - plan.outWidth);
+        int top = Math.min(Math.round(region.top * scaleY), targetHeight - plan.outHeight);
+        Rect crop = new Rect(left, top, left + plan.outWidth, top + plan.outHeight);
+        int allocator = allocatorFor(policy);
+
+        try {
+            Bitmap bitmap = ImageDecoder.decodeBitmap(newSource(image), (decoder, info, src) -> {
+                decoder.setTargetSize(targetWidth, targetHeight);
+                if (crop.width() != targetWidth || crop.height() != targetHeight) {
+                    decoder.setCrop(crop);
+                }
+                decoder.setAllocator(allocator);
+                if (allocator == ImageDecoder.ALLOCATOR_SOFTWARE) {
+                    // Inmutable, BitmapPool.put lo rechazaría
+                    decoder.setMutableRequired(true);
+                }
+                if (policy.reducedColor && "image/jpeg".equals(info.getMimeType())) {
+                    decoder.setMemorySizePolicy(ImageDecoder.MEMORY_POLICY_LOW_RAM);
+                }
+            });
+            WallpaperLog.debug(TAG, "Decoded " + sourceWidth + "x" + sourceHeight + " to " + bitmap.getWidth() + "x" + bitmap.getHeight()
+                + " " + bitmap.getConfig() + " with ImageDecoder");
+            return bitmap;
+        } catch (ImageDecoder.DecodeException e) {
+            Log.e(TAG, "ImageDecoder could not decode image", e);
+            return null;
+        }
+    }
+
+    private int allocatorFor(Policy policy) {
+        if (!policy.systemOnly) {
+            return ImageDecoder.ALLOCATOR_SOFTWARE;
+        }
+        return hardwareBitmaps ? ImageDecoder.ALLOCATOR_HARDWARE : ImageDecoder.ALLOCATOR_SHARED_MEMORY;
+    }
+
+    private static ImageDecoder.Source newSource(EncodedImage image) {
+        return image.file != null
+            ? ImageDecoder.createSource(image.file)
+            : ImageDecoder.createSource(ByteBuffer.wrap(image.data));
+    }
+
+    /**
+     * Decodifica solo la región del plan con BitmapRegionDecoder, muestreada al tamaño más
+     * cercano por encima de la salida. Los píxeles fuera de la región nunca se decodifican.
+     */
+    private Bitmap decodeRegion(EncodedImage image, CropPlanner.Plan plan, Policy policy) throws IOException {
+        Rect region = plan.sourceRegion;
+        boolean reducedColor = policy.reducedColor && image.isJpeg();
+        BitmapRegionDecoder regionDecoder = image.newRegionDecoder();
+        try {
+            BitmapFactory.Options options = decodeOptions(region.width(), region.height(), plan.outWidth, plan.outHeight, reducedColor);
+            Bitmap bitmap;
+            try {
+                bitmap = regionDecoder.decodeRegion(region, options);
+            } catch (IllegalArgumentException e) {
+                // El bitmap del pool no era compatible, decodificar en memoria nueva
+                if (options.inBitmap == null) {
+                    throw e;
+                }
+                options.inBitmap = null;
+                bitmap = regionDecoder.decodeRegion(region, options);
+            }
+            if (bitmap == null) {
+                Log.e(TAG, "BitmapRegionDecoder could not decode region " + region.toShortString());
+            }
+            return bitmap;
+        } finally {
+            regionDecoder.recycle();
+        }
+    }
+
+    /**
+     * Ajusta el bitmap al tamaño exacto de salida; el intermedio vuelve al pool.
+     */
+    private Bitmap scaleTo(Bitmap bitmap, int width, int height) {
+        if (bitmap == null || (bitmap.getWidth() == width && bitmap.getHeight() == height)) {
+            return bitmap;
+        }
+        long start = WallpaperMetrics.now();
+        Bitmap scaled = Bitmap.createScaledBitmap(bitmap, width, height, true);
+        if (scaled != bitmap) {
+            pool.put(bitmap);
+        }
+        metrics.scale.recordSince(start);
+        return scaled;
+    }
+
+    /**
+     * Origen re-legible para BitmapFactory: se lee una vez para el encabezado y otra para decodificar.
+     */
+    private interface FactorySource {
+        Bitmap decode(BitmapFactory.Options options);
+    }
+
+    private Bitmap decodeSampled(FactorySource source, int reqWidth, int reqHeight, boolean reducedColor) {
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        source.decode(bounds);
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+            Log.e(TAG, "Could not read image bounds");
+            return null;
+        }
+
+        BitmapFactory.Options options = decodeOptions(bounds.outWidth, bounds.outHeight, reqWidth, reqHeight, reducedColor);
+        Bitmap bitmap;
+        try {
+            bitmap = source.decode(options);
+        } catch (IllegalArgumentException e) {
+            // El bitmap del pool no era compatible, decodificar en memoria nueva
+            if (options.inBitmap == null) {
+                throw e;
+            }
+            options.inBitmap = null;
+            bitmap = source.decode(options);
+        }
+        return clampToMaxDimension(bitmap);
+    }
+
+    private BitmapFactory.Options decodeOptions(int width, int height, int reqWidth, int reqHeight, boolean reducedColor) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = calculateInSampleSize(width, height, reqWidth, reqHeight);
+        options.inPreferredConfig = reducedColor ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+        options.inMutable = true;
+
+        int sampledWidth = (width + options.inSampleSize - 1) / options.inSampleSize;
+        int sampledHeight = (height + options.inSampleSize - 1) / options.inSampleSize;
+        options.inBitmap = pool.get(sampledWidth, sampledHeight, options.inPreferredConfig);
+
+        WallpaperLog.debug(TAG, "Decoding " + width + "x" + height + " with inSampleSize " + options.inSampleSize
+            + (options.inBitmap != null ? " (reusing pooled bitmap)" : ""));
+        return options;
+    }
+
+    private Bitmap decodeWithImageDecoder(ImageDecoder.Source source, int reqWidth, int reqHeight, boolean reducedColor) throws IOException {
+        try {
+            Bitmap bitmap = ImageDecoder.decodeBitmap(source, (decoder, info, src) -> {
+                int width = info.getSize().getWidth();
+                int height = info.getSize().getHeight();
+                float scale = targetScale(width, height, reqWidth, reqHeight);
+                if (scale < 1f) {
+                    decoder.setTargetSize(Math.max(1, Math.round(width * scale)), Math.max(1, Math.round(height * scale)));
+                }
+                decoder.setAllocator(ImageDecoder.ALLOCATOR_SOFTWARE);
+                decoder.setMutableRequired(true);
+                if (reducedColor && "image/jpeg".equals(info.getMimeType())) {
+                    decoder.setMemorySizePolicy(ImageDecoder.MEMORY_POLICY_LOW_RAM);
+                }
+            });
+            WallpaperLog.debug(TAG, "Decoded with ImageDecoder to " + bitmap.getWidth() + "x" + bitmap.getHeight());
+            return bitmap;
+        } catch (ImageDecoder.DecodeException e) {
+            Log.e(TAG, "ImageDecoder could not decode image", e);
+            return null;
+        }
+    }
+
+    /**
+     * Mayor potencia de dos que mantiene ambos lados por encima del tamaño pedido,
+     * aumentada si hace falta para no exceder MAX_DIMENSION.
+     */
+    static int calculateInSampleSize(int width, int height, int reqWidth, int reqHeight) {
+        int inSampleSize = 1;
+        if (reqWidth > 0 && reqHeight > 0) {
+            while ((width / (inSampleSize * 2)) >= reqWidth && (height / (inSampleSize * 2)) >= reqHeight) {
+                inSampleSize *= 2;
+            }
+        }
+        while (width / inSampleSize > MAX_DIMENSION || height / inSampleSize > MAX_DIMENSION) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+
+    /**
+     * Escala (menor o igual a 1) para que la imagen cubra el tamaño pedido y respete MAX_DIMENSION.
+     */
+    static float targetScale(int width, int height, int reqWidth, int reqHeight) {
+        float scale = 1f;
+        if (reqWidth > 0 && reqHeight > 0) {
+            scale = Math.max((float) reqWidth / width, (float) reqHeight / height);
+        }
+        scale = Math.min(scale, Math.min((float) MAX_DIMENSION / width, (float) MAX_DIMENSION / height));
+        return Math.min(scale, 1f);
+    }
+
+    /**
+     * Reduce el bitmap si algún lado supera MAX_DIMENSION; el original vuelve al pool.
+     */
+    private Bitmap clampToMaxDimension(Bitmap bitmap) {
+        if (bitmap == null || (bitmap.getWidth() <= MAX_DIMENSION && bitmap.getHeight() <= MAX_DIMENSION)) {
+            return bitmap;
+        }
+        float scale = Math.min((float) MAX_DIMENSION / bitmap.getWidth(), (float) MAX_DIMENSION / bitmap.getHeight());
+        int newWidth = Math.round(bitmap.getWidth() * scale);
+        int newHeight = Math.round(bitmap.getHeight() * scale);
+        Bitmap scaled = Bitmap.createScaledBitmap(bitmap, newWidth, newHeight, true);
+        if (scaled != bitmap) {
+            pool.put(bitmap);
+        }
+        return scaled;
+    }
+}
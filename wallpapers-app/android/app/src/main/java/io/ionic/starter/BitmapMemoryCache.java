@@ -0,0 +1,142 @@
+package io.ionic.starter;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Caché en memoria de imágenes ya decodificadas, compartida por todo el proceso.
+ *
+ * La clave combina el origen de la imagen (URL o hash del Base64) con el recorte y el tamaño
+ * objetivo, así que aplicar la misma imagen a inicio y a bloqueo decodifica una sola vez.
+ * Se recorta sola cuando el sistema avisa de poca memoria.
+ */
+final class BitmapMemoryCache implements ComponentCallbacks2 {
+
+    private static final String TAG = "BitmapMemoryCache";
+
+    private static BitmapMemoryCache instance;
+
+    private final LruCache<String, PreparedImage> cache;
+    // Bitmaps que pasaron por la caché: otro worker puede estar usándolos, nunca van al BitmapPool
+    private final Set<Bitmap> owned = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+    static synchronized BitmapMemoryCache getInstance(Context context) {
+        if (instance == null) {
+            Context appContext = context.getApplicationContext();
+            ActivityManager activityManager = (ActivityManager) appContext.getSystemService(Context.ACTIVITY_SERVICE);
+            // Un octavo de la memoria disponible para la app
+            int maxBytes = activityManager.getMemoryClass() * 1024 * 1024 / 8;
+            instance = new BitmapMemoryCache(maxBytes);
+            appContext.registerComponentCallbacks(instance);
+        }
+        return instance;
+    }
+
+    private BitmapMemoryCache(int maxBytes) {
+        cache = new LruCache<String, PreparedImage>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, PreparedImage image) {
+                return image.bitmap.getAllocationByteCount();
+            }
+        };
+    }
+
+    PreparedImage get(String key) {
+        PreparedImage image = cache.get(key);
+        if (image != null && image.bitmap.isRecycled()) {
+            cache.remove(key);
+            return null;
+        }
+        return image;
+    }
+
+    /**
+     * Guarda una imagen decodificada si cabe en el presupuesto. Devuelve false si es demasiado grande.
+     */
+    boolean put(String key, PreparedImage image) {
+        if (image.isStream() || image.bitmap.getAllocationByteCount() > cache.maxSize()) {
+            return false;
+        }
+        owned.add(image.bitmap);
+        cache.put(key, image);
+        return true;
+    }
+
+    boolean owns(Bitmap bitmap) {
+        return owned.contains(bitmap);
+    }
+
+    void clear() {
+        cache.evictAll();
+    }
+
+    static String urlKey(String url) {
+        return "url:" + url;
+    }
+
+    /**
+     * Clave para un payload Base64. Se calcula por bloques para no copiar el String completo.
+     */
+    static String base64Key(String base64) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            int chunk = 64 * 1024;
+            for (int start = 0; start < base64.length(); start += chunk) {
+                int end = Math.min(base64.length(), start + chunk);
+                digest.update(base64.substring(start, end).getBytes(StandardCharsets.US_ASCII));
+            }
+            StringBuilder builder = new StringBuilder("b64:");
+            for (byte b : digest.digest()) {
+                builder.append(String.format("%02x", b));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return "b64:" + base64.length() + ":" + base64.hashCode();
+        }
+    }
+
+    /**
+     * Clave de una subida por trozos, a partir del SHA-1 de sus bytes.
+     */
+    static String uploadKey(String sha1Hex) {
+        return "upload:" + sha1Hex;
+    }
+
+    /**
+     * Clave de una imagen preparada: origen, recorte pedido y tamaño deseado del dispositivo.
+     */
+    static String renderKey(String sourceKey, CropPlanner.Request request, int width, int height) {
+        return sourceKey + "|" + request.key() + "@" + width + "x" + height;
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_MODERATE) {
+            WallpaperLog.debug(TAG, "Trim memory level " + level + ", clearing bitmap cache");
+            cache.evictAll();
+        } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            cache.trimToSize(cache.maxSize() / 2);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        cache.evictAll();
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+        // Sin cambios: el tamaño objetivo forma parte de la clave
+    }
+}
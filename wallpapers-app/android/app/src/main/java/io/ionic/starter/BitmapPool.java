@@ -0,0 +1,109 @@
+package io.ionic.starter;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Pool pequeño de bitmaps mutables para reutilizarlos con BitmapFactory.Options.inBitmap.
+ *
+ * Un bitmap vuelve al pool cuando WallpaperManager ya terminó de leerlo, de modo que la
+ * siguiente decodificación escribe sobre la misma memoria en lugar de reservar otro bloque.
+ */
+final class BitmapPool {
+
+    /**
+     * Un bitmap del pool con el tamaño que ocupaba al entrar: si alguien lo recicla después,
+     * getAllocationByteCount ya no sirve para descontarlo.
+     */
+    private static final class Pooled {
+        final Bitmap bitmap;
+        final int bytes;
+
+        Pooled(Bitmap bitmap, int bytes) {
+            this.bitmap = bitmap;
+            this.bytes = bytes;
+        }
+    }
+
+    private final long maxBytes;
+    private final ArrayDeque<Pooled> bitmaps = new ArrayDeque<>();
+    private long currentBytes;
+
+    BitmapPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Devuelve un bitmap con capacidad suficiente para width x height en el config dado,
+     * o null si no hay ninguno. El bitmap sale del pool.
+     */
+    synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        long needed = (long) width * height * bytesPerPixel(config);
+        Iterator<Pooled> iterator = bitmaps.iterator();
+        while (iterator.hasNext()) {
+            Pooled candidate = iterator.next();
+            if (candidate.bitmap.isRecycled()) {
+                iterator.remove();
+                currentBytes -= candidate.bytes;
+                continue;
+            }
+            if (candidate.bitmap.getConfig() == config && candidate.bytes >= needed) {
+                iterator.remove();
+                currentBytes -= candidate.bytes;
+                return candidate.bitmap;
+            }
+        }
+        return null;
+    }
+
+    synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()) {
+            return;
+        }
+        int size = bitmap.getAllocationByteCount();
+        if (size > maxBytes || contains(bitmap)) {
+            return;
+        }
+        bitmaps.addLast(new Pooled(bitmap, size));
+        currentBytes += size;
+        while (currentBytes > maxBytes && !bitmaps.isEmpty()) {
+            Pooled evicted = bitmaps.removeFirst();
+            currentBytes -= evicted.bytes;
+            evicted.bitmap.recycle();
+        }
+    }
+
+    synchronized void clear() {
+        for (Pooled pooled : bitmaps) {
+            pooled.bitmap.recycle();
+        }
+        bitmaps.clear();
+        currentBytes = 0;
+    }
+
+    private boolean contains(Bitmap bitmap) {
+        for (Pooled pooled : bitmaps) {
+            if (pooled.bitmap == bitmap) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static int bytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+            return 2;
+        }
+        if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        }
+        // RGBA_F16 no existe antes de API 26: compararlo antes haría fallar la carga de la constante
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && config == Bitmap.Config.RGBA_F16) {
+            return 8;
+        }
+        return 4;
+    }
+}
@@ -0,0 +1,281 @@
+package io.ionic.starter;
+
+import android.graphics.PointF;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+import org.json.JSONObject;
+
+/**
+ * Motor de recorte y ajuste: decide qué región de la imagen original se usa, a qué tamaño
+ * se entrega y qué parte queda visible, a partir del tamaño que pide el launcher y de la pantalla.
+ *
+ * Modos:
+ * - center-crop: llena el tamaño deseado recortando lo que sobra alrededor del punto focal.
+ * - fit: la imagen completa, reducida para caber en el tamaño deseado.
+ * - parallax: una franja más ancha que la pantalla para el desplazamiento del launcher;
+ *   la ventana visible inicial se marca con visibleCropHint.
+ * - crop: región indicada por quien llama, en fracciones de la imagen.
+ */
+final class CropPlanner {
+
+    enum Mode {
+        CENTER_CROP("center-crop"),
+        FIT("fit"),
+        PARALLAX("parallax"),
+        CROP("crop");
+
+        final String value;
+
+        Mode(String value) {
+            this.value = value;
+        }
+
+        static Mode from(String value) {
+            for (Mode mode : values()) {
+                if (mode.value.equals(value)) {
+                    return mode;
+                }
+            }
+            throw new IllegalArgumentException("Invalid fit mode '" + value + "'");
+        }
+    }
+
+    /**
+     * Lo que pide quien llama: modo, recorte explícito y punto focal (fracciones 0..1). Con
+     * reducedColor acepta RGB_565 para fuentes JPEG opacas (decodeQuality 'low'); cambia los
+     * píxeles entregados, por eso forma parte de la clave.
+     */
+    static final class Request {
+        static final Request DEFAULT = new Request(Mode.CENTER_CROP, null, new PointF(0.5f, 0.5f));
+
+        final Mode mode;
+        final RectF crop;
+        final PointF focalPoint;
+        final boolean reducedColor;
+
+        Request(Mode mode, RectF crop, PointF focalPoint) {
+            this(mode, crop, focalPoint, false);
+        }
+
+        Request(Mode mode, RectF crop, PointF focalPoint, boolean reducedColor) {
+            this.mode = mode;
+            this.crop = crop;
+            this.focalPoint = focalPoint;
+            this.reducedColor = reducedColor;
+        }
+
+        /**
+         * Lee fit, crop, focalPoint y decodeQuality de las opciones de una llamada o de una entrada de lote.
+         */
+        static Request from(JSONObject options) {
+            if (options == null) {
+                return DEFAULT;
+            }
+            RectF crop = parseCrop(options.optJSONObject("crop"));
+            Mode mode = crop != null ? Mode.CROP : Mode.from(options.optString("fit", Mode.CENTER_CROP.value));
+            if (mode == Mode.CROP && crop == null) {
+                throw new IllegalArgumentException("Fit mode 'crop' requires a crop rect");
+            }
+            PointF focalPoint = DEFAULT.focalPoint;
+            JSONObject focal = options.optJSONObject("focalPoint");
+            if (focal != null) {
+                focalPoint = new PointF(
+                    clamp((float) focal.optDouble("x", 0.5), 0f, 1f),
+                    clamp((float) focal.optDouble("y", 0.5), 0f, 1f)
+                );
+            }
+            String quality = options.optString("decodeQuality", "high");
+            if (!"high".equals(quality) && !"low".equals(quality)) {
+                throw new IllegalArgumentException("Invalid decodeQuality '" + quality + "'");
+            }
+            return new Request(mode, crop, focalPoint, "low".equals(quality));
+        }
+
+        String key() {
+            StringBuilder key = new StringBuilder(mode.value);
+            if (crop != null) {
+                key.append(':').append(crop.toShortString());
+            }
+            key.append('@').append(focalPoint.x).append(',').append(focalPoint.y);
+            if (reducedColor) {
+                key.append(":low");
+            }
+            return key.toString();
+        }
+
+        private static RectF parseCrop(JSONObject crop) {
+            if (crop == null) {
+                return null;
+            }
+            RectF rect = new RectF(
+                (float) crop.optDouble("left", 0),
+                (float) crop.optDouble("top", 0),
+                (float) crop.optDouble("right", 1),
+                (float) crop.optDouble("bottom", 1)
+            );
+            if (rect.left < 0 || rect.top < 0 || rect.right > 1 || rect.bottom > 1
+                || rect.left >= rect.right || rect.top >= rect.bottom) {
+                throw new IllegalArgumentException("Invalid crop, expected fractions between 0 and 1");
+            }
+            return rect;
+        }
+    }
+
+    /**
+     * Resultado: región de la imagen original, tamaño de salida y ventana visible en la salida.
+     */
+    static final class Plan {
+        final Rect sourceRegion;
+        final int outWidth;
+        final int outHeight;
+        // En coordenadas de la salida; null si toda la salida es visible
+        final Rect visibleCropHint;
+
+        Plan(Rect sourceRegion, int outWidth, int outHeight, Rect visibleCropHint) {
+            this.sourceRegion = sourceRegion;
+            this.outWidth = outWidth;
+            this.outHeight = outHeight;
+            this.visibleCropHint = visibleCropHint;
+        }
+
+        boolean isFullImage(int sourceWidth, int sourceHeight) {
+            return sourceRegion.left == 0 && sourceRegion.top == 0
+                && sourceRegion.width() == sourceWidth && sourceRegion.height() == sourceHeight;
+        }
+
+        /**
+         * True si la región no hay que reducirla: basta con entregar los bytes originales y
+         * marcar la región con visibleCropHint.
+         */
+        boolean needsNoScaling() {
+            return outWidth >= sourceRegion.width() && outHeight >= sourceRegion.height();
+        }
+
+        /**
+         * Ventana visible expresada sobre la imagen original, para setStream sin decodificar.
+         */
+        Rect sourceCropHint(int sourceWidth, int sourceHeight) {
+            if (visibleCropHint == null) {
+                return isFullImage(sourceWidth, sourceHeight) ? null : new Rect(sourceRegion);
+            }
+            float scaleX = (float) sourceRegion.width() / outWidth;
+            float scaleY = (float) sourceRegion.height() / outHeight;
+            return new Rect(
+                sourceRegion.left + Math.round(visibleCropHint.left * scaleX),
+                sourceRegion.top + Math.round(visibleCropHint.top * scaleY),
+                sourceRegion.left + Math.round(visibleCropHint.right * scaleX),
+                sourceRegion.top + Math.round(visibleCropHint.bottom * scaleY)
+            );
+        }
+
+        /**
+         * El mismo recorte entregado a una salida reducida por factor (entre 0 y 1), para
+         * cuando la decodificación completa no cabe en memoria.
+         */
+        Plan scaled(float factor) {
+            if (factor >= 1f) {
+                return this;
+            }
+            int width = Math.max(1, Math.round(outWidth * factor));
+            int height = Math.max(1, Math.round(outHeight * factor));
+            Rect hint = null;
+            if (visibleCropHint != null) {
+                hint = new Rect(
+                    Math.round(visibleCropHint.left * factor),
+                    Math.round(visibleCropHint.top * factor),
+                    Math.min(width, Math.round(visibleCropHint.right * factor)),
+                    Math.min(height, Math.round(visibleCropHint.bottom * factor))
+                );
+            }
+            return new Plan(new Rect(sourceRegion), width, height, hint);
+        }
+    }
+
+    private CropPlanner() {}
+
+    /**
+     * Calcula el plan para una imagen de sourceWidth x sourceHeight. desired es el tamaño que
+     * pide el launcher y screen el de la pantalla en vertical. Nunca amplía la imagen.
+     */
+    static Plan plan(int sourceWidth, int sourceHeight, Request request,
+                     int desiredWidth, int desiredHeight, int screenWidth, int screenHeight) {
+        switch (request.mode) {
+            case FIT: {
+                float scale = Math.min(1f, Math.min((float) desiredWidth / sourceWidth, (float) desiredHeight / sourceHeight));
+                return new Plan(
+                    new Rect(0, 0, sourceWidth, sourceHeight),
+                    Math.max(1, Math.round(sourceWidth * scale)),
+                    Math.max(1, Math.round(sourceHeight * scale)),
+                    null
+                );
+            }
+            case CROP: {
+                // Un recorte de menos de un píxel redondearía a una región vacía: como mínimo 1 px
+                int left = Math.min(sourceWidth - 1, Math.round(request.crop.left * sourceWidth));
+                int top = Math.min(sourceHeight - 1, Math.round(request.crop.top * sourceHeight));
+                Rect region = new Rect(
+                    left,
+                    top,
+                    Math.max(left + 1, Math.min(sourceWidth, Math.round(request.crop.right * sourceWidth))),
+                    Math.max(top + 1, Math.min(sourceHeight, Math.round(request.crop.bottom * sourceHeight)))
+                );
+                // La región elegida debe cubrir la pantalla
+                float scale = Math.min(1f, Math.max((float) screenWidth / region.width(), (float) screenHeight / region.height()));
+                return new Plan(region,
+                    Math.max(1, Math.round(region.width() * scale)),
+                    Math.max(1, Math.round(region.height() * scale)),
+                    null);
+            }
+            case PARALLAX: {
+                // Franja de hasta el doble del ancho de pantalla (o lo que pida el launcher), sin
+                // recortar en vertical si la imagen no es tan ancha
+                int targetHeight = Math.max(desiredHeight, screenHeight);
+                float screenAspect = (float) screenWidth / screenHeight;
+                float maxAspect = (float) Math.max(desiredWidth, screenWidth * 2) / targetHeight;
+                float aspect = clamp((float) sourceWidth / sourceHeight, screenAspect, maxAspect);
+                int targetWidth = Math.round(targetHeight * aspect);
+                Plan plan = coverPlan(sourceWidth, sourceHeight, targetWidth, targetHeight, request.focalPoint);
+                Rect window = window(plan.outWidth, plan.outHeight, screenAspect, request.focalPoint);
+                return new Plan(plan.sourceRegion, plan.outWidth, plan.outHeight, window);
+            }
+            case CENTER_CROP:
+            default:
+                return coverPlan(sourceWidth, sourceHeight, desiredWidth, desiredHeight, request.focalPoint);
+        }
+    }
+
+    /**
+     * Región máxima con la proporción del objetivo, centrada en el punto focal, reducida al objetivo.
+     */
+    private static Plan coverPlan(int sourceWidth, int sourceHeight, int targetWidth, int targetHeight, PointF focal) {
+        float targetAspect = (float) targetWidth / targetHeight;
+        Rect region = window(sourceWidth, sourceHeight, targetAspect, focal);
+        float scale = Math.min(1f, (float) targetWidth / region.width());
+        return new Plan(region,
+            Math.max(1, Math.round(region.width() * scale)),
+            Math.max(1, Math.round(region.height() * scale)),
+            null);
+    }
+
+    /**
+     * Mayor rectángulo con la proporción dada dentro de width x height, centrado en el punto focal.
+     */
+    static Rect window(int width, int height, float aspect, PointF focal) {
+        int windowWidth = width;
+        int windowHeight = Math.round(width / aspect);
+        if (windowHeight > height) {
+            windowHeight = height;
+            windowWidth = Math.round(height * aspect);
+        }
+        windowWidth = Math.max(1, Math.min(windowWidth, width));
+        windowHeight = Math.max(1, Math.min(windowHeight, height));
+        int left = Math.round(clamp(focal.x * width - windowWidth / 2f, 0, width - windowWidth));
+        int top = Math.round(clamp(focal.y * height - windowHeight / 2f, 0, height - windowHeight));
+        return new Rect(left, top, left + windowWidth, top + windowHeight);
+    }
+
+    private static float clamp(float value, float min, float max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
@@ -0,0 +1,118 @@
+package io.ionic.starter;
+
+import android.Manifest;
+import android.app.ActivityManager;
+import android.app.WallpaperManager;
+import android.content.ComponentCallbacks;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.res.Configuration;
+import android.os.Build;
+import android.util.DisplayMetrics;
+import androidx.core.content.ContextCompat;
+
+/**
+ * Foto de lo que el dispositivo permite: soporte de wallpaper y de pantalla de bloqueo, si una
+ * política impide cambiarlo, tamaño que pide el launcher, pantalla, si es de poca RAM y estado
+ * de los permisos.
+ *
+ * Se toma una vez por proceso y se vuelve a tomar al volver a la app (handleOnResume) o tras
+ * pedir permisos; un cambio de configuración solo la invalida. Así checkPermissions y cada
+ * aplicación leen campos en lugar de consultar WallpaperManager y PackageManager otra vez.
+ */
+final class DeviceCapabilities {
+
+    private static volatile DeviceCapabilities current;
+    private static boolean callbacksRegistered;
+
+    final boolean wallpaperSupported;
+    // Falso si una política del dispositivo impide cambiar el wallpaper (Android 7.0+)
+    final boolean setWallpaperAllowed;
+    final boolean lockScreenSupported;
+    final boolean hasSetWallpaperPermission;
+    final boolean hasMediaPermission;
+    final boolean lowRamDevice;
+    final int desiredWidth;
+    final int desiredHeight;
+    // Pantalla física en vertical
+    final int screenWidth;
+    final int screenHeight;
+
+    private DeviceCapabilities(Context context) {
+        WallpaperManager wallpaperManager = WallpaperManager.getInstance(context);
+        wallpaperSupported = wallpaperManager.isWallpaperSupported();
+        setWallpaperAllowed = Build.VERSION.SDK_INT < Build.VERSION_CODES.N || wallpaperManager.isSetWallpaperAllowed();
+        lockScreenSupported = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N;
+        hasSetWallpaperPermission = ContextCompat.checkSelfPermission(context, Manifest.permission.SET_WALLPAPER)
+            == PackageManager.PERMISSION_GRANTED;
+        hasMediaPermission = Build.VERSION.SDK_INT < Build.VERSION_CODES.TIRAMISU
+            || ContextCompat.checkSelfPermission(context, Manifest.permission.READ_MEDIA_IMAGES) == PackageManager.PERMISSION_GRANTED;
+
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        lowRamDevice = activityManager != null && activityManager.isLowRamDevice();
+
+        DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+        screenWidth = Math.min(metrics.widthPixels, metrics.heightPixels);
+        screenHeight = Math.max(metrics.widthPixels, metrics.heightPixels);
+        // Tamaño que el launcher espera para el wallpaper; si el sistema no lo informa se usa la pantalla
+        int width = wallpaperManager.getDesiredMinimumWidth();
+        int height = wallpaperManager.getDesiredMinimumHeight();
+        if (width <= 0 || height <= 0) {
+            width = metrics.widthPixels;
+            height = metrics.heightPixels;
+        }
+        desiredWidth = Math.min(width, BitmapDecoder.MAX_DIMENSION);
+        desiredHeight = Math.min(height, BitmapDecoder.MAX_DIMENSION);
+    }
+
+    /**
+     * La última foto, o una nueva si aún no hay ninguna o se invalidó.
+     */
+    static DeviceCapabilities get(Context context) {
+        DeviceCapabilities snapshot = current;
+        return snapshot != null ? snapshot : refresh(context);
+    }
+
+    /**
+     * Vuelve a consultar el sistema. Cuesta unos pocos IPC: no llamarlo en el hilo principal.
+     */
+    static DeviceCapabilities refresh(Context context) {
+        Context appContext = context.getApplicationContext();
+        registerCallbacks(appContext);
+        DeviceCapabilities snapshot = new DeviceCapabilities(appContext);
+        current = snapshot;
+        return snapshot;
+    }
+
+    boolean hasAllPermissions() {
+        return hasSetWallpaperPermission && hasMediaPermission;
+    }
+
+    int[] desiredSize() {
+        return new int[] { desiredWidth, desiredHeight };
+    }
+
+    int[] screenSize() {
+        return new int[] { screenWidth, screenHeight };
+    }
+
+    /**
+     * Un cambio de pantalla o densidad deja obsoletas las dimensiones: la próxima lectura las toma de nuevo.
+     */
+    private static synchronized void registerCallbacks(Context appContext) {
+        if (callbacksRegistered) {
+            return;
+        }
+        callbacksRegistered = true;
+        appContext.registerComponentCallbacks(new ComponentCallbacks() {
+            @Override
+            public void onConfigurationChanged(Configuration newConfig) {
+                current = null;
+            }
+
+            @Override
+            public void onLowMemory() {
+            }
+        });
+    }
+}
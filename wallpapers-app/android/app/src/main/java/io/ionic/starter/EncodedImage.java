@@ -0,0 +1,136 @@
+package io.ionic.starter;
+
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.os.Build;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Bytes comprimidos de una imagen, en un archivo de la caché o en memoria (payload Base64 ya decodificado).
+ *
+ * El SHA-1 del contenido identifica la imagen aunque llegue por otra URL o por Base64. Quien
+ * ya lo calculó mientras recibía los bytes lo pasa al crearla; si no, se calcula al pedirlo.
+ */
+final class EncodedImage {
+
+    final File file;
+    final byte[] data;
+    private String digest;
+    // Tipo MIME del encabezado, leído junto con las dimensiones
+    private volatile String mimeType;
+
+    private EncodedImage(File file, byte[] data, String digest) {
+        this.file = file;
+        this.data = data;
+        this.digest = digest;
+    }
+
+    static EncodedImage of(File file) {
+        return new EncodedImage(file, null, null);
+    }
+
+    static EncodedImage of(File file, String digest) {
+        return new EncodedImage(file, null, digest);
+    }
+
+    static EncodedImage of(byte[] data) {
+        return new EncodedImage(null, data, null);
+    }
+
+    static EncodedImage of(byte[] data, String digest) {
+        return new EncodedImage(null, data, digest);
+    }
+
+    /**
+     * SHA-1 en hexadecimal de los bytes comprimidos.
+     */
+    synchronized String digest() throws IOException {
+        if (digest == null) {
+            MessageDigest sha1 = newDigest();
+            if (data != null) {
+                sha1.update(data);
+            } else {
+                try (InputStream input = new FileInputStream(file)) {
+                    byte[] buffer = new byte[64 * 1024];
+                    int read;
+                    while ((read = input.read(buffer)) != -1) {
+                        sha1.update(buffer, 0, read);
+                    }
+                }
+            }
+            digest = hex(sha1.digest());
+        }
+        return digest;
+    }
+
+    static MessageDigest newDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-1 not available", e);
+        }
+    }
+
+    static String hex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(String.format("%02x", b));
+        }
+        return builder.toString();
+    }
+
+    InputStream openStream() throws IOException {
+        if (file != null) {
+            return new BufferedInputStream(new FileInputStream(file), 64 * 1024);
+        }
+        return new ByteArrayInputStream(data);
+    }
+
+    /**
+     * Lee solo el encabezado. Devuelve {ancho, alto}, con valores <= 0 si no es una imagen válida.
+     */
+    int[] readBounds() {
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        if (file != null) {
+            BitmapFactory.decodeFile(file.getAbsolutePath(), bounds);
+        } else {
+            BitmapFactory.decodeByteArray(data, 0, data.length, bounds);
+        }
+        mimeType = bounds.outMimeType;
+        return new int[] { bounds.outWidth, bounds.outHeight };
+    }
+
+    /**
+     * Tipo MIME según el encabezado ("image/jpeg", "image/png"...), o null si no se reconoce.
+     */
+    String mimeType() {
+        if (mimeType == null) {
+            readBounds();
+        }
+        return mimeType;
+    }
+
+    boolean isJpeg() {
+        return "image/jpeg".equals(mimeType());
+    }
+
+    BitmapRegionDecoder newRegionDecoder() throws IOException {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+            return file != null
+                ? BitmapRegionDecoder.newInstance(file.getAbsolutePath())
+                : BitmapRegionDecoder.newInstance(data, 0, data.length);
+        }
+        return file != null
+            ? BitmapRegionDecoder.newInstance(file.getAbsolutePath(), false)
+            : BitmapRegionDecoder.newInstance(data, 0, data.length, false);
+    }
+}
@@ -0,0 +1,446 @@
+package io.ionic.starter;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Caché en disco de imágenes descargadas, indexada por URL.
+ *
+ * Cada entrada es un archivo de imagen más un archivo de metadatos con ETag y Last-Modified
+ * para revalidar con peticiones condicionales. Las escrituras van a un archivo temporal que
+ * luego se renombra, y al superar el presupuesto se eliminan las entradas menos usadas.
+ *
+ * Una descarga a medias queda en un archivo parcial con el validador de la respuesta, para
+ * reanudarla después con Range e If-Range en lugar de empezar de cero.
+ *
+ * Quien va a abrir el archivo de una entrada más tarde (decodificarlo, pasarlo a setStream) la
+ * reserva con pin antes de pedirla: el recorte de un commit concurrente se salta las entradas
+ * reservadas en lugar de borrarle el archivo entre el get y la lectura.
+ */
+final class ImageDiskCache {
+
+    private static final String TAG = "ImageDiskCache";
+
+    private static final String DIRECTORY = "wallpaper-cache";
+    // Presupuesto fijado por el plugin, para que la rotación en segundo plano use el mismo
+    private static final String PREFS = "wallpaper_disk_cache";
+    private static final String KEY_MAX_BYTES = "maxBytes";
+    static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    private static ImageDiskCache instance;
+
+    private static final String IMAGE_SUFFIX = ".img";
+    private static final String META_SUFFIX = ".meta";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String PARTIAL_SUFFIX = ".part";
+    private static final String PARTIAL_META_SUFFIX = ".partmeta";
+
+    // Una descarga parcial más vieja que esto ya no merece reanudarse
+    private static final long PARTIAL_MAX_AGE_MS = 24L * 60 * 60 * 1000;
+
+    /**
+     * Entrada de la caché: archivo de imagen, validadores HTTP y SHA-1 del contenido (null en
+     * entradas anteriores a que se guardara).
+     */
+    static final class Entry {
+        final File file;
+        final String etag;
+        final String lastModified;
+        final String digest;
+
+        Entry(File file, String etag, String lastModified, String digest) {
+            this.file = file;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.digest = digest;
+        }
+    }
+
+    /**
+     * Reserva de una URL tomada con pin; se libera al cerrarla, una sola vez.
+     */
+    interface Pin extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    /**
+     * Descarga parcial: bytes ya recibidos y el validador (ETag fuerte o Last-Modified) que
+     * se envía en If-Range para reanudarla.
+     */
+    static final class Partial {
+        final File file;
+        final String validator;
+
+        Partial(File file, String validator) {
+            this.file = file;
+            this.validator = validator;
+        }
+
+        long length() {
+            return file.exists() ? file.length() : 0;
+        }
+    }
+
+    private final File directory;
+    private long maxBytes;
+    // Orden de acceso: la primera entrada es la menos usada recientemente
+    private final LinkedHashMap<String, Long> index = new LinkedHashMap<>(32, 0.75f, true);
+    // Claves reservadas con pin y cuántas reservas tiene cada una
+    private final Map<String, Integer> pins = new HashMap<>();
+    private long currentBytes;
+
+    /**
+     * Caché compartida del proceso. El plugin y la rotación en segundo plano usan el mismo
+     * directorio, y dos índices sobre él se pisarían. El presupuesto es el último que guardó
+     * configure, lo cree quien lo cree.
+     */
+    static synchronized ImageDiskCache getInstance(Context context) {
+        if (instance == null) {
+            Context app = context.getApplicationContext();
+            long maxBytes = prefs(app).getLong(KEY_MAX_BYTES, DEFAULT_MAX_BYTES);
+            instance = new ImageDiskCache(new File(app.getCacheDir(), DIRECTORY), maxBytes);
+        }
+        return instance;
+    }
+
+    /**
+     * Guarda el presupuesto de capacitor.config.ts para este proceso y los siguientes (la rotación
+     * puede arrancar sin que el plugin se cargue). Si la caché ya existe se ajusta ahora. Escribe
+     * en disco: fuera del hilo principal.
+     */
+    static synchronized void configure(Context context, long maxBytes) {
+        SharedPreferences prefs = prefs(context.getApplicationContext());
+        if (prefs.getLong(KEY_MAX_BYTES, -1) != maxBytes) {
+            prefs.edit().putLong(KEY_MAX_BYTES, maxBytes).apply();
+        }
+        if (instance != null) {
+            instance.resize(maxBytes);
+        }
+    }
+
+    private static SharedPreferences prefs(Context context) {
+        return context.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+    }
+
+    ImageDiskCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        if (!directory.exists() && !directory.mkdirs()) {
+            Log.w(TAG, "Could not create cache directory " + directory);
+        }
+        rebuildIndex();
+    }
+
+    /**
+     * Devuelve la entrada para la URL y la marca como usada, o null si no está en caché.
+     */
+    synchronized Entry get(String url) {
+        String key = keyFor(url);
+        File file = imageFile(key);
+        // index.get, no containsKey: solo get mueve la entrada al final del orden de acceso
+        if (index.get(key) == null || !file.exists()) {
+            removeQuietly(key);
+            return null;
+        }
+        file.setLastModified(System.currentTimeMillis());
+        Properties meta = readMeta(key);
+        return new Entry(file, meta.getProperty("etag"), meta.getProperty("lastModified"), meta.getProperty("sha1"));
+    }
+
+    /**
+     * Como get, pero sin marcarla como usada ni tocar el archivo: para consultar qué hay en disco.
+     */
+    synchronized Entry peek(String url) {
+        String key = keyFor(url);
+        File file = imageFile(key);
+        if (!index.containsKey(key) || !file.exists()) {
+            return null;
+        }
+        Properties meta = readMeta(key);
+        return new Entry(file, meta.getProperty("etag"), meta.getProperty("lastModified"), meta.getProperty("sha1"));
+    }
+
+    /**
+     * Si la URL está completa en caché, sin marcarla como usada.
+     */
+    synchronized boolean contains(String url) {
+        String key = keyFor(url);
+        return index.containsKey(key) && imageFile(key).exists();
+    }
+
+    /**
+     * Impide expulsar la entrada de la URL, esté ya en caché o llegue después, hasta cerrar la
+     * reserva. Al soltar la última reserva se recorta lo que se hubiera pasado del presupuesto.
+     */
+    synchronized Pin pin(String url) {
+        String key = keyFor(url);
+        pins.merge(key, 1, Integer::sum);
+        AtomicBoolean released = new AtomicBoolean();
+        return () -> {
+            if (released.compareAndSet(false, true)) {
+                unpin(key);
+            }
+        };
+    }
+
+    private synchronized void unpin(String key) {
+        Integer count = pins.get(key);
+        if (count == null) {
+            return;
+        }
+        if (count > 1) {
+            pins.put(key, count - 1);
+        } else {
+            pins.remove(key);
+            trimToSize(null);
+        }
+    }
+
+    /**
+     * Crea el archivo temporal donde se escribe una descarga antes de confirmarla con commit.
+     */
+    File newTempFile(String url) throws IOException {
+        return File.createTempFile(keyFor(url), TEMP_SUFFIX, directory);
+    }
+
+    /**
+     * Mueve atómicamente el archivo temporal a la entrada de la URL y guarda sus validadores.
+     * La entrada nueva nunca se expulsa al recortar: quien la recibe va a leer el archivo, aunque
+     * por sí sola supere el presupuesto. En ese caso se va la próxima vez que haga falta sitio.
+     */
+    synchronized Entry commit(String url, File tempFile, String etag, String lastModified, String digest) throws IOException {
+        String key = keyFor(url);
+        File target = imageFile(key);
+        Long previous = index.remove(key);
+        if (previous != null) {
+            currentBytes -= previous;
+        }
+        if (!tempFile.renameTo(target)) {
+            tempFile.delete();
+            throw new IOException("Could not move downloaded image into cache");
+        }
+        writeMeta(key, url, etag, lastModified, digest);
+
+        long size = target.length();
+        index.put(key, size);
+        currentBytes += size;
+        trimToSize(key);
+        return new Entry(target, etag, lastModified, digest);
+    }
+
+    /**
+     * Descarga parcial de la URL. Si no hay validador guardado, los bytes no se pueden reanudar
+     * de forma segura y la descarga debe empezar de cero.
+     */
+    synchronized Partial partial(String url) {
+        String key = keyFor(url);
+        File file = partialFile(key);
+        Properties meta = readProperties(partialMetaFile(key));
+        String validator = meta.getProperty("validator");
+        if (validator == null && file.exists()) {
+            file.delete();
+        }
+        return new Partial(file, validator);
+    }
+
+    /**
+     * Guarda el validador de la respuesta que se está escribiendo en el parcial. Un ETag débil
+     * no sirve para If-Range, así que en ese caso se usa Last-Modified.
+     */
+    synchronized void savePartialValidator(String url, String etag, String lastModified) {
+        String validator = etag != null && !etag.startsWith("W/") ? etag : lastModified;
+        String key = keyFor(url);
+        if (validator == null) {
+            partialMetaFile(key).delete();
+            return;
+        }
+        Properties meta = new Properties();
+        meta.setProperty("url", url);
+        meta.setProperty("validator", validator);
+        writeProperties(partialMetaFile(key), meta);
+    }
+
+    /**
+     * Confirma el parcial completo como entrada de la caché.
+     */
+    synchronized Entry commitPartial(String url, String etag, String lastModified, String digest) throws IOException {
+        String key = keyFor(url);
+        partialMetaFile(key).delete();
+        return commit(url, partialFile(key), etag, lastModified, digest);
+    }
+
+    synchronized void discardPartial(String url) {
+        String key = keyFor(url);
+        partialFile(key).delete();
+        partialMetaFile(key).delete();
+    }
+
+    synchronized void remove(String url) {
+        removeQuietly(keyFor(url));
+    }
+
+    synchronized void clear() {
+        for (String key : index.keySet().toArray(new String[0])) {
+            removeQuietly(key);
+        }
+    }
+
+    /**
+     * Cambia el presupuesto; si baja, expulsa lo que sobre.
+     */
+    synchronized void resize(long maxBytes) {
+        this.maxBytes = maxBytes;
+        trimToSize(null);
+    }
+
+    synchronized long size() {
+        return currentBytes;
+    }
+
+    /**
+     * Expulsa las entradas menos usadas hasta caber en el presupuesto, salvo keep (null si
+     * ninguna) y las reservadas con pin.
+     */
+    private void trimToSize(String keep) {
+        Iterator<Map.Entry<String, Long>> iterator = index.entrySet().iterator();
+        while (currentBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            if (eldest.getKey().equals(keep) || pins.containsKey(eldest.getKey())) {
+                continue;
+            }
+            iterator.remove();
+            currentBytes -= eldest.getValue();
+            imageFile(eldest.getKey()).delete();
+            metaFile(eldest.getKey()).delete();
+            WallpaperLog.debug(TAG, "Evicted cache entry " + eldest.getKey());
+        }
+    }
+
+    private void rebuildIndex() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        // La fecha de modificación se actualiza en cada acceso, así que ordena por uso reciente
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(TEMP_SUFFIX)) {
+                // Descarga interrumpida de una ejecución anterior
+                file.delete();
+            } else if (name.endsWith(PARTIAL_SUFFIX) || name.endsWith(PARTIAL_META_SUFFIX)) {
+                if (System.currentTimeMillis() - file.lastModified() > PARTIAL_MAX_AGE_MS) {
+                    file.delete();
+                }
+            } else if (name.endsWith(IMAGE_SUFFIX)) {
+                String key = name.substring(0, name.length() - IMAGE_SUFFIX.length());
+                index.put(key, file.length());
+                currentBytes += file.length();
+            }
+        }
+        trimToSize(null);
+    }
+
+    private void removeQuietly(String key) {
+        Long size = index.remove(key);
+        if (size != null) {
+            currentBytes -= size;
+        }
+        imageFile(key).delete();
+        metaFile(key).delete();
+    }
+
+    private Properties readMeta(String key) {
+        return readProperties(metaFile(key));
+    }
+
+    private Properties readProperties(File file) {
+        Properties meta = new Properties();
+        if (file.exists()) {
+            try (InputStream input = new FileInputStream(file)) {
+                meta.load(input);
+            } catch (IOException e) {
+                Log.w(TAG, "Could not read cache metadata " + file.getName(), e);
+            }
+        }
+        return meta;
+    }
+
+    private void writeMeta(String key, String url, String etag, String lastModified, String digest) {
+        Properties meta = new Properties();
+        meta.setProperty("url", url);
+        if (digest != null) {
+            meta.setProperty("sha1", digest);
+        }
+        if (etag != null) {
+            meta.setProperty("etag", etag);
+        }
+        if (lastModified != null) {
+            meta.setProperty("lastModified", lastModified);
+        }
+        writeProperties(metaFile(key), meta);
+    }
+
+    private void writeProperties(File target, Properties meta) {
+        File temp = new File(directory, target.getName() + TEMP_SUFFIX);
+        try (OutputStream output = new FileOutputStream(temp)) {
+            meta.store(output, null);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write cache metadata " + target.getName(), e);
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(target)) {
+            temp.delete();
+        }
+    }
+
+    private File imageFile(String key) {
+        return new File(directory, key + IMAGE_SUFFIX);
+    }
+
+    private File metaFile(String key) {
+        return new File(directory, key + META_SUFFIX);
+    }
+
+    private File partialFile(String key) {
+        return new File(directory, key + PARTIAL_SUFFIX);
+    }
+
+    private File partialMetaFile(String key) {
+        return new File(directory, key + PARTIAL_META_SUFFIX);
+    }
+
+    static String keyFor(String url) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(url.getBytes(StandardCharsets.UTF_8));
+            StringBuilder builder = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                builder.append(String.format("%02x", b));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(url.hashCode());
+        }
+    }
+}
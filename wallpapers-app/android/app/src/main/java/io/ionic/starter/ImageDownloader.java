@@ -0,0 +1,615 @@
+package io.ionic.starter;
+
+import android.content.Context;
+import android.graphics.BitmapFactory;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import okhttp3.Call;
+import okhttp3.ConnectionPool;
+import okhttp3.EventListener;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Motor de descarga de las imágenes por URL.
+ *
+ * Hay una instancia por proceso, compartida por el plugin y la rotación: así los locks por URL
+ * cubren a todos los que escriben en la misma ImageDiskCache, las conexiones al host de
+ * almacenamiento se reutilizan (keep-alive) y, si el servidor lo admite, varias descargas
+ * comparten una conexión HTTP/2. OkHttp pide y descomprime gzip por su cuenta.
+ *
+ * Una descarga cortada queda como parcial en ImageDiskCache y el siguiente intento la reanuda
+ * con Range e If-Range. Los timeouts se ajustan a la latencia y el caudal observados, y los
+ * fallos transitorios se reintentan un número acotado de veces con espera exponencial y jitter.
+ *
+ * Una misma URL no se descarga dos veces a la vez; URLs distintas nunca se esperan entre sí, y
+ * durante la espera entre reintentos la URL queda libre. Si quien espera tiene más prioridad que
+ * quien descarga (una aplicación detrás de una precarga), el que descarga sube a la prioridad
+ * del que espera hasta soltar la URL, para no quedar detrás de un hilo de prioridad mínima.
+ */
+final class ImageDownloader {
+
+    private static final String TAG = "ImageDownloader";
+    private static final String USER_AGENT = "WallpaperApp/1.0";
+
+    private static final int MAX_ATTEMPTS = 4;
+    private static final long BASE_BACKOFF_MS = 500;
+    private static final long MAX_BACKOFF_MS = 8000;
+
+    private static final int DEFAULT_CONNECT_TIMEOUT_MS = 10000;
+    private static final int DEFAULT_READ_TIMEOUT_MS = 15000;
+    private static final int MIN_TIMEOUT_MS = 5000;
+    private static final int MAX_CONNECT_TIMEOUT_MS = 20000;
+    private static final int MAX_READ_TIMEOUT_MS = 60000;
+    // Lo que debería llegar entre dos lecturas para considerar viva la conexión
+    private static final int READ_WINDOW_BYTES = 64 * 1024;
+    // Peso de la última muestra en las medias móviles de latencia y caudal
+    private static final double SMOOTHING = 0.3;
+    // Bytes que se piden para leer las dimensiones del encabezado sin descargar la imagen
+    private static final int PROBE_BYTES = 64 * 1024;
+
+    private static ImageDownloader instance;
+
+    private final OkHttpClient client;
+    private final ImageDiskCache diskCache;
+    private final WallpaperMetrics metrics;
+    // Una misma URL no se descarga dos veces a la vez (precarga y aplicación comparten el parcial).
+    // Un lock por URL mientras alguien lo usa o espera; el último en soltarlo lo retira
+    private final Map<String, UrlLock> urlLocks = new ConcurrentHashMap<>();
+    private final Random random = new Random();
+
+    // Medias móviles de la red observada; 0 mientras no hay muestras
+    private volatile double latencyMs;
+    private volatile double bytesPerMs;
+
+    /**
+     * La instancia del proceso, sobre la caché en disco compartida.
+     */
+    static synchronized ImageDownloader getInstance(Context context) {
+        if (instance == null) {
+            instance = new ImageDownloader(ImageDiskCache.getInstance(context), WallpaperMetrics.getInstance());
+        }
+        return instance;
+    }
+
+    /**
+     * Fuera de getInstance solo para pruebas, con una caché en disco propia.
+     */
+    ImageDownloader(ImageDiskCache diskCache, WallpaperMetrics metrics) {
+        this.diskCache = diskCache;
+        this.metrics = metrics;
+        this.client = new OkHttpClient.Builder()
+            .connectionPool(new ConnectionPool(5, 5, TimeUnit.MINUTES))
+            .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+            .retryOnConnectionFailure(true)
+            .eventListenerFactory(call -> new ConnectTimingListener())
+            .build();
+    }
+
+    /**
+     * Devuelve la entrada en caché para la URL, descargándola, reanudándola o revalidándola.
+     * Devuelve null si el servidor responde con un error definitivo (404, 403...). Si la red
+     * falla en todos los intentos y hay una copia en disco, se sirve esa copia.
+     */
+    ImageDiskCache.Entry fetch(String url) throws IOException, InterruptedException {
+        try {
+            return fetchOrThrow(url);
+        } catch (HttpStatusException e) {
+            Log.e(TAG, "HTTP error code: " + e.code);
+            return null;
+        }
+    }
+
+    /**
+     * Como fetch, pero un error definitivo lanza HttpStatusException con el código, para quien
+     * necesita distinguir un 404 de un fallo de red.
+     */
+    ImageDiskCache.Entry fetchOrThrow(String url) throws IOException, InterruptedException {
+        UrlLock lock = lockUrl(url);
+        try {
+            ImageDiskCache.Entry cached = diskCache.get(url);
+            IOException lastError = null;
+            long retryAfterMs = 0;
+            for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+                if (attempt > 0) {
+                    // Sin retener la URL durante la espera: otro hilo puede completarla mientras tanto
+                    unlockUrl(url, lock);
+                    lock = null;
+                    backoff(attempt, retryAfterMs);
+                    lock = lockUrl(url);
+                    cached = diskCache.get(url);
+                }
+                WallpaperExecutor.throwIfCancelled();
+                try {
+                    return download(url, cached);
+                } catch (HttpStatusException e) {
+                    // Definitivo: otro intento daría lo mismo
+                    throw e;
+                } catch (RetryableStatusException e) {
+                    lastError = e;
+                    retryAfterMs = e.retryAfterMs;
+                    Log.w(TAG, "Attempt " + (attempt + 1) + " got HTTP " + e.code + " for " + WallpaperLog.redact(url));
+                } catch (IOException e) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        throw new InterruptedException("Download cancelled");
+                    }
+                    lastError = e;
+                    retryAfterMs = 0;
+                    Log.w(TAG, "Attempt " + (attempt + 1) + " failed for " + WallpaperLog.redact(url) + ": " + e);
+                }
+            }
+            if (cached != null) {
+                // Sin red: usar la copia en disco aunque no se haya podido revalidar
+                Log.w(TAG, "Revalidation failed, serving stale cache entry", lastError);
+                metrics.diskCacheHits.incrementAndGet();
+                return cached;
+            }
+            throw lastError;
+        } finally {
+            if (lock != null) {
+                unlockUrl(url, lock);
+            }
+        }
+    }
+
+    /**
+     * Reserva en la caché en disco la entrada de la URL (ver ImageDiskCache.pin). Se toma antes
+     * de fetch y se suelta cuando ya no se va a leer el archivo.
+     */
+    ImageDiskCache.Pin pin(String url) {
+        return diskCache.pin(url);
+    }
+
+    /**
+     * Toma el lock de la URL, creándolo si nadie más la usa.
+     */
+    private UrlLock lockUrl(String url) throws InterruptedException {
+        UrlLock lock = urlLocks.compute(url, (key, existing) -> {
+            UrlLock current = existing != null ? existing : new UrlLock();
+            current.users++;
+            return current;
+        });
+        try {
+            lock.lockInterruptibly();
+        } catch (InterruptedException e) {
+            release(url);
+            throw e;
+        }
+        return lock;
+    }
+
+    private void unlockUrl(String url, UrlLock lock) {
+        lock.unlock();
+        release(url);
+    }
+
+    private void release(String url) {
+        urlLocks.computeIfPresent(url, (key, lock) -> --lock.users == 0 ? null : lock);
+    }
+
+    /**
+     * Descarga la URL entera en target en un solo intento, sin la caché en disco ni el lock de
+     * la URL: para bytes de un solo uso, como el origen de una miniatura, que no deben expulsar
+     * a los originales que usan la aplicación, la precarga y la rotación. Un error definitivo
+     * lanza HttpStatusException.
+     */
+    void fetchUncached(String url, File target) throws IOException, InterruptedException {
+        Request request = new Request.Builder()
+            .url(url)
+            .header("User-Agent", USER_AGENT)
+            .header("Accept", "image/*")
+            .build();
+        Call call = client.newBuilder()
+            .connectTimeout(connectTimeoutMs(), TimeUnit.MILLISECONDS)
+            .readTimeout(readTimeoutMs(), TimeUnit.MILLISECONDS)
+            .build()
+            .newCall(request);
+        try (WallpaperExecutor.CancelRegistration ignored = WallpaperExecutor.onCancel(call::cancel);
+             Response response = call.execute()) {
+            int code = response.code();
+            if (code == 408 || code == 429 || code >= 500) {
+                throw new IOException("HTTP " + code);
+            }
+            ResponseBody body = response.body();
+            if (code != 200 || body == null) {
+                throw new HttpStatusException(code);
+            }
+            try (InputStream input = body.byteStream();
+                 OutputStream output = new FileOutputStream(target)) {
+                byte[] buffer = new byte[16 * 1024];
+                int read;
+                while ((read = input.read(buffer)) != -1) {
+                    output.write(buffer, 0, read);
+                    metrics.networkBytes.addAndGet(read);
+                }
+            }
+        } catch (InterruptedIOException e) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException("Download cancelled");
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Caudal de bajada observado en las últimas descargas, en kbps; 0 mientras no hay muestras.
+     */
+    int observedKbps() {
+        return (int) (bytesPerMs * 8);
+    }
+
+    /**
+     * Dimensiones de la imagen leyendo solo el principio del recurso con Range, sin pasar por la
+     * caché en disco. Devuelve null si el encabezado no está en esos bytes o la petición falla.
+     */
+    int[] probeBounds(String url) throws InterruptedException {
+        Request request = new Request.Builder()
+            .url(url)
+            .header("User-Agent", USER_AGENT)
+            .header("Accept", "image/*")
+            .header("Range", "bytes=0-" + (PROBE_BYTES - 1))
+            .header("Accept-Encoding", "identity")
+            .build();
+        Call call = client.newBuilder()
+            .connectTimeout(connectTimeoutMs(), TimeUnit.MILLISECONDS)
+            .readTimeout(readTimeoutMs(), TimeUnit.MILLISECONDS)
+            .build()
+            .newCall(request);
+        try (WallpaperExecutor.CancelRegistration ignored = WallpaperExecutor.onCancel(call::cancel);
+             Response response = call.execute()) {
+            ResponseBody body = response.body();
+            if ((response.code() != 200 && response.code() != 206) || body == null) {
+                return null;
+            }
+            // Un servidor sin soporte de Range responde 200: se leen igualmente solo PROBE_BYTES
+            byte[] head = new byte[PROBE_BYTES];
+            int length = 0;
+            try (InputStream input = body.byteStream()) {
+                int read;
+                while (length < head.length && (read = input.read(head, length, head.length - length)) != -1) {
+                    length += read;
+                }
+            }
+            metrics.networkBytes.addAndGet(length);
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeByteArray(head, 0, length, options);
+            return options.outWidth > 0 && options.outHeight > 0 ? new int[] { options.outWidth, options.outHeight } : null;
+        } catch (InterruptedIOException e) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException("Probe cancelled");
+            }
+            Log.w(TAG, "Timed out probing " + WallpaperLog.redact(url), e);
+            return null;
+        } catch (IOException e) {
+            Log.w(TAG, "Could not probe " + WallpaperLog.redact(url), e);
+            return null;
+        }
+    }
+
+    /**
+     * Un intento: reanuda el parcial si lo hay, si no revalida la copia en caché o descarga entera.
+     */
+    private ImageDiskCache.Entry download(String url, ImageDiskCache.Entry cached) throws IOException, InterruptedException {
+        ImageDiskCache.Partial partial = diskCache.partial(url);
+        long resumeFrom = partial.validator != null ? partial.length() : 0;
+
+        Request.Builder builder = new Request.Builder()
+            .url(url)
+            .header("User-Agent", USER_AGENT)
+            .header("Accept", "image/*");
+        if (resumeFrom > 0) {
+            // Los rangos se refieren a los bytes sin comprimir
+            builder.header("Range", "bytes=" + resumeFrom + "-")
+                .header("If-Range", partial.validator)
+                .header("Accept-Encoding", "identity");
+        } else if (cached != null) {
+            if (cached.etag != null) {
+                builder.header("If-None-Match", cached.etag);
+            }
+            if (cached.lastModified != null) {
+                builder.header("If-Modified-Since", cached.lastModified);
+            }
+        }
+
+        Call call = client.newBuilder()
+            .connectTimeout(connectTimeoutMs(), TimeUnit.MILLISECONDS)
+            .readTimeout(readTimeoutMs(), TimeUnit.MILLISECONDS)
+            .build()
+            .newCall(builder.build());
+
+        long start = WallpaperMetrics.now();
+        long startMs = SystemClock.elapsedRealtime();
+        // Cancelar la operación cierra el socket aunque el worker esté bloqueado en una lectura
+        try (WallpaperExecutor.CancelRegistration ignored = WallpaperExecutor.onCancel(call::cancel);
+             Response response = call.execute()) {
+            metrics.networkFirstByte.recordSince(start);
+            latencyMs = smooth(latencyMs, SystemClock.elapsedRealtime() - startMs);
+            int code = response.code();
+
+            if (code == 304 && cached != null) {
+                metrics.diskCacheHits.incrementAndGet();
+                WallpaperLog.debug(TAG, "Image not modified, serving from disk cache");
+                return cached;
+            }
+            if (code == 416) {
+                // El parcial no encaja con el recurso actual: descartarlo y empezar de cero
+                diskCache.discardPartial(url);
+                throw new RetryableStatusException(code, 0);
+            }
+            if (code == 408 || code == 429 || code >= 500) {
+                throw new RetryableStatusException(code, retryAfterMs(response.header("Retry-After")));
+            }
+            if (code != 200 && code != 206) {
+                throw new HttpStatusException(code);
+            }
+
+            boolean append = code == 206 && resumeFrom > 0 && rangeStartsAt(response.header("Content-Range"), resumeFrom);
+            if (code == 206 && !append) {
+                diskCache.discardPartial(url);
+                throw new IOException("Unexpected Content-Range " + response.header("Content-Range"));
+            }
+            String etag = response.header("ETag");
+            String lastModified = response.header("Last-Modified");
+            // El SHA-1 se calcula mientras llegan los bytes; al reanudar se parte de lo ya recibido
+            MessageDigest digest = EncodedImage.newDigest();
+            if (append) {
+                hashFile(partial.file, digest);
+            }
+            if (!append) {
+                metrics.diskCacheMisses.incrementAndGet();
+                // Guardar el validador antes de escribir, por si la conexión se corta a mitad
+                diskCache.savePartialValidator(url, etag, lastModified);
+            } else {
+                WallpaperLog.debug(TAG, "Resuming download of " + WallpaperLog.redact(url) + " from byte " + resumeFrom);
+            }
+
+            ResponseBody body = response.body();
+            if (body == null) {
+                throw new IOException("Empty response body");
+            }
+            long expected = body.contentLength();
+            long totalBytes = expected >= 0 ? (append ? resumeFrom : 0) + expected : -1;
+            long transferStart = WallpaperMetrics.now();
+            long transferStartMs = SystemClock.elapsedRealtime();
+            long received;
+            try (InputStream input = body.byteStream();
+                 OutputStream output = new FileOutputStream(partial.file, append)) {
+                received = copy(input, output, digest, call, append ? resumeFrom : 0, totalBytes);
+            }
+            long transferMs = SystemClock.elapsedRealtime() - transferStartMs;
+            metrics.networkTransfer.recordSince(transferStart);
+            if (received >= READ_WINDOW_BYTES && transferMs > 0) {
+                bytesPerMs = smooth(bytesPerMs, (double) received / transferMs);
+            }
+            if (expected >= 0 && received != expected) {
+                throw new IOException("Incomplete download: " + received + " of " + expected + " bytes");
+            }
+
+            if (append && etag == null && lastModified == null) {
+                // Una respuesta 206 puede omitir los validadores; se conserva el de la primera parte
+                if (partial.validator.startsWith("\"")) {
+                    etag = partial.validator;
+                } else {
+                    lastModified = partial.validator;
+                }
+            }
+            return diskCache.commitPartial(url, etag, lastModified, EncodedImage.hex(digest.digest()));
+        } catch (InterruptedIOException e) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException("Download cancelled");
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Copia el cuerpo al parcial, contando los bytes aunque la conexión se corte a mitad, e
+     * informa del avance a la operación en curso (offset son los bytes que ya había en el
+     * parcial). Una cancelación del worker corta la llamada en la siguiente lectura.
+     */
+    private long copy(InputStream input, OutputStream output, MessageDigest digest, Call call, long offset, long totalBytes)
+        throws IOException, InterruptedException {
+        byte[] buffer = new byte[16 * 1024];
+        long total = 0;
+        int read;
+        WallpaperExecutor.downloadProgress(offset, totalBytes);
+        while ((read = input.read(buffer)) != -1) {
+            output.write(buffer, 0, read);
+            digest.update(buffer, 0, read);
+            total += read;
+            metrics.networkBytes.addAndGet(read);
+            WallpaperExecutor.downloadProgress(offset + total, totalBytes);
+            if (Thread.currentThread().isInterrupted()) {
+                call.cancel();
+                throw new InterruptedException("Download cancelled");
+            }
+        }
+        return total;
+    }
+
+    private static void hashFile(File file, MessageDigest digest) throws IOException {
+        try (InputStream input = new FileInputStream(file)) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+    }
+
+    /**
+     * Timeout de conexión: varias veces la latencia observada, con un margen para el handshake TLS.
+     */
+    private int connectTimeoutMs() {
+        if (latencyMs <= 0) {
+            return DEFAULT_CONNECT_TIMEOUT_MS;
+        }
+        return clamp((int) (latencyMs * 4) + 2000, MIN_TIMEOUT_MS, MAX_CONNECT_TIMEOUT_MS);
+    }
+
+    /**
+     * Timeout de lectura: el tiempo esperado para recibir READ_WINDOW_BYTES al caudal observado,
+     * con holgura. En un enlace lento se espera más antes de dar la conexión por muerta.
+     */
+    private int readTimeoutMs() {
+        if (bytesPerMs <= 0) {
+            return DEFAULT_READ_TIMEOUT_MS;
+        }
+        double windowMs = READ_WINDOW_BYTES / bytesPerMs;
+        return clamp((int) (windowMs * 4 + latencyMs * 2), MIN_TIMEOUT_MS, MAX_READ_TIMEOUT_MS);
+    }
+
+    /**
+     * Espera antes del reintento: exponencial con jitter completo, o lo que pida Retry-After.
+     */
+    private void backoff(int attempt, long retryAfterMs) throws InterruptedException {
+        long ceiling = Math.min(MAX_BACKOFF_MS, BASE_BACKOFF_MS << (attempt - 1));
+        long delay;
+        synchronized (random) {
+            delay = retryAfterMs > 0 ? Math.min(retryAfterMs, MAX_BACKOFF_MS) : (long) (random.nextDouble() * ceiling);
+        }
+        Thread.sleep(delay);
+    }
+
+    private static boolean rangeStartsAt(String contentRange, long offset) {
+        // Formato: "bytes 1000-1999/2000"
+        return contentRange != null && contentRange.startsWith("bytes " + offset + "-");
+    }
+
+    private static long retryAfterMs(String retryAfter) {
+        if (retryAfter == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(retryAfter.trim()) * 1000;
+        } catch (NumberFormatException e) {
+            // Formato de fecha HTTP: usar el backoff normal
+            return 0;
+        }
+    }
+
+    private static double smooth(double average, double sample) {
+        return average <= 0 ? sample : average + SMOOTHING * (sample - average);
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    /**
+     * Lock de una URL que recuerda qué hilo lo tiene y con qué prioridad, para poder subirla
+     * mientras otro de más prioridad espera (herencia de prioridad).
+     */
+    private static final class UrlLock {
+        private final ReentrantLock lock = new ReentrantLock();
+        // Hilos que lo tienen o lo esperan; solo se modifica dentro de compute sobre urlLocks
+        private int users;
+        private int holderTid;
+        private int holderPriority;
+        private boolean boosted;
+
+        void lockInterruptibly() throws InterruptedException {
+            if (!lock.tryLock()) {
+                boostHolder(Process.getThreadPriority(Process.myTid()));
+                lock.lockInterruptibly();
+            }
+            synchronized (this) {
+                holderTid = Process.myTid();
+                holderPriority = Process.getThreadPriority(holderTid);
+            }
+        }
+
+        void unlock() {
+            synchronized (this) {
+                if (boosted) {
+                    // Vuelve a su prioridad (la mínima, si es un hilo de precarga)
+                    setPriority(holderTid, holderPriority);
+                    boosted = false;
+                }
+                holderTid = 0;
+            }
+            lock.unlock();
+        }
+
+        // En Linux un valor menor es más prioridad
+        private synchronized void boostHolder(int waiterPriority) {
+            if (holderTid != 0 && waiterPriority < Process.getThreadPriority(holderTid)) {
+                boosted = setPriority(holderTid, waiterPriority) || boosted;
+            }
+        }
+
+        private static boolean setPriority(int tid, int priority) {
+            try {
+                Process.setThreadPriority(tid, priority);
+                return true;
+            } catch (IllegalArgumentException | SecurityException e) {
+                Log.w(TAG, "Could not change priority of thread " + tid, e);
+                return false;
+            }
+        }
+    }
+
+    /**
+     * El servidor respondió con un error que no se arregla reintentando (404, 403...).
+     */
+    static final class HttpStatusException extends IOException {
+        final int code;
+
+        HttpStatusException(int code) {
+            super("HTTP " + code);
+            this.code = code;
+        }
+    }
+
+    private static final class RetryableStatusException extends IOException {
+        final int code;
+        final long retryAfterMs;
+
+        RetryableStatusException(int code, long retryAfterMs) {
+            super("HTTP " + code);
+            this.code = code;
+            this.retryAfterMs = retryAfterMs;
+        }
+    }
+
+    /**
+     * Mide solo las conexiones nuevas: una petición que reutiliza una conexión del pool no
+     * pasa por connectStart.
+     */
+    private final class ConnectTimingListener extends EventListener {
+        private long connectStart;
+
+        @Override
+        public void connectStart(Call call, InetSocketAddress address, Proxy proxy) {
+            connectStart = WallpaperMetrics.now();
+        }
+
+        @Override
+        public void connectEnd(Call call, InetSocketAddress address, Proxy proxy, Protocol protocol) {
+            metrics.networkConnect.recordSince(connectStart);
+        }
+    }
+}
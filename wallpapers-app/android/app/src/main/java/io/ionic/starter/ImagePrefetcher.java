@@ -0,0 +1,230 @@
+package io.ionic.starter;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.os.Build;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cola de precarga de imágenes que la galería probablemente aplicará.
+ *
+ * Las URLs se atienden por prioridad (mayor primero, y en orden de llegada a igual prioridad)
+ * con un máximo de MAX_CONCURRENT descargas a la vez, en hilos de prioridad mínima para no
+ * competir con las aplicaciones reales. Antes de cada descarga se consulta la red: con wifiOnly
+ * se descarta en redes medidas, y en redes medidas se respeta el ahorro de datos del sistema.
+ *
+ * Cancelar una URL en curso cierra su conexión (cada tarea tiene su CancelScope), porque una
+ * interrupción no desbloquea una lectura de socket y la descarga seguiría ocupando su URL.
+ */
+final class ImagePrefetcher {
+
+    private static final String TAG = "ImagePrefetcher";
+
+    private static final int MAX_CONCURRENT = 2;
+
+    /**
+     * Descarga la URL a la caché en disco y, si request no es null, la deja decodificada en memoria.
+     */
+    interface Loader {
+        void load(String imageUrl, CropPlanner.Request request) throws Exception;
+    }
+
+    private final ConnectivityManager connectivity;
+    private final Loader loader;
+    private final PriorityBlockingQueue<Task> queue = new PriorityBlockingQueue<>();
+    // Tareas en cola o en curso, por URL
+    private final Map<String, Task> tasks = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final List<Thread> threads = new ArrayList<>();
+    private volatile boolean shutdown;
+
+    ImagePrefetcher(Context context, Loader loader) {
+        this.connectivity = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        this.loader = loader;
+    }
+
+    /**
+     * Encola una URL. Si ya estaba en cola se conserva la mayor prioridad y la decodificación
+     * si alguna de las dos la pedía. Devuelve false si ya estaba en curso o no cambió nada.
+     */
+    synchronized boolean enqueue(String imageUrl, int priority, CropPlanner.Request request, boolean wifiOnly) {
+        if (shutdown) {
+            return false;
+        }
+        Task existing = tasks.get(imageUrl);
+        if (existing != null) {
+            if (existing.isRunning()) {
+                return false;
+            }
+            boolean upgrade = priority > existing.priority || (request != null && existing.request == null);
+            if (!upgrade || !queue.remove(existing)) {
+                return false;
+            }
+            priority = Math.max(priority, existing.priority);
+            request = request != null ? request : existing.request;
+            wifiOnly = wifiOnly && existing.wifiOnly;
+        }
+        Task task = new Task(imageUrl, priority, request, wifiOnly, sequence.getAndIncrement());
+        tasks.put(imageUrl, task);
+        queue.offer(task);
+        startThreads();
+        return true;
+    }
+
+    /**
+     * Cancela las URLs indicadas, estén en cola o descargándose. Devuelve cuántas se cancelaron.
+     */
+    synchronized int cancel(Collection<String> imageUrls) {
+        int cancelled = 0;
+        for (String imageUrl : imageUrls) {
+            Task task = tasks.remove(imageUrl);
+            if (task != null) {
+                queue.remove(task);
+                task.cancel();
+                cancelled++;
+            }
+        }
+        return cancelled;
+    }
+
+    synchronized int cancelAll() {
+        return cancel(new ArrayList<>(tasks.keySet()));
+    }
+
+    int pending() {
+        return tasks.size();
+    }
+
+    /**
+     * True si la red activa permite precargar. Sin red no se intenta nada; en una red medida
+     * hace falta que no se haya pedido wifiOnly y que el ahorro de datos no restrinja a la app.
+     */
+    boolean networkAllows(boolean wifiOnly) {
+        if (connectivity == null) {
+            return true;
+        }
+        if (connectivity.getActiveNetwork() == null) {
+            return false;
+        }
+        if (!connectivity.isActiveNetworkMetered()) {
+            return true;
+        }
+        if (wifiOnly) {
+            return false;
+        }
+        return Build.VERSION.SDK_INT < Build.VERSION_CODES.N
+            || connectivity.getRestrictBackgroundStatus() != ConnectivityManager.RESTRICT_BACKGROUND_STATUS_ENABLED;
+    }
+
+    synchronized void shutdown() {
+        shutdown = true;
+        cancelAll();
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+        threads.clear();
+    }
+
+    private void startThreads() {
+        while (threads.size() < MAX_CONCURRENT) {
+            Thread thread = new Thread(this::drain, "wallpaper-prefetch-" + (threads.size() + 1));
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        }
+    }
+
+    private void drain() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_LOWEST);
+        while (!shutdown) {
+            Task task;
+            try {
+                task = queue.take();
+            } catch (InterruptedException e) {
+                // Interrupción sobrante de una cancelación o cierre del plugin
+                continue;
+            }
+            if (!networkAllows(task.wifiOnly)) {
+                WallpaperLog.debug(TAG, "Network policy does not allow prefetch, dropping " + WallpaperLog.redact(task.imageUrl));
+                tasks.remove(task.imageUrl, task);
+                continue;
+            }
+            if (!task.start()) {
+                continue;
+            }
+            try (WallpaperExecutor.CancelRegistration ignored = task.scope.enter()) {
+                loader.load(task.imageUrl, task.request);
+            } catch (InterruptedException e) {
+                WallpaperLog.debug(TAG, "Prefetch cancelled: " + WallpaperLog.redact(task.imageUrl));
+            } catch (Exception e) {
+                Log.w(TAG, "Prefetch failed: " + WallpaperLog.redact(task.imageUrl), e);
+            } finally {
+                task.finish();
+                tasks.remove(task.imageUrl, task);
+            }
+        }
+    }
+
+    private static final class Task implements Comparable<Task> {
+
+        final String imageUrl;
+        final int priority;
+        final CropPlanner.Request request;
+        final boolean wifiOnly;
+        final long sequence;
+        final WallpaperExecutor.CancelScope scope = new WallpaperExecutor.CancelScope();
+        private Thread runner;
+        private boolean cancelled;
+
+        Task(String imageUrl, int priority, CropPlanner.Request request, boolean wifiOnly, long sequence) {
+            this.imageUrl = imageUrl;
+            this.priority = priority;
+            this.request = request;
+            this.wifiOnly = wifiOnly;
+            this.sequence = sequence;
+        }
+
+        synchronized boolean isRunning() {
+            return runner != null;
+        }
+
+        synchronized boolean start() {
+            if (cancelled) {
+                return false;
+            }
+            runner = Thread.currentThread();
+            return true;
+        }
+
+        synchronized void finish() {
+            runner = null;
+            // Descartar una interrupción que llegó tarde para que no afecte a la siguiente tarea
+            Thread.interrupted();
+        }
+
+        synchronized void cancel() {
+            cancelled = true;
+            if (runner != null) {
+                runner.interrupt();
+                scope.cancel();
+            }
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            if (priority != other.priority) {
+                return Integer.compare(other.priority, priority);
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package io.ionic.starter;
+
+import android.util.Base64;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Subidas por trozos de imágenes que solo existen en el WebView (archivos locales, blobs).
+ *
+ * En lugar de un único base64Image de varios megabytes, JS envía trozos Base64 pequeños que
+ * se decodifican en cuanto llegan y se escriben en un archivo temporal. La memoria nativa
+ * necesaria es la de un trozo, no varias copias de la imagen completa. El SHA-1 de los bytes
+ * se calcula sobre la marcha para reutilizar la caché en memoria si se sube la misma imagen.
+ */
+final class ImageUploadStore {
+
+    private static final String TAG = "ImageUploadStore";
+
+    private static final String UPLOAD_SUFFIX = ".upload";
+
+    // Una subida sin trozos nuevos durante este tiempo se da por abandonada
+    private static final long IDLE_TIMEOUT_MS = 10L * 60 * 1000;
+
+    // Límite de bytes decodificados por subida
+    private static final long MAX_UPLOAD_BYTES = 64L * 1024 * 1024;
+
+    /**
+     * Subida terminada: archivo con los bytes de la imagen y su clave de contenido.
+     */
+    static final class Completed {
+        final File file;
+        final String digest;
+        final String sourceKey;
+        final long bytes;
+
+        Completed(File file, String digest, long bytes) {
+            this.file = file;
+            this.digest = digest;
+            this.sourceKey = BitmapMemoryCache.uploadKey(digest);
+            this.bytes = bytes;
+        }
+    }
+
+    private static final class Upload {
+        final File file;
+        final OutputStream output;
+        final MessageDigest digest;
+        // Caracteres Base64 que no completan un grupo de 4 y pasan al siguiente trozo
+        String pending = "";
+        long bytes;
+        int nextIndex;
+        long lastActivity = System.currentTimeMillis();
+
+        Upload(File file, OutputStream output, MessageDigest digest) {
+            this.file = file;
+            this.output = output;
+            this.digest = digest;
+        }
+    }
+
+    private final File directory;
+    private final WallpaperMetrics metrics;
+    private final Map<String, Upload> uploads = new HashMap<>();
+
+    ImageUploadStore(File directory, WallpaperMetrics metrics) {
+        this.directory = directory;
+        this.metrics = metrics;
+        if (!directory.exists() && !directory.mkdirs()) {
+            Log.w(TAG, "Could not create upload directory " + directory);
+        }
+        // Restos de una ejecución anterior: ninguna subida sobrevive al proceso
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Abre una subida nueva y devuelve su id.
+     */
+    synchronized String begin() throws IOException {
+        expireIdle();
+        String uploadId = UUID.randomUUID().toString();
+        File file = new File(directory, uploadId + UPLOAD_SUFFIX);
+        MessageDigest digest = EncodedImage.newDigest();
+        uploads.put(uploadId, new Upload(file, new BufferedOutputStream(new FileOutputStream(file), 64 * 1024), digest));
+        return uploadId;
+    }
+
+    /**
+     * Decodifica un trozo Base64 y lo añade al archivo. index, si se indica, debe ser el
+     * siguiente trozo esperado; así un trozo perdido o repetido se detecta en lugar de
+     * corromper la imagen. Devuelve los bytes decodificados hasta ahora.
+     */
+    synchronized long append(String uploadId, Integer index, String chunk) throws IOException {
+        Upload upload = require(uploadId);
+        if (index != null && index != upload.nextIndex) {
+            throw new IllegalArgumentException("Expected chunk " + upload.nextIndex + " but got " + index);
+        }
+        if (upload.nextIndex == 0 && chunk.startsWith("data:")) {
+            chunk = chunk.substring(chunk.indexOf(',') + 1);
+        }
+
+        String data = upload.pending.isEmpty() ? chunk : upload.pending + chunk;
+        if (hasWhitespace(data)) {
+            data = data.replaceAll("\\s", "");
+        }
+        // Solo se decodifican grupos completos de 4 caracteres; el resto espera al siguiente trozo
+        int usable = data.length() - data.length() % 4;
+        upload.pending = data.substring(usable);
+        if (usable > 0) {
+            long start = WallpaperMetrics.now();
+            byte[] decoded = Base64.decode(data.substring(0, usable), Base64.DEFAULT);
+            metrics.base64Decode.recordSince(start);
+            metrics.base64Bytes.addAndGet(decoded.length);
+            if (upload.bytes + decoded.length > MAX_UPLOAD_BYTES) {
+                discard(uploadId);
+                throw new IllegalArgumentException("Upload exceeds " + MAX_UPLOAD_BYTES / (1024 * 1024) + " MB");
+            }
+            upload.output.write(decoded);
+            upload.digest.update(decoded);
+            upload.bytes += decoded.length;
+        }
+        upload.nextIndex++;
+        upload.lastActivity = System.currentTimeMillis();
+        return upload.bytes;
+    }
+
+    /**
+     * Cierra la subida y entrega el archivo. A partir de aquí el archivo es de quien lo recibe,
+     * que debe borrarlo al terminar.
+     */
+    synchronized Completed finish(String uploadId) throws IOException {
+        Upload upload = require(uploadId);
+        uploads.remove(uploadId);
+        try {
+            upload.output.close();
+        } catch (IOException e) {
+            upload.file.delete();
+            throw e;
+        }
+        if (!upload.pending.isEmpty() || upload.bytes == 0) {
+            upload.file.delete();
+            throw new IllegalArgumentException(upload.bytes == 0 ? "Upload is empty" : "Upload ends with a truncated base64 group");
+        }
+        return new Completed(upload.file, EncodedImage.hex(upload.digest.digest()), upload.bytes);
+    }
+
+    /**
+     * Descarta la subida y su archivo. Devuelve false si no existía.
+     */
+    synchronized boolean discard(String uploadId) {
+        Upload upload = uploads.remove(uploadId);
+        if (upload == null) {
+            return false;
+        }
+        closeQuietly(upload);
+        upload.file.delete();
+        return true;
+    }
+
+    synchronized void clear() {
+        for (Upload upload : uploads.values()) {
+            closeQuietly(upload);
+            upload.file.delete();
+        }
+        uploads.clear();
+    }
+
+    private Upload require(String uploadId) {
+        Upload upload = uploadId != null ? uploads.get(uploadId) : null;
+        if (upload == null) {
+            throw new IllegalArgumentException("Unknown or expired upload " + uploadId);
+        }
+        return upload;
+    }
+
+    private void expireIdle() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, Upload>> iterator = uploads.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Upload upload = iterator.next().getValue();
+            if (now - upload.lastActivity > IDLE_TIMEOUT_MS) {
+                WallpaperLog.debug(TAG, "Discarding idle upload " + upload.file.getName());
+                iterator.remove();
+                closeQuietly(upload);
+                upload.file.delete();
+            }
+        }
+    }
+
+    private static void closeQuietly(Upload upload) {
+        try {
+            upload.output.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Could not close upload " + upload.file.getName(), e);
+        }
+    }
+
+    private static boolean hasWhitespace(String data) {
+        for (int i = 0; i < data.length(); i++) {
+            if (Character.isWhitespace(data.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -5,9 +5,10 @@ import com.getcapacitor.BridgeActivity;
 public class MainActivity extends BridgeActivity {
     @Override
     public void onCreate(android.os.Bundle savedInstanceState) {
-        super.onCreate(savedInstanceState);
-        
-        // Registrar el plugin personalizado
+        // Registrar el plugin personalizado antes de que super.onCreate cree el bridge,
+        // así se carga junto con los demás en lugar de añadirse después
         registerPlugin(WallpaperPlugin.class);
+
+        super.onCreate(savedInstanceState);
     }
 }
@@ -0,0 +1,114 @@
+package io.ionic.starter;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.os.SystemClock;
+
+/**
+ * Control de admisión por memoria para las decodificaciones del plugin, compartido por el proceso.
+ *
+ * Antes de decodificar, cada operación reserva la memoria de pico que estimó a partir del
+ * encabezado. Si no cabe, espera a que otras terminen; si nunca cabría o la espera se alarga,
+ * se admite con la salida reducida a lo que queda libre. Una operación sustituida o cancelada
+ * sale de la espera por interrupción sin haber reservado nada. Así una ráfaga de llamadas
+ * avanza a ritmo estable en lugar de terminar en OutOfMemoryError.
+ */
+final class MemoryBudget {
+
+    private static final String TAG = "MemoryBudget";
+
+    // Parte de getMemoryClass() para decodificaciones en curso; la caché en memoria y el pool ya usan 1/8 cada uno
+    private static final int BUDGET_DIVISOR = 4;
+    private static final int LOW_RAM_BUDGET_DIVISOR = 8;
+    // Espera máxima antes de admitir la operación reducida a lo que haya libre
+    private static final long WAIT_TIMEOUT_MS = 5_000;
+    // Por debajo de la mitad de la resolución pedida no compensa aplicar: mejor fallar
+    static final float MIN_SCALE = 0.5f;
+
+    private static MemoryBudget instance;
+
+    /**
+     * Memoria reservada por una operación. Se libera al cerrarla, una sola vez.
+     */
+    final class Reservation implements AutoCloseable {
+        final long bytes;
+        // Factor aplicado a cada lado de la salida para que quepa; 1 si se admitió completa
+        final float scale;
+        private boolean released;
+
+        private Reservation(long bytes, float scale) {
+            this.bytes = bytes;
+            this.scale = scale;
+        }
+
+        @Override
+        public void close() {
+            release(this);
+        }
+    }
+
+    final long capacity;
+    private long reserved;
+
+    static synchronized MemoryBudget getInstance(Context context) {
+        if (instance == null) {
+            ActivityManager activityManager = (ActivityManager) context.getApplicationContext().getSystemService(Context.ACTIVITY_SERVICE);
+            boolean lowRam = activityManager.isLowRamDevice();
+            long memoryClassBytes = (long) activityManager.getMemoryClass() * 1024 * 1024;
+            instance = new MemoryBudget(memoryClassBytes / (lowRam ? LOW_RAM_BUDGET_DIVISOR : BUDGET_DIVISOR));
+            WallpaperLog.debug(TAG, "Decode budget " + instance.capacity / 1024 + " KB" + (lowRam ? " (low RAM device)" : ""));
+        }
+        return instance;
+    }
+
+    MemoryBudget(long capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Reserva bytes, esperando a que se liberen si hace falta. Devuelve una reserva reducida
+     * (scale menor que 1) si no cabe completa ni tras la espera, o null si ni siquiera cabe
+     * a MIN_SCALE. Lanza InterruptedException si la operación se cancela mientras espera.
+     */
+    synchronized Reservation acquire(long bytes) throws InterruptedException {
+        long wanted = Math.min(bytes, capacity);
+        long deadline = SystemClock.elapsedRealtime() + WAIT_TIMEOUT_MS;
+        while (reserved + wanted > capacity) {
+            long remaining = deadline - SystemClock.elapsedRealtime();
+            if (remaining <= 0) {
+                wanted = capacity - reserved;
+                break;
+            }
+            wait(remaining);
+        }
+        return reserve(bytes, wanted);
+    }
+
+    /**
+     * Reserva bytes completos solo si caben ahora; para trabajo opcional como la precarga.
+     */
+    synchronized Reservation tryAcquire(long bytes) {
+        if (reserved + bytes > capacity) {
+            return null;
+        }
+        return reserve(bytes, bytes);
+    }
+
+    private Reservation reserve(long bytes, long wanted) {
+        float scale = wanted >= bytes ? 1f : (float) Math.sqrt((double) Math.max(0, wanted) / bytes);
+        if (scale < MIN_SCALE) {
+            return null;
+        }
+        reserved += wanted;
+        return new Reservation(wanted, scale);
+    }
+
+    private synchronized void release(Reservation reservation) {
+        if (reservation.released) {
+            return;
+        }
+        reservation.released = true;
+        reserved -= reservation.bytes;
+        notifyAll();
+    }
+}
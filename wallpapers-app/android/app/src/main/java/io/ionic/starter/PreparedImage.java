@@ -0,0 +1,51 @@
+package io.ionic.starter;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Imagen lista para entregar a WallpaperManager.
+ *
+ * O bien es un bitmap ya recortado y escalado, o bien son los bytes originales de una imagen
+ * que no hace falta reducir y se pasa tal cual a setStream sin decodificarla. En ambos casos
+ * visibleCropHint marca la parte que se verá en pantalla. digest es el SHA-1 de los bytes de
+ * origen, o null si no se pudo calcular.
+ */
+final class PreparedImage {
+
+    final Bitmap bitmap;
+    final EncodedImage encoded;
+    // Dimensiones de la imagen que recibe WallpaperManager
+    final int width;
+    final int height;
+    final Rect visibleCropHint;
+    final String digest;
+
+    private PreparedImage(Bitmap bitmap, EncodedImage encoded, int width, int height, Rect visibleCropHint, String digest) {
+        this.bitmap = bitmap;
+        this.encoded = encoded;
+        this.width = width;
+        this.height = height;
+        this.visibleCropHint = visibleCropHint;
+        this.digest = digest;
+    }
+
+    static PreparedImage decoded(Bitmap bitmap, Rect visibleCropHint, String digest) {
+        return new PreparedImage(bitmap, null, bitmap.getWidth(), bitmap.getHeight(), visibleCropHint, digest);
+    }
+
+    static PreparedImage stream(EncodedImage encoded, int width, int height, Rect visibleCropHint, String digest) {
+        return new PreparedImage(null, encoded, width, height, visibleCropHint, digest);
+    }
+
+    boolean isStream() {
+        return bitmap == null;
+    }
+
+    InputStream openStream() throws IOException {
+        return encoded.openStream();
+    }
+}
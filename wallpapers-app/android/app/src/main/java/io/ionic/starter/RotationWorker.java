@@ -0,0 +1,295 @@
+package io.ionic.starter;
+
+import android.app.WallpaperManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.os.Build;
+import android.text.TextUtils;
+import android.util.Log;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Un paso de la rotación: aplica la imagen preparada con setStream y prepara la siguiente.
+ *
+ * Preparar es descargar (con la caché en disco compartida con el plugin) y dejar en
+ * filesDir la imagen ya recortada y reducida al tamaño del dispositivo. Si la imagen cabe
+ * tal cual se copian los bytes originales y solo se guarda el crop hint. La decodificación
+ * reserva su memoria en MemoryBudget, igual que una aplicación desde el plugin.
+ */
+public class RotationWorker extends Worker {
+
+    private static final String TAG = "RotationWorker";
+
+    // Solo prepara la siguiente imagen, sin aplicar nada (se encola al iniciar la rotación)
+    static final String KEY_STAGE_ONLY = "stageOnly";
+
+    private static final int STAGED_JPEG_QUALITY = 95;
+
+    // El worker de preparación y el de cambio pueden coincidir; comparten el archivo preparado
+    private static final Object STAGING_LOCK = new Object();
+
+    public RotationWorker(Context context, WorkerParameters params) {
+        super(context, params);
+    }
+
+    /**
+     * Prepara la imagen index. Devuelve false si esa fuente falla de forma definitiva (ya no
+     * existe, no es una imagen) y lanza IOException si el fallo es transitorio, como la red.
+     */
+    interface Stager {
+        boolean stage(int index) throws IOException, InterruptedException;
+    }
+
+    @Override
+    public Result doWork() {
+        WallpaperRotation rotation = new WallpaperRotation(getApplicationContext());
+        WallpaperRotation.Config config = rotation.config();
+        if (config == null) {
+            return Result.success();
+        }
+        boolean stageOnly = getInputData().getBoolean(KEY_STAGE_ONLY, false);
+        Result result;
+        synchronized (STAGING_LOCK) {
+            result = rotate(rotation, config, stageOnly);
+        }
+        // Un retry vuelve a ejecutar esta misma petición: encadenar otra aquí duplicaría el cambio
+        if (!stageOnly && config.isDaily() && isTerminal(result) && !isStopped()) {
+            rotation.scheduleDaily(config, ExistingWorkPolicy.APPEND_OR_REPLACE);
+        }
+        return settle(result);
+    }
+
+    private Result rotate(WallpaperRotation rotation, WallpaperRotation.Config config, boolean stageOnly) {
+        int size = config.sources.size();
+        int next = (rotation.position() + 1) % size;
+        List<String> skipped = new ArrayList<>();
+        Stager stager = index -> stageOrSkip(rotation, config, index, skipped);
+        int applied;
+        if (!stageOnly && !DeviceCapabilities.get(getApplicationContext()).setWallpaperAllowed) {
+            // Una política del dispositivo: no tiene sentido descargar ni reintentar
+            rotation.markFailed(ApplyEngine.POLICY_DISALLOWED);
+            return Result.failure();
+        }
+        try {
+            applied = stageFrom(next, size, rotation.stagedIndex(), stager);
+            if (applied < 0) {
+                // Ninguna fuente se puede preparar: reintentar no lo arregla
+                rotation.markFailed("No source could be prepared: " + TextUtils.join("; ", skipped));
+                return Result.failure();
+            }
+            if (stageOnly) {
+                reportSkipped(rotation, skipped);
+                return Result.success();
+            }
+
+            long start = WallpaperMetrics.now();
+            apply(rotation, config);
+            rotation.markApplied(applied);
+            reportSkipped(rotation, skipped);
+            WallpaperLog.debug(TAG, "Rotated to image " + applied + " in " + (WallpaperMetrics.now() - start) / 1_000_000 + " ms");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Result.retry();
+        } catch (IOException e) {
+            // Red o memoria: la misma imagen puede salir bien más tarde
+            Log.e(TAG, "Rotation failed, will retry", e);
+            rotation.markFailed(e.getMessage());
+            return Result.retry();
+        } catch (RuntimeException e) {
+            // WallpaperManager rechazó la escritura (política del dispositivo, permisos)
+            Log.e(TAG, "Rotation failed", e);
+            rotation.markFailed(e.getMessage());
+            return Result.failure();
+        }
+
+        // Dejar lista la siguiente para que el próximo cambio no espere a la red
+        if (size > 1 && !isStopped()) {
+            try {
+                stageFrom((applied + 1) % size, size, -1, stager);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                Log.w(TAG, "Could not prepare next image, will retry on the next run", e);
+            }
+        }
+        return Result.success();
+    }
+
+    /**
+     * Índice de la primera fuente desde first (en orden circular) que queda preparada, o -1 si
+     * todas fallan de forma definitiva. stagedIndex, si es una de ellas, ya está preparada. Un
+     * fallo transitorio corta la búsqueda: la misma fuente se vuelve a intentar después.
+     */
+    static int stageFrom(int first, int size, int stagedIndex, Stager stager) throws IOException, InterruptedException {
+        for (int i = 0; i < size; i++) {
+            int index = (first + i) % size;
+            if (index == stagedIndex || stager.stage(index)) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Si el resultado cierra esta ejecución; un retry no, porque WorkManager la repetirá.
+     */
+    static boolean isTerminal(Result result) {
+        return !Result.retry().equals(result);
+    }
+
+    /**
+     * Lo que se entrega a WorkManager. Un fallo definitivo ya quedó en lastError, y el siguiente
+     * cambio diario se encadena como hijo de esta ejecución: con failure() WorkManager lo haría
+     * fallar también y la rotación se pararía para siempre. Por eso se entrega como success().
+     */
+    static Result settle(Result result) {
+        return Result.failure().equals(result) ? Result.success() : result;
+    }
+
+    private boolean stageOrSkip(WallpaperRotation rotation, WallpaperRotation.Config config, int index, List<String> skipped)
+        throws IOException, InterruptedException {
+        try {
+            if (stage(rotation, config, index)) {
+                return true;
+            }
+            skipped.add("image " + index + " is not available");
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Could not prepare image " + index, e);
+            skipped.add("image " + index + ": " + e.getMessage());
+        }
+        Log.w(TAG, "Skipping image " + index + " of the rotation");
+        return false;
+    }
+
+    private static void reportSkipped(WallpaperRotation rotation, List<String> skipped) {
+        if (!skipped.isEmpty()) {
+            rotation.markFailed("Skipped " + TextUtils.join("; ", skipped));
+        }
+    }
+
+    private void apply(WallpaperRotation rotation, WallpaperRotation.Config config) throws IOException {
+        WallpaperManager wallpaperManager = WallpaperManager.getInstance(getApplicationContext());
+        try (InputStream input = new BufferedInputStream(new FileInputStream(rotation.stagedFile()), 64 * 1024)) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+                wallpaperManager.setStream(input, rotation.stagedCropHint(), true, config.which);
+            } else {
+                wallpaperManager.setStream(input);
+            }
+        }
+    }
+
+    /**
+     * Descarga la imagen index y la deja preparada. Devuelve false si el servidor la rechaza
+     * (404, 403...) o no es una imagen válida; los fallos de red o de memoria lanzan IOException.
+     */
+    private boolean stage(WallpaperRotation rotation, WallpaperRotation.Config config, int index)
+        throws IOException, InterruptedException {
+        Context context = getApplicationContext();
+        // Las mismas instancias que el plugin: comparten los locks por URL y las métricas
+        WallpaperMetrics metrics = WallpaperMetrics.getInstance();
+        ImageDownloader downloader = ImageDownloader.getInstance(context);
+        // El archivo se lee hasta el final de la preparación: que no lo expulse otra descarga
+        try (ImageDiskCache.Pin ignored = downloader.pin(config.sources.get(index))) {
+            ImageDiskCache.Entry entry = downloader.fetch(config.sources.get(index));
+            if (entry == null) {
+                return false;
+            }
+            return stageFile(rotation, config, index, entry.file, metrics);
+        }
+    }
+
+    /**
+     * Prepara el archivo descargado source, que sigue reservado en la caché mientras tanto.
+     */
+    private boolean stageFile(WallpaperRotation rotation, WallpaperRotation.Config config, int index, File source,
+                              WallpaperMetrics metrics) throws IOException {
+        Context context = getApplicationContext();
+        EncodedImage encoded = EncodedImage.of(source);
+        int[] bounds = encoded.readBounds();
+        if (bounds[0] <= 0 || bounds[1] <= 0) {
+            Log.e(TAG, "Could not read bounds of image " + index);
+            return false;
+        }
+        DeviceCapabilities capabilities = DeviceCapabilities.get(context);
+        int[] desired = capabilities.desiredSize();
+        int[] screen = capabilities.screenSize();
+        CropPlanner.Request request = CropPlanner.Request.from(config.fit);
+        CropPlanner.Plan plan = CropPlanner.plan(bounds[0], bounds[1], request, desired[0], desired[1], screen[0], screen[1]);
+
+        File staged = rotation.stagedFile();
+        File temp = new File(staged.getPath() + ".tmp");
+        Rect cropHint;
+        if (plan.needsNoScaling()) {
+            copy(source, temp);
+            cropHint = plan.sourceCropHint(bounds[0], bounds[1]);
+        } else {
+            // Sin pool: el worker vive poco y el bitmap se descarta al comprimirlo. De software,
+            // porque se comprime aquí mismo
+            BitmapDecoder decoder = new BitmapDecoder(new BitmapPool(0), metrics);
+            BitmapDecoder.Policy policy = BitmapDecoder.Policy.software(request);
+            MemoryBudget budget = MemoryBudget.getInstance(context);
+            // La reserva dura hasta comprimir: el bitmap ocupa memoria hasta entonces
+            try (MemoryBudget.Reservation reservation = budget.acquire(decoder.estimateBytes(encoded, plan, bounds[0], bounds[1], policy))) {
+                if (reservation == null) {
+                    throw new IOException("Not enough memory to decode image " + index);
+                }
+                if (reservation.scale < 1f) {
+                    // Como en el plugin: mejor una imagen algo reducida que un OutOfMemoryError
+                    Log.w(TAG, "Memory budget exhausted, staging image " + index + " at "
+                        + Math.round(reservation.scale * 100) + "% resolution");
+                    plan = plan.scaled(reservation.scale);
+                }
+                Bitmap bitmap;
+                try {
+                    bitmap = decoder.decode(encoded, plan, bounds[0], bounds[1], policy);
+                } catch (IOException e) {
+                    // El archivo ya está en disco: si no se decodifica ahora, tampoco más tarde
+                    Log.e(TAG, "Could not decode image " + index, e);
+                    return false;
+                }
+                if (bitmap == null) {
+                    return false;
+                }
+                try (OutputStream output = new FileOutputStream(temp)) {
+                    if (!bitmap.compress(Bitmap.CompressFormat.JPEG, STAGED_JPEG_QUALITY, output)) {
+                        throw new IOException("Could not encode staged image");
+                    }
+                } finally {
+                    bitmap.recycle();
+                }
+            }
+            cropHint = plan.visibleCropHint;
+        }
+        if (!temp.renameTo(staged)) {
+            temp.delete();
+            throw new IOException("Could not move staged image into place");
+        }
+        rotation.markStaged(index, cropHint);
+        WallpaperLog.debug(TAG, "Prepared image " + index + " (" + staged.length() + " bytes)");
+        return true;
+    }
+
+    private static void copy(File source, File target) throws IOException {
+        try (InputStream input = new FileInputStream(source);
+             OutputStream output = new FileOutputStream(target)) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                output.write(buffer, 0, read);
+            }
+        }
+    }
+}
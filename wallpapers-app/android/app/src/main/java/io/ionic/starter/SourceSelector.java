@@ -0,0 +1,296 @@
+package io.ionic.starter;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.util.Log;
+import android.util.LruCache;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Elige qué resolución descargar de una imagen por URL según la red y el dispositivo.
+ *
+ * El objetivo es la variante más pequeña que cubre la pantalla sin ampliar. Con red medida,
+ * un enlace lento o un dispositivo de poca RAM basta con el tamaño de la pantalla; si no, se
+ * usa el tamaño que pide el launcher. Las candidatas son las variantes que pasa quien llama
+ * ({url, width, height}) y, con la red limitada, la URL pública de Supabase Storage servida por
+ * su endpoint de transformación al tamaño justo. Si el original ya está en la caché en disco
+ * se usa tal cual: no cuesta red. Con un recorte manual no se elige nada, porque la región puede
+ * ser cualquier fracción de la imagen, y el modo parallax siempre necesita el ancho del launcher.
+ */
+final class SourceSelector {
+
+    private static final String TAG = "SourceSelector";
+
+    // Por debajo de este ancho de banda (kbps) el enlace se trata como lento
+    private static final int SLOW_LINK_KBPS = 3000;
+    // Una transformación que reduce cada lado menos que esto no compensa una descarga aparte
+    private static final float MIN_TRANSFORM_SCALE = 0.85f;
+    // Lado máximo que admite el endpoint de transformación
+    private static final int MAX_TRANSFORM_SIDE = 2500;
+    private static final String OBJECT_PATH = "/storage/v1/object/public/";
+    private static final String RENDER_PATH = "/storage/v1/render/image/public/";
+
+    /**
+     * Una resolución disponible de la imagen. width y height son 0 si no se conocen.
+     */
+    static final class Variant {
+        final String url;
+        final int width;
+        final int height;
+
+        Variant(String url, int width, int height) {
+            this.url = url;
+            this.width = width;
+            this.height = height;
+        }
+
+        boolean hasSize() {
+            return width > 0 && height > 0;
+        }
+
+        boolean covers(int[] target) {
+            return width >= target[0] && height >= target[1];
+        }
+    }
+
+    /**
+     * Lee las variantes de una llamada: [{url, width, height}]. Puede incluir la propia
+     * imageUrl para informar de su tamaño.
+     */
+    static List<Variant> parse(JSONArray array) {
+        if (array == null || array.length() == 0) {
+            return Collections.emptyList();
+        }
+        List<Variant> variants = new ArrayList<>(array.length());
+        for (int i = 0; i < array.length(); i++) {
+            JSONObject variant = array.optJSONObject(i);
+            String url = variant != null ? variant.optString("url", "") : "";
+            if (!url.startsWith("http://") && !url.startsWith("https://")) {
+                throw new IllegalArgumentException("Variant " + i + " needs an http(s) url");
+            }
+            variants.add(new Variant(url, Math.max(0, variant.optInt("width", 0)), Math.max(0, variant.optInt("height", 0))));
+        }
+        return variants;
+    }
+
+    /**
+     * Estado de la red y del dispositivo al elegir.
+     */
+    static final class Conditions {
+        final boolean metered;
+        // Ancho de banda de bajada estimado; 0 si no se conoce
+        final int downstreamKbps;
+        final boolean lowRam;
+
+        Conditions(boolean metered, int downstreamKbps, boolean lowRam) {
+            this.metered = metered;
+            this.downstreamKbps = downstreamKbps;
+            this.lowRam = lowRam;
+        }
+
+        boolean constrained() {
+            return metered || lowRam || (downstreamKbps > 0 && downstreamKbps < SLOW_LINK_KBPS);
+        }
+
+        @Override
+        public String toString() {
+            return "metered=" + metered + ", downstreamKbps=" + downstreamKbps + ", lowRam=" + lowRam;
+        }
+    }
+
+    private final Context context;
+    private final ImageDiskCache diskCache;
+    private final ImageDownloader downloader;
+    private final WallpaperMetrics metrics;
+    // Dimensiones de originales ya sondeados; {0, 0} si no se pudieron leer
+    private final LruCache<String, int[]> bounds = new LruCache<>(64);
+    // El proyecto puede no tener activadas las transformaciones: si las rechaza no se vuelven a pedir
+    private volatile boolean transformsUnavailable;
+
+    SourceSelector(Context context, ImageDiskCache diskCache, ImageDownloader downloader, WallpaperMetrics metrics) {
+        this.context = context.getApplicationContext();
+        this.diskCache = diskCache;
+        this.downloader = downloader;
+        this.metrics = metrics;
+    }
+
+    ApplyEngine.Source select(ApplyEngine.Source source, CropPlanner.Request request) throws InterruptedException {
+        return select(source, request != null ? Collections.singletonList(request) : Collections.emptyList());
+    }
+
+    /**
+     * El origen que conviene descargar para todos los ajustes de requests: el mismo si no es una
+     * URL, si ya está en disco o si no hay una variante mejor; si no, la variante, que recuerda
+     * el original para volver a él si falla.
+     */
+    ApplyEngine.Source select(ApplyEngine.Source source, List<CropPlanner.Request> requests) throws InterruptedException {
+        if (source.imageUrl == null || source.original != null) {
+            return source;
+        }
+        return select(source, requests, conditions());
+    }
+
+    /**
+     * select con las condiciones ya leídas.
+     */
+    ApplyEngine.Source select(ApplyEngine.Source source, List<CropPlanner.Request> requests, Conditions conditions)
+        throws InterruptedException {
+        if (source.imageUrl == null || source.original != null) {
+            return source;
+        }
+        boolean needsLauncherWidth = false;
+        for (CropPlanner.Request request : requests) {
+            if (request.mode == CropPlanner.Mode.CROP) {
+                return source;
+            }
+            needsLauncherWidth |= request.mode == CropPlanner.Mode.PARALLAX;
+        }
+        if (diskCache.contains(source.imageUrl)) {
+            WallpaperLog.debug(TAG, "Original already in disk cache, skipping variant selection");
+            return source;
+        }
+        DeviceCapabilities capabilities = DeviceCapabilities.get(context);
+        int[] target = conditions.constrained() && !needsLauncherWidth ? capabilities.screenSize() : capabilities.desiredSize();
+
+        Variant chosen = smallestCovering(source.variants, target);
+        if ((chosen == null || chosen.url.equals(source.imageUrl)) && conditions.constrained()) {
+            // Que el original cubra la pantalla no quita que el servidor pueda reducirlo
+            Variant transformed = transformed(source, target);
+            if (transformed != null) {
+                chosen = transformed;
+            }
+        }
+        if (chosen == null || chosen.url.equals(source.imageUrl)) {
+            return source;
+        }
+        metrics.variantsSelected.incrementAndGet();
+        WallpaperLog.debug(TAG, "Using " + chosen.width + "x" + chosen.height + " variant for a " + target[0] + "x" + target[1]
+            + " target (" + conditions + ")");
+        return source.variant(chosen.url);
+    }
+
+    /**
+     * La variante elegida no se pudo descargar y se vuelve al original. status es el código HTTP
+     * del fallo, o 0 si fue la red. Solo un 400, 403 o 404 del endpoint de transformación dice
+     * que el proyecto no las tiene activadas; un corte o un 5xx no deja de pedirlas.
+     */
+    void variantFailed(ApplyEngine.Source variant, int status) {
+        metrics.variantFallbacks.incrementAndGet();
+        transformFailed(variant.imageUrl, status);
+    }
+
+    /**
+     * La URL de Storage reducida a width de ancho para una miniatura, o null si la imagen no es
+     * de Storage o el proyecto no tiene las transformaciones activadas. Nunca amplía.
+     */
+    String thumbnailUrl(String imageUrl, int width) {
+        if (transformsUnavailable || !imageUrl.contains(OBJECT_PATH)) {
+            return null;
+        }
+        String url = imageUrl.replace(OBJECT_PATH, RENDER_PATH);
+        return url + (url.indexOf('?') >= 0 ? "&" : "?") + "width=" + width + "&resize=contain";
+    }
+
+    /**
+     * Como variantFailed, para una URL de thumbnailUrl que no se pudo descargar.
+     */
+    void transformFailed(String url, int status) {
+        boolean rejected = status == 400 || status == 403 || status == 404;
+        if (rejected && url.contains(RENDER_PATH) && !transformsUnavailable) {
+            transformsUnavailable = true;
+            Log.w(TAG, "Storage image transformations unavailable, downloading originals from now on");
+        }
+    }
+
+    Conditions conditions() {
+        boolean metered = false;
+        int downstreamKbps = 0;
+        ConnectivityManager connectivity = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connectivity != null) {
+            metered = connectivity.isActiveNetworkMetered();
+            Network network = connectivity.getActiveNetwork();
+            NetworkCapabilities capabilities = network != null ? connectivity.getNetworkCapabilities(network) : null;
+            if (capabilities != null) {
+                downstreamKbps = capabilities.getLinkDownstreamBandwidthKbps();
+            }
+        }
+        // El caudal que de verdad se midió manda si es peor que la estimación del sistema
+        int observedKbps = downloader.observedKbps();
+        if (observedKbps > 0) {
+            downstreamKbps = downstreamKbps > 0 ? Math.min(downstreamKbps, observedKbps) : observedKbps;
+        }
+        return new Conditions(metered, downstreamKbps, DeviceCapabilities.get(context).lowRamDevice);
+    }
+
+    /**
+     * La variante de tamaño conocido más pequeña que cubre target, o null si ninguna lo cubre.
+     */
+    private static Variant smallestCovering(List<Variant> variants, int[] target) {
+        Variant best = null;
+        for (Variant variant : variants) {
+            if (!variant.hasSize() || !variant.covers(target)) {
+                continue;
+            }
+            if (best == null || (long) variant.width * variant.height < (long) best.width * best.height) {
+                best = variant;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * El original de Supabase Storage reducido por el servidor lo justo para cubrir target, o
+     * null si no es de Storage, no se conocen sus dimensiones o ya es de ese tamaño.
+     */
+    private Variant transformed(ApplyEngine.Source source, int[] target) throws InterruptedException {
+        if (transformsUnavailable || !source.imageUrl.contains(OBJECT_PATH)) {
+            return null;
+        }
+        int[] size = originalSize(source);
+        if (size == null) {
+            return null;
+        }
+        float scale = Math.max((float) target[0] / size[0], (float) target[1] / size[1]);
+        if (scale >= MIN_TRANSFORM_SCALE) {
+            return null;
+        }
+        int width = (int) Math.ceil(size[0] * scale);
+        int height = (int) Math.ceil(size[1] * scale);
+        if (width > MAX_TRANSFORM_SIDE || height > MAX_TRANSFORM_SIDE) {
+            return null;
+        }
+        // contain con la proporción del original no recorta: el recorte lo sigue haciendo CropPlanner
+        String url = source.imageUrl.replace(OBJECT_PATH, RENDER_PATH);
+        url += (url.indexOf('?') >= 0 ? "&" : "?") + "width=" + width + "&height=" + height + "&resize=contain";
+        return new Variant(url, width, height);
+    }
+
+    /**
+     * Dimensiones del original: las que informó quien llama o, si no, las del encabezado leído
+     * con una petición parcial, que cuesta mucho menos que la imagen completa en un enlace lento.
+     */
+    private int[] originalSize(ApplyEngine.Source source) throws InterruptedException {
+        for (Variant variant : source.variants) {
+            if (variant.url.equals(source.imageUrl) && variant.hasSize()) {
+                return new int[] { variant.width, variant.height };
+            }
+        }
+        int[] size = bounds.get(source.imageUrl);
+        if (size == null) {
+            size = downloader.probeBounds(source.imageUrl);
+            if (size == null) {
+                size = new int[] { 0, 0 };
+            }
+            bounds.put(source.imageUrl, size);
+        }
+        return size[0] > 0 && size[1] > 0 ? size : null;
+    }
+}
@@ -0,0 +1,298 @@
+package io.ionic.starter;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Miniaturas WebP de la galería, generadas en nativo a partir de los originales.
+ *
+ * El ancho pedido se redondea a uno de BUCKETS, así que una misma imagen tiene como mucho
+ * unas pocas miniaturas en disco. Se generan en un pool propio de prioridad baja y se guardan
+ * en otra ImageDiskCache con su propio presupuesto. Si el original ya está en ImageDiskCache se
+ * parte de él, y la miniatura recuerda su SHA-1 para volver a generarse si cambia. Si no, no se
+ * descarga a esa caché, que es la de la aplicación: se pide a Supabase Storage la imagen ya
+ * reducida al bucket (SourceSelector.thumbnailUrl) o, si no se puede, el original a un archivo
+ * temporal que se borra al terminar.
+ *
+ * Cada decodificación reserva su memoria en MemoryBudget sin esperar: si no cabe ahora, la
+ * miniatura falla con NoMemoryException y la galería muestra el original.
+ */
+final class ThumbnailStore {
+
+    private static final String TAG = "ThumbnailStore";
+
+    private static final String DIRECTORY = "wallpaper-thumbnails";
+
+    // Anchos en píxeles físicos; cada petición se redondea al siguiente
+    static final int[] BUCKETS = { 160, 320, 480, 720 };
+
+    private static final int WEBP_QUALITY = 80;
+    private static final int MAX_WORKERS = 2;
+
+    private static ImageDiskCache thumbnailCache;
+
+    /**
+     * El presupuesto de memoria del proceso está ocupado; la miniatura se puede pedir más tarde.
+     */
+    static final class NoMemoryException extends IOException {
+        NoMemoryException(String message) {
+            super(message);
+        }
+    }
+
+    private final ImageDiskCache originals;
+    private final ImageDiskCache thumbnails;
+    private final ImageDownloader downloader;
+    private final SourceSelector selector;
+    private final BitmapPool pool;
+    private final BitmapDecoder decoder;
+    private final MemoryBudget budget;
+    private final ThreadPoolExecutor workers;
+    // Generaciones en cola o en curso, por clave de miniatura
+    private final Map<String, FutureTask<File>> inFlight = new ConcurrentHashMap<>();
+
+    ThumbnailStore(Context context, ImageDiskCache originals, ImageDownloader downloader, SourceSelector selector,
+                   BitmapPool pool, MemoryBudget budget, long maxBytes) {
+        this.originals = originals;
+        this.budget = budget;
+        this.thumbnails = thumbnailCache(context, maxBytes);
+        this.downloader = downloader;
+        this.selector = selector;
+        this.pool = pool;
+        // Métricas propias: las miniaturas no deben mezclarse con los tiempos de aplicación
+        this.decoder = new BitmapDecoder(pool, new WallpaperMetrics());
+        workers = new ThreadPoolExecutor(
+            MAX_WORKERS,
+            MAX_WORKERS,
+            30L,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(),
+            new WallpaperExecutor.NamedThreadFactory("wallpaper-thumbnail")
+        );
+        workers.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Una sola caché por proceso sobre el directorio, igual que la de originales.
+     */
+    private static synchronized ImageDiskCache thumbnailCache(Context context, long maxBytes) {
+        if (thumbnailCache == null) {
+            thumbnailCache = new ImageDiskCache(new File(context.getApplicationContext().getCacheDir(), DIRECTORY), maxBytes);
+        }
+        return thumbnailCache;
+    }
+
+    /**
+     * Menor bucket que cubre el ancho pedido, o el mayor si ninguno llega.
+     */
+    static int bucketFor(int width) {
+        for (int bucket : BUCKETS) {
+            if (bucket >= width) {
+                return bucket;
+            }
+        }
+        return BUCKETS[BUCKETS.length - 1];
+    }
+
+    /**
+     * Archivo WebP de la miniatura, generándola si hace falta y esperando como mucho timeoutMs.
+     * Lanza FileNotFoundException si el original no existe o no es una imagen.
+     */
+    File get(String imageUrl, int width, long timeoutMs) throws IOException, InterruptedException, TimeoutException {
+        int bucket = bucketFor(width);
+        String key = key(imageUrl, bucket);
+        File cached = cached(imageUrl, key);
+        if (cached != null) {
+            return cached;
+        }
+        try {
+            return request(imageUrl, bucket, key).get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Could not generate thumbnail", cause);
+        }
+    }
+
+    /**
+     * Encola la generación sin esperar. Devuelve false si ya estaba en disco o en cola.
+     */
+    boolean prefetch(String imageUrl, int width) {
+        int bucket = bucketFor(width);
+        String key = key(imageUrl, bucket);
+        if (inFlight.containsKey(key) || cached(imageUrl, key) != null) {
+            return false;
+        }
+        request(imageUrl, bucket, key);
+        return true;
+    }
+
+    void clear() {
+        thumbnails.clear();
+    }
+
+    void shutdown() {
+        workers.shutdownNow();
+        inFlight.clear();
+    }
+
+    private FutureTask<File> request(String imageUrl, int bucket, String key) {
+        FutureTask<File> task = new FutureTask<>(() -> {
+            try {
+                return load(imageUrl, bucket, key);
+            } finally {
+                inFlight.remove(key);
+            }
+        });
+        FutureTask<File> existing = inFlight.putIfAbsent(key, task);
+        if (existing != null) {
+            return existing;
+        }
+        workers.execute(task);
+        return task;
+    }
+
+    /**
+     * Miniatura en disco si sigue correspondiendo al original en caché. El original solo se
+     * consulta con peek: ver una miniatura no es usar el original, que debe poder expulsarse.
+     */
+    private File cached(String imageUrl, String key) {
+        ImageDiskCache.Entry thumbnail = thumbnails.get(key);
+        if (thumbnail == null) {
+            return null;
+        }
+        ImageDiskCache.Entry original = originals.peek(imageUrl);
+        // Una miniatura sin digest no salió del original en caché: no hay con qué compararla
+        if (original != null && original.digest != null && thumbnail.digest != null
+            && !original.digest.equals(thumbnail.digest)) {
+            return null;
+        }
+        return thumbnail.file;
+    }
+
+    private File load(String imageUrl, int bucket, String key) throws IOException, InterruptedException {
+        File cached = cached(imageUrl, key);
+        if (cached != null) {
+            return cached;
+        }
+        // Sin revalidar: para una miniatura basta con el original que ya haya en disco
+        try (ImageDiskCache.Pin ignored = originals.pin(imageUrl)) {
+            ImageDiskCache.Entry original = originals.peek(imageUrl);
+            if (original != null) {
+                return generate(EncodedImage.of(original.file, original.digest), original.digest, bucket, key);
+            }
+        }
+        File source = thumbnails.newTempFile(key);
+        try {
+            download(imageUrl, bucket, source);
+            return generate(EncodedImage.of(source), null, bucket, key);
+        } finally {
+            source.delete();
+        }
+    }
+
+    /**
+     * Los bytes de los que sale la miniatura, en target: la versión reducida por Storage si la
+     * hay, o el original. Lanza FileNotFoundException si el servidor no tiene la imagen.
+     */
+    private void download(String imageUrl, int bucket, File target) throws IOException, InterruptedException {
+        String rendered = selector.thumbnailUrl(imageUrl, bucket);
+        if (rendered != null) {
+            try {
+                downloader.fetchUncached(rendered, target);
+                return;
+            } catch (ImageDownloader.HttpStatusException e) {
+                Log.w(TAG, "Rendered thumbnail failed with HTTP " + e.code + ", downloading the original");
+                selector.transformFailed(rendered, e.code);
+            } catch (IOException e) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedException("Thumbnail cancelled");
+                }
+                Log.w(TAG, "Rendered thumbnail failed, downloading the original", e);
+            }
+        }
+        try {
+            downloader.fetchUncached(imageUrl, target);
+        } catch (ImageDownloader.HttpStatusException e) {
+            throw new FileNotFoundException("Image not available (HTTP " + e.code + "): " + WallpaperLog.redact(imageUrl));
+        }
+    }
+
+    /**
+     * Genera y guarda la miniatura. digest es el SHA-1 del original en caché del que sale, o
+     * null si sale de otros bytes.
+     */
+    private File generate(EncodedImage encoded, String digest, int bucket, String key) throws IOException {
+        long start = WallpaperMetrics.now();
+        int[] bounds = encoded.readBounds();
+        if (bounds[0] <= 0 || bounds[1] <= 0) {
+            throw new FileNotFoundException("Original is not an image");
+        }
+        // Nunca se amplía: una imagen más estrecha que el bucket se queda con su ancho
+        int width = Math.min(bucket, bounds[0]);
+        int height = Math.max(1, Math.round((float) bounds[1] * width / bounds[0]));
+
+        File temp;
+        // Reservado hasta comprimir, que es cuando se devuelven los bitmaps al pool
+        try (MemoryBudget.Reservation reservation = budget.tryAcquire(BitmapDecoder.estimateBytes(bounds[0], bounds[1], width, height))) {
+            if (reservation == null) {
+                throw new NoMemoryException("Memory budget in use");
+            }
+            Bitmap bitmap = decoder.decode(encoded, width, height);
+            if (bitmap == null) {
+                throw new FileNotFoundException("Could not decode original");
+            }
+            Bitmap thumbnail = bitmap;
+            if (bitmap.getWidth() != width || bitmap.getHeight() != height) {
+                thumbnail = Bitmap.createScaledBitmap(bitmap, width, height, true);
+                if (thumbnail != bitmap) {
+                    pool.put(bitmap);
+                }
+            }
+
+            temp = thumbnails.newTempFile(key);
+            try (OutputStream output = new BufferedOutputStream(new FileOutputStream(temp), 32 * 1024)) {
+                if (!thumbnail.compress(webpFormat(), WEBP_QUALITY, output)) {
+                    throw new IOException("Could not encode thumbnail");
+                }
+            } catch (IOException e) {
+                temp.delete();
+                throw e;
+            } finally {
+                pool.put(thumbnail);
+            }
+        }
+        ImageDiskCache.Entry entry = thumbnails.commit(key, temp, null, null, digest);
+        WallpaperLog.debug(TAG, "Generated " + width + "x" + height + " thumbnail (" + entry.file.length() + " bytes) in "
+            + (WallpaperMetrics.now() - start) / 1_000_000 + " ms");
+        return entry.file;
+    }
+
+    @SuppressWarnings("deprecation")
+    private static Bitmap.CompressFormat webpFormat() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.R ? Bitmap.CompressFormat.WEBP_LOSSY : Bitmap.CompressFormat.WEBP;
+    }
+
+    private static String key(String imageUrl, int bucket) {
+        return "thumb:" + bucket + ":" + imageUrl;
+    }
+}
@@ -0,0 +1,133 @@
+package io.ionic.starter;
+
+import android.net.Uri;
+import android.util.Log;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+import android.webkit.WebView;
+import com.getcapacitor.Bridge;
+import com.getcapacitor.BridgeWebViewClient;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Cliente del WebView de Capacitor que además sirve las miniaturas de la galería.
+ *
+ * Las peticiones a {localUrl}/_thumbnail?src=URL&w=ANCHO se responden con el WebP de
+ * ThumbnailStore, sin que el WebView descargue ni decodifique el original. Todo lo demás
+ * sigue el camino normal de BridgeWebViewClient. WebView llama a shouldInterceptRequest
+ * fuera del hilo principal, así que esperar a que se genere la miniatura no bloquea la UI.
+ */
+final class ThumbnailWebViewClient extends BridgeWebViewClient {
+
+    private static final String TAG = "ThumbnailWebViewClient";
+
+    static final String PATH = "/_thumbnail";
+
+    private static final long GENERATE_TIMEOUT_MS = 30_000;
+
+    /**
+     * Da acceso al ThumbnailStore, que el plugin crea la primera vez que hace falta.
+     */
+    interface StoreProvider {
+        ThumbnailStore get();
+    }
+
+    /**
+     * La parte de ThumbnailStore que usa serve: la miniatura del bucket que cubre width.
+     */
+    interface Thumbnails {
+        File get(String imageUrl, int width, long timeoutMs) throws IOException, InterruptedException, TimeoutException;
+    }
+
+    private final Bridge bridge;
+    private final StoreProvider store;
+
+    ThumbnailWebViewClient(Bridge bridge, StoreProvider store) {
+        super(bridge);
+        this.bridge = bridge;
+        this.store = store;
+    }
+
+    @Override
+    public WebResourceResponse shouldInterceptRequest(WebView view, WebResourceRequest request) {
+        Uri url = request.getUrl();
+        if (!PATH.equals(url.getPath()) || !"GET".equals(request.getMethod()) || !isLocal(url, bridge.getLocalUrl())) {
+            return super.shouldInterceptRequest(view, request);
+        }
+        return serve(url, (imageUrl, width, timeoutMs) -> store.get().get(imageUrl, width, timeoutMs));
+    }
+
+    /**
+     * Responde una petición a PATH: el WebP, o un error sin cuerpo según por qué no lo hay.
+     */
+    static WebResourceResponse serve(Uri url, Thumbnails thumbnails) {
+        String imageUrl = url.getQueryParameter("src");
+        int width = parseWidth(url.getQueryParameter("w"));
+        if (imageUrl == null || !(imageUrl.startsWith("http://") || imageUrl.startsWith("https://")) || width <= 0) {
+            return error(400, "Bad Request");
+        }
+        try {
+            File file = thumbnails.get(imageUrl, width, GENERATE_TIMEOUT_MS);
+            Map<String, String> headers = new HashMap<>();
+            headers.put("Cache-Control", "private, max-age=86400");
+            headers.put("Content-Length", String.valueOf(file.length()));
+            return new WebResourceResponse("image/webp", null, 200, "OK", headers,
+                new BufferedInputStream(new FileInputStream(file), 32 * 1024));
+        } catch (FileNotFoundException e) {
+            Log.w(TAG, "No thumbnail for " + WallpaperLog.redact(imageUrl) + ": " + e.getMessage());
+            return error(404, "Not Found");
+        } catch (ThumbnailStore.NoMemoryException e) {
+            // Sin memoria para decodificar ahora: el img cae al original
+            return error(503, "Service Unavailable");
+        } catch (TimeoutException e) {
+            Log.w(TAG, "Thumbnail for " + WallpaperLog.redact(imageUrl) + " timed out");
+            return error(504, "Gateway Timeout");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return error(503, "Service Unavailable");
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Could not serve thumbnail for " + WallpaperLog.redact(imageUrl), e);
+            return error(502, "Bad Gateway");
+        }
+    }
+
+    /**
+     * Solo el origen de la app: una página externa no puede pedir miniaturas.
+     */
+    static boolean isLocal(Uri url, String localUrl) {
+        if (localUrl == null) {
+            return false;
+        }
+        Uri local = Uri.parse(localUrl);
+        return url.getHost() != null && url.getHost().equals(local.getHost())
+            && url.getScheme() != null && url.getScheme().equals(local.getScheme());
+    }
+
+    private static int parseWidth(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Respuesta de error sin cuerpo; el img de la galería cae entonces a la URL original.
+     */
+    private static WebResourceResponse error(int status, String reason) {
+        return new WebResourceResponse("text/plain", "utf-8", status, reason, new HashMap<>(),
+            new ByteArrayInputStream(new byte[0]));
+    }
+}
@@ -0,0 +1,193 @@
+package io.ionic.starter;
+
+import android.app.WallpaperManager;
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lote de applyBatch: entradas {source, target, fit, crop, focalPoint} con sus orígenes deduplicados.
+ *
+ * Cada origen distinto se descarga una vez (Source) y cada combinación de origen y recorte se
+ * decodifica una vez (Render), aunque varias entradas la usen.
+ */
+final class WallpaperBatch {
+
+    /**
+     * Origen único del lote. Varias entradas pueden compartirlo.
+     */
+    static final class Source {
+        // El motor lo sustituye por la variante que elige SourceSelector antes de descargar
+        ApplyEngine.Source origin;
+        EncodedImage encoded;
+        String error;
+        long fetchMs;
+        // Reserva en la caché en disco de lo descargado, hasta la última escritura del lote
+        ImageDiskCache.Pin pin;
+
+        Source(ApplyEngine.Source origin) {
+            this.origin = origin;
+        }
+    }
+
+    /**
+     * Un origen preparado con un recorte concreto.
+     */
+    static final class Render {
+        final Source source;
+        final CropPlanner.Request request;
+        PreparedImage image;
+        // Memoria reservada para decodificarlo, hasta que termina el lote
+        MemoryBudget.Reservation reservation;
+        String error;
+        long decodeMs;
+
+        Render(Source source, CropPlanner.Request request) {
+            this.source = source;
+            this.request = request;
+        }
+    }
+
+    static final class Item {
+        final int index;
+        final String target;
+        final int flag;
+        final Render render;
+        final boolean deduplicated;
+        boolean success;
+        // La pantalla ya mostraba esta imagen y no se volvió a escribir
+        boolean skipped;
+        String message;
+        long commitMs;
+
+        Item(int index, String target, int flag, Render render, boolean deduplicated) {
+            this.index = index;
+            this.target = target;
+            this.flag = flag;
+            this.render = render;
+            this.deduplicated = deduplicated;
+        }
+    }
+
+    final List<Item> items = new ArrayList<>();
+    final List<Source> sources = new ArrayList<>();
+    final List<Render> renders = new ArrayList<>();
+
+    private WallpaperBatch() {}
+
+    static WallpaperBatch parse(JSArray array) throws JSONException {
+        if (array == null || array.length() == 0) {
+            throw new IllegalArgumentException("Must provide at least one item");
+        }
+        WallpaperBatch batch = new WallpaperBatch();
+        Map<String, Source> sourcesByKey = new LinkedHashMap<>();
+        Map<String, Render> rendersByKey = new LinkedHashMap<>();
+        for (int i = 0; i < array.length(); i++) {
+            JSONObject item = array.getJSONObject(i);
+            JSONObject source = item.optJSONObject("source");
+            if (source == null) {
+                throw new IllegalArgumentException("Item " + i + " has no source");
+            }
+            ApplyEngine.Source origin;
+            try {
+                origin = ApplyEngine.Source.of(source.optString("imageUrl", null), source.optString("base64Image", null))
+                    .withVariants(SourceSelector.parse(source.optJSONArray("variants")));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Item " + i + ": " + e.getMessage());
+            }
+            String key = origin.key;
+
+            String target = item.optString("target", "home");
+            int flag = flagFor(target, i);
+            CropPlanner.Request request;
+            try {
+                request = CropPlanner.Request.from(item);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Item " + i + ": " + e.getMessage());
+            }
+
+            Source shared = sourcesByKey.get(key);
+            boolean deduplicated = shared != null;
+            if (shared == null) {
+                shared = new Source(origin);
+                sourcesByKey.put(key, shared);
+                batch.sources.add(shared);
+            }
+            String renderKey = key + "|" + request.key();
+            Render render = rendersByKey.get(renderKey);
+            if (render == null) {
+                render = new Render(shared, request);
+                rendersByKey.put(renderKey, render);
+                batch.renders.add(render);
+            }
+            batch.items.add(new Item(i, target, flag, render, deduplicated));
+        }
+        return batch;
+    }
+
+    /**
+     * Agrupa entradas contiguas que escriben la misma imagen con el mismo recorte, para
+     * hacer una sola escritura con ambas flags.
+     */
+    List<List<Item>> commitGroups() {
+        List<List<Item>> groups = new ArrayList<>();
+        List<Item> current = null;
+        for (Item item : items) {
+            if (current != null && current.get(0).render == item.render) {
+                current.add(item);
+            } else {
+                current = new ArrayList<>();
+                current.add(item);
+                groups.add(current);
+            }
+        }
+        return groups;
+    }
+
+    JSObject toResult() {
+        JSArray results = new JSArray();
+        boolean allSucceeded = true;
+        for (Item item : items) {
+            JSObject entry = new JSObject();
+            entry.put("index", item.index);
+            entry.put("target", item.target);
+            entry.put("success", item.success);
+            entry.put("message", item.message);
+            if (item.skipped) {
+                entry.put("skipped", "alreadyApplied");
+            }
+            entry.put("deduplicated", item.deduplicated);
+            entry.put("fetchMs", item.deduplicated ? 0 : item.render.source.fetchMs);
+            entry.put("decodeMs", item.render.decodeMs);
+            entry.put("commitMs", item.commitMs);
+            results.put(entry);
+            allSucceeded &= item.success;
+        }
+        JSObject result = WallpaperPlugin.result(
+            allSucceeded,
+            allSucceeded ? "All wallpapers set successfully" : "Some wallpapers could not be set"
+        );
+        result.put("items", results);
+        return result;
+    }
+
+    private static int flagFor(String target, int index) {
+        if ("home".equals(target)) {
+            return WallpaperManager.FLAG_SYSTEM;
+        }
+        if ("lock".equals(target)) {
+            if (android.os.Build.VERSION.SDK_INT < android.os.Build.VERSION_CODES.N) {
+                throw new IllegalArgumentException("Lock screen wallpaper requires Android 7.0 (API 24) or higher");
+            }
+            return WallpaperManager.FLAG_LOCK;
+        }
+        throw new IllegalArgumentException("Item " + index + " has invalid target '" + target + "'");
+    }
+}
@@ -0,0 +1,609 @@
+package io.ionic.starter;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import com.getcapacitor.JSObject;
+import com.getcapacitor.PluginCall;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Motor de ejecución propio del plugin.
+ *
+ * Cada llamada corre en un worker de un pool acotado, fuera del hilo del bridge de Capacitor,
+ * y se resuelve exactamente una vez desde él. El trabajo pesado de cada fase va a su carril:
+ * red (fetch), CPU (decode) y escritura a WallpaperManager (commit, un solo hilo). Así, mientras
+ * una operación decodifica, la siguiente ya descarga, y cada carril limita su propio recurso.
+ *
+ * Cada operación tiene un id (el que envía JS en operationId o uno generado), emite eventos
+ * de progreso y se puede cancelar. Una operación nueva sustituye a las anteriores cuyas
+ * pantallas cubre por completo, para no gastar red ni memoria en un fondo que ya nadie quiere.
+ */
+final class WallpaperExecutor {
+
+    private static final String TAG = "WallpaperExecutor";
+
+    // Los workers coordinan y pasan casi todo el tiempo esperando a un carril: uno por fase más uno
+    private static final int MAX_WORKERS = 4;
+    private static final int FETCH_THREADS = 3;
+    // Decodificar es CPU y memoria: como mucho dos a la vez, uno en equipos de un núcleo
+    private static final int DECODE_THREADS = Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() - 1));
+    private static final int MAX_QUEUED = 16;
+    // Hilos para las subtareas de un lote; sin cola, así nunca ocupan sitio en la de los workers
+    private static final int SUBTASK_THREADS = 4;
+
+    /**
+     * Trabajo que produce el resultado para el PluginCall.
+     */
+    interface Job {
+        JSObject run() throws Exception;
+    }
+
+    /**
+     * Destino de los eventos de progreso (en el plugin, notifyListeners).
+     */
+    interface ProgressSink {
+        void onProgress(JSObject event);
+    }
+
+    /**
+     * Registro de una acción de cancelación; se retira al cerrarlo.
+     */
+    interface CancelRegistration extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    // Intervalo mínimo entre eventos de bytes descargados de una misma operación
+    private static final long DOWNLOAD_PROGRESS_INTERVAL_MS = 100;
+
+    // Operación que se está ejecutando en el hilo actual, para progreso y cancelación
+    private static final ThreadLocal<Operation> CURRENT = new ThreadLocal<>();
+    // Ámbito de cancelación del trabajo que corre fuera de una operación, como la precarga
+    private static final ThreadLocal<CancelScope> SCOPE = new ThreadLocal<>();
+
+    /**
+     * Cancelación para trabajo que no es una operación del plugin. Mientras el hilo está dentro
+     * del ámbito (enter), lo que se registre con onCancel se ejecuta al llamar a cancel; así la
+     * precarga también cierra el socket de una descarga en curso en lugar de solo interrumpir.
+     */
+    static final class CancelScope {
+        private final List<Runnable> hooks = new CopyOnWriteArrayList<>();
+        private volatile boolean cancelled;
+
+        /**
+         * Entra en el ámbito en el hilo actual; cerrar la registración sale de él.
+         */
+        CancelRegistration enter() {
+            SCOPE.set(this);
+            return SCOPE::remove;
+        }
+
+        void cancel() {
+            cancelled = true;
+            for (Runnable hook : hooks) {
+                runHook(hook);
+            }
+        }
+
+        private CancelRegistration add(Runnable action) {
+            hooks.add(action);
+            if (cancelled) {
+                runHook(action);
+            }
+            return () -> hooks.remove(action);
+        }
+
+        private static void runHook(Runnable hook) {
+            try {
+                hook.run();
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Cancel hook failed", e);
+            }
+        }
+    }
+
+    private final ThreadPoolExecutor workers;
+    private final ThreadPoolExecutor subtasks;
+    private final ExecutorService fetchLane;
+    private final ExecutorService decodeLane;
+    private final ExecutorService commitLane;
+    // Operaciones en cola o en curso, por id
+    private final Map<String, Operation> inFlight = new ConcurrentHashMap<>();
+    private final AtomicInteger operationIds = new AtomicInteger(1);
+    private final WallpaperMetrics metrics;
+    private final ProgressSink progressSink;
+
+    WallpaperExecutor(WallpaperMetrics metrics, ProgressSink progressSink) {
+        this.metrics = metrics;
+        this.progressSink = progressSink;
+        workers = new ThreadPoolExecutor(
+            MAX_WORKERS,
+            MAX_WORKERS,
+            30L,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(MAX_QUEUED),
+            new NamedThreadFactory("wallpaper-worker")
+        );
+        workers.allowCoreThreadTimeOut(true);
+        subtasks = new ThreadPoolExecutor(0, SUBTASK_THREADS, 30L, TimeUnit.SECONDS,
+            new SynchronousQueue<>(), new NamedThreadFactory("wallpaper-subtask"));
+        fetchLane = lane(FETCH_THREADS, "wallpaper-fetch");
+        decodeLane = lane(DECODE_THREADS, "wallpaper-decode");
+        commitLane = Executors.newSingleThreadExecutor(new NamedThreadFactory("wallpaper-commit"));
+    }
+
+    private static ExecutorService lane(int threads, String name) {
+        ThreadPoolExecutor lane = new ThreadPoolExecutor(threads, threads, 30L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), new NamedThreadFactory(name));
+        lane.allowCoreThreadTimeOut(true);
+        return lane;
+    }
+
+    /**
+     * Encola el trabajo de una llamada. El resultado del Job (o el error) se entrega con call.resolve
+     * desde el worker; si la llamada se cancela antes de terminar se resuelve como cancelada.
+     *
+     * targets son las flags de WallpaperManager que escribe la operación (0 si no se puede
+     * sustituir, como un lote). Las operaciones anteriores cuyas pantallas quedan cubiertas
+     * por targets se cancelan como sustituidas. Devuelve el id de la operación.
+     */
+    String submit(PluginCall call, int targets, Job job) {
+        return submit(call, targets, job, null);
+    }
+
+    /**
+     * Como submit, con una limpieza que se ejecuta una sola vez cuando la operación ya no va a
+     * tocar sus recursos: al terminar el Job, o al resolverse sin haber empezado (rechazada,
+     * sustituida o cancelada en cola). Por ejemplo, borrar el archivo de una subida.
+     */
+    String submit(PluginCall call, int targets, Job job, Runnable cleanup) {
+        Long sentAt = call.getLong("sentAt");
+        if (sentAt != null) {
+            metrics.bridgeReceive.record((System.currentTimeMillis() - sentAt) * 1000);
+        }
+        String operationId = call.getString("operationId");
+        Operation operation;
+        // Se puede encolar desde el bridge y desde el hilo de fondo (commit de una subida):
+        // la sustitución y el registro van juntos para que dos llamadas no se crucen
+        synchronized (inFlight) {
+            if (operationId == null || operationId.isEmpty() || inFlight.containsKey(operationId)) {
+                operationId = "op-" + operationIds.getAndIncrement();
+            }
+            operation = new Operation(call, operationId, targets, job, cleanup);
+            if (targets != 0) {
+                for (Operation previous : inFlight.values()) {
+                    if (previous.targets != 0 && (previous.targets & ~targets) == 0) {
+                        WallpaperLog.debug(TAG, "Operation " + operationId + " supersedes " + previous.operationId);
+                        previous.cancel(true, true);
+                    }
+                }
+            }
+            inFlight.put(operationId, operation);
+        }
+        operation.emit("queued", null);
+        try {
+            workers.execute(operation);
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "Worker queue full, rejecting operation " + operationId);
+            inFlight.remove(operationId);
+            operation.releaseUnstarted();
+            operation.settle(WallpaperPlugin.result(false, "Too many wallpaper operations in progress, try again"));
+        }
+        return operationId;
+    }
+
+    /**
+     * Ejecuta la acción en el carril de red y bloquea el worker hasta que termine.
+     */
+    <T> T fetch(Callable<T> action) throws Exception {
+        return runOn(fetchLane, action);
+    }
+
+    /**
+     * Ejecuta la acción en el carril de decodificación y bloquea el worker hasta que termine.
+     */
+    <T> T decode(Callable<T> action) throws Exception {
+        return runOn(decodeLane, action);
+    }
+
+    /**
+     * Ejecuta la acción en el carril de escritura y bloquea el worker hasta que termine.
+     */
+    <T> T commit(Callable<T> action) throws Exception {
+        return runOn(commitLane, action);
+    }
+
+    /**
+     * La acción ve la operación del worker que la encarga, así que su progreso y sus acciones
+     * de cancelación van a esa operación. Si el worker ya estaba cancelado no se encarga nada; si
+     * se cancela mientras espera, se interrumpe la acción, salvo una escritura ya empezada en el
+     * carril de commit: interrumpir a WallpaperManager a mitad puede dejar el wallpaper a medias.
+     */
+    private <T> T runOn(ExecutorService lane, Callable<T> action) throws Exception {
+        throwIfCancelled();
+        Future<T> future = lane.submit(inOperation(CURRENT.get(), action));
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            if (lane == commitLane) {
+                if (!future.cancel(false)) {
+                    // Ya empezó: se espera a que termine para no soltar antes la imagen o la reserva
+                    awaitQuietly(future);
+                }
+            } else {
+                future.cancel(true);
+            }
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
+
+    private static void awaitQuietly(Future<?> future) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                future.get();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            } catch (ExecutionException | CancellationException e) {
+                // Quien la encargó ya está cancelado: el resultado no le llega a nadie
+                break;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Ejecuta las tareas en paralelo y espera a que terminen todas. Van a un pool propio sin cola,
+     * no al de los workers: un lote grande no puede llenar la cola de MAX_QUEUED y hacer que se
+     * rechacen llamadas ajenas. Las que no encuentran hilo libre se ejecutan en el hilo actual, así
+     * un worker que espera sus subtareas nunca se bloquea. Si el worker se cancela, se cancelan
+     * también las subtareas y se lanza InterruptedException, también cuando la interrupción la
+     * recibió una subtarea que corría en este hilo.
+     */
+    <T> List<Future<T>> invokeAll(List<Callable<T>> tasks) throws InterruptedException {
+        // Las subtareas informan progreso y registran cancelaciones en la operación que las lanzó
+        Operation parent = CURRENT.get();
+        List<FutureTask<T>> futures = new ArrayList<>(tasks.size());
+        for (Callable<T> task : tasks) {
+            futures.add(new FutureTask<>(inOperation(parent, task)));
+        }
+        for (int i = 1; i < futures.size(); i++) {
+            try {
+                subtasks.execute(futures.get(i));
+            } catch (RejectedExecutionException e) {
+                // Sin hilo libre: la tarea se ejecuta en este hilo más abajo
+            }
+        }
+        try {
+            for (FutureTask<T> future : futures) {
+                // No hace nada si otro worker ya la empezó o terminó
+                future.run();
+                throwIfCancelled();
+            }
+            for (FutureTask<T> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof InterruptedException) {
+                        // Al guardarla en su FutureTask, la subtarea se llevó la marca de interrupción
+                        Thread.currentThread().interrupt();
+                        throw (InterruptedException) e.getCause();
+                    }
+                    // El llamador inspecciona cada resultado
+                }
+            }
+        } catch (InterruptedException e) {
+            for (FutureTask<T> future : futures) {
+                future.cancel(true);
+            }
+            throw e;
+        }
+        return new ArrayList<>(futures);
+    }
+
+    private static <T> Callable<T> inOperation(Operation operation, Callable<T> task) {
+        return () -> {
+            Operation previous = CURRENT.get();
+            CURRENT.set(operation);
+            try {
+                return task.call();
+            } finally {
+                CURRENT.set(previous);
+            }
+        };
+    }
+
+    /**
+     * Cancela la operación indicada, esté en cola o en curso. Devuelve false si ya había terminado.
+     */
+    boolean cancel(String operationId) {
+        Operation operation = operationId != null ? inFlight.get(operationId) : null;
+        if (operation == null) {
+            return false;
+        }
+        return operation.cancel(true);
+    }
+
+    int cancelAll() {
+        int cancelled = 0;
+        for (Operation operation : inFlight.values()) {
+            if (operation.cancel(true)) {
+                cancelled++;
+            }
+        }
+        return cancelled;
+    }
+
+    /**
+     * Emite un evento de fase (downloading, decoding, committing...) de la operación del hilo actual.
+     */
+    static void progress(String stage) {
+        Operation operation = CURRENT.get();
+        if (operation != null) {
+            operation.emit(stage, null);
+        }
+    }
+
+    /**
+     * Informa de los bytes descargados por la operación del hilo actual, como mucho cada
+     * DOWNLOAD_PROGRESS_INTERVAL_MS salvo el último. totalBytes es -1 si no se conoce.
+     */
+    static void downloadProgress(long bytesDownloaded, long totalBytes) {
+        Operation operation = CURRENT.get();
+        if (operation != null) {
+            operation.emitDownload(bytesDownloaded, totalBytes);
+        }
+    }
+
+    /**
+     * Registra una acción que se ejecuta si la operación (o el CancelScope) del hilo actual se
+     * cancela, por ejemplo cerrar el socket de una descarga bloqueada en una lectura.
+     */
+    static CancelRegistration onCancel(Runnable action) {
+        Operation operation = CURRENT.get();
+        if (operation != null) {
+            return operation.addCancelHook(action);
+        }
+        CancelScope scope = SCOPE.get();
+        return scope != null ? scope.add(action) : () -> { };
+    }
+
+    /**
+     * Lanza InterruptedException si el worker actual fue cancelado, para cortar entre fases. Mira
+     * también la operación (o el CancelScope) del hilo: una InterruptedException ya capturada por
+     * el camino borra la marca de interrupción, pero la operación sigue cancelada.
+     */
+    static void throwIfCancelled() throws InterruptedException {
+        Operation operation = CURRENT.get();
+        CancelScope scope = SCOPE.get();
+        if (Thread.currentThread().isInterrupted()
+            || (operation != null && operation.isCancelled())
+            || (scope != null && scope.cancelled)) {
+            throw new InterruptedException("Wallpaper operation cancelled");
+        }
+    }
+
+    void shutdown() {
+        cancelAll();
+        workers.shutdownNow();
+        subtasks.shutdownNow();
+        fetchLane.shutdownNow();
+        decodeLane.shutdownNow();
+        commitLane.shutdownNow();
+    }
+
+    private final class Operation extends FutureTask<JSObject> {
+
+        private final PluginCall call;
+        final String operationId;
+        final int targets;
+        private final AtomicBoolean settled = new AtomicBoolean(false);
+        private final long submittedAt = WallpaperMetrics.now();
+        private volatile long startedAt;
+        private volatile boolean superseded;
+        private final List<Runnable> cancelHooks = new CopyOnWriteArrayList<>();
+        private final Runnable cleanup;
+        // Quien lo pone a true (el worker al empezar o la cancelación en cola) ejecuta cleanup
+        private final AtomicBoolean claimed = new AtomicBoolean(false);
+        private long lastDownloadEventAt;
+
+        Operation(PluginCall call, String operationId, int targets, Job job, Runnable cleanup) {
+            super(job::run);
+            this.call = call;
+            this.operationId = operationId;
+            this.targets = targets;
+            this.cleanup = cleanup;
+        }
+
+        @Override
+        public void run() {
+            if (isDone() || !claimed.compareAndSet(false, true)) {
+                return;
+            }
+            startedAt = WallpaperMetrics.now();
+            metrics.queueWait.recordSince(submittedAt);
+            CURRENT.set(this);
+            try {
+                super.run();
+            } finally {
+                CURRENT.remove();
+                // Aunque la operación ya se resolviera como cancelada, el Job terminó aquí
+                runCleanup();
+            }
+        }
+
+        /**
+         * Ejecuta cleanup si el worker aún no la había tomado: la operación ya no va a empezar.
+         */
+        void releaseUnstarted() {
+            if (claimed.compareAndSet(false, true)) {
+                runCleanup();
+            }
+        }
+
+        private void runCleanup() {
+            if (cleanup != null) {
+                try {
+                    cleanup.run();
+                } catch (RuntimeException e) {
+                    Log.w(TAG, "Cleanup failed for " + operationId, e);
+                }
+            }
+        }
+
+        boolean cancel(boolean mayInterruptIfRunning, boolean superseded) {
+            this.superseded = superseded;
+            return cancel(mayInterruptIfRunning);
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled) {
+                for (Runnable hook : cancelHooks) {
+                    runHook(hook);
+                }
+            }
+            return cancelled;
+        }
+
+        CancelRegistration addCancelHook(Runnable action) {
+            cancelHooks.add(action);
+            if (isCancelled()) {
+                // La cancelación llegó antes del registro
+                runHook(action);
+            }
+            return () -> cancelHooks.remove(action);
+        }
+
+        private void runHook(Runnable hook) {
+            try {
+                hook.run();
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Cancel hook failed for " + operationId, e);
+            }
+        }
+
+        void emit(String stage, JSObject detail) {
+            JSObject event = detail != null ? detail : new JSObject();
+            event.put("operationId", operationId);
+            event.put("stage", stage);
+            progressSink.onProgress(event);
+        }
+
+        void emitDownload(long bytesDownloaded, long totalBytes) {
+            long now = SystemClock.elapsedRealtime();
+            boolean finished = totalBytes >= 0 && bytesDownloaded >= totalBytes;
+            synchronized (this) {
+                if (!finished && now - lastDownloadEventAt < DOWNLOAD_PROGRESS_INTERVAL_MS) {
+                    return;
+                }
+                lastDownloadEventAt = now;
+            }
+            JSObject detail = new JSObject();
+            detail.put("bytesDownloaded", bytesDownloaded);
+            detail.put("totalBytes", totalBytes);
+            emit("downloading", detail);
+        }
+
+        @Override
+        protected void done() {
+            inFlight.remove(operationId, this);
+            if (isCancelled()) {
+                // Cancelada en cola; si ya corría, la limpieza espera a que el Job termine
+                releaseUnstarted();
+                settle(cancelledResult());
+                return;
+            }
+            try {
+                settle(get());
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                if (cause instanceof InterruptedException) {
+                    settle(cancelledResult());
+                } else {
+                    Log.e(TAG, "Wallpaper operation failed", cause);
+                    settle(WallpaperPlugin.result(false, "Error setting wallpaper: " + cause.getMessage()));
+                }
+            } catch (Exception e) {
+                settle(cancelledResult());
+            }
+        }
+
+        private JSObject cancelledResult() {
+            JSObject result = WallpaperPlugin.result(false, superseded
+                ? "Wallpaper operation superseded by a newer one"
+                : "Wallpaper operation cancelled");
+            result.put("cancelled", true);
+            result.put("superseded", superseded);
+            return result;
+        }
+
+        void settle(JSObject result) {
+            if (settled.compareAndSet(false, true)) {
+                result.put("operationId", operationId);
+                boolean success = result.optBoolean("success");
+                emit(success ? "done" : (result.optBoolean("cancelled") ? "cancelled" : "failed"), null);
+                metrics.operations.incrementAndGet();
+                if (!success) {
+                    metrics.failedOperations.incrementAndGet();
+                }
+                if (startedAt != 0) {
+                    metrics.total.recordSince(startedAt);
+                }
+                call.resolve(result);
+            }
+        }
+    }
+
+    /**
+     * Hilos con nombre y prioridad de fondo; también los usa el pool de miniaturas.
+     */
+    static final class NamedThreadFactory implements ThreadFactory {
+
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger(1);
+
+        NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                runnable.run();
+            }, prefix + "-" + count.getAndIncrement());
+        }
+    }
+}
@@ -0,0 +1,468 @@
+package io.ionic.starter;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Biblioteca local de wallpapers: los metadatos que la galería recibe de Firestore, indexados
+ * en SQLite por id, propietario, fechas, dimensiones y SHA-1 del contenido.
+ *
+ * La galería la lee primero para pintar al instante, también sin conexión, y después pide a
+ * Firestore solo lo cambiado desde syncedUntil de su ámbito (por ejemplo "uid:ABC" o "public").
+ * Las consultas son paginadas por clave (orden, id), así una página cuesta lo mismo sea la
+ * primera o la décima. Es una caché: si cambia el esquema se borra y se vuelve a sincronizar.
+ */
+final class WallpaperLibrary extends SQLiteOpenHelper {
+
+    private static final String TAG = "WallpaperLibrary";
+
+    private static final String DATABASE = "wallpaper-library.db";
+    private static final int VERSION = 1;
+    private static final String WALLPAPERS = "wallpapers";
+    private static final String SYNC_STATE = "sync_state";
+
+    static final int DEFAULT_PAGE_SIZE = 50;
+    static final int MAX_PAGE_SIZE = 200;
+
+    /**
+     * Filtro y orden de una consulta; los mismos campos que WallpaperFilter en JS.
+     */
+    static final class Query {
+        final String uid;
+        final Boolean isPublic;
+        // Columna de orden: created_at, updated_at o title
+        final String orderColumn;
+        final boolean descending;
+        final int limit;
+        // Valor de orden e id de la última fila de la página anterior; null en la primera
+        final Object cursorValue;
+        final String cursorId;
+
+        private Query(String uid, Boolean isPublic, String orderColumn, boolean descending, int limit,
+                      Object cursorValue, String cursorId) {
+            this.uid = uid;
+            this.isPublic = isPublic;
+            this.orderColumn = orderColumn;
+            this.descending = descending;
+            this.limit = limit;
+            this.cursorValue = cursorValue;
+            this.cursorId = cursorId;
+        }
+
+        static Query from(JSONObject options) {
+            if (options == null) {
+                options = new JSONObject();
+            }
+            String uid = string(options, "uid");
+            Boolean isPublic = options.has("isPublic") && !options.isNull("isPublic") ? options.optBoolean("isPublic") : null;
+            String orderColumn = orderColumn(string(options, "orderBy", "createdAt"));
+            String direction = string(options, "orderDirection", "desc");
+            if (!"asc".equals(direction) && !"desc".equals(direction)) {
+                throw new IllegalArgumentException("Invalid orderDirection '" + direction + "'");
+            }
+            int limit = options.optInt("limit", DEFAULT_PAGE_SIZE);
+            if (limit <= 0) {
+                throw new IllegalArgumentException("limit must be positive");
+            }
+            JSONObject cursor = options.optJSONObject("cursor");
+            Object cursorValue = null;
+            String cursorId = null;
+            if (cursor != null) {
+                cursorValue = cursor.opt("value");
+                cursorId = string(cursor, "id");
+                if (cursorValue == null || cursorId == null) {
+                    throw new IllegalArgumentException("cursor must have value and id");
+                }
+            }
+            return new Query(uid, isPublic, orderColumn, "desc".equals(direction), Math.min(limit, MAX_PAGE_SIZE),
+                cursorValue, cursorId);
+        }
+
+        private static String orderColumn(String orderBy) {
+            switch (orderBy) {
+                case "createdAt":
+                    return "created_at";
+                case "updatedAt":
+                    return "updated_at";
+                case "title":
+                    return "title";
+                default:
+                    throw new IllegalArgumentException("Invalid orderBy '" + orderBy + "'");
+            }
+        }
+
+        /**
+         * Condición WHERE del filtro, sin paginación; args recibe los parámetros.
+         */
+        String where(List<String> args) {
+            StringBuilder where = new StringBuilder("1 = 1");
+            if (uid != null) {
+                where.append(" AND uid = ?");
+                args.add(uid);
+            }
+            if (isPublic != null) {
+                where.append(" AND is_public = ?");
+                args.add(isPublic ? "1" : "0");
+            }
+            return where.toString();
+        }
+    }
+
+    private static WallpaperLibrary instance;
+
+    static synchronized WallpaperLibrary getInstance(Context context) {
+        if (instance == null) {
+            instance = new WallpaperLibrary(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    // Fuera de getInstance solo en los tests, con una base de datos por test
+    WallpaperLibrary(Context context) {
+        super(context, DATABASE, null, VERSION);
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        // Lecturas de la galería concurrentes con la escritura de una sincronización
+        db.enableWriteAheadLogging();
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + WALLPAPERS + " ("
+            + "id TEXT PRIMARY KEY NOT NULL, "
+            + "uid TEXT NOT NULL, "
+            + "title TEXT NOT NULL DEFAULT '', "
+            + "description TEXT, "
+            + "image_url TEXT NOT NULL, "
+            + "thumbnail_url TEXT, "
+            + "image_path TEXT, "
+            + "tags TEXT, "
+            + "category TEXT, "
+            + "is_public INTEGER NOT NULL DEFAULT 0, "
+            + "created_at INTEGER NOT NULL, "
+            + "updated_at INTEGER NOT NULL, "
+            + "width INTEGER, "
+            + "height INTEGER, "
+            + "sha1 TEXT)");
+        db.execSQL("CREATE INDEX wallpapers_uid_created ON " + WALLPAPERS + " (uid, created_at, id)");
+        db.execSQL("CREATE INDEX wallpapers_public_created ON " + WALLPAPERS + " (is_public, created_at, id)");
+        db.execSQL("CREATE INDEX wallpapers_updated ON " + WALLPAPERS + " (updated_at, id)");
+        db.execSQL("CREATE INDEX wallpapers_sha1 ON " + WALLPAPERS + " (sha1)");
+        db.execSQL("CREATE TABLE " + SYNC_STATE + " (scope TEXT PRIMARY KEY NOT NULL, synced_until INTEGER NOT NULL)");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        db.execSQL("DROP TABLE IF EXISTS " + WALLPAPERS);
+        db.execSQL("DROP TABLE IF EXISTS " + SYNC_STATE);
+        onCreate(db);
+    }
+
+    /**
+     * Inserta o actualiza los wallpapers en una transacción. Si la imagen ya está en la caché
+     * en disco se guardan también sus dimensiones y su SHA-1. Con replace (un filtro como el
+     * de Query) se borran además las filas de ese filtro que no vinieron, para una
+     * sincronización completa. scope y syncedUntil, si se indican, se guardan en la misma
+     * transacción. Devuelve cuántas filas se escribieron.
+     */
+    int upsert(JSONArray items, JSONObject replace, String scope, long syncedUntil, ImageDiskCache diskCache)
+        throws JSONException {
+        // Lo que haya en disco se lee antes de abrir la transacción: leer imágenes con el bloqueo
+        // de escritura tomado haría esperar a las consultas
+        List<ContentValues> rows = new ArrayList<>(items.length());
+        for (int i = 0; i < items.length(); i++) {
+            ContentValues values = values(items.getJSONObject(i), i);
+            addImageInfo(values, diskCache);
+            rows.add(values);
+        }
+        SQLiteDatabase db = getWritableDatabase();
+        Set<String> ids = new HashSet<>();
+        int written = 0;
+        db.beginTransaction();
+        try {
+            for (ContentValues values : rows) {
+                String id = values.getAsString("id");
+                if (db.update(WALLPAPERS, values, "id = ?", new String[] { id }) == 0) {
+                    db.insertOrThrow(WALLPAPERS, null, values);
+                }
+                ids.add(id);
+                written++;
+            }
+            if (replace != null) {
+                removeMissing(db, Query.from(replace), ids);
+            }
+            if (scope != null && syncedUntil > 0) {
+                ContentValues state = new ContentValues();
+                state.put("scope", scope);
+                state.put("synced_until", syncedUntil);
+                db.insertWithOnConflict(SYNC_STATE, null, state, SQLiteDatabase.CONFLICT_REPLACE);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return written;
+    }
+
+    /**
+     * Una página de la consulta más el cursor de la siguiente, o nextCursor null si no hay más.
+     */
+    JSObject query(Query query) {
+        List<String> args = new ArrayList<>();
+        StringBuilder where = new StringBuilder(query.where(args));
+        if (query.cursorValue != null) {
+            // Paginación por clave: filas estrictamente después de (valor, id) en el orden pedido
+            String comparison = query.descending ? "<" : ">";
+            where.append(" AND (").append(query.orderColumn).append(' ').append(comparison).append(" ? OR (")
+                .append(query.orderColumn).append(" = ? AND id ").append(comparison).append(" ?))");
+            String value = String.valueOf(query.cursorValue);
+            args.add(value);
+            args.add(value);
+            args.add(query.cursorId);
+        }
+        String direction = query.descending ? " DESC" : " ASC";
+        String orderBy = query.orderColumn + direction + ", id" + direction;
+
+        JSArray items = new JSArray();
+        JSObject last = null;
+        // Una fila de más para saber si hay otra página sin contar
+        try (Cursor cursor = getReadableDatabase().query(WALLPAPERS, null, where.toString(), args.toArray(new String[0]),
+            null, null, orderBy, String.valueOf(query.limit + 1))) {
+            while (cursor.moveToNext()) {
+                if (items.length() == query.limit) {
+                    JSObject next = new JSObject();
+                    next.put("value", last.opt(jsonField(query.orderColumn)));
+                    next.put("id", last.getString("id"));
+                    JSObject result = page(items);
+                    result.put("nextCursor", next);
+                    return result;
+                }
+                last = toJson(cursor);
+                items.put(last);
+            }
+        }
+        JSObject result = page(items);
+        result.put("nextCursor", JSObject.NULL);
+        return result;
+    }
+
+    /**
+     * El wallpaper con ese id, o null si no está en la biblioteca.
+     */
+    JSObject get(String id) {
+        try (Cursor cursor = getReadableDatabase().query(WALLPAPERS, null, "id = ?", new String[] { id }, null, null, null)) {
+            return cursor.moveToFirst() ? toJson(cursor) : null;
+        }
+    }
+
+    /**
+     * Los wallpapers cuyo contenido tiene ese SHA-1: la misma imagen subida más de una vez.
+     */
+    JSArray findBySha1(String sha1) {
+        JSArray items = new JSArray();
+        try (Cursor cursor = getReadableDatabase().query(WALLPAPERS, null, "sha1 = ?", new String[] { sha1 },
+            null, null, "created_at DESC, id DESC")) {
+            while (cursor.moveToNext()) {
+                items.put(toJson(cursor));
+            }
+        }
+        return items;
+    }
+
+    int remove(List<String> ids) {
+        SQLiteDatabase db = getWritableDatabase();
+        int removed = 0;
+        db.beginTransaction();
+        try {
+            for (String id : ids) {
+                removed += db.delete(WALLPAPERS, "id = ?", new String[] { id });
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return removed;
+    }
+
+    /**
+     * Hasta qué updatedAt (epoch ms) está sincronizado el ámbito; 0 si nunca se sincronizó.
+     */
+    long syncedUntil(String scope) {
+        try (Cursor cursor = getReadableDatabase().query(SYNC_STATE, new String[] { "synced_until" }, "scope = ?",
+            new String[] { scope }, null, null, null)) {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        }
+    }
+
+    void clear() {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            db.delete(WALLPAPERS, null, null);
+            db.delete(SYNC_STATE, null, null);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static void removeMissing(SQLiteDatabase db, Query filter, Set<String> keep) {
+        List<String> args = new ArrayList<>();
+        List<String> missing = new ArrayList<>();
+        try (Cursor cursor = db.query(WALLPAPERS, new String[] { "id" }, filter.where(args), args.toArray(new String[0]),
+            null, null, null)) {
+            while (cursor.moveToNext()) {
+                String id = cursor.getString(0);
+                if (!keep.contains(id)) {
+                    missing.add(id);
+                }
+            }
+        }
+        for (String id : missing) {
+            db.delete(WALLPAPERS, "id = ?", new String[] { id });
+        }
+        if (!missing.isEmpty()) {
+            WallpaperLog.debug(TAG, "Removed " + missing.size() + " wallpapers no longer in the remote set");
+        }
+    }
+
+    private static ContentValues values(JSONObject item, int index) throws JSONException {
+        String id = string(item, "id");
+        String uid = string(item, "uid");
+        String imageUrl = string(item, "imageUrl");
+        if (id == null || uid == null || imageUrl == null) {
+            throw new IllegalArgumentException("Item " + index + " must have id, uid and imageUrl");
+        }
+        ContentValues values = new ContentValues();
+        values.put("id", id);
+        values.put("uid", uid);
+        values.put("title", string(item, "title", ""));
+        values.put("description", string(item, "description"));
+        values.put("image_url", imageUrl);
+        values.put("thumbnail_url", string(item, "thumbnailUrl"));
+        values.put("image_path", string(item, "imagePath"));
+        JSONArray tags = item.optJSONArray("tags");
+        values.put("tags", tags != null ? tags.toString() : null);
+        values.put("category", string(item, "category"));
+        values.put("is_public", item.optBoolean("isPublic", false) ? 1 : 0);
+        long createdAt = item.optLong("createdAt", 0);
+        values.put("created_at", createdAt);
+        values.put("updated_at", item.optLong("updatedAt", createdAt));
+        return values;
+    }
+
+    /**
+     * Dimensiones y SHA-1 de la imagen si ya está descargada; si no, la fila conserva los que tuviera.
+     * Se consulta con peek: sincronizar la biblioteca no cuenta como usar la imagen en la caché.
+     */
+    private static void addImageInfo(ContentValues values, ImageDiskCache diskCache) {
+        if (diskCache == null) {
+            return;
+        }
+        String imageUrl = values.getAsString("image_url");
+        try (ImageDiskCache.Pin ignored = diskCache.pin(imageUrl)) {
+            ImageDiskCache.Entry entry = diskCache.peek(imageUrl);
+            if (entry == null) {
+                return;
+            }
+            EncodedImage encoded = EncodedImage.of(entry.file, entry.digest);
+            int[] bounds = encoded.readBounds();
+            if (bounds[0] > 0 && bounds[1] > 0) {
+                values.put("width", bounds[0]);
+                values.put("height", bounds[1]);
+            }
+            values.put("sha1", encoded.digest());
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read cached image for " + values.getAsString("id"), e);
+        }
+    }
+
+    /**
+     * El texto de key, o null si falta o es null en el JSON (optString devolvería "null").
+     */
+    private static String string(JSONObject json, String key) {
+        return json.isNull(key) ? null : json.optString(key);
+    }
+
+    private static String string(JSONObject json, String key, String fallback) {
+        String value = string(json, key);
+        return value != null ? value : fallback;
+    }
+
+    private static JSObject toJson(Cursor cursor) {
+        JSObject item = new JSObject();
+        String id = string(cursor, "id");
+        item.put("id", id);
+        item.put("uid", string(cursor, "uid"));
+        item.put("title", string(cursor, "title"));
+        putIfPresent(item, "description", string(cursor, "description"));
+        item.put("imageUrl", string(cursor, "image_url"));
+        putIfPresent(item, "thumbnailUrl", string(cursor, "thumbnail_url"));
+        putIfPresent(item, "imagePath", string(cursor, "image_path"));
+        String tags = string(cursor, "tags");
+        if (tags != null) {
+            try {
+                item.put("tags", new JSONArray(tags));
+            } catch (JSONException e) {
+                Log.w(TAG, "Ignoring malformed tags of " + id);
+            }
+        }
+        putIfPresent(item, "category", string(cursor, "category"));
+        item.put("isPublic", cursor.getInt(cursor.getColumnIndexOrThrow("is_public")) != 0);
+        item.put("createdAt", cursor.getLong(cursor.getColumnIndexOrThrow("created_at")));
+        item.put("updatedAt", cursor.getLong(cursor.getColumnIndexOrThrow("updated_at")));
+        int width = cursor.getColumnIndexOrThrow("width");
+        if (!cursor.isNull(width)) {
+            item.put("width", cursor.getInt(width));
+            item.put("height", cursor.getInt(cursor.getColumnIndexOrThrow("height")));
+        }
+        putIfPresent(item, "sha1", string(cursor, "sha1"));
+        return item;
+    }
+
+    private static JSObject page(JSArray items) {
+        JSObject result = WallpaperPlugin.result(true, "Library page loaded");
+        result.put("items", items);
+        return result;
+    }
+
+    private static String jsonField(String column) {
+        switch (column) {
+            case "created_at":
+                return "createdAt";
+            case "updated_at":
+                return "updatedAt";
+            default:
+                return column;
+        }
+    }
+
+    private static String string(Cursor cursor, String column) {
+        int index = cursor.getColumnIndexOrThrow(column);
+        return cursor.isNull(index) ? null : cursor.getString(index);
+    }
+
+    private static void putIfPresent(JSObject item, String key, String value) {
+        if (value != null) {
+            item.put(key, value);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package io.ionic.starter;
+
+import android.util.Log;
+
+/**
+ * Registro compartido por las clases del plugin que no reciben la configuración.
+ *
+ * debug() solo escribe con verboseLogging activado en capacitor.config.ts; por defecto el
+ * camino caliente no registra nada por llamada. redact() quita la query de una URL antes de
+ * registrarla, porque las URLs firmadas llevan el token ahí.
+ */
+final class WallpaperLog {
+
+    private static volatile boolean verbose;
+
+    private WallpaperLog() {}
+
+    static void setVerbose(boolean enabled) {
+        verbose = enabled;
+    }
+
+    static void debug(String tag, String message) {
+        if (verbose) {
+            Log.d(tag, message);
+        }
+    }
+
+    static String redact(String url) {
+        if (url == null) {
+            return null;
+        }
+        int query = url.indexOf('?');
+        return query >= 0 ? url.substring(0, query) + "?…" : url;
+    }
+}
@@ -0,0 +1,235 @@
+package io.ionic.starter;
+
+import android.os.SystemClock;
+import com.getcapacitor.JSObject;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Métricas del camino caliente del plugin: tiempos por fase, bytes, aciertos de caché y el
+ * mayor bitmap producido. Todo son contadores atómicos sin locks (AtomicLong en lugar de
+ * LongAdder, que pide API 24), así que registrar una muestra cuesta unas pocas instrucciones.
+ *
+ * Hay una instancia por proceso (getInstance) para que las descargas de la rotación, que
+ * corren en un worker sin plugin, aparezcan en getMetrics junto a las del plugin.
+ *
+ * reset() no es atómico respecto a los registros concurrentes: una muestra en vuelo puede
+ * quedar a medias entre el período anterior y el nuevo.
+ */
+final class WallpaperMetrics {
+
+    private static WallpaperMetrics instance;
+
+    /**
+     * Histograma de duraciones en microsegundos con cubetas de potencias de dos, desde 1 µs
+     * hasta unos 33 s (las mayores van a la última cubeta).
+     */
+    static final class Histogram {
+
+        private static final int BUCKETS = 26;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalMicros = new AtomicLong();
+        private final AtomicLong maxMicros = new AtomicLong();
+
+        /**
+         * Registra el tiempo transcurrido desde startNanos, tomado con WallpaperMetrics.now().
+         */
+        void recordSince(long startNanos) {
+            record((now() - startNanos) / 1000);
+        }
+
+        void record(long micros) {
+            micros = Math.max(0, micros);
+            int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+            buckets.incrementAndGet(bucket);
+            count.incrementAndGet();
+            totalMicros.addAndGet(micros);
+            updateMax(maxMicros, micros);
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets.set(i, 0);
+            }
+            count.set(0);
+            totalMicros.set(0);
+            maxMicros.set(0);
+        }
+
+        JSObject toJson() {
+            long samples = count.get();
+            JSObject json = new JSObject();
+            json.put("count", samples);
+            json.put("totalMs", totalMicros.get() / 1000.0);
+            json.put("meanMs", samples > 0 ? totalMicros.get() / 1000.0 / samples : 0);
+            json.put("maxMs", maxMicros.get() / 1000.0);
+            json.put("p50Ms", percentileMs(samples, 0.50));
+            json.put("p95Ms", percentileMs(samples, 0.95));
+            json.put("p99Ms", percentileMs(samples, 0.99));
+            return json;
+        }
+
+        /**
+         * Límite superior de la cubeta donde cae el percentil; cota de a lo sumo el doble del valor real.
+         */
+        private double percentileMs(long samples, double quantile) {
+            if (samples == 0) {
+                return 0;
+            }
+            long threshold = (long) Math.ceil(samples * quantile);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen >= threshold) {
+                    return Math.min(1L << i, maxMicros.get()) / 1000.0;
+                }
+            }
+            return maxMicros.get() / 1000.0;
+        }
+    }
+
+    // Desde que JS hace la llamada hasta que el plugin la recibe (requiere sentAt en la llamada)
+    final Histogram bridgeReceive = new Histogram();
+    // Desde que el plugin recibe la llamada hasta que un worker la empieza
+    final Histogram queueWait = new Histogram();
+    // Fase de origen completa del motor de aplicación: descarga, caché en disco o Base64
+    final Histogram fetch = new Histogram();
+    // Lectura del encabezado, plan de recorte y comprobación de si ya estaba aplicada
+    final Histogram probe = new Histogram();
+    // Espera hasta que MemoryBudget admite la decodificación
+    final Histogram admissionWait = new Histogram();
+    final Histogram base64Decode = new Histogram();
+    final Histogram networkConnect = new Histogram();
+    final Histogram networkFirstByte = new Histogram();
+    final Histogram networkTransfer = new Histogram();
+    final Histogram decode = new Histogram();
+    final Histogram scale = new Histogram();
+    final Histogram commit = new Histogram();
+    // Operación completa, desde que el worker la empieza hasta que se resuelve
+    final Histogram total = new Histogram();
+
+    final AtomicLong operations = new AtomicLong();
+    final AtomicLong failedOperations = new AtomicLong();
+    // Bytes ya decodificados del Base64, tanto de un payload entero como de los trozos de una subida
+    final AtomicLong base64Bytes = new AtomicLong();
+    final AtomicLong networkBytes = new AtomicLong();
+    final AtomicLong decodedBytes = new AtomicLong();
+    final AtomicLong peakBitmapBytes = new AtomicLong();
+    final AtomicLong memoryCacheHits = new AtomicLong();
+    final AtomicLong memoryCacheMisses = new AtomicLong();
+    // Acierto en disco: 304 o copia servida sin red; fallo: descarga completa
+    final AtomicLong diskCacheHits = new AtomicLong();
+    final AtomicLong diskCacheMisses = new AtomicLong();
+    // Decodificaciones admitidas con la salida reducida, y rechazadas por falta de memoria
+    final AtomicLong admissionDownscaled = new AtomicLong();
+    final AtomicLong admissionRejected = new AtomicLong();
+    // Descargas servidas por una variante más pequeña que el original, y variantes que fallaron
+    final AtomicLong variantsSelected = new AtomicLong();
+    final AtomicLong variantFallbacks = new AtomicLong();
+
+    private final AtomicLong since = new AtomicLong(System.currentTimeMillis());
+
+    static synchronized WallpaperMetrics getInstance() {
+        if (instance == null) {
+            instance = new WallpaperMetrics();
+        }
+        return instance;
+    }
+
+    static long now() {
+        return SystemClock.elapsedRealtimeNanos();
+    }
+
+    void recordBitmap(long bytes) {
+        decodedBytes.addAndGet(bytes);
+        updateMax(peakBitmapBytes, bytes);
+    }
+
+    void reset() {
+        for (Histogram histogram : histograms()) {
+            histogram.reset();
+        }
+        for (AtomicLong counter : new AtomicLong[] {
+            operations, failedOperations, base64Bytes, networkBytes, decodedBytes, peakBitmapBytes,
+            memoryCacheHits, memoryCacheMisses, diskCacheHits, diskCacheMisses, admissionDownscaled, admissionRejected,
+            variantsSelected, variantFallbacks
+        }) {
+            counter.set(0);
+        }
+        since.set(System.currentTimeMillis());
+    }
+
+    JSObject toJson() {
+        JSObject phases = new JSObject();
+        phases.put("bridgeReceive", bridgeReceive.toJson());
+        phases.put("queueWait", queueWait.toJson());
+        phases.put("fetch", fetch.toJson());
+        phases.put("probe", probe.toJson());
+        phases.put("admissionWait", admissionWait.toJson());
+        phases.put("base64Decode", base64Decode.toJson());
+        phases.put("networkConnect", networkConnect.toJson());
+        phases.put("networkFirstByte", networkFirstByte.toJson());
+        phases.put("networkTransfer", networkTransfer.toJson());
+        phases.put("decode", decode.toJson());
+        phases.put("scale", scale.toJson());
+        phases.put("commit", commit.toJson());
+        phases.put("total", total.toJson());
+
+        JSObject bytes = new JSObject();
+        bytes.put("base64", base64Bytes.get());
+        bytes.put("network", networkBytes.get());
+        bytes.put("decoded", decodedBytes.get());
+        bytes.put("peakBitmap", peakBitmapBytes.get());
+
+        JSObject caches = new JSObject();
+        caches.put("memoryHits", memoryCacheHits.get());
+        caches.put("memoryMisses", memoryCacheMisses.get());
+        caches.put("memoryHitRate", hitRate(memoryCacheHits.get(), memoryCacheMisses.get()));
+        caches.put("diskHits", diskCacheHits.get());
+        caches.put("diskMisses", diskCacheMisses.get());
+        caches.put("diskHitRate", hitRate(diskCacheHits.get(), diskCacheMisses.get()));
+
+        JSObject admission = new JSObject();
+        admission.put("downscaled", admissionDownscaled.get());
+        admission.put("rejected", admissionRejected.get());
+
+        JSObject variants = new JSObject();
+        variants.put("selected", variantsSelected.get());
+        variants.put("fallbacks", variantFallbacks.get());
+
+        JSObject json = new JSObject();
+        json.put("since", since.get());
+        json.put("operations", operations.get());
+        json.put("failedOperations", failedOperations.get());
+        json.put("phases", phases);
+        json.put("bytes", bytes);
+        json.put("caches", caches);
+        json.put("admission", admission);
+        json.put("variants", variants);
+        return json;
+    }
+
+    private Histogram[] histograms() {
+        return new Histogram[] {
+            bridgeReceive, queueWait, fetch, probe, admissionWait, base64Decode, networkConnect, networkFirstByte,
+            networkTransfer, decode, scale, commit, total
+        };
+    }
+
+    private static double hitRate(long hits, long misses) {
+        long lookups = hits + misses;
+        return lookups > 0 ? (double) hits / lookups : 0;
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        long current;
+        while (value > (current = max.get())) {
+            if (max.compareAndSet(current, value)) {
+                return;
+            }
+        }
+    }
+}
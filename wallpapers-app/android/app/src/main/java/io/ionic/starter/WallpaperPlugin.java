@@ -1,14 +1,13 @@
 package io.ionic.starter;
 
+import android.app.ActivityManager;
 import android.app.WallpaperManager;
 import android.content.Context;
-import android.content.pm.PackageManager;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.os.Build;
-import android.util.Base64;
+import android.os.SystemClock;
 import android.util.Log;
-import androidx.core.content.ContextCompat;
+import android.webkit.WebView;
+import com.getcapacitor.JSArray;
 import com.getcapacitor.JSObject;
 import com.getcapacitor.Plugin;
 import com.getcapacitor.PluginCall;
@@ -16,12 +15,14 @@ import com.getcapacitor.PluginMethod;
 import com.getcapacitor.annotation.CapacitorPlugin;
 import com.getcapacitor.annotation.Permission;
 import com.getcapacitor.annotation.PermissionCallback;
+import org.json.JSONException;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import javax.net.ssl.HttpsURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import android.Manifest;
 
 @CapacitorPlugin(
@@ -40,302 +41,623 @@ import android.Manifest;
 public class WallpaperPlugin extends Plugin {
 
     private static final String TAG = "WallpaperPlugin";
+    // Evento con el avance de cada operación: queued, downloading, decoding, committing, done...
+    private static final String PROGRESS_EVENT = "wallpaperProgress";
+    private static final int DEFAULT_DISK_CACHE_MB = 64;
+    private static final int DEFAULT_THUMBNAIL_CACHE_MB = 32;
 
+    /**
+     * Lo que cuesta crear: el índice de la caché en disco, las preferencias, el pool de bitmaps,
+     * el cliente HTTP y el motor de aplicación. Nada de esto se toca en load(): se crea en un
+     * hilo de fondo tras el primer frame, o antes si una llamada lo necesita.
+     */
+    private static final class Components {
+        final BitmapPool bitmapPool;
+        final ImageUploadStore uploadStore;
+        final ApplyEngine engine;
+        final ImagePrefetcher prefetcher;
+        final ThumbnailStore thumbnails;
+        final ImageDiskCache diskCache;
+        final WallpaperLibrary library;
+
+        Components(WallpaperPlugin plugin) {
+            Context context = plugin.getContext();
+            long startMs = SystemClock.elapsedRealtime();
+            BitmapMemoryCache memoryCache = BitmapMemoryCache.getInstance(context);
+            // El mismo presupuesto para la rotación, que usa la caché sin pasar por el plugin
+            ImageDiskCache.configure(context, plugin.diskCacheBytes);
+            diskCache = ImageDiskCache.getInstance(context);
+            ImageDownloader downloader = ImageDownloader.getInstance(context);
+            AppliedWallpapers appliedWallpapers = new AppliedWallpapers(context);
+            uploadStore = new ImageUploadStore(new File(context.getCacheDir(), "wallpaper-uploads"), plugin.metrics);
+
+            // El pool reutiliza como máximo 1/8 de la memoria de la app
+            ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+            long memoryClassBytes = (long) activityManager.getMemoryClass() * 1024 * 1024;
+            bitmapPool = new BitmapPool(memoryClassBytes / 8);
+            // Bitmaps HARDWARE para lo que solo recibe WallpaperManager (Android 9+), desactivable en capacitor.config.ts
+            BitmapDecoder decoder = new BitmapDecoder(bitmapPool, plugin.metrics, plugin.hardwareBitmaps);
+            SourceSelector selector = new SourceSelector(context, diskCache, downloader, plugin.metrics);
+            engine = new ApplyEngine(context, plugin.executor, plugin.metrics, memoryCache, bitmapPool, decoder, downloader,
+                selector, appliedWallpapers, MemoryBudget.getInstance(context));
+            prefetcher = new ImagePrefetcher(context, engine::prefetch);
+            thumbnails = new ThumbnailStore(context, diskCache, downloader, selector, bitmapPool,
+                MemoryBudget.getInstance(context), plugin.thumbnailCacheBytes);
+            library = WallpaperLibrary.getInstance(context);
+            WallpaperLog.debug(TAG, "Plugin components ready in " + (SystemClock.elapsedRealtime() - startMs) + " ms");
+        }
+
+        void shutdown() {
+            prefetcher.shutdown();
+            thumbnails.shutdown();
+            bitmapPool.clear();
+            uploadStore.clear();
+        }
+    }
+
+    private WallpaperExecutor executor;
+    // Hilo de fondo para la creación diferida, el refresco de DeviceCapabilities, la biblioteca
+    // local y las subidas por trozos; al ser uno solo, los trozos se escriben en el orden de llegada
+    private ExecutorService background;
+    private volatile Components components;
+    private final WallpaperMetrics metrics = WallpaperMetrics.getInstance();
+    private boolean hardwareBitmaps;
+    private long diskCacheBytes;
+    private long thumbnailCacheBytes;
+
+    /**
+     * Corre en el arranque de la actividad, así que solo lee la configuración y crea objetos sin
+     * E/S: los pools de hilos arrancan sus hilos al recibir trabajo y lo demás espera a Components.
+     */
+    @Override
+    public void load() {
+        // Registro detallado de cada llamada, desactivado por defecto (verboseLogging en capacitor.config.ts)
+        WallpaperLog.setVerbose(getConfig().getBoolean("verboseLogging", false));
+        hardwareBitmaps = getConfig().getBoolean("hardwareBitmaps", true);
+        // Presupuestos de la caché en disco y de miniaturas configurables desde capacitor.config.ts
+        diskCacheBytes = (long) getConfig().getInt("diskCacheSizeMb", DEFAULT_DISK_CACHE_MB) * 1024 * 1024;
+        thumbnailCacheBytes = (long) getConfig().getInt("thumbnailCacheSizeMb", DEFAULT_THUMBNAIL_CACHE_MB) * 1024 * 1024;
+        executor = new WallpaperExecutor(metrics, event -> notifyListeners(PROGRESS_EVENT, event));
+        background = Executors.newSingleThreadExecutor(new WallpaperExecutor.NamedThreadFactory("wallpaper-init"));
+
+        // Miniaturas de la galería servidas al WebView en {localUrl}/_thumbnail
+        bridge.setWebViewClient(new ThumbnailWebViewClient(bridge, () -> components().thumbnails));
+
+        // Un post en el WebView corre después del primer frame; el trabajo en sí va al hilo de fondo
+        WebView webView = bridge.getWebView();
+        if (webView != null) {
+            webView.post(() -> background.execute(this::warmUp));
+        }
+    }
+
+    @Override
+    protected void handleOnResume() {
+        // Los permisos o el launcher pueden haber cambiado mientras la app estaba en segundo plano
+        background.execute(() -> DeviceCapabilities.refresh(getContext()));
+    }
 
+    @Override
+    protected void handleOnDestroy() {
+        if (background != null) {
+            background.shutdownNow();
+        }
+        if (components != null) {
+            components.shutdown();
+        }
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    private void warmUp() {
+        DeviceCapabilities.get(getContext());
+        components();
+    }
+
+    private Components components() {
+        Components current = components;
+        if (current == null) {
+            synchronized (this) {
+                current = components;
+                if (current == null) {
+                    current = new Components(this);
+                    components = current;
+                }
+            }
+        }
+        return current;
+    }
 
     @PluginMethod
     public void setWallpaperHomeScreen(PluginCall call) {
-        Log.d(TAG, "setWallpaperHomeScreen called");
-        
-        // Log all received data
-        Log.d(TAG, "Received call data: " + call.getData().toString());
-        
-        String imageUrl = call.getString("imageUrl");
-        String base64Image = call.getString("base64Image");
-        
-        Log.d(TAG, "imageUrl: " + (imageUrl != null ? imageUrl : "null"));
-        Log.d(TAG, "base64Image: " + (base64Image != null ? "provided" : "null"));
+        WallpaperLog.debug(TAG, "setWallpaperHomeScreen called");
+        executor.submit(call, WallpaperManager.FLAG_SYSTEM, () -> applyFromCall(call, WallpaperManager.FLAG_SYSTEM, "home"));
+    }
 
-        if (imageUrl == null && base64Image == null) {
-            Log.e(TAG, "No image data provided");
-            JSObject result = new JSObject();
-            result.put("success", false);
-            result.put("message", "Must provide either imageUrl or base64Image");
-            call.resolve(result);
-            return;
+    @PluginMethod
+    public void setWallpaperLockScreen(PluginCall call) {
+        WallpaperLog.debug(TAG, "setWallpaperLockScreen called");
+        executor.submit(call, WallpaperManager.FLAG_LOCK, () -> applyFromCall(call, WallpaperManager.FLAG_LOCK, "lock"));
+    }
+
+    @PluginMethod
+    public void setBothWallpapers(PluginCall call) {
+        WallpaperLog.debug(TAG, "setBothWallpapers called");
+        int which = WallpaperManager.FLAG_SYSTEM | WallpaperManager.FLAG_LOCK;
+        executor.submit(call, which, () -> applyFromCall(call, which, "both"));
+    }
+
+    /**
+     * Aplica varias imágenes en una sola llamada. Los orígenes repetidos se descargan una vez,
+     * cada recorte distinto se decodifica una vez, todo en paralelo, y las escrituras se hacen
+     * en el orden recibido.
+     */
+    @PluginMethod
+    public void applyBatch(PluginCall call) {
+        WallpaperLog.debug(TAG, "applyBatch called");
+        // Un lote no sustituye ni es sustituido: sus entradas pueden ir a pantallas distintas
+        executor.submit(call, 0, () -> applyBatchItems(call));
+    }
+
+    /**
+     * Cancela una operación de aplicación por su operationId, o todas si no se indica. La
+     * descarga en curso se corta cerrando el socket; una decodificación se corta al terminar
+     * la fase actual y ya no se escribe nada. La escritura en WallpaperManager, si ya había
+     * empezado, se completa aunque la operación se resuelva como cancelada.
+     */
+    @PluginMethod
+    public void cancel(PluginCall call) {
+        String operationId = call.getString("operationId");
+        int cancelled;
+        if (operationId == null) {
+            cancelled = executor.cancelAll();
+        } else {
+            cancelled = executor.cancel(operationId) ? 1 : 0;
         }
+        JSObject result = result(true, cancelled > 0 ? "Wallpaper operation cancelled" : "No matching wallpaper operation in progress");
+        result.put("cancelled", cancelled);
+        call.resolve(result);
+    }
 
-        try {
-            // Verificar permisos
-            WallpaperManager wallpaperManager = WallpaperManager.getInstance(getContext());
-            if (!wallpaperManager.isWallpaperSupported()) {
-                JSObject result = new JSObject();
-                result.put("success", false);
-                result.put("message", "Wallpaper not supported on this device");
+    /**
+     * Abre una subida por trozos para una imagen que solo existe en el WebView. Devuelve el
+     * uploadId que usan appendChunk, commit y abortUpload.
+     */
+    @PluginMethod
+    public void beginUpload(PluginCall call) {
+        background.execute(() -> {
+            try {
+                JSObject result = result(true, "Upload started");
+                result.put("uploadId", components().uploadStore.begin());
                 call.resolve(result);
-                return;
+            } catch (IOException e) {
+                Log.e(TAG, "Could not start upload", e);
+                call.resolve(result(false, "Could not start upload: " + e.getMessage()));
             }
+        });
+    }
 
-            Bitmap bitmap;
-            if (base64Image != null && !base64Image.trim().isEmpty()) {
-                bitmap = decodeBase64ToBitmap(base64Image);
-                if (bitmap == null) {
-                    JSObject result = new JSObject();
-                    result.put("success", false);
-                    result.put("message", "Failed to decode base64 image");
-                    call.resolve(result);
-                    return;
-                }
-            } else if (imageUrl != null && !imageUrl.trim().isEmpty()) {
-                bitmap = downloadImageFromUrl(imageUrl);
-                if (bitmap == null) {
-                    JSObject result = new JSObject();
-                    result.put("success", false);
-                    result.put("message", "Failed to download image from URL");
-                    call.resolve(result);
-                    return;
-                }
-            } else {
-                JSObject result = new JSObject();
-                result.put("success", false);
-                result.put("message", "Invalid image data provided");
+    /**
+     * Añade un trozo Base64 a la subida. Los trozos se decodifican al llegar, así que conviene
+     * enviarlos en orden y de unos cientos de KB; index permite detectar trozos perdidos.
+     */
+    @PluginMethod
+    public void appendChunk(PluginCall call) {
+        String uploadId = call.getString("uploadId");
+        String chunk = call.getString("chunk");
+        if (chunk == null) {
+            call.resolve(result(false, "Must provide chunk"));
+            return;
+        }
+        Integer index = call.getInt("index");
+        // Decodificar el Base64 y escribirlo en disco no debe bloquear el hilo del bridge
+        background.execute(() -> {
+            try {
+                long bytes = components().uploadStore.append(uploadId, index, chunk);
+                JSObject result = result(true, "Chunk appended");
+                result.put("bytes", bytes);
                 call.resolve(result);
+            } catch (IllegalArgumentException e) {
+                call.resolve(result(false, e.getMessage()));
+            } catch (IOException e) {
+                Log.e(TAG, "Could not write upload chunk", e);
+                components().uploadStore.discard(uploadId);
+                call.resolve(result(false, "Could not write upload chunk: " + e.getMessage()));
+            }
+        });
+    }
+
+    /**
+     * Cierra la subida y aplica la imagen en target (home, lock o both) con el ajuste opcional.
+     * Igual que las demás operaciones devuelve un operationId, emite progreso y se puede cancelar.
+     */
+    @PluginMethod
+    public void commit(PluginCall call) {
+        String target = call.getString("target", "home");
+        int which;
+        if ("home".equals(target)) {
+            which = WallpaperManager.FLAG_SYSTEM;
+        } else if ("lock".equals(target)) {
+            which = WallpaperManager.FLAG_LOCK;
+        } else if ("both".equals(target)) {
+            which = WallpaperManager.FLAG_SYSTEM | WallpaperManager.FLAG_LOCK;
+        } else {
+            call.resolve(result(false, "Invalid target '" + target + "'"));
+            return;
+        }
+        String uploadId = call.getString("uploadId");
+        // finish sincroniza el archivo con el disco: se cierra en el hilo de fondo y luego se encola
+        background.execute(() -> {
+            ImageUploadStore.Completed upload;
+            try {
+                upload = components().uploadStore.finish(uploadId);
+            } catch (IllegalArgumentException e) {
+                call.resolve(result(false, e.getMessage()));
+                return;
+            } catch (IOException e) {
+                Log.e(TAG, "Could not finish upload", e);
+                call.resolve(result(false, "Could not finish upload: " + e.getMessage()));
+                return;
+            }
+            WallpaperLog.debug(TAG, "Committing upload of " + upload.bytes + " bytes to " + target);
+            // El archivo se borra cuando la operación termina, también si no llega a ejecutarse
+            executor.submit(call, which, () -> applyUpload(call, upload, target, which), upload.file::delete);
+        });
+    }
+
+    @PluginMethod
+    public void abortUpload(PluginCall call) {
+        String uploadId = call.getString("uploadId");
+        background.execute(() -> {
+            boolean discarded = components().uploadStore.discard(uploadId);
+            call.resolve(result(true, discarded ? "Upload discarded" : "No matching upload in progress"));
+        });
+    }
+
+    /**
+     * Precarga en segundo plano las URLs que la galería muestra para que aplicarlas después sea
+     * casi inmediato. Con decode la imagen queda además recortada y decodificada en memoria con
+     * el mismo fit/crop/focalPoint que se usará al aplicarla. Resuelve en cuanto quedan encoladas.
+     */
+    @PluginMethod
+    public void prefetch(PluginCall call) {
+        JSArray urls = call.getArray("urls");
+        if (urls == null || urls.length() == 0) {
+            call.resolve(result(false, "Must provide at least one url"));
+            return;
+        }
+        int priority = call.getInt("priority", 0);
+        boolean wifiOnly = call.getBoolean("wifiOnly", false);
+        CropPlanner.Request request = null;
+        if (call.getBoolean("decode", false)) {
+            try {
+                request = CropPlanner.Request.from(call.getData());
+            } catch (IllegalArgumentException e) {
+                call.resolve(result(false, e.getMessage()));
                 return;
             }
+        }
 
-            // Establecer wallpaper
-            if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.N) {
-                wallpaperManager.setBitmap(bitmap, null, true, WallpaperManager.FLAG_SYSTEM);
+        CropPlanner.Request decodeRequest = request;
+        // components() puede abrir las cachés en disco: fuera del hilo del bridge
+        background.execute(() -> {
+            JSObject result;
+            int queued = 0;
+            ImagePrefetcher prefetcher = components().prefetcher;
+            if (!prefetcher.networkAllows(wifiOnly)) {
+                result = result(false, "Prefetch not allowed on the current network");
             } else {
-                wallpaperManager.setBitmap(bitmap);
+                for (int i = 0; i < urls.length(); i++) {
+                    String imageUrl = urls.optString(i, null);
+                    if (imageUrl != null && imageUrl.startsWith("http")
+                        && prefetcher.enqueue(imageUrl, priority, decodeRequest, wifiOnly)) {
+                        queued++;
+                    }
+                }
+                result = result(true, "Prefetch queued");
             }
-            
-            JSObject result = new JSObject();
-            result.put("success", true);
-            result.put("message", "Home screen wallpaper set successfully");
+            result.put("queued", queued);
+            result.put("pending", prefetcher.pending());
             call.resolve(result);
-            
-        } catch (SecurityException e) {
-            Log.e(TAG, "Security error setting home wallpaper", e);
-            JSObject result = new JSObject();
-            result.put("success", false);
-            result.put("message", "Permission denied: " + e.getMessage());
-            call.resolve(result);
-        } catch (Exception e) {
-            Log.e(TAG, "Error setting home wallpaper", e);
-            JSObject result = new JSObject();
-            result.put("success", false);
-            result.put("message", "Error setting wallpaper: " + e.getMessage());
-            call.resolve(result);
-        }
+        });
     }
 
+    /**
+     * Cancela la precarga de las URLs indicadas, o de todas si no se indica ninguna.
+     */
     @PluginMethod
-    public void setWallpaperLockScreen(PluginCall call) {
-        Log.d(TAG, "setWallpaperLockScreen called");
-        
-        // Log all received data
-        Log.d(TAG, "Received call data: " + call.getData().toString());
-        
-        String imageUrl = call.getString("imageUrl");
-        String base64Image = call.getString("base64Image");
-        
-        Log.d(TAG, "imageUrl: " + (imageUrl != null ? imageUrl : "null"));
-        Log.d(TAG, "base64Image: " + (base64Image != null ? "provided" : "null"));
-
-        if (imageUrl == null && base64Image == null) {
-            Log.e(TAG, "No image data provided");
-            JSObject result = new JSObject();
-            result.put("success", false);
-            result.put("message", "Must provide either imageUrl or base64Image");
+    public void cancelPrefetch(PluginCall call) {
+        JSArray urls = call.getArray("urls");
+        List<String> imageUrls = new ArrayList<>();
+        if (urls != null) {
+            for (int i = 0; i < urls.length(); i++) {
+                String imageUrl = urls.optString(i, null);
+                if (imageUrl != null) {
+                    imageUrls.add(imageUrl);
+                }
+            }
+        }
+        background.execute(() -> {
+            ImagePrefetcher prefetcher = components().prefetcher;
+            int cancelled = imageUrls.isEmpty() ? prefetcher.cancelAll() : prefetcher.cancel(imageUrls);
+            JSObject result = result(true, "Prefetch cancelled");
+            result.put("cancelled", cancelled);
             call.resolve(result);
+        });
+    }
+
+    /**
+     * Genera de antemano las miniaturas de las URLs al ancho indicado (píxeles físicos), para
+     * que la cuadrícula las reciba de disco al pedirlas a /_thumbnail. Resuelve al encolarlas.
+     */
+    @PluginMethod
+    public void prefetchThumbnails(PluginCall call) {
+        JSArray urls = call.getArray("urls");
+        int width = call.getInt("width", 0);
+        if (urls == null || urls.length() == 0 || width <= 0) {
+            call.resolve(result(false, "Must provide urls and a positive width"));
             return;
         }
-
-        // Verificar versión de Android
-        if (android.os.Build.VERSION.SDK_INT < android.os.Build.VERSION_CODES.N) {
-            JSObject result = new JSObject();
-            result.put("success", false);
-            result.put("message", "Lock screen wallpaper requires Android 7.0 (API 24) or higher");
+        background.execute(() -> {
+            ThumbnailStore thumbnails = components().thumbnails;
+            int queued = 0;
+            for (int i = 0; i < urls.length(); i++) {
+                String imageUrl = urls.optString(i, null);
+                if (imageUrl != null && imageUrl.startsWith("http") && thumbnails.prefetch(imageUrl, width)) {
+                    queued++;
+                }
+            }
+            JSObject result = result(true, "Thumbnails queued");
+            result.put("queued", queued);
+            result.put("width", ThumbnailStore.bucketFor(width));
             call.resolve(result);
+        });
+    }
+
+    @PluginMethod
+    public void clearThumbnails(PluginCall call) {
+        background.execute(() -> {
+            components().thumbnails.clear();
+            call.resolve(result(true, "Thumbnail cache cleared"));
+        });
+    }
+
+    /**
+     * Guarda en la biblioteca local los wallpapers recibidos de Firestore (fechas en epoch ms).
+     * Con replace, un filtro {uid, isPublic}, borra las filas de ese filtro que no vinieron;
+     * con syncScope y syncedUntil registra hasta dónde está sincronizado ese ámbito.
+     */
+    @PluginMethod
+    public void libraryUpsert(PluginCall call) {
+        JSArray items = call.getArray("items");
+        if (items == null) {
+            call.resolve(result(false, "Must provide items"));
             return;
         }
+        JSObject replace = call.getObject("replace");
+        String scope = call.getString("syncScope");
+        long syncedUntil = call.getLong("syncedUntil", 0L);
+        onLibrary(call, components -> {
+            int written = components.library.upsert(items, replace, scope, syncedUntil, components.diskCache);
+            JSObject result = result(true, "Library updated");
+            result.put("written", written);
+            return result;
+        });
+    }
 
-        try {
-            // Verificar permisos
-            WallpaperManager wallpaperManager = WallpaperManager.getInstance(getContext());
-            if (!wallpaperManager.isWallpaperSupported()) {
-                JSObject result = new JSObject();
-                result.put("success", false);
-                result.put("message", "Wallpaper not supported on this device");
-                call.resolve(result);
-                return;
+    /**
+     * Una página de la biblioteca con el filtro y orden de WallpaperFilter. nextCursor se pasa
+     * tal cual como cursor para la página siguiente; con syncScope se incluye su syncedUntil.
+     */
+    @PluginMethod
+    public void libraryQuery(PluginCall call) {
+        JSObject options = call.getData();
+        String scope = call.getString("syncScope");
+        onLibrary(call, components -> {
+            JSObject result = components.library.query(WallpaperLibrary.Query.from(options));
+            if (scope != null) {
+                result.put("syncedUntil", components.library.syncedUntil(scope));
             }
+            return result;
+        });
+    }
 
-            Bitmap bitmap;
-            if (base64Image != null && !base64Image.trim().isEmpty()) {
-                bitmap = decodeBase64ToBitmap(base64Image);
-                if (bitmap == null) {
-                    JSObject result = new JSObject();
-                    result.put("success", false);
-                    result.put("message", "Failed to decode base64 image");
-                    call.resolve(result);
-                    return;
-                }
-            } else if (imageUrl != null && !imageUrl.trim().isEmpty()) {
-                bitmap = downloadImageFromUrl(imageUrl);
-                if (bitmap == null) {
-                    JSObject result = new JSObject();
-                    result.put("success", false);
-                    result.put("message", "Failed to download image from URL");
-                    call.resolve(result);
-                    return;
-                }
+    /**
+     * Busca por id (item, o null si no está) o por SHA-1 del contenido (items).
+     */
+    @PluginMethod
+    public void libraryGet(PluginCall call) {
+        String id = call.getString("id");
+        String sha1 = call.getString("sha1");
+        if (id == null && sha1 == null) {
+            call.resolve(result(false, "Must provide id or sha1"));
+            return;
+        }
+        onLibrary(call, components -> {
+            JSObject result = result(true, "Library lookup done");
+            if (id != null) {
+                JSObject item = components.library.get(id);
+                result.put("item", item != null ? item : JSObject.NULL);
             } else {
-                JSObject result = new JSObject();
-                result.put("success", false);
-                result.put("message", "Invalid image data provided");
-                call.resolve(result);
-                return;
+                result.put("items", components.library.findBySha1(sha1));
             }
+            return result;
+        });
+    }
 
-            // Establecer wallpaper de pantalla de bloqueo
-            wallpaperManager.setBitmap(bitmap, null, true, WallpaperManager.FLAG_LOCK);
-            
-            JSObject result = new JSObject();
-            result.put("success", true);
-            result.put("message", "Lock screen wallpaper set successfully");
-            call.resolve(result);
-            
-        } catch (SecurityException e) {
-            Log.e(TAG, "Security error setting lock wallpaper", e);
-            JSObject result = new JSObject();
-            result.put("success", false);
-            result.put("message", "Permission denied: " + e.getMessage());
-            call.resolve(result);
-        } catch (Exception e) {
-            Log.e(TAG, "Error setting lock wallpaper", e);
-            JSObject result = new JSObject();
-            result.put("success", false);
-            result.put("message", "Error setting wallpaper: " + e.getMessage());
-            call.resolve(result);
+    @PluginMethod
+    public void libraryRemove(PluginCall call) {
+        JSArray ids = call.getArray("ids");
+        if (ids == null || ids.length() == 0) {
+            call.resolve(result(false, "Must provide at least one id"));
+            return;
         }
+        onLibrary(call, components -> {
+            List<String> toRemove = new ArrayList<>();
+            for (int i = 0; i < ids.length(); i++) {
+                String id = ids.optString(i, null);
+                if (id != null) {
+                    toRemove.add(id);
+                }
+            }
+            JSObject result = result(true, "Library entries removed");
+            result.put("removed", components.library.remove(toRemove));
+            return result;
+        });
     }
 
     @PluginMethod
-    public void setBothWallpapers(PluginCall call) {
+    public void libraryClear(PluginCall call) {
+        onLibrary(call, components -> {
+            components.library.clear();
+            return result(true, "Library cleared");
+        });
+    }
+
+    /**
+     * Trabajo de la biblioteca sobre los componentes ya creados.
+     */
+    private interface LibraryAction {
+        JSObject run(Components components) throws JSONException;
+    }
+
+    /**
+     * SQLite no corre en el hilo del bridge: las llamadas van en orden por el hilo de fondo.
+     */
+    private void onLibrary(PluginCall call, LibraryAction action) {
+        background.execute(() -> {
+            try {
+                call.resolve(action.run(components()));
+            } catch (JSONException | IllegalArgumentException e) {
+                call.resolve(result(false, "Invalid library request: " + e.getMessage()));
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Library operation failed", e);
+                call.resolve(result(false, "Library error: " + e.getMessage()));
+            }
+        });
+    }
+
+    private JSObject applyBatchItems(PluginCall call) throws Exception {
+        WallpaperBatch batch;
+        try {
+            batch = WallpaperBatch.parse(call.getArray("items"));
+        } catch (JSONException | IllegalArgumentException e) {
+            Log.e(TAG, "Invalid batch", e);
+            return result(false, "Invalid batch: " + e.getMessage());
+        }
+        return components().engine.applyBatch(batch);
+    }
+
+    private JSObject applyUpload(PluginCall call, ImageUploadStore.Completed upload, String target, int which) throws InterruptedException {
+        CropPlanner.Request request;
+        try {
+            request = CropPlanner.Request.from(call.getData());
+        } catch (IllegalArgumentException e) {
+            upload.file.delete();
+            return result(false, "Error setting wallpaper: " + e.getMessage());
+        }
+        return components().engine.apply(ApplyEngine.Source.upload(upload), request, which, target);
+    }
+
+    /**
+     * Entrada común de setWallpaperHomeScreen, setWallpaperLockScreen y setBothWallpapers.
+     */
+    private JSObject applyFromCall(PluginCall call, int which, String target) throws InterruptedException {
         String imageUrl = call.getString("imageUrl");
         String base64Image = call.getString("base64Image");
 
-        if (imageUrl == null && base64Image == null) {
-            JSObject result = new JSObject();
-            result.put("success", false);
-            result.put("message", "Must provide either imageUrl or base64Image");
-            call.resolve(result);
-            return;
-        }
+        // Nunca se registra el payload: el Base64 puede ocupar varios megabytes
+        WallpaperLog.debug(TAG, "imageUrl: " + WallpaperLog.redact(imageUrl));
+        WallpaperLog.debug(TAG, "base64Image: " + (base64Image != null ? "provided (" + base64Image.length() + " chars)" : "null"));
 
+        ApplyEngine.Source source;
+        CropPlanner.Request request;
         try {
-            // Verificar permisos
-            WallpaperManager wallpaperManager = WallpaperManager.getInstance(getContext());
-            if (!wallpaperManager.isWallpaperSupported()) {
-                JSObject result = new JSObject();
-                result.put("success", false);
-                result.put("message", "Wallpaper not supported on this device");
-                call.resolve(result);
-                return;
-            }
+            source = ApplyEngine.Source.of(imageUrl, base64Image)
+                .withVariants(SourceSelector.parse(call.getArray("variants")));
+            request = CropPlanner.Request.from(call.getData());
+        } catch (IllegalArgumentException e) {
+            // El mensaje ya dice qué falta o qué valor no es válido
+            Log.e(TAG, "Invalid wallpaper request: " + e.getMessage());
+            return result(false, e.getMessage());
+        }
+        return components().engine.apply(source, request, which, target);
+    }
 
-            Bitmap bitmap;
-            if (base64Image != null && !base64Image.trim().isEmpty()) {
-                bitmap = decodeBase64ToBitmap(base64Image);
-                if (bitmap == null) {
-                    JSObject result = new JSObject();
-                    result.put("success", false);
-                    result.put("message", "Failed to decode base64 image");
-                    call.resolve(result);
-                    return;
-                }
-            } else if (imageUrl != null && !imageUrl.trim().isEmpty()) {
-                bitmap = downloadImageFromUrl(imageUrl);
-                if (bitmap == null) {
-                    JSObject result = new JSObject();
-                    result.put("success", false);
-                    result.put("message", "Failed to download image from URL");
-                    call.resolve(result);
-                    return;
-                }
-            } else {
-                JSObject result = new JSObject();
-                result.put("success", false);
-                result.put("message", "Invalid image data provided");
+    /**
+     * Inicia la rotación programada: sources (URLs http/https), target, intervalMinutes
+     * (mínimo 15) o timeOfDay (HH:mm), restricciones de batería, carga y red, y el ajuste
+     * opcional. Los cambios los hace WorkManager aunque la app no esté abierta.
+     */
+    @PluginMethod
+    public void startRotation(PluginCall call) {
+        // WorkManager y las preferencias de la rotación tocan disco: en el hilo de fondo
+        background.execute(() -> {
+            try {
+                WallpaperRotation rotation = new WallpaperRotation(getContext());
+                rotation.start(call.getData());
+                JSObject result = result(true, "Wallpaper rotation scheduled");
+                result.put("status", rotation.status());
                 call.resolve(result);
-                return;
+            } catch (JSONException | IllegalArgumentException e) {
+                call.resolve(result(false, "Invalid rotation: " + e.getMessage()));
             }
+        });
+    }
 
-            // Establecer wallpaper en ambas pantallas
-            if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.N) {
-                wallpaperManager.setBitmap(bitmap, null, true, WallpaperManager.FLAG_SYSTEM | WallpaperManager.FLAG_LOCK);
-            } else {
-                // Para versiones anteriores, solo establecer en pantalla principal
-                wallpaperManager.setBitmap(bitmap);
-            }
-            
-            JSObject result = new JSObject();
-            result.put("success", true);
-            if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.N) {
-                result.put("message", "Wallpaper set successfully for both home and lock screens");
-            } else {
-                result.put("message", "Wallpaper set successfully for home screen (lock screen not supported on this Android version)");
-            }
-            call.resolve(result);
-            
-        } catch (SecurityException e) {
-            Log.e(TAG, "Security error setting both wallpapers", e);
-            JSObject result = new JSObject();
-            result.put("success", false);
-            result.put("message", "Permission denied: " + e.getMessage());
-            call.resolve(result);
-        } catch (Exception e) {
-            Log.e(TAG, "Error setting both wallpapers", e);
-            JSObject result = new JSObject();
-            result.put("success", false);
-            result.put("message", "Error setting wallpaper: " + e.getMessage());
-            call.resolve(result);
-        }
+    @PluginMethod
+    public void stopRotation(PluginCall call) {
+        background.execute(() -> {
+            new WallpaperRotation(getContext()).stop();
+            call.resolve(result(true, "Wallpaper rotation stopped"));
+        });
+    }
+
+    @PluginMethod
+    public void getRotationStatus(PluginCall call) {
+        background.execute(() -> call.resolve(new WallpaperRotation(getContext()).status()));
+    }
+
+    /**
+     * Devuelve las métricas acumuladas desde el último resetMetrics: tiempos por fase
+     * (count, media, máximo y percentiles en ms), bytes, aciertos de caché y mayor bitmap.
+     */
+    @PluginMethod
+    public void getMetrics(PluginCall call) {
+        call.resolve(metrics.toJson());
+    }
+
+    @PluginMethod
+    public void resetMetrics(PluginCall call) {
+        metrics.reset();
+        call.resolve(result(true, "Metrics reset"));
+    }
+
+    static JSObject result(boolean success, String message) {
+        JSObject result = new JSObject();
+        result.put("success", success);
+        result.put("message", message);
+        return result;
     }
 
+    /**
+     * Responde con la foto de DeviceCapabilities, sin consultar al sistema: la refrescan
+     * handleOnResume y permissionCallback, que es cuando el estado puede cambiar.
+     */
     @PluginMethod
     public void checkPermissions(PluginCall call) {
         try {
-            Log.d(TAG, "Checking wallpaper permissions");
-            
-            WallpaperManager wallpaperManager = WallpaperManager.getInstance(getContext());
-            boolean isWallpaperSupported = wallpaperManager.isWallpaperSupported();
-            
-            Log.d(TAG, "Wallpaper supported: " + isWallpaperSupported);
-            
-            // Check if we have SET_WALLPAPER permission
-            boolean hasSetWallpaperPermission = ContextCompat.checkSelfPermission(getContext(), Manifest.permission.SET_WALLPAPER) 
-                == PackageManager.PERMISSION_GRANTED;
-            
-            Log.d(TAG, "SET_WALLPAPER permission: " + hasSetWallpaperPermission);
-            
-            // Check for READ_MEDIA_IMAGES permission on Android 13+
-            boolean hasMediaPermission = true;
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
-                hasMediaPermission = ContextCompat.checkSelfPermission(getContext(), Manifest.permission.READ_MEDIA_IMAGES) 
-                    == PackageManager.PERMISSION_GRANTED;
-                Log.d(TAG, "READ_MEDIA_IMAGES permission (Android 13+): " + hasMediaPermission);
-            }
-            
-            boolean hasAllPermissions = isWallpaperSupported && hasSetWallpaperPermission && hasMediaPermission;
-            
+            DeviceCapabilities capabilities = DeviceCapabilities.get(getContext());
+            WallpaperLog.debug(TAG, "Wallpaper supported: " + capabilities.wallpaperSupported + ", SET_WALLPAPER: "
+                + capabilities.hasSetWallpaperPermission + ", media: " + capabilities.hasMediaPermission);
+
             JSObject result = new JSObject();
-            result.put("hasPermission", hasAllPermissions);
-            result.put("isWallpaperSupported", isWallpaperSupported);
-            result.put("hasSetWallpaperPermission", hasSetWallpaperPermission);
-            result.put("hasMediaPermission", hasMediaPermission);
+            result.put("hasPermission", capabilities.wallpaperSupported && capabilities.setWallpaperAllowed
+                && capabilities.hasAllPermissions());
+            result.put("isWallpaperSupported", capabilities.wallpaperSupported);
+            result.put("isSetWallpaperAllowed", capabilities.setWallpaperAllowed);
+            result.put("hasSetWallpaperPermission", capabilities.hasSetWallpaperPermission);
+            result.put("hasMediaPermission", capabilities.hasMediaPermission);
             result.put("androidVersion", Build.VERSION.SDK_INT);
             call.resolve(result);
         } catch (Exception e) {
@@ -347,7 +669,7 @@ public class WallpaperPlugin extends Plugin {
     @PluginMethod
     public void requestPermissions(PluginCall call) {
         try {
-            Log.d(TAG, "Requesting wallpaper permissions");
+            WallpaperLog.debug(TAG, "Requesting wallpaper permissions");
             
             // Verificar qué permisos necesitamos solicitar
             String[] permissionsToRequest;
@@ -377,28 +699,20 @@ public class WallpaperPlugin extends Plugin {
     @PermissionCallback
     private void permissionCallback(PluginCall call) {
         try {
-            Log.d(TAG, "Permission callback received");
-            
-            // Verificar el estado de los permisos después de la solicitud
-            boolean hasSetWallpaperPermission = ContextCompat.checkSelfPermission(getContext(), Manifest.permission.SET_WALLPAPER) 
-                == PackageManager.PERMISSION_GRANTED;
-            
-            boolean hasMediaPermission = true;
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
-                hasMediaPermission = ContextCompat.checkSelfPermission(getContext(), Manifest.permission.READ_MEDIA_IMAGES) 
-                    == PackageManager.PERMISSION_GRANTED;
-            }
-            
-            boolean hasAllPermissions = hasSetWallpaperPermission && hasMediaPermission;
-            
+            WallpaperLog.debug(TAG, "Permission callback received");
+
+            // El usuario acaba de responder: la foto anterior ya no vale
+            DeviceCapabilities capabilities = DeviceCapabilities.refresh(getContext());
+            boolean hasAllPermissions = capabilities.hasAllPermissions();
+
             JSObject result = new JSObject();
             result.put("granted", hasAllPermissions);
-            result.put("hasSetWallpaperPermission", hasSetWallpaperPermission);
-            result.put("hasMediaPermission", hasMediaPermission);
-            
-            Log.d(TAG, "Permissions granted: " + hasAllPermissions);
+            result.put("hasSetWallpaperPermission", capabilities.hasSetWallpaperPermission);
+            result.put("hasMediaPermission", capabilities.hasMediaPermission);
+
+            WallpaperLog.debug(TAG, "Permissions granted: " + hasAllPermissions);
             call.resolve(result);
-            
+
         } catch (Exception e) {
             Log.e(TAG, "Error in permission callback", e);
             call.reject("Error in permission callback: " + e.getMessage());
@@ -410,7 +724,7 @@ public class WallpaperPlugin extends Plugin {
      */
     @PluginMethod
     public void setHomeWallpaper(PluginCall call) {
-        Log.d(TAG, "setHomeWallpaper called (alias for setWallpaperHomeScreen)");
+        WallpaperLog.debug(TAG, "setHomeWallpaper called (alias for setWallpaperHomeScreen)");
         setWallpaperHomeScreen(call);
     }
 
@@ -419,122 +733,7 @@ public class WallpaperPlugin extends Plugin {
      */
     @PluginMethod
     public void setLockWallpaper(PluginCall call) {
-        Log.d(TAG, "setLockWallpaper called (alias for setWallpaperLockScreen)");
+        WallpaperLog.debug(TAG, "setLockWallpaper called (alias for setWallpaperLockScreen)");
         setWallpaperLockScreen(call);
     }
-
-    private Bitmap decodeBase64ToBitmap(String base64String) {
-        try {
-            Log.d(TAG, "Decoding base64 image, length: " + base64String.length());
-            
-            // Remove data URL prefix if present
-            if (base64String.startsWith("data:image")) {
-                Log.d(TAG, "Removing data URL prefix");
-                base64String = base64String.substring(base64String.indexOf(",") + 1);
-            }
-            
-            // Validate base64 string
-            if (base64String.trim().isEmpty()) {
-                Log.e(TAG, "Base64 string is empty after processing");
-                return null;
-            }
-            
-            Log.d(TAG, "Decoding base64 string, final length: " + base64String.length());
-            byte[] decodedBytes = Base64.decode(base64String, Base64.DEFAULT);
-            
-            if (decodedBytes == null || decodedBytes.length == 0) {
-                Log.e(TAG, "Failed to decode base64 - no bytes produced");
-                return null;
-            }
-            
-            Log.d(TAG, "Decoded bytes length: " + decodedBytes.length);
-            Bitmap bitmap = BitmapFactory.decodeByteArray(decodedBytes, 0, decodedBytes.length);
-            
-            if (bitmap == null) {
-                Log.e(TAG, "Failed to create bitmap from decoded bytes");
-                return null;
-            }
-            
-            Log.d(TAG, "Successfully created bitmap: " + bitmap.getWidth() + "x" + bitmap.getHeight());
-            
-            // Verificar que el bitmap no sea demasiado grande
-            int maxSize = 4096; // 4K max
-            if (bitmap.getWidth() > maxSize || bitmap.getHeight() > maxSize) {
-                Log.d(TAG, "Resizing large bitmap from " + bitmap.getWidth() + "x" + bitmap.getHeight());
-                float scale = Math.min((float) maxSize / bitmap.getWidth(), (float) maxSize / bitmap.getHeight());
-                int newWidth = Math.round(bitmap.getWidth() * scale);
-                int newHeight = Math.round(bitmap.getHeight() * scale);
-                bitmap = Bitmap.createScaledBitmap(bitmap, newWidth, newHeight, true);
-                Log.d(TAG, "Resized bitmap to " + bitmap.getWidth() + "x" + bitmap.getHeight());
-            }
-            
-            return bitmap;
-        } catch (IllegalArgumentException e) {
-            Log.e(TAG, "Invalid base64 string", e);
-            return null;
-        } catch (OutOfMemoryError e) {
-            Log.e(TAG, "Out of memory while decoding base64 image", e);
-            return null;
-        } catch (Exception e) {
-            Log.e(TAG, "Error decoding base64 image", e);
-            return null;
-        }
-    }
-
-    private Bitmap downloadImageFromUrl(String imageUrl) {
-        try {
-            // Validar URL
-            if (imageUrl == null || imageUrl.trim().isEmpty()) {
-                Log.e(TAG, "URL is null or empty");
-                return null;
-            }
-
-            URL url = new URL(imageUrl);
-            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-            
-            // Configurar timeouts
-            connection.setConnectTimeout(10000); // 10 segundos
-            connection.setReadTimeout(15000);    // 15 segundos
-            connection.setDoInput(true);
-            
-            // Configurar headers para mejor compatibilidad
-            connection.setRequestProperty("User-Agent", "WallpaperApp/1.0");
-            connection.setRequestProperty("Accept", "image/*");
-            
-            // Conectar y verificar respuesta
-            connection.connect();
-            int responseCode = connection.getResponseCode();
-            
-            if (responseCode != HttpURLConnection.HTTP_OK) {
-                Log.e(TAG, "HTTP error code: " + responseCode);
-                return null;
-            }
-            
-            InputStream input = connection.getInputStream();
-            Bitmap bitmap = BitmapFactory.decodeStream(input);
-            
-            if (bitmap == null) {
-                Log.e(TAG, "Failed to decode bitmap from stream");
-                return null;
-            }
-            
-            // Verificar que el bitmap no sea demasiado grande
-            int maxSize = 4096; // 4K max
-            if (bitmap.getWidth() > maxSize || bitmap.getHeight() > maxSize) {
-                // Redimensionar si es necesario
-                float scale = Math.min((float) maxSize / bitmap.getWidth(), (float) maxSize / bitmap.getHeight());
-                int newWidth = Math.round(bitmap.getWidth() * scale);
-                int newHeight = Math.round(bitmap.getHeight() * scale);
-                bitmap = Bitmap.createScaledBitmap(bitmap, newWidth, newHeight, true);
-            }
-            
-            input.close();
-            connection.disconnect();
-            
-            return bitmap;
-        } catch (Exception e) {
-            Log.e(TAG, "Error downloading image from URL: " + imageUrl, e);
-            return null;
-        }
-    }
-}
\ No newline at end of file
+}
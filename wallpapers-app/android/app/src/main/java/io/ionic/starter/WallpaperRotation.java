@@ -0,0 +1,314 @@
+package io.ionic.starter;
+
+import android.app.WallpaperManager;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.Rect;
+import android.util.Log;
+import androidx.work.Constraints;
+import androidx.work.Data;
+import androidx.work.ExistingPeriodicWorkPolicy;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.PeriodicWorkRequest;
+import androidx.work.WorkManager;
+import com.getcapacitor.JSObject;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rotación programada del wallpaper sin abrir la app.
+ *
+ * La lista de imágenes, el horario y las restricciones se guardan en SharedPreferences y
+ * WorkManager ejecuta RotationWorker con ellas. Cada ejecución aplica la imagen que ya está
+ * preparada en disco al tamaño del dispositivo y deja preparada la siguiente, así el cambio
+ * en sí es un setStream de unos milisegundos.
+ */
+final class WallpaperRotation {
+
+    private static final String TAG = "WallpaperRotation";
+
+    private static final String PREFS = "wallpaper_rotation";
+    private static final String KEY_CONFIG = "config";
+    private static final String KEY_POSITION = "position";
+    private static final String KEY_STAGED_INDEX = "stagedIndex";
+    private static final String KEY_STAGED_CROP = "stagedCrop";
+    private static final String KEY_LAST_RUN_AT = "lastRunAt";
+    private static final String KEY_LAST_ERROR = "lastError";
+
+    static final String WORK_INTERVAL = "wallpaper-rotation";
+    static final String WORK_DAILY = "wallpaper-rotation-daily";
+    static final String WORK_STAGE = "wallpaper-rotation-stage";
+
+    private static final String STAGED_FILE = "rotation-next.img";
+
+    /**
+     * Configuración de la rotación tal como la envía JS en startRotation.
+     */
+    static final class Config {
+        final List<String> sources;
+        final String target;
+        final int which;
+        final JSONObject fit;
+        // Cada cuántos minutos rota, o -1 si rota a una hora del día
+        final long intervalMinutes;
+        // Hora del día en minutos desde medianoche, o -1 si rota por intervalo
+        final int timeOfDayMinutes;
+        final boolean requiresCharging;
+        final boolean requiresBatteryNotLow;
+        final boolean unmeteredOnly;
+
+        private Config(JSONObject json) throws JSONException {
+            JSONArray array = json.getJSONArray("sources");
+            sources = new ArrayList<>(array.length());
+            for (int i = 0; i < array.length(); i++) {
+                String imageUrl = array.getString(i);
+                if (!imageUrl.startsWith("http://") && !imageUrl.startsWith("https://")) {
+                    throw new IllegalArgumentException("Source " + i + " is not an http(s) URL");
+                }
+                sources.add(imageUrl);
+            }
+            if (sources.isEmpty()) {
+                throw new IllegalArgumentException("Must provide at least one source");
+            }
+            target = json.optString("target", "home");
+            which = flagsFor(target);
+            fit = new JSONObject();
+            for (String key : new String[] { "fit", "crop", "focalPoint", "decodeQuality" }) {
+                if (json.has(key)) {
+                    fit.put(key, json.get(key));
+                }
+            }
+
+            String timeOfDay = json.optString("timeOfDay", null);
+            if (timeOfDay != null) {
+                timeOfDayMinutes = parseTimeOfDay(timeOfDay);
+                intervalMinutes = -1;
+            } else {
+                timeOfDayMinutes = -1;
+                // WorkManager no ejecuta trabajos periódicos con menos de 15 minutos de intervalo
+                intervalMinutes = Math.max(TimeUnit.MILLISECONDS.toMinutes(PeriodicWorkRequest.MIN_PERIODIC_INTERVAL_MILLIS),
+                    json.optLong("intervalMinutes", 24 * 60));
+            }
+            requiresCharging = json.optBoolean("requiresCharging", false);
+            requiresBatteryNotLow = json.optBoolean("requiresBatteryNotLow", true);
+            unmeteredOnly = json.optBoolean("unmeteredOnly", false);
+        }
+
+        static Config from(JSONObject json) throws JSONException {
+            return new Config(json);
+        }
+
+        boolean isDaily() {
+            return timeOfDayMinutes >= 0;
+        }
+
+        Constraints constraints() {
+            return new Constraints.Builder()
+                .setRequiresCharging(requiresCharging)
+                .setRequiresBatteryNotLow(requiresBatteryNotLow)
+                .setRequiredNetworkType(unmeteredOnly ? NetworkType.UNMETERED : NetworkType.NOT_REQUIRED)
+                .build();
+        }
+
+        private static int flagsFor(String target) {
+            if ("home".equals(target)) {
+                return WallpaperManager.FLAG_SYSTEM;
+            }
+            if ("lock".equals(target)) {
+                if (android.os.Build.VERSION.SDK_INT < android.os.Build.VERSION_CODES.N) {
+                    throw new IllegalArgumentException("Lock screen wallpaper requires Android 7.0 (API 24) or higher");
+                }
+                return WallpaperManager.FLAG_LOCK;
+            }
+            if ("both".equals(target)) {
+                return WallpaperManager.FLAG_SYSTEM | WallpaperManager.FLAG_LOCK;
+            }
+            throw new IllegalArgumentException("Invalid target '" + target + "'");
+        }
+
+        private static int parseTimeOfDay(String value) {
+            // Formato HH:mm en hora local
+            String[] parts = value.split(":");
+            if (parts.length == 2) {
+                try {
+                    int hours = Integer.parseInt(parts[0].trim());
+                    int minutes = Integer.parseInt(parts[1].trim());
+                    if (hours >= 0 && hours < 24 && minutes >= 0 && minutes < 60) {
+                        return hours * 60 + minutes;
+                    }
+                } catch (NumberFormatException e) {
+                    // Cae al error de abajo
+                }
+            }
+            throw new IllegalArgumentException("Invalid timeOfDay '" + value + "', expected HH:mm");
+        }
+    }
+
+    private final Context context;
+    private final SharedPreferences prefs;
+
+    WallpaperRotation(Context context) {
+        this.context = context.getApplicationContext();
+        this.prefs = this.context.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Guarda la configuración, reinicia la lista y programa los cambios. También encola la
+     * preparación de la primera imagen para que el primer cambio ya sea barato.
+     */
+    void start(JSONObject json) throws JSONException {
+        Config config = Config.from(json);
+        prefs.edit()
+            .putString(KEY_CONFIG, json.toString())
+            .putInt(KEY_POSITION, -1)
+            .putInt(KEY_STAGED_INDEX, -1)
+            .remove(KEY_STAGED_CROP)
+            .remove(KEY_LAST_ERROR)
+            .apply();
+        stagedFile().delete();
+
+        WorkManager workManager = WorkManager.getInstance(context);
+        if (config.isDaily()) {
+            workManager.cancelUniqueWork(WORK_INTERVAL);
+            scheduleDaily(config, ExistingWorkPolicy.REPLACE);
+        } else {
+            workManager.cancelUniqueWork(WORK_DAILY);
+            PeriodicWorkRequest request = new PeriodicWorkRequest.Builder(RotationWorker.class, config.intervalMinutes, TimeUnit.MINUTES)
+                .setConstraints(config.constraints())
+                .setInitialDelay(config.intervalMinutes, TimeUnit.MINUTES)
+                .build();
+            workManager.enqueueUniquePeriodicWork(WORK_INTERVAL, ExistingPeriodicWorkPolicy.UPDATE, request);
+        }
+        OneTimeWorkRequest stage = new OneTimeWorkRequest.Builder(RotationWorker.class)
+            .setConstraints(new Constraints.Builder()
+                .setRequiredNetworkType(config.unmeteredOnly ? NetworkType.UNMETERED : NetworkType.CONNECTED)
+                .build())
+            .setInputData(new Data.Builder().putBoolean(RotationWorker.KEY_STAGE_ONLY, true).build())
+            .build();
+        workManager.enqueueUniqueWork(WORK_STAGE, ExistingWorkPolicy.REPLACE, stage);
+        WallpaperLog.debug(TAG, "Rotation started with " + config.sources.size() + " sources");
+    }
+
+    void stop() {
+        WorkManager workManager = WorkManager.getInstance(context);
+        workManager.cancelUniqueWork(WORK_INTERVAL);
+        workManager.cancelUniqueWork(WORK_DAILY);
+        workManager.cancelUniqueWork(WORK_STAGE);
+        prefs.edit().clear().apply();
+        stagedFile().delete();
+    }
+
+    /**
+     * Programa el siguiente cambio diario. Desde el propio worker se encadena con
+     * APPEND_OR_REPLACE para no cancelar la ejecución en curso.
+     */
+    void scheduleDaily(Config config, ExistingWorkPolicy policy) {
+        OneTimeWorkRequest request = new OneTimeWorkRequest.Builder(RotationWorker.class)
+            .setConstraints(config.constraints())
+            .setInitialDelay(delayUntil(config.timeOfDayMinutes), TimeUnit.MILLISECONDS)
+            .build();
+        WorkManager.getInstance(context).enqueueUniqueWork(WORK_DAILY, policy, request);
+    }
+
+    Config config() {
+        String json = prefs.getString(KEY_CONFIG, null);
+        if (json == null) {
+            return null;
+        }
+        try {
+            return Config.from(new JSONObject(json));
+        } catch (JSONException | IllegalArgumentException e) {
+            Log.e(TAG, "Stored rotation config is invalid", e);
+            return null;
+        }
+    }
+
+    int position() {
+        return prefs.getInt(KEY_POSITION, -1);
+    }
+
+    int stagedIndex() {
+        return stagedFile().exists() ? prefs.getInt(KEY_STAGED_INDEX, -1) : -1;
+    }
+
+    Rect stagedCropHint() {
+        String value = prefs.getString(KEY_STAGED_CROP, null);
+        return value != null ? Rect.unflattenFromString(value) : null;
+    }
+
+    File stagedFile() {
+        return new File(context.getFilesDir(), STAGED_FILE);
+    }
+
+    void markStaged(int index, Rect cropHint) {
+        prefs.edit()
+            .putInt(KEY_STAGED_INDEX, index)
+            .putString(KEY_STAGED_CROP, cropHint != null ? cropHint.flattenToString() : null)
+            .apply();
+    }
+
+    void markApplied(int index) {
+        prefs.edit()
+            .putInt(KEY_POSITION, index)
+            .putInt(KEY_STAGED_INDEX, -1)
+            .putLong(KEY_LAST_RUN_AT, System.currentTimeMillis())
+            .remove(KEY_LAST_ERROR)
+            .apply();
+    }
+
+    void markFailed(String message) {
+        prefs.edit().putString(KEY_LAST_ERROR, message).apply();
+    }
+
+    JSObject status() {
+        JSObject status = new JSObject();
+        Config config = config();
+        status.put("active", config != null);
+        if (config != null) {
+            status.put("sources", config.sources.size());
+            status.put("target", config.target);
+            status.put("position", position());
+            status.put("nextStaged", stagedIndex() >= 0);
+            if (config.isDaily()) {
+                status.put("timeOfDay", String.format("%02d:%02d", config.timeOfDayMinutes / 60, config.timeOfDayMinutes % 60));
+            } else {
+                status.put("intervalMinutes", config.intervalMinutes);
+            }
+        }
+        long lastRunAt = prefs.getLong(KEY_LAST_RUN_AT, 0);
+        if (lastRunAt > 0) {
+            status.put("lastRunAt", lastRunAt);
+        }
+        String lastError = prefs.getString(KEY_LAST_ERROR, null);
+        if (lastError != null) {
+            status.put("lastError", lastError);
+        }
+        return status;
+    }
+
+    /**
+     * Milisegundos hasta la próxima vez que el reloj local marque la hora indicada.
+     */
+    static long delayUntil(int timeOfDayMinutes) {
+        Calendar now = Calendar.getInstance();
+        Calendar next = (Calendar) now.clone();
+        next.set(Calendar.HOUR_OF_DAY, timeOfDayMinutes / 60);
+        next.set(Calendar.MINUTE, timeOfDayMinutes % 60);
+        next.set(Calendar.SECOND, 0);
+        next.set(Calendar.MILLISECOND, 0);
+        if (!next.after(now)) {
+            next.add(Calendar.DAY_OF_MONTH, 1);
+        }
+        return next.getTimeInMillis() - now.getTimeInMillis();
+    }
+}
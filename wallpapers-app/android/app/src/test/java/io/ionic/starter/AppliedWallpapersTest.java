@@ -0,0 +1,103 @@
+package io.ionic.starter;
+
+import static org.junit.Assert.assertEquals;
+
+import android.app.WallpaperManager;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+/**
+ * Qué pantallas hay que volver a escribir según la clave recordada y los ids de WallpaperManager.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class AppliedWallpapersTest {
+
+    private static final int SYSTEM = WallpaperManager.FLAG_SYSTEM;
+    private static final int LOCK = WallpaperManager.FLAG_LOCK;
+    private static final int BOTH = SYSTEM | LOCK;
+
+    // Lo que devolvería WallpaperManager.getWallpaperId para {principal, bloqueo}
+    private int[] ids;
+    private AppliedWallpapers applied;
+
+    @Before
+    public void setUp() {
+        ids = new int[] { 10, 20 };
+        applied = new AppliedWallpapers(RuntimeEnvironment.getApplication(), () -> ids == null ? null : ids.clone());
+    }
+
+    @Test
+    public void sameKeyAndSameIdsIsSkipped() {
+        applied.record(BOTH, "k");
+
+        assertEquals(0, applied.pending(BOTH, "k"));
+    }
+
+    @Test
+    public void anotherKeyIsApplied() {
+        applied.record(BOTH, "k");
+
+        assertEquals(BOTH, applied.pending(BOTH, "other"));
+    }
+
+    @Test
+    public void idChangedExternallyIsApplied() {
+        applied.record(BOTH, "k");
+        // Otra app cambió el fondo principal
+        ids = new int[] { 11, 20 };
+
+        assertEquals(SYSTEM, applied.pending(BOTH, "k"));
+    }
+
+    @Test
+    public void onlyTheChangedLockScreenIsApplied() {
+        applied.record(BOTH, "k");
+        ids = new int[] { 10, 21 };
+
+        assertEquals(LOCK, applied.pending(BOTH, "k"));
+    }
+
+    @Test
+    public void lockMirroringHomeFollowsTheHomeId() {
+        // Sin fondo propio en la pantalla de bloqueo
+        ids = new int[] { 10, -1 };
+        applied.record(BOTH, "k");
+        assertEquals(0, applied.pending(BOTH, "k"));
+
+        // Al cambiar la principal cambia también lo que se ve en el bloqueo
+        ids = new int[] { 11, -1 };
+        assertEquals(BOTH, applied.pending(BOTH, "k"));
+        assertEquals(LOCK, applied.pending(LOCK, "k"));
+    }
+
+    @Test
+    public void onlyTheRecordedScreensAreSkipped() {
+        applied.record(SYSTEM, "k");
+
+        assertEquals(LOCK, applied.pending(BOTH, "k"));
+    }
+
+    @Test
+    public void unreadableIdsApplyEverything() {
+        applied.record(BOTH, "k");
+        ids = null;
+
+        assertEquals(BOTH, applied.pending(BOTH, "k"));
+    }
+
+    @Test
+    public void recordWithoutIdsForgetsTheKey() {
+        applied.record(BOTH, "k");
+        ids = null;
+        applied.record(SYSTEM, "k");
+        ids = new int[] { 10, 20 };
+
+        assertEquals(SYSTEM, applied.pending(BOTH, "k"));
+    }
+}
@@ -0,0 +1,109 @@
+package io.ionic.starter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.app.WallpaperManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.util.Base64;
+import com.getcapacitor.JSObject;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.GraphicsMode;
+import org.robolectric.shadows.ShadowWallpaperManager;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * ApplyEngine.apply de punta a punta contra el WallpaperManager de Robolectric: lo que ya cabe
+ * en la pantalla va por setStream sin decodificar, lo que no se decodifica y va por setBitmap.
+ */
+@RunWith(RobolectricTestRunner.class)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+@Config(sdk = 34)
+public class ApplyEngineTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Context context;
+    private WallpaperMetrics metrics;
+    private WallpaperExecutor executor;
+    private ApplyEngine engine;
+    private int[] desired;
+
+    @Before
+    public void setUp() throws Exception {
+        context = RuntimeEnvironment.getApplication();
+        metrics = new WallpaperMetrics();
+        executor = new WallpaperExecutor(metrics, event -> { });
+        ImageDiskCache cache = new ImageDiskCache(folder.newFolder("cache"), 16L * 1024 * 1024);
+        ImageDownloader downloader = new ImageDownloader(cache, metrics);
+        BitmapPool pool = new BitmapPool(16L * 1024 * 1024);
+        engine = new ApplyEngine(context, executor, metrics, BitmapMemoryCache.getInstance(context), pool,
+            new BitmapDecoder(pool, metrics), downloader, new SourceSelector(context, cache, downloader, metrics),
+            new AppliedWallpapers(context), MemoryBudget.getInstance(context));
+        desired = DeviceCapabilities.refresh(context).desiredSize();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+        BitmapMemoryCache.getInstance(context).clear();
+    }
+
+    @Test
+    public void imageThatFitsIsStreamedWithoutDecoding() throws Exception {
+        int width = desired[0] / 2;
+        int height = desired[1] / 2;
+
+        JSObject result = engine.apply(source(width, height, Color.RED), CropPlanner.Request.DEFAULT,
+            WallpaperManager.FLAG_SYSTEM, "home");
+
+        assertTrue(result.getString("message"), result.getBoolean("success"));
+        assertEquals(0, metrics.decode.toJson().getLong("count"));
+        // setStream recibió los bytes originales, sin reducir
+        Bitmap written = shadow().getBitmap(WallpaperManager.FLAG_SYSTEM);
+        assertNotNull(written);
+        assertEquals(width, written.getWidth());
+        assertEquals(height, written.getHeight());
+    }
+
+    @Test
+    public void largerImageIsDecodedAndSetAsBitmap() throws Exception {
+        JSObject result = engine.apply(source(desired[0] * 2, desired[1] * 2, Color.BLUE), CropPlanner.Request.DEFAULT,
+            WallpaperManager.FLAG_LOCK, "lock");
+
+        assertTrue(result.getString("message"), result.getBoolean("success"));
+        assertEquals(1, metrics.decode.toJson().getLong("count"));
+        assertTrue(metrics.decodedBytes.get() > 0);
+        assertNotNull(shadow().getBitmap(WallpaperManager.FLAG_LOCK));
+    }
+
+    private ShadowWallpaperManager shadow() {
+        return shadowOf(WallpaperManager.getInstance(context));
+    }
+
+    /**
+     * Un PNG de width x height en Base64, como lo mandaría la app.
+     */
+    private static ApplyEngine.Source source(int width, int height, int color) {
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(color);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.PNG, 100, output);
+        return ApplyEngine.Source.of(null, "data:image/png;base64," + Base64.encodeToString(output.toByteArray(), Base64.NO_WRAP));
+    }
+}
@@ -0,0 +1,81 @@
+package io.ionic.starter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.graphics.Rect;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.GraphicsMode;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * BitmapDecoder con decodificación real: lo que entrega puede volver al pool y la siguiente
+ * decodificación lo reutiliza.
+ */
+@RunWith(RobolectricTestRunner.class)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+@Config(sdk = 34)
+public class BitmapDecoderPoolTest {
+
+    private static final int SOURCE_WIDTH = 800;
+    private static final int SOURCE_HEIGHT = 600;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void secondRegionDecodeReusesThePooledBitmap() throws Exception {
+        BitmapPool pool = new BitmapPool(4 * 1024 * 1024);
+        BitmapDecoder decoder = new BitmapDecoder(pool, new WallpaperMetrics());
+        EncodedImage image = EncodedImage.of(source());
+        // Menos de la mitad del original: va por BitmapRegionDecoder, muestreada a 100x100
+        CropPlanner.Plan plan = new CropPlanner.Plan(new Rect(0, 0, 200, 200), 100, 100, null);
+
+        Bitmap first = decoder.decode(image, plan, SOURCE_WIDTH, SOURCE_HEIGHT);
+        assertNotNull(first);
+        pool.put(first);
+        Bitmap second = decoder.decode(image, plan, SOURCE_WIDTH, SOURCE_HEIGHT);
+
+        assertSame(first, second);
+        assertEquals(100, second.getWidth());
+        assertEquals(100, second.getHeight());
+    }
+
+    @Test
+    public void imageDecoderOutputCanReturnToThePool() throws Exception {
+        BitmapPool pool = new BitmapPool(4 * 1024 * 1024);
+        BitmapDecoder decoder = new BitmapDecoder(pool, new WallpaperMetrics());
+        CropPlanner.Plan plan = new CropPlanner.Plan(new Rect(0, 0, SOURCE_WIDTH, SOURCE_HEIGHT), 400, 300, null);
+
+        Bitmap bitmap = decoder.decode(EncodedImage.of(source()), plan, SOURCE_WIDTH, SOURCE_HEIGHT);
+
+        assertNotNull(bitmap);
+        assertTrue(bitmap.isMutable());
+        pool.put(bitmap);
+        assertSame(bitmap, pool.get(400, 300, Bitmap.Config.ARGB_8888));
+    }
+
+    private File source() throws IOException {
+        Bitmap bitmap = Bitmap.createBitmap(SOURCE_WIDTH, SOURCE_HEIGHT, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(Color.BLUE);
+        File file = folder.newFile("source.png");
+        try (OutputStream output = new FileOutputStream(file)) {
+            bitmap.compress(Bitmap.CompressFormat.PNG, 100, output);
+        }
+        return file;
+    }
+}
@@ -0,0 +1,44 @@
+package io.ionic.starter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/**
+ * Cálculos de tamaño de BitmapDecoder, sin decodificar nada.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class BitmapDecoderTest {
+
+    @Test
+    public void sampleSizeKeepsBothSidesAtLeastRequested() {
+        assertEquals(2, BitmapDecoder.calculateInSampleSize(4000, 3000, 1080, 1080));
+        assertEquals(4, BitmapDecoder.calculateInSampleSize(8000, 6000, 1920, 1080));
+    }
+
+    @Test
+    public void sampleSizeIsOneWhenTheImageIsSmaller() {
+        assertEquals(1, BitmapDecoder.calculateInSampleSize(1000, 800, 1080, 2400));
+        assertEquals(1, BitmapDecoder.calculateInSampleSize(2000, 2000, 1080, 1080));
+    }
+
+    @Test
+    public void sampleSizeRespectsMaxDimension() {
+        // Sin tamaño pedido solo manda el límite de textura
+        int sampleSize = BitmapDecoder.calculateInSampleSize(16000, 1000, 0, 0);
+
+        assertEquals(4, sampleSize);
+        assertTrue(16000 / sampleSize <= BitmapDecoder.MAX_DIMENSION);
+    }
+
+    @Test
+    public void targetScaleNeverUpscales() {
+        assertEquals(1f, BitmapDecoder.targetScale(1000, 800, 1080, 2400), 0f);
+        assertEquals(0.5f, BitmapDecoder.targetScale(4000, 3000, 2000, 1000), 0.0001f);
+    }
+}
@@ -0,0 +1,87 @@
+package io.ionic.starter;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.Bitmap;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/**
+ * Reutilización, expulsión y cuentas de BitmapPool.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class BitmapPoolTest {
+
+    // Un bitmap ARGB_8888 de 100x100
+    private static final int BITMAP_BYTES = 100 * 100 * 4;
+
+    @Test
+    public void getReturnsAPooledBitmapLargeEnough() {
+        BitmapPool pool = new BitmapPool(BITMAP_BYTES);
+        Bitmap bitmap = Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888);
+        pool.put(bitmap);
+
+        assertNull(pool.get(200, 100, Bitmap.Config.ARGB_8888));
+        assertSame(bitmap, pool.get(50, 80, Bitmap.Config.ARGB_8888));
+        // Sale del pool: no se entrega dos veces
+        assertNull(pool.get(50, 80, Bitmap.Config.ARGB_8888));
+    }
+
+    @Test
+    public void configMustMatch() {
+        BitmapPool pool = new BitmapPool(BITMAP_BYTES);
+        pool.put(Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888));
+
+        assertNull(pool.get(10, 10, Bitmap.Config.RGB_565));
+    }
+
+    @Test
+    public void immutableBitmapsAreNotPooled() {
+        BitmapPool pool = new BitmapPool(BITMAP_BYTES);
+        Bitmap immutable = Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888).copy(Bitmap.Config.ARGB_8888, false);
+
+        pool.put(immutable);
+
+        assertNull(pool.get(10, 10, Bitmap.Config.ARGB_8888));
+    }
+
+    @Test
+    public void oldestIsRecycledOverBudget() {
+        BitmapPool pool = new BitmapPool(2L * BITMAP_BYTES);
+        Bitmap first = Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888);
+        Bitmap second = Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888);
+        Bitmap third = Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888);
+
+        pool.put(first);
+        pool.put(second);
+        pool.put(third);
+
+        assertTrue(first.isRecycled());
+        assertFalse(second.isRecycled());
+        assertSame(second, pool.get(100, 100, Bitmap.Config.ARGB_8888));
+        assertSame(third, pool.get(100, 100, Bitmap.Config.ARGB_8888));
+    }
+
+    @Test
+    public void bitmapRecycledWhilePooledReleasesItsSize() {
+        BitmapPool pool = new BitmapPool(BITMAP_BYTES);
+        Bitmap recycled = Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888);
+        pool.put(recycled);
+        recycled.recycle();
+
+        assertNull(pool.get(10, 10, Bitmap.Config.ARGB_8888));
+
+        // Si el pool siguiera contando el reciclado, este expulsaría al siguiente
+        Bitmap next = Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888);
+        pool.put(next);
+        assertFalse(next.isRecycled());
+        assertSame(next, pool.get(100, 100, Bitmap.Config.ARGB_8888));
+    }
+}
@@ -0,0 +1,163 @@
+package io.ionic.starter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.PointF;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/**
+ * Planes de recorte y escala de CropPlanner para un teléfono 1080x2400.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class CropPlannerTest {
+
+    private static final int SCREEN_WIDTH = 1080;
+    private static final int SCREEN_HEIGHT = 2400;
+
+    @Test
+    public void centerCropCoversTargetWithoutUpscaling() {
+        CropPlanner.Plan plan = plan(4000, 3000, CropPlanner.Request.DEFAULT);
+
+        assertEquals(3000, plan.sourceRegion.height());
+        assertEquals(1350, plan.sourceRegion.width());
+        // Centrada en horizontal
+        assertEquals((4000 - 1350) / 2, plan.sourceRegion.left);
+        assertEquals(SCREEN_WIDTH, plan.outWidth);
+        assertEquals(SCREEN_HEIGHT, plan.outHeight);
+    }
+
+    @Test
+    public void smallImageIsNeverUpscaled() {
+        CropPlanner.Plan plan = plan(540, 1200, CropPlanner.Request.DEFAULT);
+
+        assertTrue(plan.isFullImage(540, 1200));
+        assertEquals(540, plan.outWidth);
+        assertEquals(1200, plan.outHeight);
+        assertTrue(plan.needsNoScaling());
+    }
+
+    @Test
+    public void focalPointMovesTheWindow() {
+        CropPlanner.Request request = new CropPlanner.Request(CropPlanner.Mode.CENTER_CROP, null, new PointF(0f, 0.5f));
+
+        CropPlanner.Plan plan = plan(4000, 3000, request);
+
+        assertEquals(0, plan.sourceRegion.left);
+    }
+
+    @Test
+    public void fitKeepsTheWholeImage() {
+        CropPlanner.Request request = new CropPlanner.Request(CropPlanner.Mode.FIT, null, CropPlanner.Request.DEFAULT.focalPoint);
+
+        CropPlanner.Plan plan = plan(4000, 3000, request);
+
+        assertTrue(plan.isFullImage(4000, 3000));
+        assertEquals(SCREEN_WIDTH, plan.outWidth);
+        assertEquals(810, plan.outHeight);
+    }
+
+    @Test
+    public void cropUsesTheRequestedRegion() throws Exception {
+        CropPlanner.Request request = CropPlanner.Request.from(
+            new JSONObject("{\"crop\": {\"left\": 0.25, \"top\": 0, \"right\": 0.75, \"bottom\": 1}}"));
+
+        CropPlanner.Plan plan = plan(4000, 3000, request);
+
+        assertEquals(CropPlanner.Mode.CROP, request.mode);
+        assertEquals(new Rect(1000, 0, 3000, 3000), plan.sourceRegion);
+        assertNull(plan.visibleCropHint);
+    }
+
+    @Test
+    public void subPixelCropKeepsAtLeastOnePixel() {
+        RectF crop = new RectF(0.5f, 0.5f, 0.5001f, 0.5001f);
+        CropPlanner.Request request = new CropPlanner.Request(CropPlanner.Mode.CROP, crop, CropPlanner.Request.DEFAULT.focalPoint);
+
+        CropPlanner.Plan plan = plan(1000, 1000, request);
+
+        assertEquals(1, plan.sourceRegion.width());
+        assertEquals(1, plan.sourceRegion.height());
+        assertEquals(1, plan.outWidth);
+        assertEquals(1, plan.outHeight);
+    }
+
+    @Test
+    public void cropAtTheEdgeStaysInsideTheImage() {
+        RectF crop = new RectF(0.9999f, 0.9999f, 1f, 1f);
+        CropPlanner.Request request = new CropPlanner.Request(CropPlanner.Mode.CROP, crop, CropPlanner.Request.DEFAULT.focalPoint);
+
+        CropPlanner.Plan plan = plan(1000, 1000, request);
+
+        assertEquals(new Rect(999, 999, 1000, 1000), plan.sourceRegion);
+    }
+
+    @Test
+    public void parallaxIsWiderThanTheScreen() {
+        CropPlanner.Request request = new CropPlanner.Request(CropPlanner.Mode.PARALLAX, null, CropPlanner.Request.DEFAULT.focalPoint);
+
+        CropPlanner.Plan plan = CropPlanner.plan(6000, 3000, request, 2160, SCREEN_HEIGHT, SCREEN_WIDTH, SCREEN_HEIGHT);
+
+        assertTrue(plan.outWidth > SCREEN_WIDTH);
+        assertEquals(SCREEN_HEIGHT, plan.outHeight);
+        assertEquals(SCREEN_HEIGHT, plan.visibleCropHint.height());
+    }
+
+    @Test
+    public void sourceCropHintMapsTheVisibleWindowToTheOriginal() {
+        CropPlanner.Plan plan = new CropPlanner.Plan(new Rect(1000, 0, 3000, 2000), 1000, 1000, new Rect(250, 0, 750, 1000));
+
+        assertEquals(new Rect(1500, 0, 2500, 2000), plan.sourceCropHint(4000, 2000));
+    }
+
+    @Test
+    public void sourceCropHintWithoutWindowIsTheRegion() {
+        CropPlanner.Plan full = new CropPlanner.Plan(new Rect(0, 0, 200, 100), 200, 100, null);
+        CropPlanner.Plan region = new CropPlanner.Plan(new Rect(50, 0, 150, 100), 100, 100, null);
+
+        assertNull(full.sourceCropHint(200, 100));
+        assertEquals(new Rect(50, 0, 150, 100), region.sourceCropHint(200, 100));
+    }
+
+    @Test
+    public void scaledKeepsTheRegionAndShrinksTheWindow() {
+        CropPlanner.Plan plan = new CropPlanner.Plan(new Rect(1000, 0, 3000, 2000), 1000, 1000, new Rect(250, 0, 750, 1000));
+
+        CropPlanner.Plan scaled = plan.scaled(0.5f);
+
+        assertEquals(plan.sourceRegion, scaled.sourceRegion);
+        assertEquals(500, scaled.outWidth);
+        assertEquals(500, scaled.outHeight);
+        assertEquals(new Rect(125, 0, 375, 500), scaled.visibleCropHint);
+        // La misma ventana sobre el original
+        assertEquals(plan.sourceCropHint(4000, 2000), scaled.sourceCropHint(4000, 2000));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsCropOutsideTheImage() throws Exception {
+        CropPlanner.Request.from(new JSONObject("{\"crop\": {\"left\": 0.5, \"top\": 0, \"right\": 1.5, \"bottom\": 1}}"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyCrop() throws Exception {
+        CropPlanner.Request.from(new JSONObject("{\"crop\": {\"left\": 0.5, \"top\": 0, \"right\": 0.5, \"bottom\": 1}}"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cropModeRequiresARect() throws Exception {
+        CropPlanner.Request.from(new JSONObject("{\"fit\": \"crop\"}"));
+    }
+
+    private static CropPlanner.Plan plan(int width, int height, CropPlanner.Request request) {
+        return CropPlanner.plan(width, height, request, SCREEN_WIDTH, SCREEN_HEIGHT, SCREEN_WIDTH, SCREEN_HEIGHT);
+    }
+}
@@ -0,0 +1,223 @@
+package io.ionic.starter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Escritura, validadores y expulsión LRU de ImageDiskCache.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class ImageDiskCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void commitStoresFileAndValidators() throws Exception {
+        ImageDiskCache cache = new ImageDiskCache(folder.newFolder("cache"), 1000);
+
+        ImageDiskCache.Entry committed = put(cache, "https://example.com/a.jpg", 100);
+        ImageDiskCache.Entry entry = cache.get("https://example.com/a.jpg");
+
+        assertTrue(committed.file.exists());
+        assertNotNull(entry);
+        assertEquals("\"etag\"", entry.etag);
+        assertEquals("sha1", entry.digest);
+        assertEquals(100, cache.size());
+    }
+
+    @Test
+    public void commitEvictsLeastRecentlyUsed() throws Exception {
+        ImageDiskCache cache = new ImageDiskCache(folder.newFolder("cache"), 250);
+        put(cache, "https://example.com/a.jpg", 100);
+        put(cache, "https://example.com/b.jpg", 100);
+        // a pasa a ser la más reciente
+        cache.get("https://example.com/a.jpg");
+
+        put(cache, "https://example.com/c.jpg", 100);
+
+        assertTrue(cache.contains("https://example.com/a.jpg"));
+        assertFalse(cache.contains("https://example.com/b.jpg"));
+        assertTrue(cache.contains("https://example.com/c.jpg"));
+        assertEquals(200, cache.size());
+    }
+
+    @Test
+    public void entryLargerThanBudgetSurvivesItsOwnCommit() throws Exception {
+        ImageDiskCache cache = new ImageDiskCache(folder.newFolder("cache"), 150);
+        put(cache, "https://example.com/a.jpg", 100);
+
+        ImageDiskCache.Entry big = put(cache, "https://example.com/big.jpg", 400);
+
+        assertTrue(big.file.exists());
+        assertTrue(cache.contains("https://example.com/big.jpg"));
+        assertFalse(cache.contains("https://example.com/a.jpg"));
+
+        // Con la siguiente escritura ya no es la nueva y se expulsa
+        put(cache, "https://example.com/b.jpg", 100);
+        assertFalse(cache.contains("https://example.com/big.jpg"));
+        assertEquals(100, cache.size());
+    }
+
+    @Test
+    public void pinnedEntryIsNotEvictedUntilReleased() throws Exception {
+        ImageDiskCache cache = new ImageDiskCache(folder.newFolder("cache"), 250);
+        ImageDiskCache.Entry a = put(cache, "https://example.com/a.jpg", 100);
+        put(cache, "https://example.com/b.jpg", 100);
+        ImageDiskCache.Pin pin = cache.pin("https://example.com/a.jpg");
+
+        put(cache, "https://example.com/c.jpg", 100);
+
+        // Se expulsa b aunque a sea la menos reciente: a sigue en uso
+        assertTrue(a.file.exists());
+        assertTrue(cache.contains("https://example.com/a.jpg"));
+        assertFalse(cache.contains("https://example.com/b.jpg"));
+
+        pin.close();
+        assertTrue(cache.contains("https://example.com/a.jpg"));
+        put(cache, "https://example.com/d.jpg", 100);
+        assertFalse(a.file.exists());
+        assertFalse(cache.contains("https://example.com/a.jpg"));
+    }
+
+    @Test
+    public void releasingTheLastPinTrimsTheOverflow() throws Exception {
+        ImageDiskCache cache = new ImageDiskCache(folder.newFolder("cache"), 150);
+        put(cache, "https://example.com/a.jpg", 100);
+        ImageDiskCache.Pin first = cache.pin("https://example.com/a.jpg");
+        ImageDiskCache.Pin second = cache.pin("https://example.com/a.jpg");
+
+        put(cache, "https://example.com/b.jpg", 100);
+        // Nada se puede expulsar: a está reservada y b es la recién escrita
+        assertEquals(200, cache.size());
+
+        first.close();
+        first.close();
+        assertEquals(200, cache.size());
+
+        second.close();
+        assertFalse(cache.contains("https://example.com/a.jpg"));
+        assertEquals(100, cache.size());
+    }
+
+    @Test
+    public void resizeEvictsDownToTheNewBudget() throws Exception {
+        ImageDiskCache cache = new ImageDiskCache(folder.newFolder("cache"), 1000);
+        put(cache, "https://example.com/a.jpg", 100);
+        put(cache, "https://example.com/b.jpg", 100);
+        put(cache, "https://example.com/c.jpg", 100);
+
+        cache.resize(150);
+
+        assertFalse(cache.contains("https://example.com/a.jpg"));
+        assertFalse(cache.contains("https://example.com/b.jpg"));
+        assertTrue(cache.contains("https://example.com/c.jpg"));
+        assertEquals(100, cache.size());
+    }
+
+    @Test
+    public void peekDoesNotChangeOrder() throws Exception {
+        ImageDiskCache cache = new ImageDiskCache(folder.newFolder("cache"), 250);
+        put(cache, "https://example.com/a.jpg", 100);
+        put(cache, "https://example.com/b.jpg", 100);
+
+        assertNotNull(cache.peek("https://example.com/a.jpg"));
+        put(cache, "https://example.com/c.jpg", 100);
+
+        assertFalse(cache.contains("https://example.com/a.jpg"));
+        assertTrue(cache.contains("https://example.com/b.jpg"));
+    }
+
+    @Test
+    public void indexIsRebuiltFromDisk() throws Exception {
+        File directory = folder.newFolder("cache");
+        ImageDiskCache cache = new ImageDiskCache(directory, 1000);
+        put(cache, "https://example.com/a.jpg", 100);
+
+        ImageDiskCache reopened = new ImageDiskCache(directory, 1000);
+
+        assertEquals(100, reopened.size());
+        assertNotNull(reopened.get("https://example.com/a.jpg"));
+        assertNull(reopened.get("https://example.com/missing.jpg"));
+    }
+
+    @Test
+    public void partialKeepsBytesAndValidatorForResume() throws Exception {
+        ImageDiskCache cache = new ImageDiskCache(folder.newFolder("cache"), 1000);
+        String url = "https://example.com/a.jpg";
+        cache.savePartialValidator(url, "\"v1\"", "Mon, 01 Jan 2024 00:00:00 GMT");
+        write(cache.partial(url).file, 40);
+
+        ImageDiskCache.Partial partial = cache.partial(url);
+
+        assertEquals("\"v1\"", partial.validator);
+        assertEquals(40, partial.length());
+    }
+
+    @Test
+    public void weakEtagFallsBackToLastModified() throws Exception {
+        ImageDiskCache cache = new ImageDiskCache(folder.newFolder("cache"), 1000);
+        String url = "https://example.com/a.jpg";
+
+        cache.savePartialValidator(url, "W/\"v1\"", "Mon, 01 Jan 2024 00:00:00 GMT");
+
+        assertEquals("Mon, 01 Jan 2024 00:00:00 GMT", cache.partial(url).validator);
+    }
+
+    @Test
+    public void partialWithoutValidatorIsDiscarded() throws Exception {
+        ImageDiskCache cache = new ImageDiskCache(folder.newFolder("cache"), 1000);
+        String url = "https://example.com/a.jpg";
+        File file = cache.partial(url).file;
+        write(file, 40);
+
+        ImageDiskCache.Partial partial = cache.partial(url);
+
+        assertNull(partial.validator);
+        assertEquals(0, partial.length());
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void commitPartialPromotesItToAnEntry() throws Exception {
+        ImageDiskCache cache = new ImageDiskCache(folder.newFolder("cache"), 1000);
+        String url = "https://example.com/a.jpg";
+        cache.savePartialValidator(url, "\"v1\"", null);
+        write(cache.partial(url).file, 60);
+
+        ImageDiskCache.Entry entry = cache.commitPartial(url, "\"v1\"", null, "sha1");
+
+        assertEquals(60, entry.file.length());
+        assertEquals(60, cache.size());
+        assertNull(cache.partial(url).validator);
+        assertEquals(0, cache.partial(url).length());
+    }
+
+    static ImageDiskCache.Entry put(ImageDiskCache cache, String url, int bytes) throws IOException {
+        File temp = cache.newTempFile(url);
+        write(temp, bytes);
+        return cache.commit(url, temp, "\"etag\"", null, "sha1");
+    }
+
+    static void write(File file, int bytes) throws IOException {
+        try (OutputStream output = new FileOutputStream(file)) {
+            output.write(new byte[bytes]);
+        }
+    }
+}
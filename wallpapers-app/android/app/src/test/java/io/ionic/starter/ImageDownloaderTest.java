@@ -0,0 +1,168 @@
+package io.ionic.starter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+import okio.Buffer;
+
+/**
+ * Reanudación, revalidación y reintentos de ImageDownloader contra un servidor local.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class ImageDownloaderTest {
+
+    private static final int IMAGE_BYTES = 100 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockWebServer server;
+    private ImageDiskCache cache;
+    private ImageDownloader downloader;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.start();
+        cache = new ImageDiskCache(folder.newFolder("cache"), 10L * IMAGE_BYTES);
+        downloader = new ImageDownloader(cache, new WallpaperMetrics());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void truncatedBodyIsResumedWithRange() throws Exception {
+        byte[] image = image(1);
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                String range = request.getHeader("Range");
+                if (range == null) {
+                    // La conexión se corta a mitad del cuerpo
+                    return new MockResponse()
+                        .setHeader("ETag", "\"v1\"")
+                        .setBody(new Buffer().write(image))
+                        .setSocketPolicy(SocketPolicy.DISCONNECT_DURING_RESPONSE_BODY);
+                }
+                int from = Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+                return new MockResponse()
+                    .setResponseCode(206)
+                    .setHeader("ETag", "\"v1\"")
+                    .setHeader("Content-Range", "bytes " + from + "-" + (image.length - 1) + "/" + image.length)
+                    .setBody(new Buffer().write(Arrays.copyOfRange(image, from, image.length)));
+            }
+        });
+        String url = server.url("/a.jpg").toString();
+
+        ImageDiskCache.Entry entry = downloader.fetch(url);
+
+        assertArrayEquals(image, Files.readAllBytes(entry.file.toPath()));
+        assertEquals(2, server.getRequestCount());
+        assertNull(server.takeRequest().getHeader("Range"));
+        RecordedRequest resumed = server.takeRequest();
+        assertTrue(resumed.getHeader("Range").startsWith("bytes="));
+        assertEquals("\"v1\"", resumed.getHeader("If-Range"));
+        // El SHA-1 cubre también la parte recibida en el primer intento
+        assertEquals(EncodedImage.of(image).digest(), entry.digest);
+    }
+
+    @Test
+    public void changedValidatorRefetchesTheWholeImage() throws Exception {
+        String url = server.url("/a.jpg").toString();
+        // Parcial de una versión anterior
+        cache.savePartialValidator(url, "\"v1\"", null);
+        try (OutputStream output = new FileOutputStream(cache.partial(url).file)) {
+            output.write(image(1), 0, 500);
+        }
+        byte[] image = image(2);
+        server.enqueue(new MockResponse().setHeader("ETag", "\"v2\"").setBody(new Buffer().write(image)));
+
+        ImageDiskCache.Entry entry = downloader.fetch(url);
+
+        RecordedRequest request = server.takeRequest();
+        assertEquals("bytes=500-", request.getHeader("Range"));
+        assertEquals("\"v1\"", request.getHeader("If-Range"));
+        // El 200 reemplaza el parcial en lugar de añadirse detrás
+        assertArrayEquals(image, Files.readAllBytes(entry.file.toPath()));
+        assertEquals("\"v2\"", entry.etag);
+    }
+
+    @Test
+    public void unavailableIsRetriedAfterRetryAfter() throws Exception {
+        byte[] image = image(3);
+        server.enqueue(new MockResponse().setResponseCode(503).setHeader("Retry-After", "1"));
+        server.enqueue(new MockResponse().setBody(new Buffer().write(image)));
+        String url = server.url("/a.jpg").toString();
+
+        long start = System.nanoTime();
+        ImageDiskCache.Entry entry = downloader.fetch(url);
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        assertArrayEquals(image, Files.readAllBytes(entry.file.toPath()));
+        assertEquals(2, server.getRequestCount());
+        assertTrue("Retried after " + elapsedMs + " ms", elapsedMs >= 1000);
+    }
+
+    @Test
+    public void permanentErrorIsNotRetried() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(404));
+        String url = server.url("/missing.jpg").toString();
+
+        try {
+            downloader.fetchOrThrow(url);
+            fail("Expected the 404 to be reported");
+        } catch (ImageDownloader.HttpStatusException e) {
+            assertEquals(404, e.code);
+        }
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void notModifiedServesTheCachedCopy() throws Exception {
+        byte[] image = image(4);
+        server.enqueue(new MockResponse().setHeader("ETag", "\"v1\"").setBody(new Buffer().write(image)));
+        server.enqueue(new MockResponse().setResponseCode(304));
+        String url = server.url("/a.jpg").toString();
+        downloader.fetch(url);
+
+        ImageDiskCache.Entry entry = downloader.fetch(url);
+
+        server.takeRequest();
+        assertEquals("\"v1\"", server.takeRequest().getHeader("If-None-Match"));
+        assertArrayEquals(image, Files.readAllBytes(entry.file.toPath()));
+    }
+
+    private static byte[] image(int seed) {
+        byte[] bytes = new byte[IMAGE_BYTES];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (i * 31 + seed);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,157 @@
+package io.ionic.starter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import android.util.Base64;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.nio.file.Files;
+
+/**
+ * Subidas por trozos: orden de los trozos, grupos Base64 partidos entre trozos y descarte.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class ImageUploadStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void chunksSplitMidGroupAreReassembled() throws Exception {
+        ImageUploadStore store = newStore();
+        byte[] bytes = new byte[1000];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) i;
+        }
+        String encoded = "data:image/jpeg;base64," + Base64.encodeToString(bytes, Base64.NO_WRAP);
+
+        String uploadId = store.begin();
+        int split = encoded.length() / 3;
+        store.append(uploadId, 0, encoded.substring(0, split));
+        store.append(uploadId, 1, encoded.substring(split, 2 * split + 1));
+        long total = store.append(uploadId, 2, encoded.substring(2 * split + 1));
+        ImageUploadStore.Completed completed = store.finish(uploadId);
+
+        assertEquals(bytes.length, total);
+        assertEquals(bytes.length, completed.bytes);
+        assertArrayEquals(bytes, Files.readAllBytes(completed.file.toPath()));
+        assertEquals(EncodedImage.hex(EncodedImage.newDigest().digest(bytes)), completed.digest);
+    }
+
+    @Test
+    public void outOfOrderChunkIsRejected() throws Exception {
+        ImageUploadStore store = newStore();
+        String uploadId = store.begin();
+        store.append(uploadId, 0, "AAAA");
+
+        try {
+            store.append(uploadId, 2, "AAAA");
+            fail("Expected the missing chunk to be detected");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Expected chunk 1 but got 2", e.getMessage());
+        }
+        // Sin índice se acepta en el orden de llegada
+        assertEquals(6, store.append(uploadId, null, "AAAA"));
+    }
+
+    @Test
+    public void truncatedGroupFailsOnFinish() throws Exception {
+        ImageUploadStore store = newStore();
+        String uploadId = store.begin();
+        store.append(uploadId, 0, "AAAAAA");
+
+        try {
+            store.finish(uploadId);
+            fail("Expected a truncated base64 group");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Upload ends with a truncated base64 group", e.getMessage());
+        }
+        assertEquals(0, folder.getRoot().listFiles().length);
+    }
+
+    @Test
+    public void emptyUploadFailsOnFinish() throws Exception {
+        ImageUploadStore store = newStore();
+        String uploadId = store.begin();
+
+        try {
+            store.finish(uploadId);
+            fail("Expected an empty upload to fail");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Upload is empty", e.getMessage());
+        }
+    }
+
+    @Test
+    public void discardRemovesTheFile() throws Exception {
+        ImageUploadStore store = newStore();
+        String uploadId = store.begin();
+        store.append(uploadId, 0, "AAAA");
+
+        assertTrue(store.discard(uploadId));
+        assertFalse(store.discard(uploadId));
+        assertEquals(0, folder.getRoot().listFiles().length);
+        try {
+            store.append(uploadId, 1, "AAAA");
+            fail("Expected the discarded upload to be unknown");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().startsWith("Unknown or expired upload"));
+        }
+    }
+
+    @Test
+    public void metricsCountDecodedBytes() throws Exception {
+        WallpaperMetrics metrics = new WallpaperMetrics();
+        ImageUploadStore store = new ImageUploadStore(folder.getRoot(), metrics);
+        String uploadId = store.begin();
+
+        // 8 caracteres Base64 son 6 bytes
+        store.append(uploadId, 0, "AAAAAAAA");
+
+        assertEquals(6, metrics.base64Bytes.get());
+    }
+
+    @Test
+    public void lineBreaksInsideChunksAreIgnored() throws Exception {
+        ImageUploadStore store = newStore();
+        byte[] bytes = new byte[300];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (i * 7);
+        }
+        // Base64.DEFAULT corta las líneas a 76 caracteres
+        String encoded = Base64.encodeToString(bytes, Base64.DEFAULT);
+
+        String uploadId = store.begin();
+        int split = encoded.length() / 2;
+        store.append(uploadId, 0, encoded.substring(0, split));
+        store.append(uploadId, 1, encoded.substring(split));
+        ImageUploadStore.Completed completed = store.finish(uploadId);
+
+        assertArrayEquals(bytes, Files.readAllBytes(completed.file.toPath()));
+    }
+
+    @Test
+    public void leftoversOfAPreviousProcessAreDeleted() throws Exception {
+        File leftover = folder.newFile("previous.upload");
+
+        newStore();
+
+        assertFalse(leftover.exists());
+    }
+
+    private ImageUploadStore newStore() {
+        return new ImageUploadStore(folder.getRoot(), WallpaperMetrics.getInstance());
+    }
+}
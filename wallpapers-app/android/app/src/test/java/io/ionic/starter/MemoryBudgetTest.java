@@ -0,0 +1,114 @@
+package io.ionic.starter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Reservas de MemoryBudget. La espera con plazo no se prueba: depende de SystemClock.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class MemoryBudgetTest {
+
+    @Test
+    public void tryAcquireOnlyAdmitsWhatFits() {
+        MemoryBudget budget = new MemoryBudget(100);
+
+        MemoryBudget.Reservation first = budget.tryAcquire(60);
+        assertNotNull(first);
+        assertEquals(1f, first.scale, 0f);
+        assertNull(budget.tryAcquire(50));
+
+        first.close();
+        assertNotNull(budget.tryAcquire(50));
+    }
+
+    @Test
+    public void closingTwiceReleasesOnce() {
+        MemoryBudget budget = new MemoryBudget(100);
+        MemoryBudget.Reservation reservation = budget.tryAcquire(60);
+        MemoryBudget.Reservation other = budget.tryAcquire(40);
+
+        reservation.close();
+        reservation.close();
+
+        // Si se hubiera liberado dos veces cabrían 100 más
+        assertNull(budget.tryAcquire(61));
+        other.close();
+    }
+
+    @Test
+    public void acquireLargerThanCapacityIsScaledDown() throws Exception {
+        MemoryBudget budget = new MemoryBudget(100);
+
+        MemoryBudget.Reservation reservation = budget.acquire(400);
+
+        assertNotNull(reservation);
+        assertEquals(100, reservation.bytes);
+        assertEquals(0.5f, reservation.scale, 0.0001f);
+    }
+
+    @Test
+    public void acquireBelowMinScaleFails() throws Exception {
+        MemoryBudget budget = new MemoryBudget(100);
+
+        assertNull(budget.acquire(1000));
+    }
+
+    @Test
+    public void acquireWaitsForRelease() throws Exception {
+        MemoryBudget budget = new MemoryBudget(100);
+        MemoryBudget.Reservation held = budget.tryAcquire(80);
+        AtomicReference<MemoryBudget.Reservation> admitted = new AtomicReference<>();
+
+        Thread waiter = new Thread(() -> {
+            try {
+                admitted.set(budget.acquire(50));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        waiter.start();
+        Thread.sleep(50);
+        held.close();
+        waiter.join(2000);
+
+        assertNotNull(admitted.get());
+        assertEquals(50, admitted.get().bytes);
+        assertEquals(1f, admitted.get().scale, 0f);
+    }
+
+    @Test
+    public void interruptedWaitReservesNothing() throws Exception {
+        MemoryBudget budget = new MemoryBudget(100);
+        MemoryBudget.Reservation held = budget.tryAcquire(80);
+        AtomicBoolean interrupted = new AtomicBoolean();
+
+        // Como una operación cancelada o sustituida mientras espera memoria
+        Thread waiter = new Thread(() -> {
+            try {
+                budget.acquire(50);
+            } catch (InterruptedException e) {
+                interrupted.set(true);
+            }
+        });
+        waiter.start();
+        Thread.sleep(50);
+        waiter.interrupt();
+        waiter.join(2000);
+        held.close();
+
+        assertTrue(interrupted.get());
+        assertNotNull(budget.tryAcquire(100));
+    }
+}
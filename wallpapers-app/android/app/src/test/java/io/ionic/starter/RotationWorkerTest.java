@@ -0,0 +1,142 @@
+package io.ionic.starter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import android.content.Context;
+import androidx.work.ListenableWorker;
+import androidx.work.testing.TestWorkerBuilder;
+import androidx.work.testing.WorkManagerTestInitHelper;
+import com.getcapacitor.JSObject;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+/**
+ * Qué fuente prepara cada paso de la rotación y qué resultados encadenan el siguiente cambio diario.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class RotationWorkerTest {
+
+    @Test
+    public void stagesTheNextSource() throws Exception {
+        RecordingStager stager = new RecordingStager();
+
+        assertEquals(2, RotationWorker.stageFrom(2, 4, -1, stager));
+        assertEquals(Arrays.asList(2), stager.attempts);
+    }
+
+    @Test
+    public void permanentFailuresAreSkippedInOrder() throws Exception {
+        RecordingStager stager = new RecordingStager(3, 0);
+
+        assertEquals(1, RotationWorker.stageFrom(3, 4, -1, stager));
+        assertEquals(Arrays.asList(3, 0, 1), stager.attempts);
+    }
+
+    @Test
+    public void alreadyStagedSourceIsNotStagedAgain() throws Exception {
+        RecordingStager stager = new RecordingStager(1);
+
+        assertEquals(2, RotationWorker.stageFrom(1, 4, 2, stager));
+        assertEquals(Arrays.asList(1), stager.attempts);
+    }
+
+    @Test
+    public void everySourceFailingReturnsMinusOne() throws Exception {
+        RecordingStager stager = new RecordingStager(0, 1, 2);
+
+        assertEquals(-1, RotationWorker.stageFrom(1, 3, -1, stager));
+        assertEquals(Arrays.asList(1, 2, 0), stager.attempts);
+    }
+
+    @Test
+    public void transientFailureStopsTheSearch() throws Exception {
+        List<Integer> attempts = new ArrayList<>();
+        try {
+            RotationWorker.stageFrom(0, 3, -1, index -> {
+                attempts.add(index);
+                throw new IOException("Network down");
+            });
+            fail("Expected the network error to reach the worker");
+        } catch (IOException e) {
+            assertEquals(Arrays.asList(0), attempts);
+        }
+    }
+
+    @Test
+    public void onlyTerminalResultsChainTheNextDailyRun() {
+        assertTrue(RotationWorker.isTerminal(ListenableWorker.Result.success()));
+        assertTrue(RotationWorker.isTerminal(ListenableWorker.Result.failure()));
+        assertFalse(RotationWorker.isTerminal(ListenableWorker.Result.retry()));
+    }
+
+    @Test
+    public void terminalFailuresAreReportedAsSuccess() {
+        assertEquals(ListenableWorker.Result.success(), RotationWorker.settle(ListenableWorker.Result.failure()));
+        assertEquals(ListenableWorker.Result.retry(), RotationWorker.settle(ListenableWorker.Result.retry()));
+    }
+
+    @Test
+    public void dailyRunWithNoUsableSourceKeepsTheRotationAlive() throws Exception {
+        Context context = RuntimeEnvironment.getApplication();
+        WorkManagerTestInitHelper.initializeTestWorkManager(context);
+        try (MockWebServer server = new MockWebServer()) {
+            server.enqueue(new MockResponse().setResponseCode(404));
+            server.enqueue(new MockResponse().setResponseCode(404));
+            server.start();
+            WallpaperRotation rotation = new WallpaperRotation(context);
+            rotation.start(new JSONObject()
+                .put("sources", new JSONArray().put(server.url("/gone.jpg").toString()))
+                .put("timeOfDay", "08:00"));
+
+            RotationWorker worker = TestWorkerBuilder
+                .from(context, RotationWorker.class, Executors.newSingleThreadExecutor())
+                .build();
+            ListenableWorker.Result result = worker.doWork();
+
+            // Con failure() el cambio de mañana, encadenado a este, fallaría con él
+            assertEquals(ListenableWorker.Result.success(), result);
+            JSObject status = rotation.status();
+            assertTrue(status.getBoolean("active"));
+            assertTrue(status.getString("lastError").startsWith("No source could be prepared"));
+        }
+    }
+
+    /**
+     * Falla de forma definitiva en los índices indicados y anota cada intento.
+     */
+    private static final class RecordingStager implements RotationWorker.Stager {
+        final List<Integer> attempts = new ArrayList<>();
+        private final Set<Integer> failing = new HashSet<>();
+
+        RecordingStager(Integer... failing) {
+            this.failing.addAll(Arrays.asList(failing));
+        }
+
+        @Override
+        public boolean stage(int index) {
+            attempts.add(index);
+            return !failing.contains(index);
+        }
+    }
+}
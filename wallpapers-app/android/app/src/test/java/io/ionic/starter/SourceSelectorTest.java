@@ -0,0 +1,171 @@
+package io.ionic.starter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import android.content.Context;
+import android.graphics.RectF;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Qué resolución elige SourceSelector según las variantes, la red y la caché en disco.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class SourceSelectorTest {
+
+    private static final String STORAGE_URL = "https://project.supabase.co/storage/v1/object/public/walls/a.jpg";
+    private static final String RENDER_URL = "https://project.supabase.co/storage/v1/render/image/public/walls/a.jpg";
+
+    private static final SourceSelector.Conditions UNCONSTRAINED = new SourceSelector.Conditions(false, 0, false);
+    private static final SourceSelector.Conditions METERED = new SourceSelector.Conditions(true, 0, false);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ImageDiskCache cache;
+    private SourceSelector selector;
+    private int[] screen;
+    private int[] desired;
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = RuntimeEnvironment.getApplication();
+        cache = new ImageDiskCache(folder.newFolder("cache"), 1024 * 1024);
+        WallpaperMetrics metrics = new WallpaperMetrics();
+        selector = new SourceSelector(context, cache, new ImageDownloader(cache, metrics), metrics);
+        DeviceCapabilities capabilities = DeviceCapabilities.refresh(context);
+        screen = capabilities.screenSize();
+        desired = capabilities.desiredSize();
+    }
+
+    @Test
+    public void smallestCoveringVariantIsChosen() throws Exception {
+        ApplyEngine.Source source = source("https://example.com/a.jpg",
+            new SourceSelector.Variant("https://example.com/small.jpg", desired[0] / 2, desired[1] / 2),
+            new SourceSelector.Variant("https://example.com/large.jpg", desired[0] * 3, desired[1] * 3),
+            new SourceSelector.Variant("https://example.com/medium.jpg", desired[0] * 2, desired[1] * 2));
+
+        ApplyEngine.Source selected = selector.select(source, requests(CropPlanner.Request.DEFAULT), UNCONSTRAINED);
+
+        assertEquals("https://example.com/medium.jpg", selected.imageUrl);
+        // Recuerda el original para volver a él si la variante falla
+        assertSame(source, selected.original);
+    }
+
+    @Test
+    public void noCoveringVariantKeepsTheOriginal() throws Exception {
+        ApplyEngine.Source source = source("https://example.com/a.jpg",
+            new SourceSelector.Variant("https://example.com/small.jpg", desired[0] / 2, desired[1] / 2),
+            new SourceSelector.Variant("https://example.com/unknown.jpg", 0, 0));
+
+        assertSame(source, selector.select(source, requests(CropPlanner.Request.DEFAULT), UNCONSTRAINED));
+    }
+
+    @Test
+    public void manualCropKeepsTheOriginal() throws Exception {
+        ApplyEngine.Source source = source("https://example.com/a.jpg",
+            new SourceSelector.Variant("https://example.com/medium.jpg", desired[0] * 2, desired[1] * 2));
+        CropPlanner.Request crop = new CropPlanner.Request(CropPlanner.Mode.CROP, new RectF(0f, 0f, 0.5f, 0.5f),
+            CropPlanner.Request.DEFAULT.focalPoint);
+
+        assertSame(source, selector.select(source, requests(crop), UNCONSTRAINED));
+    }
+
+    @Test
+    public void originalInTheDiskCacheIsUsedAsIs() throws Exception {
+        ApplyEngine.Source source = source("https://example.com/a.jpg",
+            new SourceSelector.Variant("https://example.com/medium.jpg", desired[0] * 2, desired[1] * 2));
+        File temp = cache.newTempFile(source.imageUrl);
+        try (OutputStream output = new FileOutputStream(temp)) {
+            output.write(new byte[100]);
+        }
+        cache.commit(source.imageUrl, temp, null, null, "sha1");
+
+        assertSame(source, selector.select(source, requests(CropPlanner.Request.DEFAULT), UNCONSTRAINED));
+    }
+
+    @Test
+    public void constrainedStorageImageIsRenderedAtScreenSize() throws Exception {
+        // El original informa de su tamaño: cuatro veces la pantalla
+        ApplyEngine.Source source = source(STORAGE_URL, new SourceSelector.Variant(STORAGE_URL, screen[0] * 4, screen[1] * 4));
+
+        ApplyEngine.Source selected = selector.select(source, requests(CropPlanner.Request.DEFAULT), METERED);
+
+        assertEquals(RENDER_URL + "?width=" + screen[0] + "&height=" + screen[1] + "&resize=contain", selected.imageUrl);
+        assertSame(source, selected.original);
+    }
+
+    @Test
+    public void unconstrainedStorageImageIsNotTransformed() throws Exception {
+        ApplyEngine.Source source = source(STORAGE_URL, new SourceSelector.Variant(STORAGE_URL, screen[0] * 4, screen[1] * 4));
+
+        assertSame(source, selector.select(source, requests(CropPlanner.Request.DEFAULT), UNCONSTRAINED));
+    }
+
+    @Test
+    public void thumbnailUrlKeepsTheQuery() {
+        assertEquals(RENDER_URL + "?token=t&width=200&resize=contain", selector.thumbnailUrl(STORAGE_URL + "?token=t", 200));
+        assertNull(selector.thumbnailUrl("https://example.com/a.jpg", 200));
+    }
+
+    @Test
+    public void rejectedTransformsAreLatchedOff() throws Exception {
+        ApplyEngine.Source source = source(STORAGE_URL, new SourceSelector.Variant(STORAGE_URL, screen[0] * 4, screen[1] * 4));
+        ApplyEngine.Source selected = selector.select(source, requests(CropPlanner.Request.DEFAULT), METERED);
+
+        selector.variantFailed(selected, 403);
+
+        assertSame(source, selector.select(source, requests(CropPlanner.Request.DEFAULT), METERED));
+        assertNull(selector.thumbnailUrl(STORAGE_URL, 200));
+    }
+
+    @Test
+    public void everyRejectionStatusLatchesTransformsOff() {
+        for (int status : new int[] { 400, 403, 404 }) {
+            setUpSelector();
+            selector.transformFailed(selector.thumbnailUrl(STORAGE_URL, 200), status);
+
+            assertNull("HTTP " + status, selector.thumbnailUrl(STORAGE_URL, 200));
+        }
+    }
+
+    @Test
+    public void transientFailuresKeepTransformsOn() {
+        selector.transformFailed(selector.thumbnailUrl(STORAGE_URL, 200), 503);
+        selector.transformFailed(selector.thumbnailUrl(STORAGE_URL, 200), 0);
+        // Un 404 del original no dice nada del endpoint de transformación
+        selector.transformFailed(STORAGE_URL, 404);
+
+        assertEquals(RENDER_URL + "?width=200&resize=contain", selector.thumbnailUrl(STORAGE_URL, 200));
+    }
+
+    private void setUpSelector() {
+        WallpaperMetrics metrics = new WallpaperMetrics();
+        selector = new SourceSelector(RuntimeEnvironment.getApplication(), cache, new ImageDownloader(cache, metrics), metrics);
+    }
+
+    private static ApplyEngine.Source source(String imageUrl, SourceSelector.Variant... variants) {
+        return ApplyEngine.Source.of(imageUrl, null).withVariants(Arrays.asList(variants));
+    }
+
+    private static List<CropPlanner.Request> requests(CropPlanner.Request request) {
+        return Collections.singletonList(request);
+    }
+}
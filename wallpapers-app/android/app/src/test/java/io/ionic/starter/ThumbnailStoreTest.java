@@ -0,0 +1,37 @@
+package io.ionic.starter;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/**
+ * Redondeo del ancho pedido al bucket de miniatura.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class ThumbnailStoreTest {
+
+    @Test
+    public void widthRoundsUpToTheNextBucket() {
+        assertEquals(160, ThumbnailStore.bucketFor(1));
+        assertEquals(320, ThumbnailStore.bucketFor(161));
+        assertEquals(480, ThumbnailStore.bucketFor(400));
+        assertEquals(720, ThumbnailStore.bucketFor(481));
+    }
+
+    @Test
+    public void exactBucketIsKept() {
+        for (int bucket : ThumbnailStore.BUCKETS) {
+            assertEquals(bucket, ThumbnailStore.bucketFor(bucket));
+        }
+    }
+
+    @Test
+    public void widerThanEveryBucketUsesTheLargest() {
+        assertEquals(720, ThumbnailStore.bucketFor(721));
+        assertEquals(720, ThumbnailStore.bucketFor(4000));
+    }
+}
@@ -0,0 +1,147 @@
+package io.ionic.starter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.net.Uri;
+import android.webkit.WebResourceResponse;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Respuestas de la ruta de miniaturas: parámetros, errores del store y origen de la petición.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class ThumbnailWebViewClientTest {
+
+    private static final String LOCAL_URL = "https://localhost";
+    private static final Uri REQUEST = Uri.parse(LOCAL_URL + ThumbnailWebViewClient.PATH
+        + "?src=" + Uri.encode("https://example.com/a.jpg") + "&w=300");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void servesTheStoredWebp() throws Exception {
+        File file = folder.newFile("thumb.webp");
+        try (OutputStream output = new FileOutputStream(file)) {
+            output.write(new byte[] { 1, 2, 3 });
+        }
+        String[] asked = new String[1];
+        int[] askedWidth = new int[1];
+
+        WebResourceResponse response = ThumbnailWebViewClient.serve(REQUEST, (imageUrl, width, timeoutMs) -> {
+            asked[0] = imageUrl;
+            askedWidth[0] = width;
+            return file;
+        });
+
+        assertEquals(200, response.getStatusCode());
+        assertEquals("image/webp", response.getMimeType());
+        assertEquals("3", response.getResponseHeaders().get("Content-Length"));
+        assertArrayEquals(new byte[] { 1, 2, 3 }, read(response.getData()));
+        assertEquals("https://example.com/a.jpg", asked[0]);
+        assertEquals(300, askedWidth[0]);
+    }
+
+    @Test
+    public void badParametersAreRejected() {
+        ThumbnailWebViewClient.Thumbnails unused = (imageUrl, width, timeoutMs) -> {
+            throw new AssertionError("Store must not be asked");
+        };
+
+        assertEquals(400, status("?w=300", unused));
+        assertEquals(400, status("?src=" + Uri.encode("file:///data/a.jpg") + "&w=300", unused));
+        assertEquals(400, status("?src=" + Uri.encode("https://example.com/a.jpg"), unused));
+        assertEquals(400, status("?src=" + Uri.encode("https://example.com/a.jpg") + "&w=wide", unused));
+        assertEquals(400, status("?src=" + Uri.encode("https://example.com/a.jpg") + "&w=0", unused));
+    }
+
+    @Test
+    public void missingOriginIsNotFound() {
+        assertEquals(404, status(new FileNotFoundException("HTTP 404")));
+    }
+
+    @Test
+    public void exhaustedMemoryIsUnavailable() {
+        assertEquals(503, status(new ThumbnailStore.NoMemoryException("Memory budget in use")));
+    }
+
+    @Test
+    public void slowGenerationTimesOut() {
+        assertEquals(504, status(new TimeoutException()));
+    }
+
+    @Test
+    public void interruptionIsUnavailableAndKeepsTheFlag() {
+        try {
+            assertEquals(503, status(new InterruptedException()));
+            assertTrue(Thread.currentThread().isInterrupted());
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    @Test
+    public void otherFailuresAreBadGateway() {
+        assertEquals(502, status(new IOException("Could not encode thumbnail")));
+        assertEquals(502, status(new IllegalStateException("Store closed")));
+    }
+
+    @Test
+    public void onlyTheAppOriginIsLocal() {
+        assertTrue(ThumbnailWebViewClient.isLocal(REQUEST, LOCAL_URL));
+        assertFalse(ThumbnailWebViewClient.isLocal(Uri.parse("https://example.com" + ThumbnailWebViewClient.PATH), LOCAL_URL));
+        assertFalse(ThumbnailWebViewClient.isLocal(Uri.parse("http://localhost" + ThumbnailWebViewClient.PATH), LOCAL_URL));
+        assertFalse(ThumbnailWebViewClient.isLocal(REQUEST, null));
+    }
+
+    private static int status(String query, ThumbnailWebViewClient.Thumbnails thumbnails) {
+        return ThumbnailWebViewClient.serve(Uri.parse(LOCAL_URL + ThumbnailWebViewClient.PATH + query), thumbnails).getStatusCode();
+    }
+
+    private static int status(Exception failure) {
+        WebResourceResponse response = ThumbnailWebViewClient.serve(REQUEST, (imageUrl, width, timeoutMs) -> {
+            if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            }
+            if (failure instanceof InterruptedException) {
+                throw (InterruptedException) failure;
+            }
+            if (failure instanceof TimeoutException) {
+                throw (TimeoutException) failure;
+            }
+            throw (IOException) failure;
+        });
+        return response.getStatusCode();
+    }
+
+    private static byte[] read(InputStream input) throws IOException {
+        try (InputStream in = input) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                output.write(buffer, 0, read);
+            }
+            return output.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package io.ionic.starter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import android.app.WallpaperManager;
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.List;
+
+/**
+ * Lectura y deduplicación de los lotes de applyBatch.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class WallpaperBatchTest {
+
+    @Test
+    public void sameSourceIsFetchedOnce() throws Exception {
+        WallpaperBatch batch = WallpaperBatch.parse(new JSArray("["
+            + "{\"source\": {\"imageUrl\": \"https://example.com/a.jpg\"}, \"target\": \"home\"},"
+            + "{\"source\": {\"imageUrl\": \"https://example.com/a.jpg\"}, \"target\": \"lock\"},"
+            + "{\"source\": {\"imageUrl\": \"https://example.com/b.jpg\"}, \"target\": \"home\", \"fit\": \"fit\"}"
+            + "]"));
+
+        assertEquals(3, batch.items.size());
+        assertEquals(2, batch.sources.size());
+        assertEquals(2, batch.renders.size());
+        assertFalse(batch.items.get(0).deduplicated);
+        assertTrue(batch.items.get(1).deduplicated);
+        assertSame(batch.items.get(0).render, batch.items.get(1).render);
+        assertEquals(WallpaperManager.FLAG_SYSTEM, batch.items.get(0).flag);
+        assertEquals(WallpaperManager.FLAG_LOCK, batch.items.get(1).flag);
+    }
+
+    @Test
+    public void differentCropsDecodeSeparately() throws Exception {
+        WallpaperBatch batch = WallpaperBatch.parse(new JSArray("["
+            + "{\"source\": {\"imageUrl\": \"https://example.com/a.jpg\"}, \"target\": \"home\", \"fit\": \"parallax\"},"
+            + "{\"source\": {\"imageUrl\": \"https://example.com/a.jpg\"}, \"target\": \"lock\"}"
+            + "]"));
+
+        assertEquals(1, batch.sources.size());
+        assertEquals(2, batch.renders.size());
+    }
+
+    @Test
+    public void contiguousItemsWithTheSameRenderCommitTogether() throws Exception {
+        WallpaperBatch batch = WallpaperBatch.parse(new JSArray("["
+            + "{\"source\": {\"imageUrl\": \"https://example.com/a.jpg\"}, \"target\": \"home\"},"
+            + "{\"source\": {\"imageUrl\": \"https://example.com/a.jpg\"}, \"target\": \"lock\"},"
+            + "{\"source\": {\"imageUrl\": \"https://example.com/b.jpg\"}, \"target\": \"home\"}"
+            + "]"));
+
+        List<List<WallpaperBatch.Item>> groups = batch.commitGroups();
+
+        assertEquals(2, groups.size());
+        assertEquals(2, groups.get(0).size());
+        assertEquals(1, groups.get(1).size());
+    }
+
+    @Test
+    public void errorsNameTheItem() throws Exception {
+        assertInvalid("[]", "Must provide at least one item");
+        assertInvalid("[{\"target\": \"home\"}]", "Item 0 has no source");
+        assertInvalid("[{\"source\": {\"imageUrl\": \"https://example.com/a.jpg\"}},"
+            + "{\"source\": {\"imageUrl\": \"https://example.com/a.jpg\"}, \"target\": \"both\"}]",
+            "Item 1 has invalid target 'both'");
+        assertInvalid("[{\"source\": {\"imageUrl\": \"https://example.com/a.jpg\"}, \"fit\": \"stretch\"}]",
+            "Item 0: Invalid fit mode 'stretch'");
+    }
+
+    @Test
+    public void resultReportsEveryItem() throws Exception {
+        WallpaperBatch batch = WallpaperBatch.parse(new JSArray("["
+            + "{\"source\": {\"imageUrl\": \"https://example.com/a.jpg\"}, \"target\": \"home\"},"
+            + "{\"source\": {\"imageUrl\": \"https://example.com/a.jpg\"}, \"target\": \"lock\"}"
+            + "]"));
+        batch.sources.get(0).fetchMs = 120;
+        WallpaperBatch.Item home = batch.items.get(0);
+        home.success = true;
+        home.skipped = true;
+        home.message = "Already applied";
+        WallpaperBatch.Item lock = batch.items.get(1);
+        lock.message = "Commit failed";
+
+        JSObject result = batch.toResult();
+
+        assertFalse(result.getBoolean("success"));
+        JSONArray items = result.getJSONArray("items");
+        JSONObject first = items.getJSONObject(0);
+        assertEquals("alreadyApplied", first.getString("skipped"));
+        assertEquals(120, first.getLong("fetchMs"));
+        JSONObject second = items.getJSONObject(1);
+        assertEquals(1, second.getInt("index"));
+        assertFalse(second.getBoolean("success"));
+        assertEquals("Commit failed", second.getString("message"));
+        // La descarga compartida solo se cuenta en la primera entrada
+        assertTrue(second.getBoolean("deduplicated"));
+        assertEquals(0, second.getLong("fetchMs"));
+    }
+
+    private static void assertInvalid(String json, String message) throws Exception {
+        try {
+            WallpaperBatch.parse(new JSArray(json));
+            fail("Expected IllegalArgumentException for " + json);
+        } catch (IllegalArgumentException e) {
+            assertEquals(message, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package io.ionic.starter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.app.WallpaperManager;
+import com.getcapacitor.JSObject;
+import com.getcapacitor.PluginCall;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Cancelación y sustitución de operaciones en WallpaperExecutor.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class WallpaperExecutorTest {
+
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private WallpaperExecutor executor;
+
+    @Before
+    public void setUp() {
+        executor = new WallpaperExecutor(new WallpaperMetrics(), event -> { });
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void cancelDuringBatchFetchCommitsNothing() throws Exception {
+        CountDownLatch fetching = new CountDownLatch(2);
+        CountDownLatch finished = new CountDownLatch(1);
+        AtomicBoolean committed = new AtomicBoolean();
+        RecordingCall call = new RecordingCall("batch");
+
+        // Como applyBatch: descargas en paralelo con invokeAll y después la escritura
+        String operationId = executor.submit(call, 0, () -> {
+            try {
+                Callable<Void> fetch = () -> executor.fetch(() -> {
+                    fetching.countDown();
+                    Thread.sleep(TimeUnit.SECONDS.toMillis(30));
+                    return null;
+                });
+                List<Callable<Void>> fetches = Arrays.asList(fetch, fetch);
+                executor.invokeAll(fetches);
+                WallpaperExecutor.throwIfCancelled();
+                executor.commit(() -> {
+                    committed.set(true);
+                    return null;
+                });
+                return WallpaperPlugin.result(true, "Applied");
+            } finally {
+                finished.countDown();
+            }
+        });
+        assertTrue(fetching.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        assertTrue(executor.cancel(operationId));
+
+        JSObject result = call.result();
+        assertTrue(result.getBoolean("cancelled"));
+        assertTrue(finished.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertFalse(committed.get());
+    }
+
+    @Test
+    public void startedCommitIsNotInterrupted() throws Exception {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(1);
+        AtomicBoolean interrupted = new AtomicBoolean();
+        RecordingCall call = new RecordingCall("home");
+
+        String operationId = executor.submit(call, WallpaperManager.FLAG_SYSTEM, () -> executor.commit(() -> {
+            writing.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                interrupted.set(true);
+            }
+            finished.countDown();
+            return WallpaperPlugin.result(true, "Applied");
+        }));
+        assertTrue(writing.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        executor.cancel(operationId);
+        assertTrue(call.result().getBoolean("cancelled"));
+        release.countDown();
+
+        assertTrue(finished.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertFalse(interrupted.get());
+    }
+
+    @Test
+    public void operationCoveringTheSameScreensSupersedesThePrevious() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        RecordingCall home = new RecordingCall("home");
+        RecordingCall both = new RecordingCall("both");
+
+        executor.submit(home, WallpaperManager.FLAG_SYSTEM, () -> executor.fetch(() -> {
+            started.countDown();
+            Thread.sleep(TimeUnit.SECONDS.toMillis(30));
+            return WallpaperPlugin.result(true, "Applied");
+        }));
+        assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        executor.submit(both, WallpaperManager.FLAG_SYSTEM | WallpaperManager.FLAG_LOCK,
+            () -> WallpaperPlugin.result(true, "Applied"));
+
+        JSObject superseded = home.result();
+        assertTrue(superseded.getBoolean("cancelled"));
+        assertTrue(superseded.getBoolean("superseded"));
+        assertTrue(both.result().getBoolean("success"));
+    }
+
+    @Test
+    public void operationOnOtherScreensDoesNotSupersede() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingCall home = new RecordingCall("home");
+        RecordingCall lock = new RecordingCall("lock");
+
+        executor.submit(home, WallpaperManager.FLAG_SYSTEM, () -> executor.fetch(() -> {
+            started.countDown();
+            release.await();
+            return WallpaperPlugin.result(true, "Applied");
+        }));
+        assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        executor.submit(lock, WallpaperManager.FLAG_LOCK, () -> WallpaperPlugin.result(true, "Applied"));
+        assertTrue(lock.result().getBoolean("success"));
+        release.countDown();
+
+        assertTrue(home.result().getBoolean("success"));
+    }
+
+    @Test
+    public void cleanupRunsWhenAQueuedOperationIsCancelled() throws Exception {
+        // Ocupa todos los workers para que la siguiente operación se quede en cola
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch busy = new CountDownLatch(4);
+        for (int i = 0; i < 4; i++) {
+            executor.submit(new RecordingCall("busy-" + i), 0, () -> {
+                busy.countDown();
+                release.await();
+                return WallpaperPlugin.result(true, "Done");
+            });
+        }
+        assertTrue(busy.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        AtomicBoolean ran = new AtomicBoolean();
+        AtomicBoolean cleaned = new AtomicBoolean();
+        RecordingCall queued = new RecordingCall("queued");
+
+        String operationId = executor.submit(queued, WallpaperManager.FLAG_SYSTEM, () -> {
+            ran.set(true);
+            return WallpaperPlugin.result(true, "Applied");
+        }, () -> cleaned.set(true));
+        assertTrue(executor.cancel(operationId));
+
+        assertTrue(queued.result().getBoolean("cancelled"));
+        assertTrue(cleaned.get());
+        release.countDown();
+        assertFalse(ran.get());
+    }
+
+    @Test
+    public void cleanupWaitsForARunningJobToFinish() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch cleaned = new CountDownLatch(1);
+        AtomicBoolean cleanedWhileRunning = new AtomicBoolean();
+        AtomicBoolean finished = new AtomicBoolean();
+        RecordingCall call = new RecordingCall("home");
+
+        String operationId = executor.submit(call, WallpaperManager.FLAG_SYSTEM, () -> {
+            started.countDown();
+            // Sin atender a la interrupción, como una escritura que no se puede cortar
+            boolean released = false;
+            while (!released) {
+                try {
+                    released = release.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    // Sigue esperando
+                }
+            }
+            finished.set(true);
+            return WallpaperPlugin.result(true, "Applied");
+        }, () -> {
+            cleanedWhileRunning.set(!finished.get());
+            cleaned.countDown();
+        });
+        assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        executor.cancel(operationId);
+        assertTrue(call.result().getBoolean("cancelled"));
+        assertEquals(1, cleaned.getCount());
+        release.countDown();
+
+        assertTrue(cleaned.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertFalse(cleanedWhileRunning.get());
+    }
+
+    @Test
+    public void cancellingUnknownOperationReturnsFalse() {
+        assertFalse(executor.cancel("op-missing"));
+        assertEquals(0, executor.cancelAll());
+    }
+
+    /**
+     * PluginCall sin bridge que guarda lo que se resuelve.
+     */
+    private static final class RecordingCall extends PluginCall {
+        private final CompletableFuture<JSObject> settled = new CompletableFuture<>();
+
+        RecordingCall(String callbackId) {
+            super(null, "WallpaperPlugin", callbackId, "apply", new JSObject());
+        }
+
+        @Override
+        public void resolve(JSObject result) {
+            settled.complete(result);
+        }
+
+        JSObject result() throws Exception {
+            return settled.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package io.ionic.starter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Paginación por clave, sincronización completa (replace) y datos de la caché en disco en
+ * WallpaperLibrary.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class WallpaperLibraryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private WallpaperLibrary library;
+
+    @Before
+    public void setUp() {
+        library = new WallpaperLibrary(RuntimeEnvironment.getApplication());
+    }
+
+    @After
+    public void tearDown() {
+        library.close();
+    }
+
+    @Test
+    public void pagesFollowTheCursorWithTiesOrderedById() throws Exception {
+        // b y c comparten createdAt: el id decide el orden entre ellas
+        library.upsert(items(
+            item("a", "user", 1000, false),
+            item("b", "user", 2000, false),
+            item("c", "user", 2000, false),
+            item("d", "user", 3000, false),
+            item("e", "user", 4000, false)), null, null, 0, null);
+
+        List<String> ids = new ArrayList<>();
+        JSONObject options = new JSONObject().put("limit", 2);
+        int pages = 0;
+        while (true) {
+            JSObject page = library.query(WallpaperLibrary.Query.from(options));
+            ids.addAll(ids(page));
+            pages++;
+            if (page.isNull("nextCursor")) {
+                break;
+            }
+            options.put("cursor", page.getJSONObject("nextCursor"));
+        }
+
+        assertEquals(Arrays.asList("e", "d", "c", "b", "a"), ids);
+        assertEquals(3, pages);
+    }
+
+    @Test
+    public void newerRowsDoNotShiftLaterPages() throws Exception {
+        library.upsert(items(
+            item("a", "user", 1000, false),
+            item("b", "user", 2000, false),
+            item("c", "user", 3000, false)), null, null, 0, null);
+        JSONObject options = new JSONObject().put("limit", 1);
+        JSObject first = library.query(WallpaperLibrary.Query.from(options));
+
+        // Con OFFSET, una fila nueva al principio repetiría "c" en la segunda página
+        library.upsert(items(item("d", "user", 4000, false)), null, null, 0, null);
+        options.put("cursor", first.getJSONObject("nextCursor"));
+        JSObject second = library.query(WallpaperLibrary.Query.from(options));
+
+        assertEquals(Arrays.asList("c"), ids(first));
+        assertEquals(Arrays.asList("b"), ids(second));
+    }
+
+    @Test
+    public void ascendingOrderByTitle() throws Exception {
+        JSObject zebra = item("1", "user", 1000, false);
+        zebra.put("title", "Zebra");
+        JSObject aurora = item("2", "user", 2000, false);
+        aurora.put("title", "Aurora");
+        library.upsert(items(zebra, aurora), null, null, 0, null);
+
+        JSObject page = library.query(WallpaperLibrary.Query.from(
+            new JSONObject().put("orderBy", "title").put("orderDirection", "asc")));
+
+        assertEquals(Arrays.asList("2", "1"), ids(page));
+        assertTrue(page.isNull("nextCursor"));
+    }
+
+    @Test
+    public void upsertUpdatesExistingRows() throws Exception {
+        library.upsert(items(item("a", "user", 1000, false)), null, null, 0, null);
+        JSObject renamed = item("a", "user", 1000, true);
+        renamed.put("title", "Renamed");
+
+        assertEquals(1, library.upsert(items(renamed), null, null, 0, null));
+
+        JSObject stored = library.get("a");
+        assertEquals("Renamed", stored.getString("title"));
+        assertTrue(stored.getBoolean("isPublic"));
+        assertEquals(1, ids(library.query(WallpaperLibrary.Query.from(null))).size());
+    }
+
+    @Test
+    public void replaceRemovesOnlyMissingRowsOfItsFilter() throws Exception {
+        library.upsert(items(
+            item("a1", "alice", 1000, false),
+            item("a2", "alice", 2000, false),
+            item("b1", "bob", 3000, false)), null, null, 0, null);
+
+        library.upsert(items(item("a1", "alice", 1000, false)), new JSONObject().put("uid", "alice"),
+            "uid:alice", 5000, null);
+
+        assertNotNull(library.get("a1"));
+        assertNull(library.get("a2"));
+        assertNotNull(library.get("b1"));
+        assertEquals(5000, library.syncedUntil("uid:alice"));
+        assertEquals(0, library.syncedUntil("uid:bob"));
+    }
+
+    @Test
+    public void replaceWithNoItemsEmptiesTheFilter() throws Exception {
+        library.upsert(items(
+            item("p", "alice", 1000, true),
+            item("q", "alice", 2000, false)), null, null, 0, null);
+
+        library.upsert(new JSONArray(), new JSONObject().put("isPublic", true), "public", 3000, null);
+
+        assertNull(library.get("p"));
+        assertNotNull(library.get("q"));
+    }
+
+    @Test
+    public void cachedImagesAreFoundByDigest() throws Exception {
+        ImageDiskCache cache = new ImageDiskCache(folder.newFolder("cache"), 1000);
+        // La misma imagen subida dos veces, con URLs distintas; la tercera no está descargada
+        ImageDiskCacheTest.put(cache, "https://example.com/a.jpg", 100);
+        ImageDiskCacheTest.put(cache, "https://example.com/b.jpg", 100);
+
+        library.upsert(items(
+            item("a", "user", 1000, false),
+            item("b", "user", 2000, false),
+            item("c", "user", 3000, false)), null, null, 0, cache);
+
+        JSArray duplicates = library.findBySha1("sha1");
+        assertEquals(2, duplicates.length());
+        assertEquals("b", duplicates.getJSONObject(0).getString("id"));
+        assertEquals("a", duplicates.getJSONObject(1).getString("id"));
+        // Leer la caché para la biblioteca no la vacía
+        assertTrue(cache.contains("https://example.com/a.jpg"));
+    }
+
+    private static JSObject item(String id, String uid, long createdAt, boolean isPublic) {
+        JSObject item = new JSObject();
+        item.put("id", id);
+        item.put("uid", uid);
+        item.put("imageUrl", "https://example.com/" + id + ".jpg");
+        item.put("createdAt", createdAt);
+        item.put("isPublic", isPublic);
+        return item;
+    }
+
+    private static JSArray items(JSObject... items) {
+        JSArray array = new JSArray();
+        for (JSObject item : items) {
+            array.put(item);
+        }
+        return array;
+    }
+
+    private static List<String> ids(JSObject page) throws Exception {
+        JSONArray items = page.getJSONArray("items");
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < items.length(); i++) {
+            ids.add(items.getJSONObject(i).getString("id"));
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,162 @@
+package io.ionic.starter;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Arnés mínimo al estilo JMH: calentamiento, iteraciones medidas, percentiles de latencia y
+ * bytes asignados por operación. JMH no puede cargar las clases de Android fuera del sandbox
+ * de Robolectric, así que los benchmarks usan este arnés dentro del propio test.
+ *
+ * Los bytes asignados suman el heap de Java de todos los hilos vivos (los workers del plugin
+ * incluidos); los píxeles de los bitmaps viven en memoria nativa y no se cuentan.
+ */
+final class BenchmarkRunner {
+
+    /**
+     * Operación a medir. El valor devuelto se consume para que el JIT no elimine el trabajo.
+     */
+    interface Operation {
+        Object run() throws Exception;
+    }
+
+    static final class Result {
+        final String name;
+        final int iterations;
+        final long[] nanos;
+        final long allocatedBytesPerOp;
+
+        Result(String name, long[] nanos, long allocatedBytesPerOp) {
+            this.name = name;
+            this.iterations = nanos.length;
+            this.nanos = nanos;
+            this.allocatedBytesPerOp = allocatedBytesPerOp;
+        }
+
+        double percentileMs(double quantile) {
+            int index = (int) Math.ceil(quantile * nanos.length) - 1;
+            return nanos[Math.max(0, Math.min(nanos.length - 1, index))] / 1e6;
+        }
+
+        double meanMs() {
+            long total = 0;
+            for (long value : nanos) {
+                total += value;
+            }
+            return total / 1e6 / nanos.length;
+        }
+
+        JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("name", name);
+            json.put("iterations", iterations);
+            json.put("meanMs", meanMs());
+            json.put("p50Ms", percentileMs(0.50));
+            json.put("p90Ms", percentileMs(0.90));
+            json.put("p99Ms", percentileMs(0.99));
+            json.put("maxMs", nanos[nanos.length - 1] / 1e6);
+            json.put("allocatedBytesPerOp", allocatedBytesPerOp);
+            return json;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%-48s n=%-4d mean=%9.3f ms  p50=%9.3f  p90=%9.3f  p99=%9.3f  alloc=%,d B/op",
+                name, iterations, meanMs(), percentileMs(0.50), percentileMs(0.90), percentileMs(0.99), allocatedBytesPerOp);
+        }
+    }
+
+    private final String suite;
+    private final int warmupIterations;
+    private final int measuredIterations;
+    private final List<Result> results = new ArrayList<>();
+    // Sumidero para los valores devueltos, como el Blackhole de JMH
+    private volatile int sink;
+
+    BenchmarkRunner(String suite, int warmupIterations, int measuredIterations) {
+        this.suite = suite;
+        this.warmupIterations = warmupIterations;
+        this.measuredIterations = measuredIterations;
+    }
+
+    Result measure(String name, Operation operation) throws Exception {
+        return measure(name, warmupIterations, measuredIterations, operation);
+    }
+
+    Result measure(String name, int warmup, int iterations, Operation operation) throws Exception {
+        for (int i = 0; i < warmup; i++) {
+            consume(operation.run());
+        }
+        System.gc();
+
+        long[] nanos = new long[iterations];
+        long allocatedBefore = allocatedBytes();
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            Object value = operation.run();
+            nanos[i] = System.nanoTime() - start;
+            consume(value);
+        }
+        long allocated = Math.max(0, allocatedBytes() - allocatedBefore);
+        Arrays.sort(nanos);
+
+        Result result = new Result(name, nanos, allocated / iterations);
+        results.add(result);
+        System.out.println("[" + suite + "] " + result);
+        return result;
+    }
+
+    /**
+     * Escribe los resultados del suite en benchmark.resultsDir/<suite>.json.
+     */
+    void writeResults() throws IOException, JSONException {
+        String dir = System.getProperty("benchmark.resultsDir", "build/benchmark-results");
+        File output = new File(dir, suite + ".json");
+        if (!output.getParentFile().isDirectory() && !output.getParentFile().mkdirs()) {
+            throw new IOException("Could not create " + output.getParent());
+        }
+        JSONArray array = new JSONArray();
+        for (Result result : results) {
+            array.put(result.toJson());
+        }
+        JSONObject json = new JSONObject();
+        json.put("suite", suite);
+        json.put("timestamp", System.currentTimeMillis());
+        json.put("jvm", System.getProperty("java.vm.name") + " " + System.getProperty("java.version"));
+        json.put("results", array);
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(output), StandardCharsets.UTF_8)) {
+            writer.write(json.toString(2));
+        }
+        System.out.println("[" + suite + "] results written to " + output.getAbsolutePath());
+    }
+
+    private void consume(Object value) {
+        sink += value != null ? System.identityHashCode(value) : 0;
+    }
+
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return 0;
+        }
+        long total = 0;
+        for (long bytes : ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            total += Math.max(0, bytes);
+        }
+        return total;
+    }
+}
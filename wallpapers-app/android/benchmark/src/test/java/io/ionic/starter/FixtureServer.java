@@ -0,0 +1,85 @@
+package io.ionic.starter;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Servidor HTTP local que sirve las fixtures de ImageFixtures con ETag, para medir la descarga
+ * y la revalidación (304) del plugin sin depender de la red.
+ */
+final class FixtureServer implements AutoCloseable {
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+    final AtomicLong requests = new AtomicLong();
+    final AtomicLong notModified = new AtomicLong();
+    final AtomicLong bytesServed = new AtomicLong();
+
+    FixtureServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    String url(File fixture) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/" + fixture.getName();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        File file = new File(ImageFixtures.directory(), exchange.getRequestURI().getPath().substring(1));
+        try {
+            if (!file.isFile()) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            String etag = "\"" + file.length() + "-" + file.lastModified() + "\"";
+            if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                notModified.incrementAndGet();
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("ETag", etag);
+            exchange.getResponseHeaders().set("Content-Type", contentType(file.getName()));
+            exchange.sendResponseHeaders(200, file.length());
+            try (InputStream input = new FileInputStream(file); OutputStream output = exchange.getResponseBody()) {
+                byte[] buffer = new byte[64 * 1024];
+                int read;
+                while ((read = input.read(buffer)) != -1) {
+                    output.write(buffer, 0, read);
+                    bytesServed.addAndGet(read);
+                }
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static String contentType(String name) {
+        if (name.endsWith(".png")) {
+            return "image/png";
+        }
+        if (name.endsWith(".webp")) {
+            return "image/webp";
+        }
+        return "image/jpeg";
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,129 @@
+package io.ionic.starter;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.LinearGradient;
+import android.graphics.Paint;
+import android.graphics.Shader;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+/**
+ * Imágenes de prueba 1080p, 4K y 8K en JPEG, PNG y WebP. Se generan la primera vez con
+ * Bitmap.compress (gráficos nativos de Robolectric) y se guardan en benchmark.fixturesDir,
+ * así el repositorio no arrastra decenas de megabytes de binarios.
+ */
+final class ImageFixtures {
+
+    enum Size {
+        FHD("1080p", 1920, 1080),
+        UHD("4k", 3840, 2160),
+        FUHD("8k", 7680, 4320);
+
+        final String label;
+        final int width;
+        final int height;
+
+        Size(String label, int width, int height) {
+            this.label = label;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    enum Format {
+        JPEG("jpg", Bitmap.CompressFormat.JPEG, 90),
+        PNG("png", Bitmap.CompressFormat.PNG, 100),
+        WEBP("webp", Bitmap.CompressFormat.WEBP_LOSSY, 85);
+
+        final String extension;
+        final Bitmap.CompressFormat compressFormat;
+        final int quality;
+
+        Format(String extension, Bitmap.CompressFormat compressFormat, int quality) {
+            this.extension = extension;
+            this.compressFormat = compressFormat;
+            this.quality = quality;
+        }
+    }
+
+    private ImageFixtures() {}
+
+    static String name(Size size, Format format) {
+        return size.label + "." + format.extension;
+    }
+
+    static File directory() {
+        return new File(System.getProperty("benchmark.fixturesDir", "build/benchmark-fixtures"));
+    }
+
+    /**
+     * Devuelve el archivo de la fixture, generándolo si aún no existe.
+     */
+    static synchronized File get(Size size, Format format) throws IOException {
+        File file = new File(directory(), name(size, format));
+        if (file.isFile() && file.length() > 0) {
+            return file;
+        }
+        if (!file.getParentFile().isDirectory() && !file.getParentFile().mkdirs()) {
+            throw new IOException("Could not create " + file.getParent());
+        }
+        Bitmap bitmap = render(size.width, size.height);
+        File temp = new File(file.getPath() + ".tmp");
+        try (OutputStream output = new FileOutputStream(temp)) {
+            if (!bitmap.compress(format.compressFormat, format.quality, output)) {
+                throw new IOException("Could not encode " + file.getName());
+            }
+        } finally {
+            bitmap.recycle();
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Could not write " + file.getName());
+        }
+        return file;
+    }
+
+    /**
+     * Degradado con formas y ruido, para que la compresión se parezca a la de una foto y
+     * no a un color plano que cualquier códec reduce a casi nada.
+     */
+    private static Bitmap render(int width, int height) {
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setShader(new LinearGradient(0, 0, width, height,
+            Color.rgb(20, 40, 120), Color.rgb(240, 150, 60), Shader.TileMode.CLAMP));
+        canvas.drawRect(0, 0, width, height, paint);
+        paint.setShader(null);
+
+        Random random = new Random(width * 31L + height);
+        for (int i = 0; i < 400; i++) {
+            paint.setColor(Color.argb(90, random.nextInt(256), random.nextInt(256), random.nextInt(256)));
+            float radius = (0.01f + random.nextFloat() * 0.08f) * width;
+            canvas.drawCircle(random.nextFloat() * width, random.nextFloat() * height, radius, paint);
+        }
+        int[] row = new int[width];
+        for (int y = 0; y < height; y += 2) {
+            bitmap.getPixels(row, 0, width, 0, y, width, 1);
+            for (int x = 0; x < width; x++) {
+                int noise = random.nextInt(17) - 8;
+                int pixel = row[x];
+                row[x] = Color.rgb(
+                    clamp(Color.red(pixel) + noise),
+                    clamp(Color.green(pixel) + noise),
+                    clamp(Color.blue(pixel) + noise));
+            }
+            bitmap.setPixels(row, 0, width, 0, y, width, 1);
+        }
+        return bitmap;
+    }
+
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+}
@@ -0,0 +1,121 @@
+package io.ionic.starter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import android.graphics.Bitmap;
+import android.util.Base64;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.GraphicsMode;
+
+import java.io.File;
+import java.nio.file.Files;
+
+/**
+ * Microbenchmarks de las piezas del pipeline: decodificación Base64, lectura del encabezado,
+ * cálculos de tamaño y recorte, y decodificación al tamaño objetivo.
+ */
+@RunWith(RobolectricTestRunner.class)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+@Config(sdk = 34, qualifiers = "w411dp-h891dp-xxhdpi")
+public class PipelineMicroBenchmark {
+
+    // Tamaño deseado típico de un teléfono 1080x2400
+    private static final int DESIRED_WIDTH = 1080;
+    private static final int DESIRED_HEIGHT = 2400;
+
+    private static final BenchmarkRunner runner = new BenchmarkRunner("pipeline-micro", 5, 30);
+
+    @AfterClass
+    public static void writeResults() throws Exception {
+        runner.writeResults();
+    }
+
+    @Test
+    public void base64Decode() throws Exception {
+        for (ImageFixtures.Size size : new ImageFixtures.Size[] { ImageFixtures.Size.FHD, ImageFixtures.Size.UHD }) {
+            File fixture = ImageFixtures.get(size, ImageFixtures.Format.JPEG);
+            byte[] bytes = Files.readAllBytes(fixture.toPath());
+            String encoded = Base64.encodeToString(bytes, Base64.NO_WRAP);
+            String label = fixture.getName() + " (" + encoded.length() / 1024 + " KB)";
+
+            runner.measure("android.util.Base64.decode " + label, () -> Base64.decode(encoded, Base64.DEFAULT));
+            // Referencia: el decodificador de java.util que no existe en minSdk 23
+            runner.measure("java.util.Base64.decode " + label, () -> java.util.Base64.getDecoder().decode(encoded));
+            runner.measure("BitmapMemoryCache.base64Key " + label, () -> BitmapMemoryCache.base64Key(encoded));
+            assertEquals(bytes.length, Base64.decode(encoded, Base64.DEFAULT).length);
+        }
+    }
+
+    @Test
+    public void headerParsing() throws Exception {
+        for (ImageFixtures.Size size : ImageFixtures.Size.values()) {
+            for (ImageFixtures.Format format : ImageFixtures.Format.values()) {
+                File fixture = ImageFixtures.get(size, format);
+                EncodedImage fromFile = EncodedImage.of(fixture);
+                EncodedImage fromBytes = EncodedImage.of(Files.readAllBytes(fixture.toPath()));
+
+                runner.measure("readBounds file " + fixture.getName(), fromFile::readBounds);
+                runner.measure("readBounds bytes " + fixture.getName(), fromBytes::readBounds);
+                int[] bounds = fromFile.readBounds();
+                assertEquals(size.width, bounds[0]);
+                assertEquals(size.height, bounds[1]);
+            }
+        }
+    }
+
+    @Test
+    public void sizingMath() throws Exception {
+        int batch = 1000;
+        ImageFixtures.Size source = ImageFixtures.Size.FUHD;
+        for (CropPlanner.Mode mode : CropPlanner.Mode.values()) {
+            CropPlanner.Request request = new CropPlanner.Request(
+                mode,
+                mode == CropPlanner.Mode.CROP ? new android.graphics.RectF(0.25f, 0f, 0.75f, 1f) : null,
+                CropPlanner.Request.DEFAULT.focalPoint);
+            runner.measure("CropPlanner.plan " + mode.value + " x" + batch, () -> {
+                CropPlanner.Plan plan = null;
+                for (int i = 0; i < batch; i++) {
+                    plan = CropPlanner.plan(source.width, source.height, request,
+                        DESIRED_WIDTH, DESIRED_HEIGHT, DESIRED_WIDTH, DESIRED_HEIGHT);
+                }
+                return plan;
+            });
+        }
+        runner.measure("calculateInSampleSize + targetScale x" + batch, () -> {
+            float total = 0;
+            for (int i = 0; i < batch; i++) {
+                total += BitmapDecoder.calculateInSampleSize(source.width + i, source.height, DESIRED_WIDTH, DESIRED_HEIGHT);
+                total += BitmapDecoder.targetScale(source.width + i, source.height, DESIRED_WIDTH, DESIRED_HEIGHT);
+            }
+            return total;
+        });
+    }
+
+    @Test
+    public void decodeToTarget() throws Exception {
+        BitmapPool pool = new BitmapPool(256L * 1024 * 1024);
+        BitmapDecoder decoder = new BitmapDecoder(pool, new WallpaperMetrics());
+        for (ImageFixtures.Size size : ImageFixtures.Size.values()) {
+            for (ImageFixtures.Format format : ImageFixtures.Format.values()) {
+                File fixture = ImageFixtures.get(size, format);
+                EncodedImage encoded = EncodedImage.of(fixture);
+                CropPlanner.Plan plan = CropPlanner.plan(size.width, size.height, CropPlanner.Request.DEFAULT,
+                    DESIRED_WIDTH, DESIRED_HEIGHT, DESIRED_WIDTH, DESIRED_HEIGHT);
+
+                runner.measure("decode center-crop " + fixture.getName(), 2, 10, () -> {
+                    Bitmap bitmap = decoder.decode(encoded, plan, size.width, size.height);
+                    assertNotNull(bitmap);
+                    pool.put(bitmap);
+                    return bitmap;
+                });
+            }
+        }
+        pool.clear();
+    }
+}
@@ -0,0 +1,206 @@
+package io.ionic.starter;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.app.WallpaperManager;
+import android.content.Context;
+import android.util.Base64;
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.GraphicsMode;
+import org.robolectric.shadows.ShadowWallpaperManager;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Benchmarks de extremo a extremo: invoca los @PluginMethod igual que el bridge, con las
+ * imágenes servidas por FixtureServer y el WallpaperManager de Robolectric registrando lo que
+ * se escribe. Cubre caché fría, revalidación 304, acierto en memoria, Base64, subida por
+ * trozos y applyBatch.
+ */
+@RunWith(RobolectricTestRunner.class)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+@Config(sdk = 34, qualifiers = "w411dp-h891dp-xxhdpi")
+public class PluginEndToEndBenchmark {
+
+    private static final BenchmarkRunner runner = new BenchmarkRunner("plugin-end-to-end", 2, 10);
+
+    private Context context;
+    private FixtureServer server;
+    private PluginHarness harness;
+    private final AtomicInteger coldRequests = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        context = RuntimeEnvironment.getApplication();
+        server = new FixtureServer();
+        harness = new PluginHarness(context);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        JSObject metrics = harness.call("getMetrics", new JSObject());
+        System.out.println("[plugin-end-to-end] plugin metrics: " + metrics.toString(2));
+        harness.close();
+        server.close();
+        BitmapMemoryCache.getInstance(context).clear();
+    }
+
+    @AfterClass
+    public static void writeResults() throws Exception {
+        runner.writeResults();
+    }
+
+    @Test
+    public void setHomeFromUrlColdCache() throws Exception {
+        for (File fixture : fixtures()) {
+            // Una URL distinta por iteración: ni la caché en disco ni la de memoria la conocen
+            runner.measure("url cold " + fixture.getName(), 1, 5,
+                () -> apply("setWallpaperHomeScreen", urlSource(server.url(fixture) + "?n=" + coldRequests.incrementAndGet())));
+        }
+        assertRecorded(WallpaperManager.FLAG_SYSTEM);
+    }
+
+    @Test
+    public void setHomeFromUrlRevalidated() throws Exception {
+        for (File fixture : fixtures()) {
+            String url = server.url(fixture);
+            runner.measure("url 304 " + fixture.getName(), () -> {
+                // Solo la caché en memoria se vacía: la descarga se revalida con If-None-Match
+                BitmapMemoryCache.getInstance(context).clear();
+                return apply("setWallpaperHomeScreen", urlSource(url));
+            });
+        }
+        assertTrue("expected 304 responses", server.notModified.get() > 0);
+        assertRecorded(WallpaperManager.FLAG_SYSTEM);
+    }
+
+    @Test
+    public void setHomeFromMemoryCache() throws Exception {
+        for (File fixture : fixtures()) {
+            String url = server.url(fixture);
+            runner.measure("url memory hit " + fixture.getName(), () -> apply("setWallpaperHomeScreen", urlSource(url)));
+        }
+        assertRecorded(WallpaperManager.FLAG_SYSTEM);
+    }
+
+    @Test
+    public void setHomeFromBase64() throws Exception {
+        for (ImageFixtures.Size size : new ImageFixtures.Size[] { ImageFixtures.Size.FHD, ImageFixtures.Size.UHD }) {
+            File fixture = ImageFixtures.get(size, ImageFixtures.Format.JPEG);
+            JSObject source = new JSObject();
+            source.put("base64Image", "data:image/jpeg;base64,"
+                + Base64.encodeToString(Files.readAllBytes(fixture.toPath()), Base64.NO_WRAP));
+            runner.measure("base64 " + fixture.getName(), () -> {
+                BitmapMemoryCache.getInstance(context).clear();
+                return apply("setWallpaperHomeScreen", source);
+            });
+        }
+        assertRecorded(WallpaperManager.FLAG_SYSTEM);
+    }
+
+    @Test
+    public void setHomeFromChunkedUpload() throws Exception {
+        // Mismo origen que setHomeFromBase64, enviado en trozos de 384 KB como hace la app
+        int chunkBytes = 384 * 1024;
+        for (ImageFixtures.Size size : new ImageFixtures.Size[] { ImageFixtures.Size.FHD, ImageFixtures.Size.UHD }) {
+            File fixture = ImageFixtures.get(size, ImageFixtures.Format.JPEG);
+            byte[] bytes = Files.readAllBytes(fixture.toPath());
+            runner.measure("chunked upload " + fixture.getName(), () -> {
+                BitmapMemoryCache.getInstance(context).clear();
+                String uploadId = harness.call("beginUpload", new JSObject()).getString("uploadId");
+                for (int offset = 0, index = 0; offset < bytes.length; offset += chunkBytes, index++) {
+                    JSObject chunk = new JSObject();
+                    chunk.put("uploadId", uploadId);
+                    chunk.put("index", index);
+                    chunk.put("chunk", Base64.encodeToString(bytes, offset, Math.min(chunkBytes, bytes.length - offset), Base64.NO_WRAP));
+                    apply("appendChunk", chunk);
+                }
+                JSObject commit = new JSObject();
+                commit.put("uploadId", uploadId);
+                commit.put("target", "home");
+                return apply("commit", commit);
+            });
+        }
+        assertRecorded(WallpaperManager.FLAG_SYSTEM);
+    }
+
+    @Test
+    public void setBothFromUrl() throws Exception {
+        for (File fixture : fixtures()) {
+            String url = server.url(fixture);
+            runner.measure("both screens " + fixture.getName(), () -> {
+                BitmapMemoryCache.getInstance(context).clear();
+                return apply("setBothWallpapers", urlSource(url));
+            });
+        }
+        assertRecorded(WallpaperManager.FLAG_LOCK);
+    }
+
+    @Test
+    public void applyBatchHomeAndLock() throws Exception {
+        File home = ImageFixtures.get(ImageFixtures.Size.UHD, ImageFixtures.Format.JPEG);
+        File lock = ImageFixtures.get(ImageFixtures.Size.FUHD, ImageFixtures.Format.WEBP);
+        runner.measure("applyBatch 4k home + 8k lock", () -> {
+            BitmapMemoryCache.getInstance(context).clear();
+            JSArray items = new JSArray();
+            items.put(batchItem(server.url(home), "home"));
+            items.put(batchItem(server.url(lock), "lock"));
+            JSObject data = new JSObject();
+            data.put("items", items);
+            return apply("applyBatch", data);
+        });
+        assertRecorded(WallpaperManager.FLAG_SYSTEM);
+        assertRecorded(WallpaperManager.FLAG_LOCK);
+    }
+
+    private JSObject apply(String method, JSObject data) throws Exception {
+        JSObject result = harness.call(method, data);
+        assertTrue(method + " failed: " + result.optString("message"), result.optBoolean("success"));
+        return result;
+    }
+
+    private static JSObject urlSource(String url) {
+        JSObject source = new JSObject();
+        source.put("imageUrl", url);
+        return source;
+    }
+
+    private static JSObject batchItem(String url, String target) {
+        JSObject item = new JSObject();
+        item.put("source", urlSource(url));
+        item.put("target", target);
+        return item;
+    }
+
+    private void assertRecorded(int which) {
+        ShadowWallpaperManager shadow = shadowOf(WallpaperManager.getInstance(context));
+        assertNotNull("no wallpaper recorded for flag " + which, shadow.getBitmap(which));
+    }
+
+    private static File[] fixtures() throws Exception {
+        ImageFixtures.Size[] sizes = ImageFixtures.Size.values();
+        ImageFixtures.Format[] formats = ImageFixtures.Format.values();
+        File[] files = new File[sizes.length * formats.length];
+        int i = 0;
+        for (ImageFixtures.Size size : sizes) {
+            for (ImageFixtures.Format format : formats) {
+                files[i++] = ImageFixtures.get(size, format);
+            }
+        }
+        return files;
+    }
+}
@@ -0,0 +1,107 @@
+package io.ionic.starter;
+
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.content.Context;
+import com.getcapacitor.Bridge;
+import com.getcapacitor.CapConfig;
+import com.getcapacitor.JSObject;
+import com.getcapacitor.PluginCall;
+import com.getcapacitor.PluginConfig;
+import com.getcapacitor.PluginHandle;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Instancia WallpaperPlugin sobre un Bridge simulado e invoca sus @PluginMethod como lo haría
+ * el bridge de Capacitor, esperando a que el worker resuelva la llamada.
+ */
+final class PluginHarness implements AutoCloseable {
+
+    private static final long TIMEOUT_SECONDS = 60;
+
+    final WallpaperPlugin plugin;
+    private final AtomicInteger callIds = new AtomicInteger();
+
+    PluginHarness(Context context) {
+        // La configuración devuelve siempre el valor por defecto que pide el plugin
+        PluginConfig config = mock(PluginConfig.class);
+        when(config.getInt(anyString(), anyInt())).thenAnswer(invocation -> invocation.getArgument(1));
+        when(config.getBoolean(anyString(), anyBoolean())).thenAnswer(invocation -> invocation.getArgument(1));
+        when(config.getString(anyString(), anyString())).thenAnswer(invocation -> invocation.getArgument(1));
+        CapConfig capConfig = mock(CapConfig.class);
+        when(capConfig.getPluginConfiguration(anyString())).thenReturn(config);
+        Bridge bridge = mock(Bridge.class);
+        when(bridge.getContext()).thenReturn(context);
+        when(bridge.getConfig()).thenReturn(capConfig);
+        PluginHandle handle = mock(PluginHandle.class);
+        when(handle.getId()).thenReturn("WallpaperPlugin");
+
+        plugin = new WallpaperPlugin();
+        plugin.setBridge(bridge);
+        plugin.setPluginHandle(handle);
+        plugin.load();
+    }
+
+    /**
+     * Llama al método con los datos indicados y devuelve lo que el plugin resolvió.
+     */
+    JSObject call(String methodName, JSObject data) throws Exception {
+        CompletableFuture<JSObject> settled = new CompletableFuture<>();
+        PluginCall call = new PluginCall(null, "WallpaperPlugin", "bench-" + callIds.incrementAndGet(), methodName, data) {
+            @Override
+            public void resolve(JSObject result) {
+                settled.complete(result);
+            }
+
+            @Override
+            public void resolve() {
+                settled.complete(new JSObject());
+            }
+
+            @Override
+            public void reject(String message) {
+                settled.completeExceptionally(new AssertionError(methodName + " rejected: " + message));
+            }
+        };
+        method(methodName).accept(call);
+        return settled.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private Consumer<PluginCall> method(String methodName) {
+        switch (methodName) {
+            case "setWallpaperHomeScreen":
+                return plugin::setWallpaperHomeScreen;
+            case "setWallpaperLockScreen":
+                return plugin::setWallpaperLockScreen;
+            case "setBothWallpapers":
+                return plugin::setBothWallpapers;
+            case "applyBatch":
+                return plugin::applyBatch;
+            case "beginUpload":
+                return plugin::beginUpload;
+            case "appendChunk":
+                return plugin::appendChunk;
+            case "commit":
+                return plugin::commit;
+            case "getMetrics":
+                return plugin::getMetrics;
+            case "resetMetrics":
+                return plugin::resetMetrics;
+            default:
+                throw new IllegalArgumentException("Unknown plugin method " + methodName);
+        }
+    }
+
+    @Override
+    public void close() {
+        plugin.handleOnDestroy();
+    }
+}
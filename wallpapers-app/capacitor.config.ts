@@ -50,6 +50,10 @@ const config: CapacitorConfig = {
     },
     WallpaperPlugin: {
       // Configuración del plugin personalizado
+      diskCacheSizeMb: 64, // Presupuesto de la caché de imágenes descargadas
+      thumbnailCacheSizeMb: 32, // Presupuesto de las miniaturas WebP de la galería
+      hardwareBitmaps: true, // Bitmaps en memoria gráfica para lo que solo va al sistema (Android 9+)
+      verboseLogging: false // Registro detallado de cada llamada, solo para depurar
     }
   }
 };
@@ -1,5 +1,5 @@
 import { Injectable } from '@angular/core';
-import { Observable, from, map, switchMap, catchError, of, retry, timer, throwError } from 'rxjs';
+import { Observable, from, map, switchMap, mergeMap, catchError, of, retry, timer, throwError, concat, EMPTY } from 'rxjs';
 import { ToastController, Platform } from '@ionic/angular';
 import { HttpClient } from '@angular/common/http';
 import { 
@@ -15,12 +15,31 @@ import {
   where, 
   orderBy, 
   limit,
-  Timestamp 
+  Timestamp,
+  QueryDocumentSnapshot
 } from '@angular/fire/firestore';
 import { WallpaperData, WallpaperFilter, CreateWallpaperData, UpdateWallpaperData } from '../interfaces/wallpaper.interface';
 import { Auth } from './auth';
 import { Uploader } from './uploader';
-import WallpaperPlugin from '../../plugins/wallpaper-plugin';
+import WallpaperPlugin, {
+  WallpaperApplyResult,
+  WallpaperImageSource,
+  WallpaperLibraryCursor,
+  WallpaperLibraryItem,
+  WallpaperProgressEvent,
+  WallpaperRotationOptions,
+  WallpaperRotationStatus
+} from '../../plugins/wallpaper-plugin';
+import { PluginListenerHandle } from '@capacitor/core';
+
+// Bytes por trozo en las subidas al plugin; múltiplo de 3 para que cada trozo sea Base64 sin relleno
+const UPLOAD_CHUNK_BYTES = 384 * 1024;
+// Cada cuánto una sincronización de la biblioteca local trae el ámbito completo en lugar de solo
+// lo cambiado; es la que detecta los wallpapers borrados desde otro dispositivo
+const LIBRARY_FULL_SYNC_MS = 24 * 60 * 60 * 1000;
+const LIBRARY_FULL_SYNC_KEY = 'wallpaperLibrary.fullSync.';
+// Filas por página al leer de la biblioteca local sin límite
+const LIBRARY_PAGE_SIZE = 200;
 
 // Implementé CRUD completo en Firestore, autenticación y subida de archivos
 
@@ -292,6 +311,18 @@ export class WallpaperService {
 
   // Obtengo wallpapers con sistema de filtros avanzado
   getWallpapers(filter: WallpaperFilter = {}): Observable<WallpaperData[]> {
+    if (this.usesLocalLibrary(filter)) {
+      return this.getWallpapersOfflineFirst(filter);
+    }
+
+    return from(getDocs(this.buildWallpapersQuery(filter))).pipe(
+      this.retryWithBackoff(),
+      map(snapshot => snapshot.docs.map(doc => this.toWallpaperData(doc))),
+      catchError(this.handleFirestoreError<WallpaperData[]>('obtener wallpapers'))
+    );
+  }
+
+  private buildWallpapersQuery(filter: WallpaperFilter) {
     const wallpapersCollection = collection(this.firestore, this.collectionName);
     let q = query(wallpapersCollection);
 
@@ -318,20 +349,201 @@ export class WallpaperService {
       q = query(q, limit(filter.limit));
     }
 
-    return from(getDocs(q)).pipe(
-      this.retryWithBackoff(),
-      map(snapshot => 
-        snapshot.docs.map(doc => ({
-          id: doc.id,
-          ...doc.data(),
-          createdAt: doc.data()['createdAt']?.toDate() || new Date(),
-          updatedAt: doc.data()['updatedAt']?.toDate() || new Date()
-        } as WallpaperData))
-      ),
-      catchError(this.handleFirestoreError<WallpaperData[]>('obtener wallpapers'))
+    return q;
+  }
+
+  private toWallpaperData(doc: QueryDocumentSnapshot): WallpaperData {
+    return {
+      id: doc.id,
+      ...doc.data(),
+      createdAt: doc.data()['createdAt']?.toDate() || new Date(),
+      updatedAt: doc.data()['updatedAt']?.toDate() || new Date()
+    } as WallpaperData;
+  }
+
+  /**
+   * En Android, las listas por usuario o públicas se sirven primero desde la biblioteca local
+   * del plugin y luego se sincronizan con Firestore. Los filtros por tags o categoría van
+   * siempre a Firestore.
+   */
+  private usesLocalLibrary(filter: WallpaperFilter): boolean {
+    return this.platform.is('android')
+      && !filter.tags?.length
+      && !filter.category
+      && (!!filter.uid || filter.isPublic !== undefined);
+  }
+
+  // Ámbito de sincronización: el conjunto de filas que cubre un filtro, sin orden ni límite
+  private libraryScope(filter: WallpaperFilter): string {
+    const parts: string[] = [];
+    if (filter.uid) {
+      parts.push(`uid:${filter.uid}`);
+    }
+    if (filter.isPublic !== undefined) {
+      parts.push(filter.isPublic ? 'public' : 'private');
+    }
+    return parts.join('|');
+  }
+
+  /**
+   * Emite lo que haya en la biblioteca local y, tras sincronizar con Firestore, la lista al día.
+   * Sin conexión se queda con la copia local en lugar de devolver una lista vacía.
+   */
+  private getWallpapersOfflineFirst(filter: WallpaperFilter): Observable<WallpaperData[]> {
+    const scope = this.libraryScope(filter);
+    return from(this.queryLibrary(filter, scope)).pipe(
+      switchMap(local => concat(
+        local.items.length > 0 ? of(local.items) : EMPTY,
+        from(this.syncLibrary(filter, scope, local.syncedUntil)).pipe(
+          mergeMap(synced => {
+            if (!synced) {
+              // Sin sincronizar: si ya emití la copia local no hay nada nuevo que emitir
+              return local.items.length > 0 ? EMPTY : of(local.items);
+            }
+            return from(this.queryLibrary(filter, scope)).pipe(map(fresh => fresh.items));
+          })
+        )
+      )),
+      // Si la biblioteca local falla, la lista sale de Firestore como en web
+      catchError(error => {
+        console.warn('Biblioteca local no disponible:', error);
+        return from(getDocs(this.buildWallpapersQuery(filter))).pipe(
+          this.retryWithBackoff(),
+          map(snapshot => snapshot.docs.map(doc => this.toWallpaperData(doc))),
+          catchError(this.handleFirestoreError<WallpaperData[]>('obtener wallpapers'))
+        );
+      })
     );
   }
 
+  // Lee de la biblioteca local con el orden y límite del filtro, recorriendo páginas si no hay límite
+  private async queryLibrary(filter: WallpaperFilter, scope: string): Promise<{ items: WallpaperData[]; syncedUntil: number }> {
+    const items: WallpaperData[] = [];
+    let cursor: WallpaperLibraryCursor | undefined;
+    let syncedUntil = 0;
+    do {
+      const pageSize = filter.limit ? Math.min(filter.limit - items.length, LIBRARY_PAGE_SIZE) : LIBRARY_PAGE_SIZE;
+      const page = await WallpaperPlugin.libraryQuery({
+        uid: filter.uid,
+        isPublic: filter.isPublic,
+        orderBy: filter.orderBy,
+        orderDirection: filter.orderDirection,
+        limit: pageSize,
+        cursor,
+        syncScope: scope
+      });
+      if (!page.success) {
+        throw new Error(page.message);
+      }
+      syncedUntil = page.syncedUntil ?? 0;
+      items.push(...page.items.map(item => this.fromLibraryItem(item)));
+      cursor = page.nextCursor ?? undefined;
+    } while (cursor && (!filter.limit || items.length < filter.limit));
+    return { items, syncedUntil };
+  }
+
+  /**
+   * Trae de Firestore solo lo cambiado desde la última sincronización del ámbito, o el ámbito
+   * completo si nunca se sincronizó o la última completa es antigua, y lo guarda en la
+   * biblioteca local. Devuelve false si no se pudo sincronizar.
+   */
+  private async syncLibrary(filter: WallpaperFilter, scope: string, syncedUntil: number): Promise<boolean> {
+    const fullSyncKey = LIBRARY_FULL_SYNC_KEY + scope;
+    const lastFullSync = Number(localStorage.getItem(fullSyncKey)) || 0;
+    const full = syncedUntil === 0 || Date.now() - lastFullSync > LIBRARY_FULL_SYNC_MS;
+
+    const wallpapersCollection = collection(this.firestore, this.collectionName);
+    let q = query(wallpapersCollection);
+    if (filter.uid) {
+      q = query(q, where('uid', '==', filter.uid));
+    }
+    if (filter.isPublic !== undefined) {
+      q = query(q, where('isPublic', '==', filter.isPublic));
+    }
+    if (full) {
+      // Con límite solo se trae la ventana pedida, como haría la consulta directa
+      q = filter.limit ? this.buildWallpapersQuery(filter) : q;
+    } else {
+      q = query(q, where('updatedAt', '>', Timestamp.fromMillis(syncedUntil)), orderBy('updatedAt', 'asc'));
+    }
+
+    try {
+      const snapshot = await getDocs(q);
+      const wallpapers = snapshot.docs.map(doc => this.toWallpaperData(doc));
+      // La marca sale de los datos del servidor, no del reloj del dispositivo
+      const until = wallpapers.reduce((max, wallpaper) => Math.max(max, wallpaper.updatedAt.getTime()), syncedUntil);
+      // Un reemplazo solo es seguro si llegó el ámbito completo, sin recortar por límite
+      const replace = full && !filter.limit ? { uid: filter.uid, isPublic: filter.isPublic } : undefined;
+      const result = await WallpaperPlugin.libraryUpsert({
+        items: wallpapers.map(wallpaper => this.toLibraryItem(wallpaper)),
+        replace,
+        syncScope: scope,
+        syncedUntil: until
+      });
+      if (!result.success) {
+        console.warn('No se pudo guardar en la biblioteca local:', result.message);
+        return false;
+      }
+      if (replace) {
+        localStorage.setItem(fullSyncKey, String(Date.now()));
+      }
+      return true;
+    } catch (error) {
+      if (this.isConnectivityError(error)) {
+        this.showConnectivityToast();
+      } else {
+        console.warn('Error sincronizando la biblioteca local:', error);
+      }
+      return false;
+    }
+  }
+
+  private toLibraryItem(wallpaper: WallpaperData): WallpaperLibraryItem {
+    return {
+      id: wallpaper.id!,
+      uid: wallpaper.uid,
+      title: wallpaper.title,
+      description: wallpaper.description,
+      imageUrl: wallpaper.imageUrl,
+      thumbnailUrl: wallpaper.thumbnailUrl,
+      imagePath: wallpaper.imagePath,
+      tags: wallpaper.tags,
+      category: wallpaper.category,
+      isPublic: wallpaper.isPublic,
+      createdAt: wallpaper.createdAt.getTime(),
+      updatedAt: wallpaper.updatedAt.getTime()
+    };
+  }
+
+  private fromLibraryItem(item: WallpaperLibraryItem): WallpaperData {
+    return {
+      id: item.id,
+      uid: item.uid,
+      title: item.title,
+      description: item.description,
+      imageUrl: item.imageUrl,
+      thumbnailUrl: item.thumbnailUrl,
+      imagePath: item.imagePath,
+      tags: item.tags,
+      category: item.category,
+      isPublic: item.isPublic,
+      createdAt: new Date(item.createdAt),
+      updatedAt: new Date(item.updatedAt)
+    } as WallpaperData;
+  }
+
+  // Quita un wallpaper de la biblioteca local; un fallo aquí no debe romper el borrado remoto
+  private async removeFromLibrary(id: string): Promise<void> {
+    if (!this.platform.is('android')) {
+      return;
+    }
+    try {
+      await WallpaperPlugin.libraryRemove({ ids: [id] });
+    } catch (error) {
+      console.warn('No se pudo quitar de la biblioteca local:', error);
+    }
+  }
+
   // Aquí creé el método para obtener solo los wallpapers del usuario autenticado
   getUserWallpapers(): Observable<WallpaperData[]> {
     return this.authService.user$.pipe(
@@ -433,7 +645,7 @@ export class WallpaperService {
               switchMap(() => {
                 // Eliminar el documento de Firestore
                 const docRef = doc(this.firestore, this.collectionName, id);
-                return from(deleteDoc(docRef));
+                return from(deleteDoc(docRef).then(() => this.removeFromLibrary(id)));
               })
             );
           })
@@ -520,6 +732,53 @@ export class WallpaperService {
     }
   }
 
+  /**
+   * Construye el origen de imagen para el plugin. Las URLs http(s) se envían tal cual para que
+   * el plugin descargue la imagen de forma nativa; solo las imágenes locales del WebView
+   * (data: o blob:) se convierten a base64.
+   */
+  private async resolveImageSource(imageUrl: string): Promise<WallpaperImageSource> {
+    if (/^https?:\/\//i.test(imageUrl)) {
+      return { imageUrl };
+    }
+    return { base64Image: await this.downloadImageAsBase64(imageUrl) };
+  }
+
+  /**
+   * Envía una imagen local (data:, blob:, archivo) al plugin por trozos y la aplica. El plugin
+   * decodifica cada trozo al llegar, así que nunca existe un Base64 de la imagen completa.
+   */
+  private async uploadAndApply(imageUrl: string, target: 'home' | 'lock' | 'both'): Promise<WallpaperApplyResult> {
+    const blob = await this.http.get(imageUrl, { responseType: 'blob' }).toPromise();
+    if (!blob || blob.size === 0) {
+      throw new Error('La imagen descargada está vacía');
+    }
+
+    const { uploadId } = await WallpaperPlugin.beginUpload();
+    try {
+      for (let offset = 0, index = 0; offset < blob.size; offset += UPLOAD_CHUNK_BYTES, index++) {
+        const chunk = await this.blobToBase64(blob.slice(offset, offset + UPLOAD_CHUNK_BYTES));
+        const appended = await WallpaperPlugin.appendChunk({ uploadId, chunk, index });
+        if (!appended.success) {
+          throw new Error(appended.message);
+        }
+      }
+    } catch (error) {
+      await WallpaperPlugin.abortUpload({ uploadId });
+      throw error;
+    }
+    return WallpaperPlugin.commit({ uploadId, target, sentAt: Date.now(), operationId: this.newOperationId() });
+  }
+
+  private blobToBase64(blob: Blob): Promise<string> {
+    return new Promise((resolve, reject) => {
+      const reader = new FileReader();
+      reader.onload = () => resolve((reader.result as string).split(',')[1] ?? '');
+      reader.onerror = () => reject(new Error('Error al convertir imagen a base64'));
+      reader.readAsDataURL(blob);
+    });
+  }
+
   /**
    * Valida si una URL es válida
    */
@@ -545,11 +804,11 @@ export class WallpaperService {
         throw new Error('Permission denied: Se requieren permisos para establecer fondos de pantalla');
       }
       
-      // Descargar y convertir imagen
-      const base64Image = await this.downloadImageAsBase64(imageUrl);
+      // El plugin descarga la imagen de forma nativa a partir de la URL
+      const source = await this.resolveImageSource(imageUrl);
       
       // Aplicar fondo de pantalla
-      await WallpaperPlugin.setLockWallpaper({ base64Image });
+      await WallpaperPlugin.setLockWallpaper(source);
       
       console.log('Fondo de pantalla de bloqueo establecido exitosamente');
       
@@ -690,11 +949,11 @@ export class WallpaperService {
         throw new Error('Permission denied: Se requieren permisos para establecer fondos de pantalla');
       }
       
-      // Descargar y convertir imagen
-      const base64Image = await this.downloadImageAsBase64(imageUrl);
+      // El plugin descarga la imagen de forma nativa a partir de la URL
+      const source = await this.resolveImageSource(imageUrl);
       
       // Aplicar fondo de pantalla
-      await WallpaperPlugin.setHomeWallpaper({ base64Image });
+      await WallpaperPlugin.setHomeWallpaper(source);
       
       console.log('Fondo de pantalla de inicio establecido exitosamente');
       
@@ -753,15 +1012,17 @@ export class WallpaperService {
         return false;
       }
 
-      // Descargar y convertir imagen a base64
-      const base64Image = await this.downloadImageAsBase64(imageUrl);
+      // El plugin descarga las URLs http(s) de forma nativa; las imágenes locales se suben por trozos
+      const source: WallpaperImageSource = /^https?:\/\//i.test(imageUrl) ? { imageUrl } : {};
       
       await this.showToast('Estableciendo wallpaper...', 'success');
       
-      // Enviar base64 al plugin en lugar de URL
-      const result = await WallpaperPlugin.setWallpaperHomeScreen({ 
-        base64Image 
-      });
+      const result = source.imageUrl
+        ? await WallpaperPlugin.setWallpaperHomeScreen({ ...source, sentAt: Date.now(), operationId: this.newOperationId() })
+        : await this.uploadAndApply(imageUrl, 'home');
+      if (this.wasCancelled(result)) {
+        return false;
+      }
       
       if (result.success) {
         await this.showToast('Wallpaper establecido correctamente en la pantalla principal', 'success');
@@ -799,15 +1060,17 @@ export class WallpaperService {
         return false;
       }
 
-      // Descargar y convertir imagen a base64
-      const base64Image = await this.downloadImageAsBase64(imageUrl);
+      // El plugin descarga las URLs http(s) de forma nativa; las imágenes locales se suben por trozos
+      const source: WallpaperImageSource = /^https?:\/\//i.test(imageUrl) ? { imageUrl } : {};
       
       await this.showToast('Estableciendo wallpaper de bloqueo...', 'success');
       
-      // Enviar base64 al plugin en lugar de URL
-      const result = await WallpaperPlugin.setWallpaperLockScreen({ 
-        base64Image 
-      });
+      const result = source.imageUrl
+        ? await WallpaperPlugin.setWallpaperLockScreen({ ...source, sentAt: Date.now(), operationId: this.newOperationId() })
+        : await this.uploadAndApply(imageUrl, 'lock');
+      if (this.wasCancelled(result)) {
+        return false;
+      }
       
       if (result.success) {
         await this.showToast('Wallpaper establecido correctamente en la pantalla de bloqueo', 'success');
@@ -845,15 +1108,17 @@ export class WallpaperService {
         return false;
       }
 
-      // Descargar y convertir imagen a base64
-      const base64Image = await this.downloadImageAsBase64(imageUrl);
+      // El plugin descarga las URLs http(s) de forma nativa; las imágenes locales se suben por trozos
+      const source: WallpaperImageSource = /^https?:\/\//i.test(imageUrl) ? { imageUrl } : {};
       
       await this.showToast('Estableciendo wallpaper en ambas pantallas...', 'success');
       
-      // Enviar base64 al plugin en lugar de URL
-      const result = await WallpaperPlugin.setBothWallpapers({ 
-        base64Image 
-      });
+      const result = source.imageUrl
+        ? await WallpaperPlugin.setBothWallpapers({ ...source, sentAt: Date.now(), operationId: this.newOperationId() })
+        : await this.uploadAndApply(imageUrl, 'both');
+      if (this.wasCancelled(result)) {
+        return false;
+      }
       
       if (result.success) {
         await this.showToast('Wallpaper establecido correctamente en ambas pantallas', 'success');
@@ -869,6 +1134,150 @@ export class WallpaperService {
     }
   }
 
+  // Programo la rotación de fondos con las imágenes indicadas; la ejecuta Android aunque la app esté cerrada
+  async startRotation(imageUrls: string[], options: Omit<WallpaperRotationOptions, 'sources'> = {}): Promise<boolean> {
+    if (!this.platform.is('android')) {
+      await this.showToast('Esta funcionalidad solo está disponible en Android', 'warning');
+      return false;
+    }
+
+    const sources = imageUrls.filter(url => /^https?:\/\//i.test(url));
+    if (sources.length === 0) {
+      await this.showToast('La rotación necesita imágenes con URL http(s)', 'danger');
+      return false;
+    }
+
+    try {
+      const result = await WallpaperPlugin.startRotation({ ...options, sources });
+      if (!result.success) {
+        await this.showToast('Error al programar la rotación: ' + result.message, 'danger');
+      }
+      return result.success;
+    } catch (error: any) {
+      console.error('Error starting wallpaper rotation:', error);
+      await this.showToast('Error al programar la rotación: ' + (error.message || 'Error desconocido'), 'danger');
+      return false;
+    }
+  }
+
+  async stopRotation(): Promise<void> {
+    if (!this.platform.is('android')) {
+      return;
+    }
+
+    try {
+      await WallpaperPlugin.stopRotation();
+    } catch (error) {
+      console.error('Error stopping wallpaper rotation:', error);
+    }
+  }
+
+  async getRotationStatus(): Promise<WallpaperRotationStatus | null> {
+    if (!this.platform.is('android')) {
+      return null;
+    }
+
+    try {
+      return await WallpaperPlugin.getRotationStatus();
+    } catch (error) {
+      console.error('Error reading wallpaper rotation status:', error);
+      return null;
+    }
+  }
+
+  // Cancelo una aplicación en curso, o todas si no indico el id
+  async cancelWallpaperOperation(operationId?: string): Promise<void> {
+    if (!this.platform.is('android')) {
+      return;
+    }
+
+    try {
+      await WallpaperPlugin.cancel(operationId ? { operationId } : {});
+    } catch (error) {
+      console.error('Error cancelling wallpaper operation:', error);
+    }
+  }
+
+  // Escucho el progreso de las aplicaciones (descarga, decodificación, escritura)
+  async onWallpaperProgress(listener: (event: WallpaperProgressEvent) => void): Promise<PluginListenerHandle | null> {
+    if (!this.platform.is('android')) {
+      return null;
+    }
+    return WallpaperPlugin.addListener('wallpaperProgress', listener);
+  }
+
+  private newOperationId(): string {
+    return `wp-${Date.now().toString(36)}-${Math.random().toString(36).slice(2, 8)}`;
+  }
+
+  // Una operación cancelada o sustituida por otra más nueva no es un error para el usuario
+  private wasCancelled(result: WallpaperApplyResult): boolean {
+    if (result.cancelled) {
+      console.log('Wallpaper operation ' + result.operationId + (result.superseded ? ' superseded' : ' cancelled'));
+      return true;
+    }
+    return false;
+  }
+
+  // Precargo en el plugin las imágenes visibles para que aplicarlas sea inmediato
+  async prefetchWallpapers(imageUrls: string[], priority = 0, decode = false): Promise<void> {
+    if (!this.platform.is('android')) {
+      return;
+    }
+
+    const urls = imageUrls.filter(url => /^https?:\/\//i.test(url));
+    if (urls.length === 0) {
+      return;
+    }
+
+    try {
+      await WallpaperPlugin.prefetch({ urls, priority, decode });
+    } catch (error) {
+      console.error('Error prefetching wallpapers:', error);
+    }
+  }
+
+  // URL de la miniatura nativa para la cuadrícula: el plugin la sirve en /_thumbnail como WebP
+  // del ancho de la tarjeta, así el WebView no descarga ni decodifica el original completo
+  thumbnailUrl(imageUrl: string, cssWidth: number): string {
+    if (!this.platform.is('android') || !/^https?:\/\//i.test(imageUrl)) {
+      return imageUrl;
+    }
+    const width = Math.round(cssWidth * (window.devicePixelRatio || 1));
+    return `${window.location.origin}/_thumbnail?src=${encodeURIComponent(imageUrl)}&w=${width}`;
+  }
+
+  // Genero en segundo plano las miniaturas de la cuadrícula antes de que se pidan
+  async prefetchThumbnails(imageUrls: string[], cssWidth: number): Promise<void> {
+    if (!this.platform.is('android')) {
+      return;
+    }
+
+    const urls = imageUrls.filter(url => /^https?:\/\//i.test(url));
+    if (urls.length === 0) {
+      return;
+    }
+
+    try {
+      await WallpaperPlugin.prefetchThumbnails({ urls, width: Math.round(cssWidth * (window.devicePixelRatio || 1)) });
+    } catch (error) {
+      console.error('Error prefetching thumbnails:', error);
+    }
+  }
+
+  // Cancelo la precarga pendiente, por ejemplo al salir de la galería
+  async cancelPrefetch(imageUrls?: string[]): Promise<void> {
+    if (!this.platform.is('android')) {
+      return;
+    }
+
+    try {
+      await WallpaperPlugin.cancelPrefetch(imageUrls ? { urls: imageUrls } : {});
+    } catch (error) {
+      console.error('Error cancelling prefetch:', error);
+    }
+  }
+
   // Verifico permisos del plugin
   async checkWallpaperPermissions(): Promise<boolean> {
     if (!this.platform.is('android')) {
@@ -38,6 +38,11 @@ export class MyGalleryPage implements OnInit {
     await this.loadMyWallpapers();
   }
 
+  ionViewWillLeave() {
+    // Lo que no se llegó a precargar ya no hace falta
+    this.wallpaperService.cancelPrefetch();
+  }
+
   private async loadCurrentUser() {
     try {
       this.currentUser = await this.auth.getCurrentUser();
@@ -57,6 +62,7 @@ export class MyGalleryPage implements OnInit {
         next: (wallpapers) => {
           this.wallpapers = wallpapers;
           this.isLoading = false;
+          this.prefetchVisibleWallpapers();
         },
         error: async (error) => {
           console.error('Error loading user wallpapers:', error);
@@ -71,6 +77,38 @@ export class MyGalleryPage implements OnInit {
     }
   }
 
+  // Las tarjetas de arriba, que se ven sin desplazar, se precargan antes y ya decodificadas;
+  // el resto solo se descarga para no llenar la memoria
+  private prefetchVisibleWallpapers() {
+    const visibleCount = 6;
+    const urls = this.wallpapers.map(wallpaper => wallpaper.imageUrl).filter(url => !!url);
+    this.wallpaperService.prefetchThumbnails(this.wallpapers.map(wallpaper => this.gridSource(wallpaper)), this.gridCardWidth);
+    this.wallpaperService.prefetchWallpapers(urls.slice(0, visibleCount), 1, true);
+    this.wallpaperService.prefetchWallpapers(urls.slice(visibleCount), 0);
+  }
+
+  // Ancho aproximado de una tarjeta en px CSS: una columna en el móvil, mínimo 280 px en la cuadrícula
+  private get gridCardWidth(): number {
+    return Math.min(window.innerWidth, 480);
+  }
+
+  private gridSource(wallpaper: WallpaperData): string {
+    return wallpaper.thumbnailUrl || wallpaper.imageUrl;
+  }
+
+  gridImageUrl(wallpaper: WallpaperData): string {
+    return this.wallpaperService.thumbnailUrl(this.gridSource(wallpaper), this.gridCardWidth);
+  }
+
+  // Si la miniatura nativa falla, la tarjeta muestra la imagen original
+  onGridImageError(event: Event, wallpaper: WallpaperData) {
+    const img = event.target as HTMLImageElement;
+    const original = this.gridSource(wallpaper);
+    if (img.src !== original) {
+      img.src = original;
+    }
+  }
+
   async applyWallpaper(wallpaper: WallpaperData, type: 'home' | 'lock') {
     const alert = await this.alertController.create({
       header: this.translationService.translate('myGallery.applyWallpaper'),
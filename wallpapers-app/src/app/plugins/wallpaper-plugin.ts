@@ -1,35 +1,420 @@
-import { registerPlugin } from '@capacitor/core';
+import { PluginListenerHandle, registerPlugin } from '@capacitor/core';
+
+/**
+ * Origen de la imagen para el plugin. imageUrl es la opción por defecto: el plugin descarga
+ * y decodifica la imagen de forma nativa, así que por el bridge solo viaja la URL.
+ * base64Image queda para imágenes que solo existen en el WebView (data: o blob:).
+ */
+export interface WallpaperImageSource {
+  imageUrl?: string;
+  base64Image?: string;
+  /**
+   * Otras resoluciones de imageUrl. El plugin descarga la más pequeña que cubre la pantalla,
+   * o el tamaño del launcher si la red no está limitada. Puede incluir la propia imageUrl para
+   * indicar su tamaño.
+   */
+  variants?: WallpaperImageVariant[];
+}
+
+export interface WallpaperImageVariant {
+  url: string;
+  width?: number;
+  height?: number;
+}
+
+/**
+ * Recorte visible expresado en fracciones de la imagen (0 a 1)
+ */
+export interface WallpaperCrop {
+  left: number;
+  top: number;
+  right: number;
+  bottom: number;
+}
+
+/**
+ * Cómo se ajusta la imagen al tamaño que pide el launcher:
+ * - center-crop: llena la pantalla recortando alrededor del punto focal (por defecto)
+ * - fit: la imagen completa, sin recortar
+ * - parallax: franja más ancha que la pantalla para el desplazamiento entre escritorios
+ * - crop: región indicada en crop
+ */
+export type WallpaperFitMode = 'center-crop' | 'fit' | 'parallax' | 'crop';
+
+export interface WallpaperFitOptions {
+  fit?: WallpaperFitMode;
+  crop?: WallpaperCrop;
+  /** Punto de interés en fracciones de la imagen, por defecto el centro */
+  focalPoint?: { x: number; y: number };
+  /**
+   * 'low' permite decodificar las fotos JPEG en RGB_565, con la mitad de memoria y algo de
+   * bandas en degradados suaves. Por defecto 'high' (ARGB_8888).
+   */
+  decodeQuality?: 'high' | 'low';
+}
+
+export interface WallpaperCallTiming {
+  /** Date.now() justo antes de llamar al plugin, para medir el paso por el bridge */
+  sentAt?: number;
+  /**
+   * Id de la operación para seguir su progreso y cancelarla. Si no se indica, el plugin
+   * genera uno y lo devuelve en el resultado y en los eventos wallpaperProgress.
+   */
+  operationId?: string;
+}
+
+/**
+ * Resultado de una operación de aplicación. Una operación cancelada, o sustituida por otra
+ * más nueva sobre la misma pantalla, resuelve con success false y cancelled true.
+ */
+export interface WallpaperApplyResult {
+  success: boolean;
+  message: string;
+  operationId: string;
+  cancelled?: boolean;
+  superseded?: boolean;
+  /** La pantalla ya mostraba esta imagen (mismo contenido y ajuste) y no se reescribió */
+  skipped?: 'alreadyApplied';
+}
+
+export type WallpaperProgressStage =
+  | 'queued'
+  | 'downloading'
+  | 'decoding'
+  | 'committing'
+  | 'done'
+  | 'failed'
+  | 'cancelled';
+
+/**
+ * Evento wallpaperProgress. En la fase downloading puede incluir los bytes recibidos;
+ * totalBytes es -1 si el servidor no indica el tamaño.
+ */
+export interface WallpaperProgressEvent {
+  operationId: string;
+  stage: WallpaperProgressStage;
+  bytesDownloaded?: number;
+  totalBytes?: number;
+}
+
+export interface WallpaperPhaseMetrics {
+  count: number;
+  totalMs: number;
+  meanMs: number;
+  maxMs: number;
+  p50Ms: number;
+  p95Ms: number;
+  p99Ms: number;
+}
+
+/**
+ * Métricas acumuladas del plugin desde since (epoch ms) o el último resetMetrics
+ */
+export interface WallpaperMetrics {
+  since: number;
+  operations: number;
+  failedOperations: number;
+  phases: {
+    bridgeReceive: WallpaperPhaseMetrics;
+    queueWait: WallpaperPhaseMetrics;
+    /** Fase de origen del motor de aplicación (descarga, caché en disco o Base64) */
+    fetch: WallpaperPhaseMetrics;
+    /** Encabezado, plan de recorte y comprobación de imagen ya aplicada */
+    probe: WallpaperPhaseMetrics;
+    /** Espera hasta que el presupuesto de memoria admite la decodificación */
+    admissionWait: WallpaperPhaseMetrics;
+    base64Decode: WallpaperPhaseMetrics;
+    networkConnect: WallpaperPhaseMetrics;
+    networkFirstByte: WallpaperPhaseMetrics;
+    networkTransfer: WallpaperPhaseMetrics;
+    decode: WallpaperPhaseMetrics;
+    scale: WallpaperPhaseMetrics;
+    commit: WallpaperPhaseMetrics;
+    total: WallpaperPhaseMetrics;
+  };
+  bytes: {
+    base64: number;
+    network: number;
+    decoded: number;
+    peakBitmap: number;
+  };
+  caches: {
+    memoryHits: number;
+    memoryMisses: number;
+    memoryHitRate: number;
+    diskHits: number;
+    diskMisses: number;
+    diskHitRate: number;
+  };
+  /** Decodificaciones reducidas o rechazadas por el presupuesto de memoria */
+  admission: {
+    downscaled: number;
+    rejected: number;
+  };
+  /** Descargas hechas con una variante más pequeña, y variantes que fallaron y usaron el original */
+  variants: {
+    selected: number;
+    fallbacks: number;
+  };
+}
+
+export interface WallpaperBatchItem extends WallpaperFitOptions {
+  source: WallpaperImageSource;
+  target: 'home' | 'lock';
+}
+
+export interface WallpaperBatchItemResult {
+  index: number;
+  target: 'home' | 'lock';
+  success: boolean;
+  message: string;
+  deduplicated: boolean;
+  skipped?: 'alreadyApplied';
+  fetchMs: number;
+  decodeMs: number;
+  commitMs: number;
+}
+
+export interface WallpaperPrefetchOptions extends WallpaperFitOptions {
+  urls: string[];
+  /** Mayor número, antes se descarga. Por defecto 0 */
+  priority?: number;
+  /** Deja la imagen ya recortada y decodificada en memoria, no solo descargada */
+  decode?: boolean;
+  /** Solo precarga en redes no medidas (Wi-Fi) */
+  wifiOnly?: boolean;
+}
+
+/**
+ * Rotación programada. Se indica intervalMinutes (mínimo 15, por defecto un día) o timeOfDay
+ * en hora local; las imágenes deben ser URLs http(s) porque se descargan sin el WebView.
+ */
+export interface WallpaperRotationOptions extends WallpaperFitOptions {
+  sources: string[];
+  target?: 'home' | 'lock' | 'both';
+  intervalMinutes?: number;
+  /** Hora del día en formato HH:mm */
+  timeOfDay?: string;
+  requiresCharging?: boolean;
+  /** Por defecto true */
+  requiresBatteryNotLow?: boolean;
+  /** Solo descarga y rota en redes no medidas */
+  unmeteredOnly?: boolean;
+}
+
+export interface WallpaperRotationStatus {
+  active: boolean;
+  sources?: number;
+  target?: 'home' | 'lock' | 'both';
+  /** Índice de la imagen aplicada, -1 si aún no ha rotado */
+  position?: number;
+  /** Si la siguiente imagen ya está descargada y preparada */
+  nextStaged?: boolean;
+  intervalMinutes?: number;
+  timeOfDay?: string;
+  lastRunAt?: number;
+  lastError?: string;
+}
+
+/**
+ * Wallpaper guardado en la biblioteca local del plugin, con las fechas en epoch ms. width,
+ * height y sha1 solo están si la imagen ya estaba descargada cuando se guardó.
+ */
+export interface WallpaperLibraryItem {
+  id: string;
+  uid: string;
+  title: string;
+  description?: string;
+  imageUrl: string;
+  thumbnailUrl?: string;
+  imagePath?: string;
+  tags?: string[];
+  category?: string;
+  isPublic: boolean;
+  createdAt: number;
+  updatedAt: number;
+  width?: number;
+  height?: number;
+  sha1?: string;
+}
+
+/**
+ * Posición tras la última fila de una página; se devuelve tal cual para pedir la siguiente
+ */
+export interface WallpaperLibraryCursor {
+  value: string | number;
+  id: string;
+}
+
+export interface WallpaperLibraryQuery {
+  uid?: string;
+  isPublic?: boolean;
+  orderBy?: 'createdAt' | 'updatedAt' | 'title';
+  orderDirection?: 'asc' | 'desc';
+  /** Por defecto 50, como mucho 200 */
+  limit?: number;
+  cursor?: WallpaperLibraryCursor;
+  /** Ámbito de sincronización cuyo syncedUntil se devuelve con la página */
+  syncScope?: string;
+}
+
+export interface WallpaperLibraryPage {
+  success: boolean;
+  message: string;
+  items: WallpaperLibraryItem[];
+  nextCursor: WallpaperLibraryCursor | null;
+  /** updatedAt (epoch ms) hasta el que está sincronizado syncScope; 0 si nunca */
+  syncedUntil?: number;
+}
 
 export interface WallpaperPluginInterface {
   /**
    * Establece el wallpaper para la pantalla principal
-   * @param options - Opciones que incluyen imageUrl o base64Image
+   * @param options - Opciones que incluyen imageUrl (recomendado) o base64Image, y el ajuste opcional
    */
-  setWallpaperHomeScreen(options: { imageUrl?: string; base64Image?: string }): Promise<{ success: boolean; message: string }>;
+  setWallpaperHomeScreen(options: WallpaperImageSource & WallpaperFitOptions & WallpaperCallTiming): Promise<WallpaperApplyResult>;
 
   /**
    * Establece el wallpaper para la pantalla de bloqueo (Android 7.0+)
-   * @param options - Opciones que incluyen imageUrl o base64Image
+   * @param options - Opciones que incluyen imageUrl (recomendado) o base64Image, y el ajuste opcional
    */
-  setWallpaperLockScreen(options: { imageUrl?: string; base64Image?: string }): Promise<{ success: boolean; message: string }>;
+  setWallpaperLockScreen(options: WallpaperImageSource & WallpaperFitOptions & WallpaperCallTiming): Promise<WallpaperApplyResult>;
 
   /**
    * Establece el wallpaper para ambas pantallas (principal y bloqueo)
-   * @param options - Opciones que incluyen imageUrl o base64Image
+   * @param options - Opciones que incluyen imageUrl (recomendado) o base64Image, y el ajuste opcional
+   */
+  setBothWallpapers(options: WallpaperImageSource & WallpaperFitOptions & WallpaperCallTiming): Promise<WallpaperApplyResult>;
+
+  /**
+   * Aplica varias imágenes en una sola llamada. Los orígenes repetidos se descargan y
+   * decodifican una sola vez y las escrituras se hacen en el orden recibido.
+   * @param options - Lista de entradas con origen, pantalla destino y ajuste opcional
+   */
+  applyBatch(options: { items: WallpaperBatchItem[] } & WallpaperCallTiming): Promise<WallpaperApplyResult & { items: WallpaperBatchItemResult[] }>;
+
+  /**
+   * Abre una subida por trozos para imágenes que solo existen en el WebView. Evita enviar
+   * la imagen completa como un único base64Image.
+   */
+  beginUpload(): Promise<{ success: boolean; message: string; uploadId: string }>;
+
+  /**
+   * Añade un trozo Base64 a la subida; se decodifica al llegar. index detecta trozos perdidos.
+   */
+  appendChunk(options: { uploadId: string; chunk: string; index?: number }): Promise<{ success: boolean; message: string; bytes: number }>;
+
+  /**
+   * Cierra la subida y aplica la imagen en la pantalla indicada (por defecto home)
+   */
+  commit(options: { uploadId: string; target?: 'home' | 'lock' | 'both' } & WallpaperFitOptions & WallpaperCallTiming): Promise<WallpaperApplyResult>;
+
+  /**
+   * Descarta una subida sin aplicarla
+   */
+  abortUpload(options: { uploadId: string }): Promise<{ success: boolean; message: string }>;
+
+  /**
+   * Cancela una operación de aplicación por su id, o todas si no se indica. La descarga en
+   * curso se corta de inmediato; la escritura del fondo, si ya empezó, se completa.
+   */
+  cancel(options?: { operationId?: string }): Promise<{ success: boolean; message: string; cancelled: number }>;
+
+  /**
+   * Progreso de las operaciones de aplicación: en cola, descargando, decodificando, escribiendo
+   */
+  addListener(
+    eventName: 'wallpaperProgress',
+    listenerFunc: (event: WallpaperProgressEvent) => void
+  ): Promise<PluginListenerHandle>;
+
+  /**
+   * Precarga en segundo plano las imágenes que probablemente se apliquen, para que aplicarlas
+   * después sea casi inmediato. Respeta el ahorro de datos del sistema en redes medidas.
+   * @param options - URLs a precargar, prioridad, y si se decodifican con el ajuste indicado
+   */
+  prefetch(options: WallpaperPrefetchOptions): Promise<{ success: boolean; message: string; queued: number; pending: number }>;
+
+  /**
+   * Cancela la precarga de las URLs indicadas, o de todas si no se indica ninguna
+   */
+  cancelPrefetch(options?: { urls?: string[] }): Promise<{ success: boolean; message: string; cancelled: number }>;
+
+  /**
+   * Genera de antemano las miniaturas WebP que la cuadrícula pedirá a /_thumbnail. width va en
+   * píxeles físicos y se redondea al bucket que se devuelve (160, 320, 480 o 720).
+   */
+  prefetchThumbnails(options: { urls: string[]; width: number }): Promise<{ success: boolean; message: string; queued: number; width: number }>;
+
+  /**
+   * Borra las miniaturas generadas; se vuelven a generar cuando se piden
+   */
+  clearThumbnails(): Promise<{ success: boolean; message: string }>;
+
+  /**
+   * Guarda wallpapers en la biblioteca local. Con replace borra las filas de ese filtro que no
+   * vinieron (sincronización completa); con syncScope y syncedUntil marca hasta dónde está
+   * sincronizado el ámbito, en la misma transacción.
+   */
+  libraryUpsert(options: {
+    items: WallpaperLibraryItem[];
+    replace?: { uid?: string; isPublic?: boolean };
+    syncScope?: string;
+    syncedUntil?: number;
+  }): Promise<{ success: boolean; message: string; written?: number }>;
+
+  /**
+   * Una página de la biblioteca local, paginada por cursor
+   */
+  libraryQuery(options: WallpaperLibraryQuery): Promise<WallpaperLibraryPage>;
+
+  /**
+   * Busca un wallpaper por id, o los que comparten contenido por sha1
+   */
+  libraryGet(options: { id?: string; sha1?: string }): Promise<{
+    success: boolean;
+    message: string;
+    item?: WallpaperLibraryItem | null;
+    items?: WallpaperLibraryItem[];
+  }>;
+
+  libraryRemove(options: { ids: string[] }): Promise<{ success: boolean; message: string; removed?: number }>;
+
+  libraryClear(): Promise<{ success: boolean; message: string }>;
+
+  /**
+   * Programa la rotación del wallpaper con WorkManager; sigue funcionando con la app cerrada
+   */
+  startRotation(options: WallpaperRotationOptions): Promise<{ success: boolean; message: string; status?: WallpaperRotationStatus }>;
+
+  /**
+   * Detiene la rotación y borra la lista guardada
+   */
+  stopRotation(): Promise<{ success: boolean; message: string }>;
+
+  getRotationStatus(): Promise<WallpaperRotationStatus>;
+
+  /**
+   * Devuelve las métricas del plugin: tiempos por fase, bytes, aciertos de caché y mayor bitmap
+   */
+  getMetrics(): Promise<WallpaperMetrics>;
+
+  /**
+   * Reinicia las métricas acumuladas
    */
-  setBothWallpapers(options: { imageUrl?: string; base64Image?: string }): Promise<{ success: boolean; message: string }>;
+  resetMetrics(): Promise<{ success: boolean; message: string }>;
 
   /**
    * Establece el wallpaper para la pantalla principal (alias para compatibilidad)
-   * @param options - Opciones que incluyen base64Image
+   * @param options - Opciones que incluyen imageUrl (recomendado) o base64Image
    */
-  setHomeWallpaper(options: { base64Image: string }): Promise<{ success: boolean; message: string }>;
+  setHomeWallpaper(options: WallpaperImageSource): Promise<{ success: boolean; message: string }>;
 
   /**
    * Establece el wallpaper para la pantalla de bloqueo (alias para compatibilidad)
-   * @param options - Opciones que incluyen base64Image
+   * @param options - Opciones que incluyen imageUrl (recomendado) o base64Image
    */
-  setLockWallpaper(options: { base64Image: string }): Promise<{ success: boolean; message: string }>;
+  setLockWallpaper(options: WallpaperImageSource): Promise<{ success: boolean; message: string }>;
 
   /**
    * Verifica los permisos necesarios para establecer wallpapers
@@ -37,6 +422,7 @@ export interface WallpaperPluginInterface {
   checkPermissions(): Promise<{ 
     hasPermission: boolean; 
     isWallpaperSupported: boolean; 
+    isSetWallpaperAllowed: boolean; 
     hasSetWallpaperPermission: boolean; 
     hasMediaPermission: boolean; 
     androidVersion: number; 